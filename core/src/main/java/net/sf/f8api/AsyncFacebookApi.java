@@ -0,0 +1,529 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.File;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+import net.sf.f8api.http.UploadSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Non-blocking counterpart of {@link FacebookClient}. Every call is handed to
+ * an executor and returns immediately with a {@link FacebookFuture}, so one
+ * request thread can fan out several REST calls and join them afterwards:
+ * 
+ * <pre><code>
+ * FacebookFuture&lt;InputStream&gt; friends = async.getFriends(session, null, null);
+ * FacebookFuture&lt;InputStream&gt; groups = async.getGroups(session, null, null, null, null);
+ * InputStream in = friends.join(); // be sure to close it
+ * </code></pre>
+ * 
+ * At most <code>maxConcurrentCalls</code> calls are in flight at once, the
+ * rest wait their turn. When no executor is given, calls run on virtual
+ * threads if the JDK supports them, otherwise on a fixed pool of daemon
+ * threads. Size <code>maxConcurrentCalls</code> to the client's
+ * {@link ConnectionSettings}, extra calls would only queue for a connection.
+ * 
+ * Streams returned through a future must be closed like any other, or you'll
+ * leak connections.
+ */
+public class AsyncFacebookApi {
+	protected static final Log log = LogFactory.getLog(AsyncFacebookApi.class);
+
+	public static final int DEFAULT_MAX_CONCURRENT_CALLS = 16;
+
+	private final FacebookClient client;
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final Semaphore permits;
+
+	/**
+	 * Call through the shared client of {@link FacebookApi}, with the default
+	 * executor and concurrency limit.
+	 */
+	public AsyncFacebookApi() {
+		this(FacebookApi.getDefaultClient(), DEFAULT_MAX_CONCURRENT_CALLS);
+	}
+
+	/**
+	 * Use the default executor.
+	 * 
+	 * @param client
+	 *            performs the calls
+	 * @param maxConcurrentCalls
+	 *            upper bound on calls in flight at once
+	 */
+	public AsyncFacebookApi(FacebookClient client, int maxConcurrentCalls) {
+		this(client, newDefaultExecutor(maxConcurrentCalls),
+				maxConcurrentCalls, true);
+	}
+
+	/**
+	 * Run calls on the caller's executor, which is not shut down by
+	 * {@link #shutdown()}.
+	 * 
+	 * @param client
+	 *            performs the calls
+	 * @param executor
+	 * @param maxConcurrentCalls
+	 *            upper bound on calls in flight at once
+	 */
+	public AsyncFacebookApi(FacebookClient client, ExecutorService executor,
+			int maxConcurrentCalls) {
+		this(client, executor, maxConcurrentCalls, false);
+	}
+
+	private AsyncFacebookApi(FacebookClient client, ExecutorService executor,
+			int maxConcurrentCalls, boolean ownsExecutor) {
+		if (client == null || executor == null || maxConcurrentCalls < 1) {
+			throw new IllegalArgumentException("client, executor and a "
+					+ "positive maxConcurrentCalls are required");
+		}
+		this.client = client;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.permits = new Semaphore(maxConcurrentCalls, true);
+	}
+
+	/**
+	 * @see FacebookClient#getAuthToken(String, String)
+	 */
+	public FacebookFuture<String> getAuthToken(final String apiKey,
+			final String apiSecret) {
+		return submit(new Callable<String>() {
+			public String call() throws Exception {
+				return client.getAuthToken(apiKey, apiSecret);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getSession(String, String, String, boolean)
+	 */
+	public FacebookFuture<Session> getSession(final String apiKey,
+			final String apiSecret, final String authToken,
+			final boolean isDesktop) {
+		return submit(new Callable<Session>() {
+			public Session call() throws Exception {
+				return client.getSession(apiKey, apiSecret, authToken,
+						isDesktop);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getFriends(Session, String, String)
+	 */
+	public FacebookFuture<InputStream> getFriends(final Session session,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getFriends(session, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getAppUsers(Session, String, String)
+	 */
+	public FacebookFuture<InputStream> getAppUsers(final Session session,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getAppUsers(session, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getNotifications(Session, String, String)
+	 */
+	public FacebookFuture<InputStream> getNotifications(final Session session,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getNotifications(session, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#sendNotification(Session, String[], String, String,
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> sendNotification(final Session session,
+			final String toUserIds[], final String notificationFbml,
+			final String emailFbml, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.sendNotification(session, toUserIds,
+						notificationFbml, emailFbml, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#sendNotificationRequest(Session, String[], String,
+	 *      String, String, boolean, String, String)
+	 */
+	public FacebookFuture<InputStream> sendNotificationRequest(
+			final Session session, final String[] toUserIds,
+			final String type, final String content, final String image,
+			final boolean isInvite, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.sendNotificationRequest(session, toUserIds,
+						type, content, image, isInvite, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getUsersInfo(Session, String[], String[], String,
+	 *      String)
+	 */
+	public FacebookFuture<InputStream> getUsersInfo(final Session session,
+			final String[] userIds, final String[] fields, final String format,
+			final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getUsersInfo(session, userIds, fields,
+						format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getLoggedInUser(Session, String, String)
+	 */
+	public FacebookFuture<InputStream> getLoggedInUser(final Session session,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getLoggedInUser(session, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getEvents(Session, String, String[], Date, Date,
+	 *      String, String, String)
+	 */
+	public FacebookFuture<InputStream> getEvents(final Session session,
+			final String userId, final String[] eventIds, final Date startTime,
+			final Date endTime, final String rsvpStatusCode,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getEvents(session, userId, eventIds,
+						startTime, endTime, rsvpStatusCode, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getEventMembers(Session, String, String, String)
+	 */
+	public FacebookFuture<InputStream> getEventMembers(final Session session,
+			final String eventId, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getEventMembers(session, eventId, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getGroups(Session, String, String[], String, String)
+	 */
+	public FacebookFuture<InputStream> getGroups(final Session session,
+			final String userId, final String[] groupIds, final String format,
+			final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getGroups(session, userId, groupIds, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getGroupMembers(Session, String, String, String)
+	 */
+	public FacebookFuture<InputStream> getGroupMembers(final Session session,
+			final String groupId, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getGroupMembers(session, groupId, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getFriendsAreFriends(Session, String[], String[],
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> getFriendsAreFriends(
+			final Session session, final String[] uids1, final String[] uids2,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getFriendsAreFriends(session, uids1, uids2,
+						format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getFriendsAreFriends(Session, String, String, String,
+	 *      String)
+	 */
+	public FacebookFuture<InputStream> getFriendsAreFriends(
+			final Session session, final String uids1, final String uids2,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getFriendsAreFriends(session, uids1, uids2,
+						format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getProfileFBML(Session, long, String, String)
+	 */
+	public FacebookFuture<InputStream> getProfileFBML(final Session session,
+			final long userId, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getProfileFBML(session, userId, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#feedPublishStoryToUser(Session, String, String, Map,
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> feedPublishStoryToUser(
+			final Session session, final String titleFbml,
+			final String bodyFbml, final Map<String, String> imageUrlLinkMap,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.feedPublishStoryToUser(session, titleFbml,
+						bodyFbml, imageUrlLinkMap, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#feedPublishActionOfUser(Session, String, String, Map,
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> feedPublishActionOfUser(
+			final Session session, final String titleFbml,
+			final String bodyFbml, final Map<String, String> imageUrlLinkMap,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.feedPublishActionOfUser(session, titleFbml,
+						bodyFbml, imageUrlLinkMap, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getFqlResultSet(Session, String, String, String)
+	 */
+	public FacebookFuture<InputStream> getFqlResultSet(final Session session,
+			final String fqlQuery, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getFqlResultSet(session, fqlQuery, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getPhotoAlbums(Session, String, String[], String,
+	 *      String)
+	 */
+	public FacebookFuture<InputStream> getPhotoAlbums(final Session session,
+			final String userId, final String[] photoIds, final String format,
+			final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getPhotoAlbums(session, userId, photoIds,
+						format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getPhotos(Session, String, String, String[], String,
+	 *      String)
+	 */
+	public FacebookFuture<InputStream> getPhotos(final Session session,
+			final String subjectId, final String albumId,
+			final String[] photoIds, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getPhotos(session, subjectId, albumId,
+						photoIds, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#getPhotoTags(Session, String[], String, String)
+	 */
+	public FacebookFuture<InputStream> getPhotoTags(final Session session,
+			final String[] photoIds, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.getPhotoTags(session, photoIds, format,
+						callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#addPhotoTag(Session, String, String, String, float,
+	 *      float, String, String, String)
+	 */
+	public FacebookFuture<InputStream> addPhotoTag(final Session session,
+			final String photoId, final String taggedUserId,
+			final String tagText, final float x, final float y,
+			final String tags, final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.addPhotoTag(session, photoId, taggedUserId,
+						tagText, x, y, tags, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#createPhotoAlbum(Session, String, String, String,
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> createPhotoAlbum(final Session session,
+			final String name, final String location, final String description,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.createPhotoAlbum(session, name, location,
+						description, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#uploadPhoto(Session, String, String, File, String,
+	 *      String)
+	 */
+	public FacebookFuture<InputStream> uploadPhoto(final Session session,
+			final String albumId, final String caption, final File photo,
+			final String format, final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.uploadPhoto(session, albumId, caption,
+						photo, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * @see FacebookClient#uploadPhoto(Session, String, String, UploadSource,
+	 *      String, String)
+	 */
+	public FacebookFuture<InputStream> uploadPhoto(final Session session,
+			final String albumId, final String caption,
+			final UploadSource photo, final String format,
+			final String callback) {
+		return submit(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return client.uploadPhoto(session, albumId, caption,
+						photo, format, callback);
+			}
+		});
+	}
+
+	/**
+	 * Run any blocking call on this instance's executor, under the same
+	 * concurrency limit as the API calls.
+	 * 
+	 * @param call
+	 * @return the pending result
+	 */
+	public <V> FacebookFuture<V> submit(final Callable<V> call) {
+		FacebookFuture<V> future = new FacebookFuture<V>(new Callable<V>() {
+			public V call() throws Exception {
+				permits.acquire();
+				try {
+					return call.call();
+				} finally {
+					permits.release();
+				}
+			}
+		});
+		executor.execute(future);
+		return future;
+	}
+
+	/**
+	 * Stop accepting calls. Calls already submitted still complete. The
+	 * executor is only shut down if it was created by this instance.
+	 */
+	public void shutdown() {
+		if (ownsExecutor) {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Virtual threads if the running JDK has them, otherwise a fixed pool of
+	 * daemon threads.
+	 */
+	private static ExecutorService newDefaultExecutor(int maxConcurrentCalls) {
+		try {
+			Method factory = Executors.class
+					.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (NoSuchMethodException nsme) {
+			// older JDK, fall through
+		} catch (Exception e) {
+			log.debug("virtual threads unavailable: " + e.getMessage());
+		}
+		return Executors.newFixedThreadPool(maxConcurrentCalls,
+				new DaemonThreadFactory("f8api-async"));
+	}
+}
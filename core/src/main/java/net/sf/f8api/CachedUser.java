@@ -0,0 +1,101 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * What a {@link ResponseCache} knows about one user of users.getInfo: the
+ * XML of each field fetched, each with its own expiry, or that Facebook
+ * didn't return the user at all.
+ * 
+ * @see UserStore
+ */
+public class CachedUser {
+	private final Map<String, Field> fields = new HashMap<String, Field>();
+	private long absentUntil;
+
+	/**
+	 * @param name
+	 *            field name
+	 * @param now
+	 *            current time in milliseconds
+	 * @return the XML of the field, "" if Facebook left it out, null if it
+	 *         isn't cached or has expired
+	 */
+	public String getField(String name, long now) {
+		Field f = fields.get(name);
+		return f == null || f.expires <= now ? null : f.xml;
+	}
+
+	public void setField(String name, String xml, long expires) {
+		fields.put(name, new Field(xml, expires));
+	}
+
+	/**
+	 * @return every field, fresh or not
+	 */
+	public Map<String, Field> getFields() {
+		return Collections.unmodifiableMap(fields);
+	}
+
+	/**
+	 * @return time until which Facebook is known not to return the user
+	 */
+	public long getAbsentUntil() {
+		return absentUntil;
+	}
+
+	public void setAbsentUntil(long absentUntil) {
+		this.absentUntil = absentUntil;
+	}
+
+	/**
+	 * @return time after which nothing here is of use
+	 */
+	public long getExpires() {
+		long expires = absentUntil;
+		for (Field f : fields.values()) {
+			expires = Math.max(expires, f.expires);
+		}
+		return expires;
+	}
+
+	public String toString() {
+		return "CachedUser[" + fields.keySet() + ", absentUntil="
+				+ absentUntil + "]";
+	}
+
+	public static class Field {
+		private final String xml;
+		private final long expires;
+
+		public Field(String xml, long expires) {
+			this.xml = xml;
+			this.expires = expires;
+		}
+
+		public String getXml() {
+			return xml;
+		}
+
+		public long getExpires() {
+			return expires;
+		}
+	}
+}
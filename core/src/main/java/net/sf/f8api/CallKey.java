@@ -0,0 +1,69 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+import net.sf.f8api.FacebookClient.Pair;
+
+/**
+ * Identity of a read: method, api key, session key and the arguments in
+ * name order. Two calls with equal keys get the same answer.
+ */
+final class CallKey {
+	private final FacebookMethod method;
+	private final String canonical;
+	private final int hash;
+
+	CallKey(FacebookMethod method, String apiKey, String sessionKey,
+			Collection<Pair<String, CharSequence>> params) {
+		Map<String, CharSequence> sorted = new TreeMap<String, CharSequence>();
+		for (Pair<String, CharSequence> p : params) {
+			if (p.value != null)
+				sorted.put(p.name, p.value);
+		}
+		StringBuilder sb = new StringBuilder(64);
+		sb.append(apiKey).append('\0').append(sessionKey);
+		for (Map.Entry<String, CharSequence> e : sorted.entrySet()) {
+			sb.append('\0').append(e.getKey()).append('=').append(
+					e.getValue());
+		}
+		this.method = method;
+		this.canonical = sb.toString();
+		this.hash = method.ordinal() * 31 + canonical.hashCode();
+	}
+
+	FacebookMethod getMethod() {
+		return method;
+	}
+
+	public int hashCode() {
+		return hash;
+	}
+
+	public boolean equals(Object o) {
+		if (!(o instanceof CallKey))
+			return false;
+		CallKey k = (CallKey) o;
+		return method == k.method && canonical.equals(k.canonical);
+	}
+
+	public String toString() {
+		return method + canonical.replace('\0', ' ');
+	}
+}
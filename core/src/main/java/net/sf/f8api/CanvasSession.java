@@ -0,0 +1,165 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.Serializable;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * The session of a canvas page request, taken from the fb_sig parameters
+ * Facebook sends with it, so rendering the page needs no auth.getSession
+ * call:
+ * 
+ * <pre><code>
+ * Map&lt;String, String&gt; params = (Map&lt;String, String&gt;) request
+ * 		.getAttribute(CanvasVerificationFilter.PARAMS);
+ * Session session = CanvasSession.fromParams(params, secret);
+ * </code></pre>
+ * 
+ * The parameters must have been verified first, with
+ * {@link FacebookSignatureUtil} or the CanvasVerificationFilter: anybody
+ * can send a canvas URL any fb_sig_user.
+ * 
+ * A session is immutable, and thread safe. The secret isn't serialized, so
+ * sessions kept in a servlet session or a cache don't carry it; a client
+ * signs the calls of a deserialized session of its own application with the
+ * application's secret.
+ * 
+ * @see SessionRegistry
+ */
+public final class CanvasSession implements Session, Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private final String apiKey;
+	private final transient String secret;
+	private final String key;
+	private final long userId;
+	private final long expires; // milliseconds, 0 for an infinite session
+
+	/**
+	 * @param apiKey
+	 *            of the application
+	 * @param secret
+	 *            of the application
+	 * @param key
+	 *            the session key
+	 * @param userId
+	 *            user the session belongs to
+	 * @param expires
+	 *            time the session expires in milliseconds, 0 if it doesn't
+	 */
+	public CanvasSession(String apiKey, String secret, String key,
+			long userId, long expires) {
+		if (key == null || key.length() == 0)
+			throw new IllegalArgumentException("no session key");
+		this.apiKey = apiKey;
+		this.secret = secret;
+		this.key = key;
+		this.userId = userId;
+		this.expires = expires;
+	}
+
+	/**
+	 * @param params
+	 *            verified fb_sig parameters, by their full names
+	 * @param secret
+	 *            of the application
+	 * @return the session, null if the user hasn't logged in to the
+	 *         application so there isn't one
+	 * @throws IllegalArgumentException
+	 *             if fb_sig_user or fb_sig_expires aren't numbers
+	 */
+	public static CanvasSession fromParams(
+			Map<String, ? extends CharSequence> params, String secret) {
+		CharSequence key = params.get(FacebookParam.SESSION_KEY.toString());
+		CharSequence user = params.get(FacebookParam.USER.toString());
+		if (key == null || key.length() == 0 || user == null)
+			return null;
+		CharSequence apiKey = params.get(FacebookParam.API_KEY.toString());
+		CharSequence expires = params.get(FacebookParam.EXPIRES.toString());
+		try {
+			return new CanvasSession(apiKey == null ? null : apiKey
+					.toString(), secret, key.toString(), Long.parseLong(user
+					.toString()), expires == null ? 0 : Long.parseLong(expires
+					.toString()) * 1000);
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException("bad canvas session: " + params,
+					nfe);
+		}
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	public boolean isDesktop() {
+		return false;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public long getUserId() {
+		return userId;
+	}
+
+	/**
+	 * @return a copy of the expiry; getTime() is 0 for an infinite session
+	 */
+	public Date getExpires() {
+		return new Date(expires);
+	}
+
+	public boolean isInfinite() {
+		return expires == 0;
+	}
+
+	public boolean isExpired() {
+		return !isInfinite() && expires < System.currentTimeMillis();
+	}
+
+	public int hashCode() {
+		return key.hashCode();
+	}
+
+	/**
+	 * Sessions are equal with the same key, user, expiry and api key, with
+	 * or without their secret.
+	 */
+	public boolean equals(Object o) {
+		if (!(o instanceof CanvasSession))
+			return false;
+		CanvasSession s = (CanvasSession) o;
+		return key.equals(s.key) && userId == s.userId
+				&& expires == s.expires
+				&& (apiKey == null ? s.apiKey == null : apiKey.equals(s.apiKey));
+	}
+
+	/**
+	 * Leaves out the session key, which would let anyone reading the log
+	 * call as the user.
+	 */
+	public String toString() {
+		return "CanvasSession[" + userId + ", expires "
+				+ (isInfinite() ? "never" : new Date(expires).toString()) + "]";
+	}
+}
@@ -0,0 +1,444 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Splits calls with long uid lists (users.getInfo, notifications.send,
+ * friends.areFriends) into chunks sent in parallel, and merges the answers
+ * into one response, in the order of the uids:
+ * 
+ * <pre><code>
+ * ChunkingPolicy chunking = new ChunkingPolicy();
+ * chunking.setMaxConcurrentChunks(4);
+ * client.setChunkingPolicy(chunking);
+ * </code></pre>
+ * 
+ * The chunk size of each method starts at the maximum and follows observed
+ * latency: it moves towards the size a chunk would need to be answered in
+ * the target latency, between the minimum and maximum. At most the given
+ * number of chunks of a call are in flight at once; the calling thread sends
+ * chunks itself and borrows threads from the policy's executor for the rest.
+ * 
+ * Lists of users and friend pairs are merged element by element, in XML or
+ * JSON. For notifications the first confirmation URL returned is kept. If a
+ * chunk fails, no more chunks are started and the failure of the first
+ * failed chunk is thrown; notifications already sent by other chunks stay
+ * sent. Calls with a JSONP callback are never split.
+ * 
+ * A policy is thread safe and may be shared between clients.
+ */
+public class ChunkingPolicy {
+	protected static final Log log = LogFactory.getLog(ChunkingPolicy.class);
+
+	public static final int DEFAULT_MAX_CHUNK_SIZE = 100;
+
+	/**
+	 * Sends the uids from index <code>from</code> (inclusive) to
+	 * <code>to</code> (exclusive) in one call.
+	 */
+	static interface Chunk {
+		public InputStream call(int from, int to) throws IOException,
+				FacebookException;
+	}
+
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+
+	/**
+	 * Current chunk size of each method, guarded by this.
+	 */
+	private final double[] sizes;
+
+	private int minChunkSize = 10;
+	private int maxChunkSize = DEFAULT_MAX_CHUNK_SIZE;
+	private volatile long targetLatency = 1000;
+	private volatile int maxConcurrentChunks = 4;
+
+	/**
+	 * Borrow threads from a cached pool of daemon threads.
+	 */
+	public ChunkingPolicy() {
+		this(Executors.newCachedThreadPool(new DaemonThreadFactory(
+				"f8api-chunk")), true);
+	}
+
+	/**
+	 * Borrow threads from the caller's executor, which is not shut down by
+	 * {@link #shutdown()}.
+	 * 
+	 * @param executor
+	 */
+	public ChunkingPolicy(ExecutorService executor) {
+		this(executor, false);
+	}
+
+	private ChunkingPolicy(ExecutorService executor, boolean ownsExecutor) {
+		if (executor == null) {
+			throw new IllegalArgumentException("executor is required");
+		}
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.sizes = new double[FacebookMethod.values().length];
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = maxChunkSize;
+		}
+	}
+
+	/**
+	 * @param method
+	 * @return the number of uids the method currently sends per call
+	 */
+	public synchronized int getChunkSize(FacebookMethod method) {
+		return (int) sizes[method.ordinal()];
+	}
+
+	/**
+	 * @return true if a call for this many uids is split
+	 */
+	boolean shouldSplit(FacebookMethod method, int count) {
+		return count > getChunkSize(method);
+	}
+
+	/**
+	 * Send the chunks and merge their answers.
+	 * 
+	 * @param method
+	 *            the method called
+	 * @param format
+	 *            of the responses, null for XML
+	 * @param list
+	 *            true if the responses are lists to concatenate, false to
+	 *            keep the first that isn't empty
+	 * @param count
+	 *            number of uids, or uid pairs
+	 * @param chunk
+	 *            sends one chunk
+	 * @return the merged response
+	 */
+	InputStream call(FacebookMethod method, String format, boolean list,
+			int count, final Chunk chunk) throws IOException,
+			FacebookException {
+		final int size = Math.max(getChunkSize(method), 1);
+		final int chunks = (count + size - 1) / size;
+		final byte[][] bodies = new byte[chunks][];
+		final Exception[] failures = new Exception[chunks];
+		final AtomicInteger next = new AtomicInteger();
+		final int total = count;
+		final FacebookMethod m = method;
+		if (log.isDebugEnabled())
+			log.debug(method + " for " + count + " uids in " + chunks
+					+ " chunks of " + size);
+
+		Runnable worker = new Runnable() {
+			public void run() {
+				int i;
+				while ((i = next.getAndIncrement()) < chunks) {
+					int from = i * size;
+					int to = Math.min(from + size, total);
+					long start = System.currentTimeMillis();
+					try {
+						bodies[i] = Streams.readFully(chunk.call(from, to));
+						observe(m, to - from, System.currentTimeMillis()
+								- start);
+					} catch (Exception e) {
+						failures[i] = e;
+						next.set(chunks); // start no more chunks
+					}
+				}
+			}
+		};
+
+		int helpers = Math.min(maxConcurrentChunks, chunks) - 1;
+		List<Future<?>> borrowed = new ArrayList<Future<?>>(helpers);
+		for (int i = 0; i < helpers; i++) {
+			borrowed.add(executor.submit(worker));
+		}
+		worker.run();
+		for (Future<?> f : borrowed) {
+			try {
+				f.get();
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				next.set(chunks);
+				throw new InterruptedIOException("interrupted waiting for "
+						+ method + " chunks");
+			} catch (ExecutionException ee) {
+				throw new IllegalStateException(ee.getCause());
+			}
+		}
+
+		for (int i = 0; i < chunks; i++) {
+			if (failures[i] instanceof FacebookException)
+				throw (FacebookException) failures[i];
+			if (failures[i] instanceof IOException)
+				throw (IOException) failures[i];
+			if (failures[i] instanceof RuntimeException)
+				throw (RuntimeException) failures[i];
+		}
+		boolean json = FacebookApi.FORMAT_JSON.equalsIgnoreCase(format);
+		byte[] merged;
+		if (list) {
+			merged = json ? mergeJsonArrays(bodies) : mergeXmlLists(bodies);
+		} else {
+			merged = firstNotEmpty(bodies, json);
+		}
+		return new ByteArrayInputStream(merged);
+	}
+
+	/**
+	 * Move the chunk size of the method towards the size that would be
+	 * answered in the target latency.
+	 */
+	private synchronized void observe(FacebookMethod method, int uids,
+			long millis) {
+		double size = sizes[method.ordinal()];
+		double fit = uids * (double) targetLatency / Math.max(millis, 1);
+		if (fit > size && uids < size)
+			return; // a short last chunk says little about larger ones
+		size = 0.7 * size + 0.3 * fit;
+		sizes[method.ordinal()] = Math.min(Math.max(size, minChunkSize),
+				maxChunkSize);
+	}
+
+	/**
+	 * Concatenate the children of the root elements, inside the root of the
+	 * first document that has one.
+	 */
+	static byte[] mergeXmlLists(byte[][] docs) {
+		int[][] content = new int[docs.length][];
+		int template = -1;
+		for (int i = 0; i < docs.length; i++) {
+			content[i] = rootContent(docs[i]);
+			if (template < 0 && content[i] != null && content[i][0] >= 0)
+				template = i;
+		}
+		if (template < 0)
+			return docs[0]; // all empty
+
+		byte[] t = docs[template];
+		ByteArrayOutputStream out = new ByteArrayOutputStream(t.length
+				* docs.length);
+		out.write(t, 0, content[template][0]);
+		for (int i = 0; i < docs.length; i++) {
+			if (content[i] != null && content[i][0] >= 0)
+				out.write(docs[i], content[i][0], content[i][1]
+						- content[i][0]);
+		}
+		out.write(t, content[template][1], t.length - content[template][1]);
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return start and end of the content of the root element, {-1, -1} if
+	 *         it's empty (self-closing), null if there's no root
+	 */
+	private static int[] rootContent(byte[] doc) {
+		int i = 0;
+		while (i < doc.length) {
+			if (doc[i] != '<') {
+				i++;
+			} else if (i + 1 < doc.length
+					&& (doc[i + 1] == '?' || doc[i + 1] == '!')) {
+				i = skipPast(doc, i + 2, doc[i + 1] == '?' ? "?>"
+						: (i + 3 < doc.length && doc[i + 2] == '-') ? "-->"
+								: ">");
+			} else {
+				break;
+			}
+		}
+		if (i >= doc.length)
+			return null;
+		// end of the root start tag, minding quoted attribute values
+		byte quote = 0;
+		int j = i + 1;
+		for (; j < doc.length; j++) {
+			byte b = doc[j];
+			if (quote != 0) {
+				if (b == quote)
+					quote = 0;
+			} else if (b == '"' || b == '\'') {
+				quote = b;
+			} else if (b == '>') {
+				break;
+			}
+		}
+		if (j >= doc.length)
+			return null;
+		if (doc[j - 1] == '/')
+			return new int[] { -1, -1 };
+		int end = doc.length - 2;
+		while (end > j && !(doc[end] == '<' && doc[end + 1] == '/'))
+			end--;
+		return new int[] { j + 1, end };
+	}
+
+	private static int skipPast(byte[] doc, int from, String marker) {
+		outer: for (int i = from; i <= doc.length - marker.length(); i++) {
+			for (int k = 0; k < marker.length(); k++) {
+				if (doc[i + k] != marker.charAt(k))
+					continue outer;
+			}
+			return i + marker.length();
+		}
+		return doc.length;
+	}
+
+	/**
+	 * Concatenate the elements of JSON arrays.
+	 */
+	static byte[] mergeJsonArrays(byte[][] docs) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write('[');
+		boolean first = true;
+		for (int i = 0; i < docs.length; i++) {
+			byte[] d = docs[i];
+			int s = 0;
+			int e = d.length;
+			while (s < e && d[s] <= ' ')
+				s++;
+			while (e > s && d[e - 1] <= ' ')
+				e--;
+			if (e - s < 2 || d[s] != '[' || d[e - 1] != ']')
+				continue; // not a list, nothing was found
+			s++;
+			e--;
+			while (s < e && d[s] <= ' ')
+				s++;
+			while (e > s && d[e - 1] <= ' ')
+				e--;
+			if (s == e)
+				continue;
+			if (!first)
+				out.write(',');
+			first = false;
+			out.write(d, s, e - s);
+		}
+		out.write(']');
+		return out.toByteArray();
+	}
+
+	/**
+	 * @return the first response with any content, else the first
+	 */
+	static byte[] firstNotEmpty(byte[][] docs, boolean json) {
+		for (int i = 0; i < docs.length; i++) {
+			if (json) {
+				String s = new String(docs[i], 0, Math.min(docs[i].length, 8))
+						.trim();
+				if (s.length() > 0 && !s.equals("\"\"") && !s.equals("[]")
+						&& !s.equals("null"))
+					return docs[i];
+			} else {
+				int[] c = rootContent(docs[i]);
+				if (c != null && c[0] >= 0) {
+					for (int k = c[0]; k < c[1]; k++) {
+						if (docs[i][k] > ' ')
+							return docs[i];
+					}
+				}
+			}
+		}
+		return docs[0];
+	}
+
+	/**
+	 * Stop the executor if the policy created it.
+	 */
+	public void shutdown() {
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+
+	public synchronized int getMinChunkSize() {
+		return minChunkSize;
+	}
+
+	/**
+	 * @param minChunkSize
+	 *            fewest uids per call the chunk size may shrink to
+	 */
+	public synchronized void setMinChunkSize(int minChunkSize) {
+		if (minChunkSize < 1 || minChunkSize > maxChunkSize) {
+			throw new IllegalArgumentException("minChunkSize not in [1, "
+					+ maxChunkSize + "]");
+		}
+		this.minChunkSize = minChunkSize;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = Math.max(sizes[i], minChunkSize);
+		}
+	}
+
+	public synchronized int getMaxChunkSize() {
+		return maxChunkSize;
+	}
+
+	/**
+	 * @param maxChunkSize
+	 *            most uids per call, also the size chunks start at
+	 */
+	public synchronized void setMaxChunkSize(int maxChunkSize) {
+		if (maxChunkSize < minChunkSize) {
+			throw new IllegalArgumentException("maxChunkSize < minChunkSize");
+		}
+		this.maxChunkSize = maxChunkSize;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = maxChunkSize;
+		}
+	}
+
+	public long getTargetLatency() {
+		return targetLatency;
+	}
+
+	/**
+	 * @param targetLatency
+	 *            milliseconds a chunk should take to be answered
+	 */
+	public void setTargetLatency(long targetLatency) {
+		this.targetLatency = targetLatency;
+	}
+
+	public int getMaxConcurrentChunks() {
+		return maxConcurrentChunks;
+	}
+
+	/**
+	 * @param maxConcurrentChunks
+	 *            most chunks of one call in flight at once
+	 */
+	public void setMaxConcurrentChunks(int maxConcurrentChunks) {
+		if (maxConcurrentChunks < 1) {
+			throw new IllegalArgumentException("maxConcurrentChunks < 1");
+		}
+		this.maxConcurrentChunks = maxConcurrentChunks;
+	}
+}
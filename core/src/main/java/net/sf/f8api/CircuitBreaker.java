@@ -0,0 +1,369 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+
+import net.sf.f8api.http.HttpStatusException;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Stops a {@link FacebookClient} from sending calls while the REST server is
+ * failing, so request threads fail fast instead of piling up on sockets.
+ * 
+ * The breaker keeps the outcome of the last calls. A call fails if it ends
+ * with an I/O error, an HTTP 5xx status or
+ * {@link ErrorCodes#FB_TEMP_UNAVAILABLE}; other Facebook errors mean the
+ * server is working. A call that was interrupted or cancelled, by its
+ * caller or by a hedge, says nothing about the server and isn't counted,
+ * unless it timed out. When the share of failures reaches the threshold the
+ * breaker opens and calls are refused with a {@link CircuitOpenException}.
+ * After the open time a few probe calls are let through (half open): if
+ * they all succeed the breaker closes, if one fails it opens again.
+ * 
+ * The state can be polled for monitoring, and a listener hears about each
+ * transition.
+ */
+public class CircuitBreaker {
+	protected static final Log log = LogFactory.getLog(CircuitBreaker.class);
+
+	public static enum State {
+		/**
+		 * Calls go through, outcomes are recorded.
+		 */
+		CLOSED,
+		/**
+		 * Calls are refused.
+		 */
+		OPEN,
+		/**
+		 * A limited number of probe calls go through.
+		 */
+		HALF_OPEN
+	}
+
+	/**
+	 * Hears about state changes, on the thread of the call that caused them.
+	 */
+	public static interface Listener {
+		public void stateChanged(CircuitBreaker breaker, State from, State to);
+	}
+
+	private final boolean[] window; // true for a failure
+	private int windowPos;
+	private int windowCount;
+	private int windowFailures;
+
+	private int minimumCalls = 10;
+	private double failureThreshold = 0.5;
+	private long openTime = 30 * 1000;
+	private int halfOpenProbes = 3;
+
+	private State state = State.CLOSED;
+	private long openedAt;
+	private int probesInFlight;
+	private int probeSuccesses;
+
+	private long rejected;
+	private long opened;
+
+	private volatile Listener listener;
+
+	/**
+	 * A breaker over the last 20 calls.
+	 */
+	public CircuitBreaker() {
+		this(20);
+	}
+
+	/**
+	 * @param windowSize
+	 *            number of recent calls the failure rate is taken over
+	 */
+	public CircuitBreaker(int windowSize) {
+		if (windowSize < 1) {
+			throw new IllegalArgumentException("windowSize < 1");
+		}
+		window = new boolean[windowSize];
+	}
+
+	/**
+	 * Ask to send a call.
+	 * 
+	 * @return true if the call is a half-open probe
+	 * @throws CircuitOpenException
+	 *             if the breaker is open, or all probes are in flight
+	 */
+	public boolean acquire() throws CircuitOpenException {
+		State from;
+		boolean probe;
+		synchronized (this) {
+			from = state;
+			if (state == State.CLOSED) {
+				return false;
+			}
+			if (state == State.OPEN) {
+				long wait = openedAt + openTime - System.currentTimeMillis();
+				if (wait > 0) {
+					rejected++;
+					throw new CircuitOpenException(wait);
+				}
+				state = State.HALF_OPEN;
+				probesInFlight = 0;
+				probeSuccesses = 0;
+			}
+			if (probesInFlight + probeSuccesses >= halfOpenProbes) {
+				rejected++;
+				throw new CircuitOpenException(0);
+			}
+			probesInFlight++;
+			probe = true;
+		}
+		if (from != State.HALF_OPEN) {
+			fire(from, State.HALF_OPEN);
+		}
+		return probe;
+	}
+
+	/**
+	 * Record the outcome of a call let through, on the call's thread: a
+	 * call that failed while its thread was interrupted was cancelled, and
+	 * isn't counted.
+	 * 
+	 * @param probe
+	 *            what {@link #acquire()} returned for the call
+	 * @param failure
+	 *            the call's exception, null if it succeeded
+	 */
+	public void record(boolean probe, Exception failure) {
+		if (failure != null
+				&& (isNeutral(failure) || Thread.currentThread()
+						.isInterrupted())) {
+			synchronized (this) {
+				if (probe && state == State.HALF_OPEN)
+					probesInFlight--; // another call may probe
+			}
+			return;
+		}
+		boolean failed = failure != null && isFailure(failure);
+		State from;
+		State to;
+		synchronized (this) {
+			from = state;
+			if (probe && state == State.HALF_OPEN) {
+				probesInFlight--;
+				if (failed) {
+					open();
+				} else if (++probeSuccesses >= halfOpenProbes) {
+					state = State.CLOSED;
+					clearWindow();
+				}
+			} else if (state == State.CLOSED) {
+				add(failed);
+				if (failed && windowCount >= minimumCalls
+						&& windowFailures >= failureThreshold * windowCount) {
+					open();
+				}
+			}
+			to = state;
+		}
+		if (from != to) {
+			fire(from, to);
+		}
+	}
+
+	/**
+	 * @return true if the exception says the server is in trouble
+	 */
+	public boolean isFailure(Exception e) {
+		if (e instanceof FacebookException) {
+			return ((FacebookException) e).getCode() == ErrorCodes.FB_TEMP_UNAVAILABLE
+					&& !(e instanceof RateLimitedException);
+		}
+		if (e instanceof HttpStatusException) {
+			return ((HttpStatusException) e).isServerError();
+		}
+		if (e instanceof InterruptedIOException) {
+			return isTimeout(e);
+		}
+		return e instanceof IOException && !(e instanceof CircuitOpenException);
+	}
+
+	/**
+	 * @return true if the call was interrupted or cancelled before it got
+	 *         an answer, so its outcome isn't counted either way
+	 */
+	public boolean isNeutral(Exception e) {
+		return e instanceof InterruptedIOException && !isTimeout(e);
+	}
+
+	private static boolean isTimeout(Exception e) {
+		return e instanceof SocketTimeoutException
+				|| e instanceof ConnectTimeoutException;
+	}
+
+	private void open() {
+		state = State.OPEN;
+		openedAt = System.currentTimeMillis();
+		opened++;
+		clearWindow();
+	}
+
+	private void add(boolean failed) {
+		if (windowCount == window.length) {
+			if (window[windowPos])
+				windowFailures--;
+		} else {
+			windowCount++;
+		}
+		window[windowPos] = failed;
+		if (failed)
+			windowFailures++;
+		windowPos = (windowPos + 1) % window.length;
+	}
+
+	private void clearWindow() {
+		windowPos = 0;
+		windowCount = 0;
+		windowFailures = 0;
+	}
+
+	private void fire(State from, State to) {
+		if (to == State.OPEN)
+			log.warn("circuit opened, failing fast for " + openTime + "ms");
+		else if (log.isInfoEnabled())
+			log.info("circuit " + from + " -> " + to);
+		Listener l = listener;
+		if (l != null) {
+			try {
+				l.stateChanged(this, from, to);
+			} catch (RuntimeException re) {
+				log.warn("listener failed", re);
+			}
+		}
+	}
+
+	/**
+	 * Force the breaker closed, forgetting recent outcomes.
+	 */
+	public void reset() {
+		State from;
+		synchronized (this) {
+			from = state;
+			state = State.CLOSED;
+			clearWindow();
+		}
+		if (from != State.CLOSED) {
+			fire(from, State.CLOSED);
+		}
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	/**
+	 * @return failures per call over the current window, 0 if empty
+	 */
+	public synchronized double getFailureRate() {
+		return windowCount == 0 ? 0 : (double) windowFailures / windowCount;
+	}
+
+	/**
+	 * @return calls refused so far
+	 */
+	public synchronized long getRejected() {
+		return rejected;
+	}
+
+	/**
+	 * @return number of times the breaker opened
+	 */
+	public synchronized long getOpened() {
+		return opened;
+	}
+
+	public synchronized int getMinimumCalls() {
+		return minimumCalls;
+	}
+
+	/**
+	 * @param minimumCalls
+	 *            calls in the window before the breaker may open
+	 */
+	public synchronized void setMinimumCalls(int minimumCalls) {
+		this.minimumCalls = minimumCalls;
+	}
+
+	public synchronized double getFailureThreshold() {
+		return failureThreshold;
+	}
+
+	/**
+	 * @param failureThreshold
+	 *            share of failed calls that opens the breaker, 0 to 1
+	 */
+	public synchronized void setFailureThreshold(double failureThreshold) {
+		this.failureThreshold = failureThreshold;
+	}
+
+	public synchronized long getOpenTime() {
+		return openTime;
+	}
+
+	/**
+	 * @param openTime
+	 *            milliseconds to refuse calls before probing
+	 */
+	public synchronized void setOpenTime(long openTime) {
+		this.openTime = openTime;
+	}
+
+	public synchronized int getHalfOpenProbes() {
+		return halfOpenProbes;
+	}
+
+	/**
+	 * @param halfOpenProbes
+	 *            successful probes needed to close again, also the number of
+	 *            probes let through at once
+	 */
+	public synchronized void setHalfOpenProbes(int halfOpenProbes) {
+		if (halfOpenProbes < 1) {
+			throw new IllegalArgumentException("halfOpenProbes < 1");
+		}
+		this.halfOpenProbes = halfOpenProbes;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	public String toString() {
+		return "CircuitBreaker[" + getState() + ", failureRate="
+				+ getFailureRate() + "]";
+	}
+}
@@ -0,0 +1,40 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+
+/**
+ * A call refused without being sent because the {@link CircuitBreaker} is
+ * open. It isn't retried by a {@link RetryPolicy}.
+ */
+public class CircuitOpenException extends IOException {
+	private final long retryAfter;
+
+	public CircuitOpenException(long retryAfter) {
+		super("circuit open, REST server considered down for another "
+				+ retryAfter + "ms");
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return milliseconds until the breaker lets a probe through, 0 if
+	 *         probes are already in flight
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,169 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+/**
+ * Connection pool and socket settings of a {@link FacebookClient}, applied by
+ * its {@link net.sf.f8api.http.Transport}. The defaults are those of
+ * HttpClient, so a client built with default settings behaves like the
+ * static {@link FacebookApi}.
+ * 
+ * All times are in milliseconds, zero means "no timeout" (or, for the buffer
+ * sizes, "use the system default").
+ */
+public class ConnectionSettings {
+	/**
+	 * Nearly every call goes to the same host, so this is the real limit on
+	 * parallel calls.
+	 */
+	private int maxConnectionsPerHost = 2;
+
+	private int maxTotalConnections = 20;
+
+	/**
+	 * Time to establish a connection.
+	 */
+	private int connectTimeout = 0;
+
+	/**
+	 * Time to wait for data once connected (SO_TIMEOUT).
+	 */
+	private int readTimeout = 0;
+
+	/**
+	 * Time to wait for a free connection from the pool.
+	 */
+	private long poolTimeout = 0;
+
+	/**
+	 * Pooled connections unused for this long are closed.
+	 */
+	private long idleTimeout = 0;
+
+	/**
+	 * How often to look for idle connections, when idleTimeout is set.
+	 */
+	private long idleCheckInterval = 30 * 1000;
+
+	private int sendBufferSize = 0;
+
+	private int receiveBufferSize = 0;
+
+	private boolean tcpNoDelay = true;
+
+	private boolean staleCheckingEnabled = true;
+
+	/**
+	 * Ask for gzip or deflate encoded responses.
+	 */
+	private boolean compressionEnabled = true;
+
+	public int getMaxConnectionsPerHost() {
+		return maxConnectionsPerHost;
+	}
+
+	public void setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+		this.maxConnectionsPerHost = maxConnectionsPerHost;
+	}
+
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	public int getConnectTimeout() {
+		return connectTimeout;
+	}
+
+	public void setConnectTimeout(int connectTimeout) {
+		this.connectTimeout = connectTimeout;
+	}
+
+	public int getReadTimeout() {
+		return readTimeout;
+	}
+
+	public void setReadTimeout(int readTimeout) {
+		this.readTimeout = readTimeout;
+	}
+
+	public long getPoolTimeout() {
+		return poolTimeout;
+	}
+
+	public void setPoolTimeout(long poolTimeout) {
+		this.poolTimeout = poolTimeout;
+	}
+
+	public long getIdleTimeout() {
+		return idleTimeout;
+	}
+
+	public void setIdleTimeout(long idleTimeout) {
+		this.idleTimeout = idleTimeout;
+	}
+
+	public long getIdleCheckInterval() {
+		return idleCheckInterval;
+	}
+
+	public void setIdleCheckInterval(long idleCheckInterval) {
+		this.idleCheckInterval = idleCheckInterval;
+	}
+
+	public int getSendBufferSize() {
+		return sendBufferSize;
+	}
+
+	public void setSendBufferSize(int sendBufferSize) {
+		this.sendBufferSize = sendBufferSize;
+	}
+
+	public int getReceiveBufferSize() {
+		return receiveBufferSize;
+	}
+
+	public void setReceiveBufferSize(int receiveBufferSize) {
+		this.receiveBufferSize = receiveBufferSize;
+	}
+
+	public boolean isTcpNoDelay() {
+		return tcpNoDelay;
+	}
+
+	public void setTcpNoDelay(boolean tcpNoDelay) {
+		this.tcpNoDelay = tcpNoDelay;
+	}
+
+	public boolean isStaleCheckingEnabled() {
+		return staleCheckingEnabled;
+	}
+
+	public void setStaleCheckingEnabled(boolean staleCheckingEnabled) {
+		this.staleCheckingEnabled = staleCheckingEnabled;
+	}
+
+	public boolean isCompressionEnabled() {
+		return compressionEnabled;
+	}
+
+	public void setCompressionEnabled(boolean compressionEnabled) {
+		this.compressionEnabled = compressionEnabled;
+	}
+}
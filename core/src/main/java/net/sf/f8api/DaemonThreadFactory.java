@@ -0,0 +1,43 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Names the threads of the library's own pools and makes them daemons, so
+ * an application that forgets to shut a pool down can still exit.
+ */
+class DaemonThreadFactory implements ThreadFactory {
+	private static final AtomicInteger poolNumber = new AtomicInteger(1);
+	private final AtomicInteger threadNumber = new AtomicInteger(1);
+	private final String prefix;
+
+	/**
+	 * @param prefix
+	 *            of the thread names, such as "f8api-async"
+	 */
+	DaemonThreadFactory(String prefix) {
+		this.prefix = prefix + "-" + poolNumber.getAndIncrement() + "-";
+	}
+
+	public Thread newThread(Runnable r) {
+		Thread t = new Thread(r, prefix + threadNumber.getAndIncrement());
+		t.setDaemon(true);
+		return t;
+	}
+}
@@ -15,72 +15,56 @@
  */
 package net.sf.f8api;
 
-import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
-import java.net.MalformedURLException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Date;
-import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
-import net.sf.f8api.xml.AuthCreateTokenHandler;
-import net.sf.f8api.xml.AuthGetSessionHandler;
+import net.sf.f8api.http.UploadSource;
+import net.sf.f8api.model.Event;
+import net.sf.f8api.model.EventRsvpStatus;
+import net.sf.f8api.model.Group;
+import net.sf.f8api.model.Photo;
+import net.sf.f8api.model.PhotoAlbum;
+import net.sf.f8api.model.User;
 
-import org.apache.commons.httpclient.HttpClient;
-import org.apache.commons.httpclient.HttpMethod;
-import org.apache.commons.httpclient.HttpStatus;
-import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
-import org.apache.commons.httpclient.methods.PostMethod;
-import org.apache.commons.httpclient.methods.multipart.FilePart;
-import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
-import org.apache.commons.httpclient.methods.multipart.Part;
-import org.apache.commons.httpclient.methods.multipart.StringPart;
-import org.apache.commons.httpclient.params.HttpMethodParams;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.xml.sax.InputSource;
-import org.xml.sax.SAXException;
-import org.xml.sax.XMLReader;
-import org.xml.sax.helpers.XMLReaderFactory;
 
 /**
- * Stateless communication interface.
+ * Stateless communication interface. All calls go through a shared
+ * {@link FacebookClient}, see {@link #getDefaultClient()}.
  * 
  * @author <a href="mailto:jasonthrasher@gmail.com">Jason Thrasher</a>
  */
 public class FacebookApi {
 	protected static final Log log = LogFactory.getLog(FacebookApi.class);
-	protected static final String ENCODING = "UTF-8";
 
 	public static final String API_VERSION = "1.0";
 	public static int NUM_AUTOAPPENDED_PARAMS = 5;
 	public static final String FORMAT_XML = "XML";
 	public static final String FORMAT_JSON = "JSON";
 
-	// public static final String ERROR_TAG = "error_response";
-	protected static final String FB_SERVER = "api.facebook.com/restserver.php";
-	protected static final String HTTP_SERVER_ADDR = "http://" + FB_SERVER;
-	protected static final String HTTPS_SERVER_ADDR = "https://" + FB_SERVER;
-
-	protected static final int BUFF_SIZE = 1024 * 8; // for network I/O
-
-	protected static HttpClient httpClient;
-	protected static MultiThreadedHttpConnectionManager connectionManager;
+	/**
+	 * Shared by all static calls, with default connection settings.
+	 */
+	private static final FacebookClient defaultClient = new FacebookClient(
+			new Application());
 
-	static {
-		connectionManager = new MultiThreadedHttpConnectionManager();
-		httpClient = new HttpClient(connectionManager);
+	private FacebookApi() {
 	}
 
-	private FacebookApi() {
+	/**
+	 * The client that serves the static calls of this class. Applications
+	 * that need their own connection pool should create their own
+	 * {@link FacebookClient} instead.
+	 * 
+	 * @return the shared client
+	 */
+	public static FacebookClient getDefaultClient() {
+		return defaultClient;
 	}
 
 	/**
@@ -97,26 +81,7 @@ public class FacebookApi {
 	 */
 	public static String getAuthToken(String apiKey, String apiSecret)
 			throws IOException, FacebookException {
-		InputStream in = null;
-		try {
-			in = callMethod(apiKey, null, apiSecret, true,
-					FacebookMethod.AUTH_CREATE_TOKEN, null,
-					new ArrayList<Pair<String, CharSequence>>());
-
-			XMLReader xr = XMLReaderFactory.createXMLReader();
-			AuthCreateTokenHandler handler = new AuthCreateTokenHandler();
-			xr.setContentHandler(handler);
-			xr.setErrorHandler(handler);
-			xr.parse(new InputSource(in));
-			return handler.getAuthToken();
-
-		} catch (SAXException saxe) {
-			throw new IOException(saxe.getMessage());
-		} finally {
-			if (in != null) {
-				in.close();
-			}
-		}
+		return defaultClient.getAuthToken(apiKey, apiSecret);
 	}
 
 	/**
@@ -170,31 +135,8 @@ public class FacebookApi {
 	public static Session getSession(String apiKey, String apiSecret,
 			String authToken, boolean isDesktop) throws IOException,
 			FacebookException {
-		InputStream in = null;
-		try {
-			in = callMethod(apiKey, null, apiSecret, isDesktop,
-					FacebookMethod.AUTH_GET_SESSION, null, Arrays
-							.asList(new Pair<String, CharSequence>(
-									"auth_token", authToken)));
-
-			XMLReader xr = XMLReaderFactory.createXMLReader();
-			AuthGetSessionHandler handler = new AuthGetSessionHandler(apiKey,
-					apiSecret);
-			xr.setContentHandler(handler);
-			xr.setErrorHandler(handler);
-			xr.parse(new InputSource(in));
-
-			Session session = handler.getSessionResponse();
-
-			return session;
-
-		} catch (SAXException saxe) {
-			throw new IOException(saxe.getMessage());
-		} finally {
-			if (in != null) {
-				in.close();
-			}
-		}
+		return defaultClient.getSession(apiKey, apiSecret, authToken,
+				isDesktop);
 	}
 
 	/**
@@ -220,10 +162,23 @@ public class FacebookApi {
 	 */
 	public static InputStream getFriends(Session session, String format,
 			String callback) throws IOException, FacebookException {
-		// optional params
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
+		return defaultClient.getFriends(session, format, callback);
+	}
 
-		return callMethod(session, FacebookMethod.FRIENDS_GET, null, params);
+	/**
+	 * @see FacebookClient#getFriendIterator(Session)
+	 */
+	public static ResponseIterator<Long> getFriendIterator(Session session)
+			throws IOException, FacebookException {
+		return defaultClient.getFriendIterator(session);
+	}
+
+	/**
+	 * @see FacebookClient#getFriendUids(Session)
+	 */
+	public static long[] getFriendUids(Session session) throws IOException,
+			FacebookException {
+		return defaultClient.getFriendUids(session);
 	}
 
 	/**
@@ -241,11 +196,15 @@ public class FacebookApi {
 	 */
 	public static InputStream getAppUsers(Session session, String format,
 			String callback) throws IOException, FacebookException {
-		// optional params
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
+		return defaultClient.getAppUsers(session, format, callback);
+	}
 
-		return callMethod(session, FacebookMethod.FRIENDS_GET_APP_USERS, null,
-				params);
+	/**
+	 * @see FacebookClient#getAppUserUids(Session)
+	 */
+	public static long[] getAppUserUids(Session session) throws IOException,
+			FacebookException {
+		return defaultClient.getAppUserUids(session);
 	}
 
 	/**
@@ -261,11 +220,7 @@ public class FacebookApi {
 	 */
 	public static InputStream getNotifications(Session session, String format,
 			String callback) throws IOException, FacebookException {
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		return callMethod(session, FacebookMethod.NOTIFICATIONS_GET, null,
-				params);
+		return defaultClient.getNotifications(session, format, callback);
 	}
 
 	/**
@@ -301,31 +256,20 @@ public class FacebookApi {
 			String toUserIds[], String notificationFbml, String emailFbml,
 			String format, String callback) throws IOException,
 			FacebookException {
-		if (toUserIds == null || toUserIds.length == 0) {
-			log.warn("array of user Id values is required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"array of user Id values is required");
-		}
-		if (notificationFbml == null) {
-			log.warn("notificationFbml is required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"notificationFbml is required");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		params.add(new Pair<String, CharSequence>("to_ids",
-				getCommaDelimited(toUserIds)));
-		params.add(new Pair<String, CharSequence>("notification",
-				notificationFbml));
-
-		// optional
-		if (emailFbml != null) {
-			params.add(new Pair<String, CharSequence>("email", emailFbml));
-		}
+		return defaultClient.sendNotification(session, toUserIds,
+				notificationFbml, emailFbml, format, callback);
+	}
 
-		return callMethod(session, FacebookMethod.NOTIFICATIONS_SEND, null,
-				params);
+	/**
+	 * @see FacebookClient#sendNotification(Session, long[], String, String,
+	 *      String, String)
+	 */
+	public static InputStream sendNotification(Session session,
+			long[] toUserIds, String notificationFbml, String emailFbml,
+			String format, String callback) throws IOException,
+			FacebookException {
+		return defaultClient.sendNotification(session, toUserIds,
+				notificationFbml, emailFbml, format, callback);
 	}
 
 	/**
@@ -366,26 +310,8 @@ public class FacebookApi {
 			String[] toUserIds, String type, String content, String image,
 			boolean isInvite, String format, String callback)
 			throws IOException, FacebookException {
-
-		if (toUserIds == null || toUserIds.length == 0 || type == null
-				|| content == null || image == null) {
-			log.warn("missing arguments");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"missing arguments");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		params.add(new Pair<String, CharSequence>("to_ids",
-				getCommaDelimited(toUserIds)));
-		params.add(new Pair<String, CharSequence>("type", type));
-		params.add(new Pair<String, CharSequence>("content", content));
-		params.add(new Pair<String, CharSequence>("image", image));
-		params.add(new Pair<String, CharSequence>("invite", Boolean
-				.toString(isInvite)));
-
-		return callMethod(session, FacebookMethod.NOTIFICATIONS_SEND_REQUEST,
-				null, params);
+		return defaultClient.sendNotificationRequest(session, toUserIds, type,
+				content, image, isInvite, format, callback);
 	}
 
 	/**
@@ -415,21 +341,28 @@ public class FacebookApi {
 	public static InputStream getUsersInfo(Session session, String[] userIds,
 			String[] fields, String format, String callback)
 			throws IOException, FacebookException {
-		// validate
-		if (userIds == null || userIds.length == 0 || fields == null
-				|| fields.length == 0) {
-			log.warn("missing arguments");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"missing arguments");
-		}
+		return defaultClient.getUsersInfo(session, userIds, fields, format,
+				callback);
+	}
 
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("uids",
-				getCommaDelimited(userIds)));
-		params.add(new Pair<String, CharSequence>("fields",
-				getCommaDelimited(fields)));
+	/**
+	 * @see FacebookClient#getUsersInfo(Session, long[], String[], String,
+	 *      String)
+	 */
+	public static InputStream getUsersInfo(Session session, long[] userIds,
+			String[] fields, String format, String callback)
+			throws IOException, FacebookException {
+		return defaultClient.getUsersInfo(session, userIds, fields, format,
+				callback);
+	}
 
-		return callMethod(session, FacebookMethod.USERS_GET_INFO, null, params);
+	/**
+	 * @see FacebookClient#getUsersInfoList(Session, String[], String[])
+	 */
+	public static List<User> getUsersInfoList(Session session,
+			String[] userIds, String[] fields) throws IOException,
+			FacebookException {
+		return defaultClient.getUsersInfoList(session, userIds, fields);
 	}
 
 	/**
@@ -447,11 +380,7 @@ public class FacebookApi {
 	 */
 	public static InputStream getLoggedInUser(Session session, String format,
 			String callback) throws IOException, FacebookException {
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		return callMethod(session, FacebookMethod.USERS_GET_LOGGED_IN_USER,
-				null, params);
+		return defaultClient.getLoggedInUser(session, format, callback);
 	}
 
 	/**
@@ -518,30 +447,19 @@ public class FacebookApi {
 			String[] eventIds, Date startTime, Date endTime,
 			String rsvpStatusCode, String format, String callback)
 			throws IOException, FacebookException {
+		return defaultClient.getEvents(session, userId, eventIds, startTime,
+				endTime, rsvpStatusCode, format, callback);
+	}
 
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (userId != null)
-			params.add(new Pair<String, CharSequence>("uid", userId));
-
-		if (eventIds != null && eventIds.length != 0)
-			params.add(new Pair<String, CharSequence>("eids",
-					getCommaDelimited(eventIds)));
-
-		if (startTime != null)
-			params.add(new Pair<String, CharSequence>("start_time", Long
-					.toString(startTime.getTime())));
-
-		if (endTime != null)
-			params.add(new Pair<String, CharSequence>("end_time", Long
-					.toString(endTime.getTime())));
-
-		if (rsvpStatusCode != null)
-			params.add(new Pair<String, CharSequence>("rsvp_status",
-					rsvpStatusCode));
-
-		return callMethod(session, FacebookMethod.USERS_GET_LOGGED_IN_USER,
-				null, params);
+	/**
+	 * @see FacebookClient#getEventList(Session, String, String[], Date, Date,
+	 *      String)
+	 */
+	public static List<Event> getEventList(Session session, String userId,
+			String[] eventIds, Date startTime, Date endTime,
+			String rsvpStatusCode) throws IOException, FacebookException {
+		return defaultClient.getEventList(session, userId, eventIds,
+				startTime, endTime, rsvpStatusCode);
 	}
 
 	/**
@@ -564,18 +482,27 @@ public class FacebookApi {
 	public static InputStream getEventMembers(Session session, String eventId,
 			String format, String callback) throws IOException,
 			FacebookException {
-		if (eventId == null) {
-			log.warn("missing eventId argument");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"missing eventId argument");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
+		return defaultClient.getEventMembers(session, eventId, format,
+				callback);
+	}
 
-		params.add(new Pair<String, CharSequence>("eid", eventId));
+	/**
+	 * @see FacebookClient#getEventMemberIterator(Session, String,
+	 *      EventRsvpStatus)
+	 */
+	public static ResponseIterator<Long> getEventMemberIterator(
+			Session session, String eventId, EventRsvpStatus status)
+			throws IOException, FacebookException {
+		return defaultClient.getEventMemberIterator(session, eventId, status);
+	}
 
-		return callMethod(session, FacebookMethod.EVENTS_GET_MEMBERS, null,
-				params);
+	/**
+	 * @see FacebookClient#getEventMemberUids(Session, String,
+	 *      EventRsvpStatus)
+	 */
+	public static long[] getEventMemberUids(Session session, String eventId,
+			EventRsvpStatus status) throws IOException, FacebookException {
+		return defaultClient.getEventMemberUids(session, eventId, status);
 	}
 
 	/**
@@ -625,17 +552,16 @@ public class FacebookApi {
 	public static InputStream getGroups(Session session, String userId,
 			String[] groupIds, String format, String callback)
 			throws IOException, FacebookException {
+		return defaultClient.getGroups(session, userId, groupIds, format,
+				callback);
+	}
 
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (userId != null)
-			params.add(new Pair<String, CharSequence>("uid", userId));
-
-		if (groupIds != null && groupIds.length != 0)
-			params.add(new Pair<String, CharSequence>("gids",
-					getCommaDelimited(groupIds)));
-
-		return callMethod(session, FacebookMethod.GROUPS_GET, null, params);
+	/**
+	 * @see FacebookClient#getGroupList(Session, String, String[])
+	 */
+	public static List<Group> getGroupList(Session session, String userId,
+			String[] groupIds) throws IOException, FacebookException {
+		return defaultClient.getGroupList(session, userId, groupIds);
 	}
 
 	/**
@@ -659,24 +585,43 @@ public class FacebookApi {
 	public static InputStream getGroupMembers(Session session, String groupId,
 			String format, String callback) throws IOException,
 			FacebookException {
+		return defaultClient.getGroupMembers(session, groupId, format,
+				callback);
+	}
 
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("gid", groupId));
+	/**
+	 * @see FacebookClient#getGroupMemberIterator(Session, String, String)
+	 */
+	public static ResponseIterator<Long> getGroupMemberIterator(
+			Session session, String groupId, String list) throws IOException,
+			FacebookException {
+		return defaultClient.getGroupMemberIterator(session, groupId, list);
+	}
 
-		return callMethod(session, FacebookMethod.GROUPS_GET_MEMBERS, null,
-				params);
+	/**
+	 * @see FacebookClient#getGroupMemberUids(Session, String, String)
+	 */
+	public static long[] getGroupMemberUids(Session session, String groupId,
+			String list) throws IOException, FacebookException {
+		return defaultClient.getGroupMemberUids(session, groupId, list);
 	}
 
 	public static InputStream getFriendsAreFriends(Session session,
 			String[] uids1, String[] uids2, String format, String callback)
 			throws IOException, FacebookException {
+		return defaultClient.getFriendsAreFriends(session, uids1, uids2, format,
+				callback);
+	}
 
-		if (uids1.length != uids2.length)
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"Invalid parameter, UID arrays must be of equal length");
-
-		return getFriendsAreFriends(session, getCommaDelimited(uids1),
-				getCommaDelimited(uids2), format, callback);
+	/**
+	 * @see FacebookClient#getFriendsAreFriends(Session, long[], long[],
+	 *      String, String)
+	 */
+	public static InputStream getFriendsAreFriends(Session session,
+			long[] uids1, long[] uids2, String format, String callback)
+			throws IOException, FacebookException {
+		return defaultClient.getFriendsAreFriends(session, uids1, uids2,
+				format, callback);
 	}
 
 	/**
@@ -703,41 +648,8 @@ public class FacebookApi {
 	public static InputStream getFriendsAreFriends(Session session,
 			String uids1, String uids2, String format, String callback)
 			throws IOException, FacebookException {
-
-		// check the input parameters
-		StringTokenizer uid1Tokens = new StringTokenizer(uids1, ",");
-		StringTokenizer uid2Tokens = new StringTokenizer(uids2, ",");
-		if (uid1Tokens.countTokens() != uid2Tokens.countTokens())
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"Invalid parameter, UID arrays must be of equal length");
-
-		// optional params
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("uids1", uids1));
-		params.add(new Pair<String, CharSequence>("uids2", uids2));
-
-		return callMethod(session, FacebookMethod.FRIENDS_ARE_FRIENDS, null,
-				params);
-	}
-
-	/**
-	 * utility method to comma delimit a string array
-	 * 
-	 * @param values
-	 * @return
-	 */
-	private static String getCommaDelimited(String[] values) {
-		StringBuffer delimited = new StringBuffer(values.length * 16);
-		boolean first = true;
-		for (int i = 0; i < values.length; i++) {
-			if (!first) {
-				delimited.append(",");
-				first = false;
-			}
-			delimited.append(values[i]);
-		}
-		return delimited.toString();
-
+		return defaultClient.getFriendsAreFriends(session, uids1, uids2, format,
+				callback);
 	}
 
 	/**
@@ -760,25 +672,7 @@ public class FacebookApi {
 	public static InputStream getProfileFBML(Session session, long userId,
 			String format, String callback) throws IOException,
 			FacebookException {
-
-		// help the caller out, give peace a chance
-		if (session.isDesktop() && userId != -1) {
-			log
-					.warn("desktop apps must use -1 for the PROFILE_GET_FBML userId parameter");
-			userId = -1;
-		}
-
-		// optional params
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		// desktop apps don't use the "uid" parameter
-		if (userId != -1) {
-			params.add(new Pair<String, CharSequence>("uid", Long
-					.toString(userId)));
-		}
-
-		return callMethod(session, FacebookMethod.PROFILE_GET_FBML, null,
-				params);
+		return defaultClient.getProfileFBML(session, userId, format, callback);
 	}
 
 	/**
@@ -823,12 +717,8 @@ public class FacebookApi {
 			String titleFbml, String bodyFbml,
 			Map<String, String> imageUrlLinkMap, String format, String callback)
 			throws IOException, FacebookException {
-
-		List<Pair<String, CharSequence>> params = getFeedParams(titleFbml,
+		return defaultClient.feedPublishStoryToUser(session, titleFbml,
 				bodyFbml, imageUrlLinkMap, format, callback);
-
-		return callMethod(session, FacebookMethod.FEED_PUBLISH_STORY_TO_USER,
-				null, params);
 	}
 
 	/**
@@ -881,68 +771,8 @@ public class FacebookApi {
 			String titleFbml, String bodyFbml,
 			Map<String, String> imageUrlLinkMap, String format, String callback)
 			throws IOException, FacebookException {
-
-		List<Pair<String, CharSequence>> params = getFeedParams(titleFbml,
+		return defaultClient.feedPublishActionOfUser(session, titleFbml,
 				bodyFbml, imageUrlLinkMap, format, callback);
-
-		// get the response
-		return callMethod(session, FacebookMethod.FEED_PUBLISH_ACTION_OF_USER,
-				null, params);
-	}
-
-	/**
-	 * builds paramter sets for feed publishing using feedPublishActionOfUser
-	 * and feedPublishStoryToUser
-	 * 
-	 * @param titleFbml
-	 * @param bodyFbml
-	 * @param imageUrlLinkMap
-	 * @param format
-	 * @param callback
-	 * @return
-	 * @throws FacebookException
-	 */
-	private static List<Pair<String, CharSequence>> getFeedParams(
-			String titleFbml, String bodyFbml,
-			Map<String, String> imageUrlLinkMap, String format, String callback)
-			throws FacebookException {
-		// validation
-		if (titleFbml == null) {
-			log.warn("title parameter is required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"title is a required parameter");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		// required parameter
-		params.add(new Pair<String, CharSequence>("title", titleFbml));
-
-		// optional body
-		if (bodyFbml != null) {
-			params.add(new Pair<String, CharSequence>("body", bodyFbml));
-		}
-
-		// optional, add up to 4 images to the request
-		if (imageUrlLinkMap != null && imageUrlLinkMap.size() > 0) {
-			// validation
-			if (imageUrlLinkMap.size() > 4) {
-				log.warn("only the first 4 images will be published");
-			}
-
-			int count = 1;
-			Iterator<String> imageIter = imageUrlLinkMap.keySet().iterator();
-			while (imageIter.hasNext() && count < 5) {
-				String imageUrl = imageIter.next();
-				params.add(new Pair<String, CharSequence>("image_" + count,
-						imageUrl));
-				params.add(new Pair<String, CharSequence>("image_" + count
-						+ "_link", imageUrlLinkMap.get(imageUrl)));
-				count++;
-			}
-		}
-
-		return params;
 	}
 
 	/**
@@ -965,18 +795,8 @@ public class FacebookApi {
 	public static InputStream getFqlResultSet(Session session, String fqlQuery,
 			String format, String callback) throws IOException,
 			FacebookException {
-
-		// this request requires an application session
-		if (session.getKey() == null) {
-			throw new FacebookException(ErrorCodes.FB_SESSION_TIMEOUT,
-					"Empty Session Key");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("query", fqlQuery));
-
-		// do it!
-		return callMethod(session, FacebookMethod.FQL_QUERY, null, params);
+		return defaultClient.getFqlResultSet(session, fqlQuery, format,
+				callback);
 	}
 
 	/**
@@ -1008,25 +828,17 @@ public class FacebookApi {
 	public static InputStream getPhotoAlbums(Session session, String userId,
 			String[] photoIds, String format, String callback)
 			throws IOException, FacebookException {
+		return defaultClient.getPhotoAlbums(session, userId, photoIds, format,
+				callback);
+	}
 
-		if (userId == null && (photoIds == null || photoIds.length == 0)) {
-			log.warn("userId or photoIds required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"userId or photoIds required");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (userId != null)
-			params.add(new Pair<String, CharSequence>("uid", userId));
-
-		if (photoIds != null && photoIds.length > 0)
-			params.add(new Pair<String, CharSequence>("pids",
-					getCommaDelimited(photoIds)));
-
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_GET_ALBUMS, null,
-				params);
+	/**
+	 * @see FacebookClient#getPhotoAlbumList(Session, String, String[])
+	 */
+	public static List<PhotoAlbum> getPhotoAlbumList(Session session,
+			String userId, String[] photoIds) throws IOException,
+			FacebookException {
+		return defaultClient.getPhotoAlbumList(session, userId, photoIds);
 	}
 
 	/**
@@ -1064,28 +876,28 @@ public class FacebookApi {
 	public static InputStream getPhotos(Session session, String subjectId,
 			String albumId, String[] photoIds, String format, String callback)
 			throws IOException, FacebookException {
+		return defaultClient.getPhotos(session, subjectId, albumId, photoIds,
+				format, callback);
+	}
 
-		if (subjectId == null && albumId == null
-				&& (photoIds == null || photoIds.length == 0)) {
-			log.warn("subjectId, albumId, or photoIds required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"subjectId, albumId, or photoIds required");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (subjectId != null)
-			params.add(new Pair<String, CharSequence>("subj_id", subjectId));
-
-		if (albumId != null)
-			params.add(new Pair<String, CharSequence>("aid", albumId));
-
-		if (photoIds != null && photoIds.length > 0)
-			params.add(new Pair<String, CharSequence>("pids",
-					getCommaDelimited(photoIds)));
+	/**
+	 * @see FacebookClient#getPhotoList(Session, String, String, String[])
+	 */
+	public static List<Photo> getPhotoList(Session session, String subjectId,
+			String albumId, String[] photoIds) throws IOException,
+			FacebookException {
+		return defaultClient.getPhotoList(session, subjectId, albumId,
+				photoIds);
+	}
 
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_GET, null, params);
+	/**
+	 * @see FacebookClient#getPhotoIterator(Session, String, String, String[])
+	 */
+	public static ResponseIterator<Photo> getPhotoIterator(Session session,
+			String subjectId, String albumId, String[] photoIds)
+			throws IOException, FacebookException {
+		return defaultClient.getPhotoIterator(session, subjectId, albumId,
+				photoIds);
 	}
 
 	/**
@@ -1111,21 +923,7 @@ public class FacebookApi {
 	public static InputStream getPhotoTags(Session session, String[] photoIds,
 			String format, String callback) throws IOException,
 			FacebookException {
-
-		if (photoIds == null || photoIds.length == 0) {
-			log.warn("photoIds required");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"photoIds required");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (photoIds != null && photoIds.length > 0)
-			params.add(new Pair<String, CharSequence>("pids",
-					getCommaDelimited(photoIds)));
-
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_GET_TAGS, null, params);
+		return defaultClient.getPhotoTags(session, photoIds, format, callback);
 	}
 
 	/**
@@ -1167,35 +965,8 @@ public class FacebookApi {
 			String taggedUserId, String tagText, float x, float y, String tags,
 			String format, String callback) throws IOException,
 			FacebookException {
-
-		if (photoId == null) {
-			log.warn("photoId parameter missing");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"photoId parameter missing");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("pid", photoId));
-
-		if (tags != null) {
-			// tags wins if specified
-			params.add(new Pair<String, CharSequence>("tags", tags));
-		} else {
-			// use other parameters
-			if (taggedUserId != null) {
-				// uid wins
-				params.add(new Pair<String, CharSequence>("tag_uid",
-						taggedUserId));
-			} else {
-				params.add(new Pair<String, CharSequence>("tag_text", tagText));
-			}
-
-			params.add(new Pair<String, CharSequence>("x", Float.toString(x)));
-			params.add(new Pair<String, CharSequence>("y", Float.toString(y)));
-		}
-
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_ADD_TAG, null, params);
+		return defaultClient.addPhotoTag(session, photoId, taggedUserId,
+				tagText, x, y, tags, format, callback);
 	}
 
 	/**
@@ -1218,257 +989,28 @@ public class FacebookApi {
 	public static InputStream createPhotoAlbum(Session session, String name,
 			String location, String description, String format, String callback)
 			throws IOException, FacebookException {
-
-		if (name == null) {
-			log.warn("name parameter missing");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"name parameter missing");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-		params.add(new Pair<String, CharSequence>("name", name));
-
-		if (location != null)
-			params.add(new Pair<String, CharSequence>("location", location));
-		if (description != null)
-			params.add(new Pair<String, CharSequence>("description",
-					description));
-
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_CREATE_ALBUM, null,
-				params);
+		return defaultClient.createPhotoAlbum(session, name, location,
+				description, format, callback);
 	}
 
 	public static InputStream uploadPhoto(Session session, String albumId,
 			String caption, File photo, String format, String callback)
 			throws IOException, FacebookException {
-
-		if (photo == null || !photo.exists()) {
-			log.warn("photo parameter missing");
-			throw new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
-					"photo parameter missing");
-		}
-
-		List<Pair<String, CharSequence>> params = getParams(format, callback);
-
-		if (albumId != null)
-			params.add(new Pair<String, CharSequence>("aid", albumId));
-		if (caption != null)
-			params.add(new Pair<String, CharSequence>("caption", caption));
-
-		// do it!
-		return callMethod(session, FacebookMethod.PHOTOS_UPLOAD, photo, params);
+		return defaultClient.uploadPhoto(session, albumId, caption, photo,
+				format, callback);
 	}
 
 	/**
-	 * Get params used for session calls that allow format and callback.
+	 * Upload a photo streamed from a file, stream or buffer.
 	 * 
-	 * @param format
-	 * @param callback
-	 * @return
+	 * @see FacebookClient#uploadPhoto(Session, String, String, UploadSource,
+	 *      String, String)
 	 */
-	private static List<Pair<String, CharSequence>> getParams(String format,
-			String callback) {
-		// optional params
-		List<Pair<String, CharSequence>> params = new ArrayList<Pair<String, CharSequence>>();
-		if (format != null)
-			params.add(new Pair<String, CharSequence>("format", format));
-		if (callback != null)
-			params.add(new Pair<String, CharSequence>("callback", callback));
-		return params;
-	}
-
-	/**
-	 * 
-	 * @param application
-	 * @param method
-	 * @param paramPairs
-	 * @return
-	 * @throws FacebookException
-	 * @throws IOException
-	 */
-	private static InputStream callMethod(Session session,
-			FacebookMethod method, Pair<String, CharSequence>... paramPairs)
-			throws FacebookException, IOException {
-		return callMethod(session, method, null, Arrays.asList(paramPairs));
-	}
-
-	private static InputStream callMethod(Session session,
-			FacebookMethod method, File file,
-			Collection<Pair<String, CharSequence>> paramPairs)
-			throws IOException, FacebookException {
-		return callMethod(session.getApiKey(), session.getKey(), session
-				.getSecret(), false, method, null, paramPairs);
-	}
-
-	/**
-	 * Call the specified method, with the given parameters, and return a DOM
-	 * tree with the results.
-	 * 
-	 * @param apiKey
-	 *            used by the calling application
-	 * @param sessionKey
-	 *            key for the current session, which also represents a unique
-	 *            user. It is only required if the method requires a session
-	 *            (usually only null for methods that don't require a session).
-	 * @param secret
-	 *            used to sign the request. For webapps this is always the
-	 *            application secret. For Desktop apps the secret will depend on
-	 *            the state of the session: for an unauthenticated session
-	 *            calling either getAuthToken or getSession the secret will be
-	 *            the API secret, otherwise it is the secret returned by the
-	 *            call to getSession.
-	 * @param doHttps
-	 *            true to use HTTPS for the request. Should only be true for
-	 *            desktops apps using the getAuthToken method.
-	 * @param method
-	 *            the fieldName of the method
-	 * @param file
-	 * @param paramPairs
-	 *            a list of arguments to the method, not includeing the
-	 *            signature
-	 * @return the server's response stream (usually XML data)
-	 * @throws IOException
-	 * @throws Exception
-	 *             with a description of any errors given to us by the server.
-	 */
-	private static InputStream callMethod(String apiKey, String sessionKey,
-			String secret, boolean doHttps, FacebookMethod method, File file,
-			Collection<Pair<String, CharSequence>> paramPairs)
+	public static InputStream uploadPhoto(Session session, String albumId,
+			String caption, UploadSource photo, String format, String callback)
 			throws IOException, FacebookException {
-
-		HashMap<String, CharSequence> params = new HashMap<String, CharSequence>(
-				2 * method.numTotalParams());
-
-		params.put("method", method.methodName());
-		params.put("api_key", apiKey);
-		params.put("v", API_VERSION);
-
-		if (method.requiresSession()) {
-			params.put("call_id", Long.toString(System.currentTimeMillis()));
-			params.put("session_key", sessionKey);
-		}
-		CharSequence oldVal;
-		for (Pair<String, CharSequence> p : paramPairs) {
-			// check for oldvalue
-			oldVal = params.put(p.name, p.value);
-			if (oldVal != null && log.isDebugEnabled())
-				log.debug("For parameter " + p.name + ", overwrote old value "
-						+ oldVal + " with new value " + p.value + ".");
-		}
-
-		assert (!params.containsKey("sig"));
-
-		// String signature = generateSignature(application,
-		// FacebookSignatureUtil
-		// .convert(params.entrySet()), method.requiresSession());
-
-		String signature = FacebookSignatureUtil.generateSignature(params
-				.entrySet(), secret);
-
-		params.put("sig", signature);
-
-		return method.takesFile() ? postFileRequest(method.methodName(),
-				params, file) : postRequest(method.methodName(), params,
-				doHttps, true);
-	}
-
-	private static InputStream postFileRequest(String methodName,
-			Map<String, CharSequence> params, File uploadFile)
-			throws IOException {
-		assert (null != uploadFile);
-		try {
-			PostMethod multipartPost = new PostMethod(HTTP_SERVER_ADDR);
-			multipartPost.getParams().setBooleanParameter(
-					HttpMethodParams.USE_EXPECT_CONTINUE, true);
-
-			Part[] parts = new Part[params.size() + 1];
-			parts[0] = new FilePart(uploadFile.getName(), uploadFile);
-
-			int partNo = 1;
-			for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
-				parts[partNo] = new StringPart(entry.getKey(), entry.getValue()
-						.toString(), ENCODING);
-				partNo++;
-			}
-			multipartPost.setRequestEntity(new MultipartRequestEntity(parts,
-					multipartPost.getParams()));
-
-			int iGetResultCode = httpClient.executeMethod(multipartPost);
-
-			if (iGetResultCode >= HttpStatus.SC_BAD_REQUEST) {
-				throw new IOException("HTTP " + iGetResultCode + " "
-						+ multipartPost.getStatusText());
-			}
-
-			InputStream in = new HttpClientInputStream(multipartPost
-					.getResponseBodyAsStream(), multipartPost);
-			return in;
-		} catch (Exception e) {
-			log.warn("exception: " + e.getMessage(), e);
-			return null;
-		}
-	}
-
-	/**
-	 * Do the POST request.
-	 * 
-	 * @param method
-	 * @param params
-	 * @param doHttps
-	 * @param doEncode
-	 * @return
-	 * @throws IOException
-	 */
-	private static InputStream postRequest(CharSequence method,
-			Map<String, CharSequence> params, boolean doHttps, boolean doEncode)
-			throws IOException {
-
-		// CharSequence buffer = (null == params) ? "" : delimit(
-		// params.entrySet(), "&", "=", doEncode);
-
-		PostMethod post = null;
-		try {
-			post = (doHttps) ? new PostMethod(HTTPS_SERVER_ADDR)
-					: new PostMethod(HTTP_SERVER_ADDR);
-
-			for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
-				// NOTE: the value will be URLEncoded by PostMethod for us!
-				post.setParameter(entry.getKey(), entry.getValue().toString());
-			}
-
-			// debug the request as a GET (it's really a POST)
-			if (log.isDebugEnabled()) {
-				StringBuffer msg = new StringBuffer();
-				msg.append("POST: ");
-				msg.append(post.getURI());
-				msg.append("?");
-				if (post.getQueryString() != null) {
-					msg.append(post.getQueryString());
-					msg.append("&");
-				}
-				ByteArrayOutputStream reqBody = new ByteArrayOutputStream(
-						(int) post.getRequestEntity().getContentLength());
-				post.getRequestEntity().writeRequest(reqBody);
-				msg.append(reqBody.toString(ENCODING));
-				log.debug(msg);
-			}
-
-			// check response code
-			int iGetResultCode = httpClient.executeMethod(post);
-
-			if (iGetResultCode >= HttpStatus.SC_BAD_REQUEST) {
-				throw new IOException("HTTP " + iGetResultCode + " "
-						+ post.getStatusText());
-			}
-
-			// read the XML
-			InputStream in = new HttpClientInputStream(post
-					.getResponseBodyAsStream(), post);
-			return in;
-		} catch (MalformedURLException murle) {
-			throw new IOException(murle.getMessage());
-		}
+		return defaultClient.uploadPhoto(session, albumId, caption, photo,
+				format, callback);
 	}
 
 	public void finalize() throws Throwable {
@@ -1481,43 +1023,6 @@ public class FacebookApi {
 	 * exit.
 	 */
 	public static void shutdown() {
-		connectionManager.shutdown(); // close all connections
-	}
-
-	/**
-	 * Manage name-value pairs.
-	 * 
-	 * @param <N>
-	 * @param <V>
-	 */
-	protected static class Pair<N, V> {
-		public N name;
-		public V value;
-
-		public Pair(N name, V value) {
-			this.name = name;
-			this.value = value;
-		}
-	}
-
-	/**
-	 * Manage connection releases without memory leaks. This will release the
-	 * connection immediately after the InputStream is closed.
-	 * 
-	 * @see <a href="http://commons.apache.org/httpclient/threading.html">Apache
-	 *      HttpClient Threading</a>
-	 */
-	private static class HttpClientInputStream extends BufferedInputStream {
-		private HttpMethod httpMethod;
-
-		public HttpClientInputStream(InputStream in, HttpMethod httpMethod) {
-			super(in, BUFF_SIZE);
-			this.httpMethod = httpMethod;
-		}
-
-		public void close() throws IOException {
-			super.close();
-			httpMethod.releaseConnection(); // clean up
-		}
+		defaultClient.shutdown(); // close all connections
 	}
 }
@@ -27,6 +27,7 @@ public class FacebookException extends Exception {
 	}
 
 	public FacebookException(ErrorResponse errorResponse) {
+		super(errorResponse.getMessage());
 		this.errorResponse = errorResponse;
 	}
 
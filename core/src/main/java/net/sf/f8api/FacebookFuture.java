@@ -0,0 +1,136 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Handle to the pending result of a Facebook API call.
+ * 
+ * Besides the usual <code>Future</code> methods, <code>join()</code> waits
+ * for the result and rethrows the same <code>IOException</code> or
+ * <code>FacebookException</code> the blocking call would have thrown.
+ * 
+ * If the future is cancelled after the call already produced a stream, the
+ * stream is closed so its pooled connection is released.
+ * 
+ * @param <V>
+ *            result type, usually the response <code>InputStream</code>
+ */
+public class FacebookFuture<V> extends FutureTask<V> {
+	protected static final Log log = LogFactory.getLog(FacebookFuture.class);
+
+	public FacebookFuture(Callable<V> callable) {
+		super(callable);
+	}
+
+	/**
+	 * Wait for the call to complete.
+	 * 
+	 * @return the result of the call
+	 * @throws IOException
+	 *             if there's a communication error, or the wait is
+	 *             interrupted or cancelled
+	 * @throws FacebookException
+	 *             if Facebook answered with an error
+	 */
+	public V join() throws IOException, FacebookException {
+		try {
+			return get();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for "
+					+ "Facebook response");
+		} catch (ExecutionException ee) {
+			throw unwrap(ee);
+		} catch (CancellationException ce) {
+			throw new InterruptedIOException("Facebook call was cancelled");
+		}
+	}
+
+	/**
+	 * Wait at most the given time for the call to complete.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return the result of the call
+	 * @throws IOException
+	 *             if there's a communication error, the wait times out, or
+	 *             is interrupted or cancelled
+	 * @throws FacebookException
+	 *             if Facebook answered with an error
+	 */
+	public V join(long timeout, TimeUnit unit) throws IOException,
+			FacebookException {
+		try {
+			return get(timeout, unit);
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for "
+					+ "Facebook response");
+		} catch (ExecutionException ee) {
+			throw unwrap(ee);
+		} catch (CancellationException ce) {
+			throw new InterruptedIOException("Facebook call was cancelled");
+		} catch (TimeoutException te) {
+			throw new InterruptedIOException("timed out after " + timeout
+					+ " " + unit + " waiting for Facebook response");
+		}
+	}
+
+	protected void set(V v) {
+		super.set(v);
+		// nobody will ever read a result that lost the race with cancel()
+		if (isCancelled() && v instanceof Closeable) {
+			try {
+				((Closeable) v).close();
+			} catch (IOException ioe) {
+				log.debug("unable to close cancelled result", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Rethrow the cause of a failed call with its original type.
+	 */
+	private static IOException unwrap(ExecutionException ee)
+			throws FacebookException {
+		Throwable cause = ee.getCause();
+		if (cause instanceof FacebookException) {
+			throw (FacebookException) cause;
+		} else if (cause instanceof IOException) {
+			return (IOException) cause;
+		} else if (cause instanceof RuntimeException) {
+			throw (RuntimeException) cause;
+		} else if (cause instanceof Error) {
+			throw (Error) cause;
+		}
+		IOException ioe = new IOException(String.valueOf(cause));
+		ioe.initCause(cause);
+		return ioe;
+	}
+}
@@ -66,6 +66,9 @@ public enum FacebookMethod implements CharSequence {
 
 	private static EnumSet<FacebookMethod> preAuth = null;
 	private static EnumSet<FacebookMethod> postAuth = null;
+	private static EnumSet<FacebookMethod> notIdempotent = null;
+
+	private static EnumSet<FacebookMethod> readOnly = null;
 
 	public static EnumSet<FacebookMethod> preAuthMethods() {
 		if (null == preAuth)
@@ -79,6 +82,34 @@ public enum FacebookMethod implements CharSequence {
 		return postAuth;
 	}
 
+	/**
+	 * Methods with a side effect that repeats if the call is repeated: a
+	 * second notification, story, photo, album or tag.
+	 */
+	public static EnumSet<FacebookMethod> notIdempotentMethods() {
+		if (null == notIdempotent)
+			notIdempotent = EnumSet.of(NOTIFICATIONS_SEND,
+					NOTIFICATIONS_SEND_REQUEST, FEED_PUBLISH_ACTION_OF_USER,
+					FEED_PUBLISH_STORY_TO_USER, PHOTOS_UPLOAD,
+					PHOTOS_CREATE_ALBUM, PHOTOS_ADD_TAG);
+		return notIdempotent;
+	}
+
+	/**
+	 * Methods that only read data, so sending one twice at the same time
+	 * costs nothing but the request.
+	 */
+	public static EnumSet<FacebookMethod> readOnlyMethods() {
+		if (null == readOnly)
+			readOnly = EnumSet.of(FQL_QUERY, EVENTS_GET, EVENTS_GET_MEMBERS,
+					FRIENDS_GET, FRIENDS_GET_APP_USERS, FRIENDS_GET_REQUESTS,
+					FRIENDS_ARE_FRIENDS, USERS_GET_INFO,
+					USERS_GET_LOGGED_IN_USER, USERS_IS_APP_ADDED, PHOTOS_GET,
+					PHOTOS_GET_ALBUMS, PHOTOS_GET_TAGS, NOTIFICATIONS_GET,
+					GROUPS_GET, GROUPS_GET_MEMBERS, PROFILE_GET_FBML);
+		return readOnly;
+	}
+
 	FacebookMethod(String name) {
 		this(name, 0, false);
 	}
@@ -116,6 +147,21 @@ public enum FacebookMethod implements CharSequence {
 		return this.takesFile;
 	}
 
+	/**
+	 * @return true if calling the method twice has the same effect as
+	 *         calling it once, so it's safe to retry after a failure
+	 */
+	public boolean isIdempotent() {
+		return !notIdempotentMethods().contains(this);
+	}
+
+	/**
+	 * @return true if the method doesn't change anything on Facebook
+	 */
+	public boolean isReadOnly() {
+		return readOnlyMethods().contains(this);
+	}
+
 	/* Implementing CharSequence */
 	public char charAt(int index) {
 		return this.methodName.charAt(index);
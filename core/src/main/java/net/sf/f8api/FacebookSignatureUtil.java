@@ -17,7 +17,6 @@ package net.sf.f8api;
 
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
@@ -189,8 +188,48 @@ public final class FacebookSignatureUtil {
 			return false;
 		}
 		params.remove(FacebookParam.SIGNATURE.toString());
-		List<String> sigParams = convert(params.entrySet());
-		return verifySignature(sigParams, secret, expected);
+		return signatureEquals(expected, Signer.get().sign(params.entrySet(),
+				secret));
+	}
+
+	/**
+	 * Verifies that a signature received matches the expected value, without
+	 * changing params.
+	 * 
+	 * @param params
+	 *            a map of parameters and their values, such as one obtained
+	 *            from extractFacebookNamespaceParams; FacebookParam.SIGNATURE
+	 *            is left out of the signature if it's there
+	 * @param secret
+	 * @param expected
+	 *            the signature received
+	 * @return a boolean indicating whether the calculated signature matched the
+	 *         expected signature
+	 */
+	public static boolean isValidSignature(Map<String, CharSequence> params,
+			String secret, CharSequence expected) {
+		if (null == params || params.isEmpty())
+			return false;
+		if (null == expected || expected.length() == 0)
+			return false;
+		return signatureEquals(expected, Signer.get().signExcluding(
+				params.entrySet(), FacebookParam.SIGNATURE.toString(), secret));
+	}
+
+	/**
+	 * Compares signatures in a time that depends only on their length, so
+	 * the time taken doesn't tell how much of a forged signature is right.
+	 * 
+	 * @return true if both have the same characters
+	 */
+	public static boolean signatureEquals(CharSequence a, CharSequence b) {
+		if (a == null || b == null || a.length() != b.length())
+			return false;
+		int diff = 0;
+		for (int i = 0; i < a.length(); i++) {
+			diff |= a.charAt(i) ^ b.charAt(i);
+		}
+		return diff == 0;
 	}
 
 	private static boolean verifySignature(List<String> sigParams,
@@ -198,7 +237,7 @@ public final class FacebookSignatureUtil {
 		if (null == expected || "".equals(expected))
 			return false;
 		String signature = generateSignature(sigParams, secret);
-		return expected.equals(signature);
+		return signatureEquals(expected, signature);
 	}
 
 	/**
@@ -237,10 +276,18 @@ public final class FacebookSignatureUtil {
 		return result;
 	}
 
+	/**
+	 * Calculates the signature of the given params, without converting them
+	 * to "key=value" strings first.
+	 * 
+	 * @param entries
+	 *            parameters and their values, names may start with "fb_sig_"
+	 * @param secret
+	 * @return the signature
+	 */
 	public static String generateSignature(
 			Set<Map.Entry<String, CharSequence>> entries, String secret) {
-		return FacebookSignatureUtil.generateSignature(FacebookSignatureUtil
-				.convert(entries), secret);
+		return Signer.get().sign(entries, secret);
 	}
 
 	/**
@@ -253,38 +300,6 @@ public final class FacebookSignatureUtil {
 	 * @return the signature
 	 */
 	public static String generateSignature(List<String> params, String secret) {
-		// first sort the params
-		Collections.sort(params);
-
-		StringBuffer buffer = new StringBuffer();
-
-		// concatenate them
-		for (String param : params) {
-			buffer.append(param);
-		}
-
-		// add the secret (this is different for webapps vs desktop)
-		buffer.append(secret);
-
-		if (FacebookApi.log.isDebugEnabled())
-			FacebookApi.log.debug("signing: " + buffer);
-
-		try {
-			java.security.MessageDigest md = java.security.MessageDigest
-					.getInstance("MD5");
-			StringBuffer result = new StringBuffer();
-			for (byte b : md.digest(buffer.toString().getBytes())) {
-				result.append(Integer.toHexString((b & 0xf0) >>> 4));
-				result.append(Integer.toHexString(b & 0x0f));
-			}
-
-			if (FacebookApi.log.isDebugEnabled())
-				FacebookApi.log.debug("signature: " + result);
-
-			return result.toString();
-		} catch (java.security.NoSuchAlgorithmException ex) {
-			FacebookApi.log.debug("MD5 does not appear to be supported" + ex);
-			return "";
-		}
+		return Signer.get().sign(params, secret);
 	}
 }
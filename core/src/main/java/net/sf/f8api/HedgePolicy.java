@@ -0,0 +1,427 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Hedged requests for read-only methods (see
+ * {@link FacebookMethod#isReadOnly()}): when a call hasn't been answered
+ * after the chosen percentile of the method's recent latencies, a second
+ * attempt, signed with a fresh call_id, is sent and whichever answers first
+ * is used. The other is cancelled and its stream closed when it arrives, so
+ * its pooled connection is released.
+ * 
+ * <pre><code>
+ * HedgePolicy hedging = new HedgePolicy();
+ * hedging.setPercentile(0.95);
+ * client.setHedgePolicy(hedging);
+ * </code></pre>
+ * 
+ * Calls aren't hedged until a method has enough latency samples, and never
+ * more than the given share of calls is hedged, so a slow server isn't
+ * answered with twice the load. Both attempts of a hedged call run on the
+ * policy's executor while the caller waits; when the executor has no thread
+ * to spare, calls go out unhedged on the caller's thread. A losing attempt
+ * is interrupted, but a thread blocked reading a socket only notices when
+ * the answer arrives, which is why the pool is bounded.
+ * 
+ * A policy is thread safe and may be shared between clients.
+ */
+public class HedgePolicy {
+	protected static final Log log = LogFactory.getLog(HedgePolicy.class);
+
+	public static final int DEFAULT_WINDOW_SIZE = 100;
+
+	public static final int DEFAULT_MAX_THREADS = 64;
+
+	private final ExecutorService executor;
+	private final boolean ownsExecutor;
+	private final Latencies[] latencies;
+
+	private volatile double percentile = 0.95;
+	private volatile int minSamples = 20;
+	private volatile long minDelay = 10;
+	private volatile long maxDelay = 5 * 1000;
+	private volatile double maxHedgeRatio = 0.1;
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong hedged = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+	private final AtomicLong saturated = new AtomicLong();
+
+	/**
+	 * Keep the last 100 latencies of each method, and run attempts on a pool
+	 * of at most 64 daemon threads.
+	 */
+	public HedgePolicy() {
+		this(DEFAULT_WINDOW_SIZE, new ThreadPoolExecutor(0,
+				DEFAULT_MAX_THREADS, 60, TimeUnit.SECONDS,
+				new SynchronousQueue<Runnable>(), new DaemonThreadFactory(
+						"f8api-hedge")), true);
+	}
+
+	/**
+	 * Run attempts on the caller's executor, which is not shut down by
+	 * {@link #shutdown()}. It should reject tasks rather than queue them
+	 * when it's busy, so calls aren't delayed behind others.
+	 * 
+	 * @param windowSize
+	 *            number of recent latencies kept per method
+	 * @param executor
+	 */
+	public HedgePolicy(int windowSize, ExecutorService executor) {
+		this(windowSize, executor, false);
+	}
+
+	private HedgePolicy(int windowSize, ExecutorService executor,
+			boolean ownsExecutor) {
+		if (windowSize < 1 || executor == null) {
+			throw new IllegalArgumentException("windowSize < 1 or no executor");
+		}
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+		this.latencies = new Latencies[FacebookMethod.values().length];
+		for (int i = 0; i < latencies.length; i++) {
+			latencies[i] = new Latencies(windowSize);
+		}
+	}
+
+	/**
+	 * Make a call, hedging it if it's slow.
+	 * 
+	 * @param method
+	 *            the method called, which must be read-only
+	 * @param attempt
+	 *            sends one attempt; each invocation signs with a new call_id
+	 * @return the first answer
+	 * @throws IOException
+	 *             if all attempts failed to communicate
+	 * @throws FacebookException
+	 *             if Facebook answered first with an error
+	 */
+	InputStream call(FacebookMethod method, Callable<InputStream> attempt)
+			throws IOException, FacebookException {
+		Latencies window = latencies[method.ordinal()];
+		calls.incrementAndGet();
+		long delay = window.percentile(percentile, minSamples);
+		if (delay < 0) {
+			return join(newAttempt(window, attempt, null));
+		}
+		delay = Math.min(Math.max(delay, minDelay), maxDelay);
+
+		BlockingQueue<Attempt> done = new LinkedBlockingQueue<Attempt>();
+		Attempt primary = newAttempt(window, attempt, done);
+		try {
+			executor.execute(primary);
+		} catch (RejectedExecutionException ree) {
+			saturated.incrementAndGet();
+			return join(newAttempt(window, attempt, null));
+		}
+		Attempt hedge = null;
+		Attempt winner = null;
+		try {
+			Attempt first = done.poll(delay, TimeUnit.MILLISECONDS);
+			if (first == null && mayHedge()) {
+				Attempt second = newAttempt(window, attempt, done);
+				try {
+					executor.execute(second);
+					hedge = second;
+					hedged.incrementAndGet();
+					if (log.isDebugEnabled())
+						log.debug(method + " not answered after " + delay
+								+ "ms, hedging");
+				} catch (RejectedExecutionException ree) {
+					saturated.incrementAndGet(); // keep waiting for the first
+				}
+			}
+			if (first == null) {
+				first = done.take();
+			}
+			// a lost connection isn't an answer while the other may have one
+			if (hedge != null && first.isIOFailure()) {
+				first = done.take();
+			}
+			winner = first;
+			if (winner == hedge)
+				hedgeWins.incrementAndGet();
+			return winner.join();
+		} catch (InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for "
+					+ method);
+		} finally {
+			if (primary != winner)
+				primary.discard();
+			if (hedge != null && hedge != winner)
+				hedge.discard();
+		}
+	}
+
+	private boolean mayHedge() {
+		return hedged.get() < maxHedgeRatio * calls.get();
+	}
+
+	private static Attempt newAttempt(final Latencies window,
+			final Callable<InputStream> attempt, BlockingQueue<Attempt> done) {
+		return new Attempt(new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				long start = System.nanoTime();
+				try {
+					InputStream in = attempt.call();
+					window.add(System.nanoTime() - start);
+					return in;
+				} catch (FacebookException fe) {
+					window.add(System.nanoTime() - start); // still an answer
+					throw fe;
+				}
+			}
+		}, done);
+	}
+
+	private static InputStream join(Attempt attempt) throws IOException,
+			FacebookException {
+		attempt.run();
+		return attempt.join();
+	}
+
+	/**
+	 * @param method
+	 * @return milliseconds a call of the method waits before it's hedged, -1
+	 *         if there aren't enough samples yet
+	 */
+	public long getDelay(FacebookMethod method) {
+		long delay = latencies[method.ordinal()].percentile(percentile,
+				minSamples);
+		return delay < 0 ? -1 : Math.min(Math.max(delay, minDelay), maxDelay);
+	}
+
+	/**
+	 * Stop the executor if the policy created it.
+	 */
+	public void shutdown() {
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+
+	public double getPercentile() {
+		return percentile;
+	}
+
+	/**
+	 * @param percentile
+	 *            of recent latencies after which a call is hedged, between 0
+	 *            and 1
+	 */
+	public void setPercentile(double percentile) {
+		if (percentile <= 0 || percentile > 1) {
+			throw new IllegalArgumentException("percentile not in (0, 1]");
+		}
+		this.percentile = percentile;
+	}
+
+	public int getMinSamples() {
+		return minSamples;
+	}
+
+	/**
+	 * @param minSamples
+	 *            latencies of a method needed before its calls are hedged
+	 */
+	public void setMinSamples(int minSamples) {
+		this.minSamples = minSamples;
+	}
+
+	public long getMinDelay() {
+		return minDelay;
+	}
+
+	/**
+	 * @param minDelay
+	 *            shortest wait before hedging, in milliseconds
+	 */
+	public void setMinDelay(long minDelay) {
+		this.minDelay = minDelay;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param maxDelay
+	 *            longest wait before hedging, in milliseconds
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	public double getMaxHedgeRatio() {
+		return maxHedgeRatio;
+	}
+
+	/**
+	 * @param maxHedgeRatio
+	 *            largest share of calls that may be hedged, 0 to 1
+	 */
+	public void setMaxHedgeRatio(double maxHedgeRatio) {
+		this.maxHedgeRatio = maxHedgeRatio;
+	}
+
+	/**
+	 * @return calls made through the policy so far
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return calls that sent a second attempt
+	 */
+	public long getHedged() {
+		return hedged.get();
+	}
+
+	/**
+	 * @return hedged calls answered first by the second attempt
+	 */
+	public long getHedgeWins() {
+		return hedgeWins.get();
+	}
+
+	/**
+	 * @return calls that weren't hedged, or ran on the caller's thread,
+	 *         because the executor had no thread to spare
+	 */
+	public long getSaturated() {
+		return saturated.get();
+	}
+
+	/**
+	 * One attempt, handed to the queue of its call when it completes.
+	 */
+	private static class Attempt extends FacebookFuture<InputStream> {
+		private final BlockingQueue<Attempt> done;
+
+		Attempt(Callable<InputStream> callable, BlockingQueue<Attempt> done) {
+			super(callable);
+			this.done = done;
+		}
+
+		protected void done() {
+			if (done != null)
+				done.offer(this);
+		}
+
+		boolean isIOFailure() {
+			try {
+				join();
+				return false;
+			} catch (FacebookException fe) {
+				return false;
+			} catch (IOException ioe) {
+				return true;
+			}
+		}
+
+		/**
+		 * Cancel the attempt; if it has already answered, close its stream.
+		 */
+		void discard() {
+			if (cancel(true))
+				return; // FacebookFuture closes a late result
+			try {
+				Closeable in = join();
+				if (in != null)
+					in.close();
+			} catch (FacebookException fe) {
+				// nothing to release
+			} catch (IOException ioe) {
+				log.debug("unable to close losing attempt", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Ring of the last latencies of one method, in nanoseconds. The
+	 * percentile is sorted out again only once a tenth of the ring has been
+	 * replaced, not on every call.
+	 */
+	private static class Latencies {
+		private final long[] ring;
+		private final int recomputeAfter;
+		private int pos;
+		private int count;
+		private int added; // since the percentile was computed
+		private double computedFor;
+		private long threshold = -1;
+
+		Latencies(int size) {
+			ring = new long[size];
+			recomputeAfter = Math.max(1, size / 10);
+		}
+
+		synchronized void add(long nanos) {
+			ring[pos] = nanos;
+			pos = (pos + 1) % ring.length;
+			if (count < ring.length)
+				count++;
+			added++;
+		}
+
+		/**
+		 * @return the percentile in milliseconds, -1 with fewer than
+		 *         minSamples latencies
+		 */
+		long percentile(double p, int minSamples) {
+			long[] sorted;
+			synchronized (this) {
+				if (count == 0 || count < minSamples)
+					return -1;
+				if (threshold >= 0 && p == computedFor
+						&& added < recomputeAfter)
+					return threshold;
+				sorted = new long[count];
+				System.arraycopy(ring, 0, sorted, 0, count);
+				added = 0;
+				computedFor = p;
+			}
+			Arrays.sort(sorted);
+			int i = (int) Math.ceil(p * sorted.length) - 1;
+			long millis = sorted[Math.max(i, 0)] / 1000000L;
+			synchronized (this) {
+				threshold = millis;
+			}
+			return millis;
+		}
+	}
+}
@@ -0,0 +1,505 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Keeps the users of a {@link ResponseCache} outside the Java heap, in a
+ * memory-mapped file, so millions of users don't weigh on the garbage
+ * collector, and the cache starts warm after a restart that closed it:
+ * 
+ * <pre><code>
+ * UserStore store = new MappedUserStore(new File(&quot;users.cache&quot;),
+ * 		5000000, 1024 * 1024 * 1024);
+ * ResponseCache cache = new ResponseCache(10000, store);
+ * cache.setUsersShared(true);
+ * </code></pre>
+ * 
+ * The file holds a header, an open addressing index of uids and the
+ * offsets of their records, and the records, appended one after the
+ * other:
+ * 
+ * <pre>
+ * header  magic, version, slots, data bytes, write position, slots used, users,
+ *         state
+ * slot    uid (8 bytes), record offset (4 bytes)
+ * record  uid (8), expires (8), length (4), scope, absent until (8),
+ *         field count (2), then per field its name, expires (8) and XML
+ * </pre>
+ * 
+ * Strings are UTF-8 behind their length. A user put again is appended, and
+ * when the records or the index are full the live, unexpired records are
+ * moved to the front. If they would still fill more than three quarters of
+ * the room, the users put longest ago are dropped until they don't.
+ * 
+ * The header is marked dirty before the first change, and clean again by
+ * {@link #close()}. A file left dirty, by a crash that may have cut a
+ * record short, is emptied when it's opened again.
+ * 
+ * A uid has one record, for one scope: a user put in another scope
+ * replaces it. So a store is best used for a single application with
+ * {@link ResponseCache#setUsersShared(boolean)}. The file must not be
+ * opened by two stores at once.
+ */
+public class MappedUserStore implements UserStore {
+	protected static final Log log = LogFactory.getLog(MappedUserStore.class);
+
+	public static final int DEFAULT_MAX_USERS = 1000000;
+
+	public static final int DEFAULT_DATA_BYTES = 512 * 1024 * 1024;
+
+	private static final int MAGIC = 0x46385553; // F8US
+	private static final int VERSION = 2;
+
+	private static final int HEADER = 32;
+	private static final int H_MAGIC = 0;
+	private static final int H_VERSION = 4;
+	private static final int H_SLOTS = 8;
+	private static final int H_DATA_BYTES = 12;
+	private static final int H_WRITE_POS = 16;
+	private static final int H_USED = 20;
+	private static final int H_LIVE = 24;
+	private static final int H_STATE = 28;
+
+	private static final int DIRTY = 0;
+	private static final int CLEAN = 0x434c4e21; // CLN!, not written by chance
+
+	private static final int SLOT = 12;
+	private static final int EMPTY = 0; // never a record offset
+	private static final int REMOVED = -1;
+
+	private static final int RECORD_HEAD = 20;
+
+	private final File file;
+	private final MappedByteBuffer buffer;
+	private final int maxUsers;
+	private final int slots; // a power of two, at least twice maxUsers
+	private final int dataStart;
+	private final int dataBytes;
+	private boolean closed = false;
+	private boolean dirty = false; // the file is marked so
+
+	public MappedUserStore(File file) throws IOException {
+		this(file, DEFAULT_MAX_USERS, DEFAULT_DATA_BYTES);
+	}
+
+	/**
+	 * Open the file, keeping what it holds if it was written by a store of
+	 * the same size, or create it.
+	 * 
+	 * @param file
+	 * @param maxUsers
+	 *            most users kept
+	 * @param dataBytes
+	 *            room for records; the file is a little bigger, and may be
+	 *            up to 2GB
+	 */
+	public MappedUserStore(File file, int maxUsers, int dataBytes)
+			throws IOException {
+		if (maxUsers <= 0 || dataBytes <= 0) {
+			throw new IllegalArgumentException("maxUsers " + maxUsers
+					+ ", dataBytes " + dataBytes);
+		}
+		long slots = ((long) Integer.highestOneBit(maxUsers)) << 2;
+		long length = HEADER + slots * SLOT + dataBytes;
+		if (length > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("a store of " + maxUsers
+					+ " users and " + dataBytes + " bytes is over 2GB");
+		}
+		this.file = file;
+		this.maxUsers = maxUsers;
+		this.slots = (int) slots;
+		this.dataStart = (int) (HEADER + slots * SLOT);
+		this.dataBytes = dataBytes;
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			boolean reopen = raf.length() == length;
+			raf.setLength(length);
+			// the mapping outlives the channel
+			buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+					length);
+			if (reopen && buffer.getInt(H_MAGIC) == MAGIC
+					&& buffer.getInt(H_VERSION) == VERSION
+					&& buffer.getInt(H_SLOTS) == this.slots
+					&& buffer.getInt(H_DATA_BYTES) == dataBytes
+					&& buffer.getInt(H_STATE) == CLEAN
+					&& writePos() >= 0 && writePos() <= dataBytes) {
+				log.info("reopened " + file + " with " + size() + " users");
+			} else {
+				if (reopen)
+					log.warn(file + " wasn't closed cleanly, emptying it");
+				buffer.putInt(H_MAGIC, MAGIC);
+				buffer.putInt(H_VERSION, VERSION);
+				buffer.putInt(H_SLOTS, this.slots);
+				buffer.putInt(H_DATA_BYTES, dataBytes);
+				clear();
+			}
+		} finally {
+			raf.close();
+		}
+	}
+
+	public synchronized CachedUser get(String scope, long uid) {
+		checkOpen();
+		int record = buffer.getInt(find(uid) + 8);
+		if (record == EMPTY || record == REMOVED)
+			return null;
+		try {
+			return decode(record, scope);
+		} catch (IOException ioe) {
+			log.warn("dropping corrupt record of " + uid + " in " + file, ioe);
+		} catch (RuntimeException re) { // a length out of bounds
+			log.warn("dropping corrupt record of " + uid + " in " + file, re);
+		}
+		remove(uid);
+		return null;
+	}
+
+	public synchronized void put(String scope, long uid, CachedUser user) {
+		checkOpen();
+		markDirty();
+		byte[] payload = encode(scope, user);
+		int size = RECORD_HEAD + payload.length;
+		if (size > dataBytes) {
+			log.debug("user " + uid + " too big to keep: " + size + " bytes");
+			remove(uid);
+			return;
+		}
+		int slot = find(uid);
+		if (writePos() + size > dataBytes
+				|| (buffer.getInt(slot + 8) == EMPTY && used() >= maxUsers)) {
+			compact(size);
+			slot = find(uid);
+		}
+
+		int record = dataStart + writePos();
+		buffer.putLong(record, uid);
+		buffer.putLong(record + 8, user.getExpires());
+		buffer.putInt(record + 16, payload.length);
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(record + RECORD_HEAD);
+		dup.put(payload);
+		buffer.putInt(H_WRITE_POS, writePos() + size);
+
+		int old = buffer.getInt(slot + 8);
+		if (old == EMPTY) {
+			buffer.putLong(slot, uid);
+			buffer.putInt(H_USED, used() + 1);
+		}
+		if (old == EMPTY || old == REMOVED) {
+			buffer.putInt(H_LIVE, size() + 1);
+		}
+		buffer.putInt(slot + 8, record);
+	}
+
+	public synchronized void remove(long uid) {
+		checkOpen();
+		markDirty();
+		int slot = find(uid);
+		int record = buffer.getInt(slot + 8);
+		if (record != EMPTY && record != REMOVED) {
+			buffer.putInt(slot + 8, REMOVED);
+			buffer.putInt(H_LIVE, size() - 1);
+		}
+	}
+
+	public synchronized void clear() {
+		checkOpen();
+		markDirty();
+		clearIndex();
+		buffer.putInt(H_WRITE_POS, 0);
+	}
+
+	public synchronized int size() {
+		return buffer.getInt(H_LIVE);
+	}
+
+	/**
+	 * Write what's kept to the file, mark it clean, and stop using it. The
+	 * mapping itself is only released once the store is garbage collected.
+	 */
+	public synchronized void close() {
+		if (!closed) {
+			buffer.force();
+			buffer.putInt(H_STATE, CLEAN);
+			buffer.force();
+			closed = true;
+		}
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public int getMaxUsers() {
+		return maxUsers;
+	}
+
+	public int getDataBytes() {
+		return dataBytes;
+	}
+
+	/**
+	 * @return bytes of records written, live or not
+	 */
+	public synchronized int getDataUsed() {
+		return writePos();
+	}
+
+	/**
+	 * Move the live, unexpired records to the front and index them again,
+	 * dropping the oldest if they'd leave less than a quarter of the room.
+	 * 
+	 * @param needed
+	 *            bytes about to be written
+	 */
+	private void compact(int needed) {
+		long now = System.currentTimeMillis();
+		int end = writePos();
+
+		// what's live, to know how much of the oldest to drop
+		int liveUsers = 0;
+		long liveBytes = 0;
+		for (int read = 0; read < end;) {
+			int record = dataStart + read;
+			int size = RECORD_HEAD + buffer.getInt(record + 16);
+			if (size < RECORD_HEAD || size > end - read) {
+				log.warn("corrupt record at " + read + " in " + file
+						+ ", emptying it");
+				clear();
+				return;
+			}
+			if (isLive(record, now)) {
+				liveUsers++;
+				liveBytes += size;
+			}
+			read += size;
+		}
+		int maxLiveUsers = maxUsers - Math.max(1, maxUsers / 4);
+		int room = dataBytes - needed;
+		int maxLiveBytes = room - room / 4;
+
+		int dropped = 0;
+		int read = 0;
+		int write = 0;
+		byte[] chunk = new byte[8192];
+		ByteBuffer src = buffer.duplicate();
+		ByteBuffer dst = buffer.duplicate();
+		while (read < end) {
+			int record = dataStart + read;
+			int size = RECORD_HEAD + buffer.getInt(record + 16);
+			if (isLive(record, now)) {
+				if (liveUsers > maxLiveUsers || liveBytes > maxLiveBytes) {
+					// the oldest come first
+					liveUsers--;
+					liveBytes -= size;
+					dropped++;
+				} else {
+					int slot = find(buffer.getLong(record)); // before it moves
+					if (write != read) {
+						// forward, so overlapping moves are safe
+						src.position(record);
+						dst.position(dataStart + write);
+						for (int left = size; left > 0;) {
+							int n = Math.min(left, chunk.length);
+							src.get(chunk, 0, n);
+							dst.put(chunk, 0, n);
+							left -= n;
+						}
+					}
+					buffer.putInt(slot + 8, dataStart + write);
+					write += size;
+				}
+			}
+			read += size;
+		}
+
+		// index again to drop removed, expired and dropped uids
+		clearIndex();
+		int live = 0;
+		for (int pos = 0; pos < write;) {
+			int record = dataStart + pos;
+			int slot = find(buffer.getLong(record));
+			buffer.putLong(slot, buffer.getLong(record));
+			buffer.putInt(slot + 8, record);
+			live++;
+			pos += RECORD_HEAD + buffer.getInt(record + 16);
+		}
+		buffer.putInt(H_USED, live);
+		buffer.putInt(H_LIVE, live);
+		buffer.putInt(H_WRITE_POS, write);
+
+		if (dropped > 0) {
+			log.info("compacted " + file + " from " + end + " to " + write
+					+ " bytes, " + live + " users, dropping the " + dropped
+					+ " oldest");
+		} else if (log.isDebugEnabled()) {
+			log.debug("compacted " + file + " from " + end + " to " + write
+					+ " bytes, " + live + " users");
+		}
+	}
+
+	/**
+	 * @return true if the record is its uid's latest, and not expired
+	 */
+	private boolean isLive(int record, long now) {
+		return buffer.getInt(find(buffer.getLong(record)) + 8) == record
+				&& buffer.getLong(record + 8) > now;
+	}
+
+	/**
+	 * Mark the file dirty, on disk, before its first change.
+	 */
+	private void markDirty() {
+		if (!dirty) {
+			buffer.putInt(H_STATE, DIRTY);
+			buffer.force();
+			dirty = true;
+		}
+	}
+
+	private void clearIndex() {
+		byte[] zeros = new byte[8192];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(HEADER);
+		for (int left = slots * SLOT; left > 0;) {
+			int n = Math.min(left, zeros.length);
+			dup.put(zeros, 0, n);
+			left -= n;
+		}
+		buffer.putInt(H_USED, 0);
+		buffer.putInt(H_LIVE, 0);
+	}
+
+	/**
+	 * @return the slot holding the uid, or the empty slot it would go in
+	 */
+	private int find(long uid) {
+		int mask = slots - 1;
+		long h = uid * 0x9E3779B97F4A7C15L;
+		int i = (int) (h ^ (h >>> 32)) & mask;
+		while (true) {
+			int slot = HEADER + i * SLOT;
+			if (buffer.getInt(slot + 8) == EMPTY || buffer.getLong(slot) == uid)
+				return slot;
+			i = (i + 1) & mask;
+		}
+	}
+
+	private int writePos() {
+		return buffer.getInt(H_WRITE_POS);
+	}
+
+	private int used() {
+		return buffer.getInt(H_USED);
+	}
+
+	private void checkOpen() {
+		if (closed)
+			throw new IllegalStateException(file + " is closed");
+	}
+
+	private static byte[] encode(String scope, CachedUser user) {
+		long now = System.currentTimeMillis();
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+			DataOutputStream out = new DataOutputStream(bytes);
+			writeShortString(out, scope.getBytes("UTF-8"));
+			out.writeLong(user.getAbsentUntil());
+			int count = 0;
+			Map<String, CachedUser.Field> fields = user.getFields();
+			for (CachedUser.Field f : fields.values()) {
+				if (f.getExpires() > now)
+					count++;
+			}
+			out.writeShort(count);
+			for (Map.Entry<String, CachedUser.Field> e : fields.entrySet()) {
+				CachedUser.Field f = e.getValue();
+				if (f.getExpires() <= now)
+					continue; // no use keeping it
+				writeShortString(out, e.getKey().getBytes("UTF-8"));
+				out.writeLong(f.getExpires());
+				byte[] xml = f.getXml().getBytes("UTF-8");
+				out.writeInt(xml.length);
+				out.write(xml);
+			}
+			out.flush();
+			return bytes.toByteArray();
+		} catch (IOException ioe) {
+			throw new IllegalStateException(ioe); // not from memory
+		}
+	}
+
+	private static void writeShortString(DataOutputStream out, byte[] utf8)
+			throws IOException {
+		if (utf8.length > 0xffff)
+			throw new IllegalArgumentException("string of " + utf8.length
+					+ " bytes");
+		out.writeShort(utf8.length);
+		out.write(utf8);
+	}
+
+	/**
+	 * @return the user, null if the record is of another scope
+	 */
+	private CachedUser decode(int record, String scope) throws IOException {
+		int length = buffer.getInt(record + 16);
+		if (length < 0 || length > dataStart + writePos() - record - RECORD_HEAD)
+			throw new IOException("record length " + length);
+		byte[] payload = new byte[length];
+		ByteBuffer dup = buffer.duplicate();
+		dup.position(record + RECORD_HEAD);
+		dup.get(payload);
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+				payload));
+		if (!Arrays.equals(readShortString(in), scope.getBytes("UTF-8")))
+			return null;
+		CachedUser user = new CachedUser();
+		user.setAbsentUntil(in.readLong());
+		int count = in.readUnsignedShort();
+		for (int i = 0; i < count; i++) {
+			String name = new String(readShortString(in), "UTF-8");
+			long expires = in.readLong();
+			byte[] xml = new byte[in.readInt()];
+			in.readFully(xml);
+			user.setField(name, new String(xml, "UTF-8"), expires);
+		}
+		return user;
+	}
+
+	private static byte[] readShortString(DataInputStream in)
+			throws IOException {
+		byte[] utf8 = new byte[in.readUnsignedShort()];
+		in.readFully(utf8);
+		return utf8;
+	}
+}
@@ -0,0 +1,590 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import net.sf.f8api.http.UploadSource;
+import net.sf.f8api.model.Photo;
+import net.sf.f8api.xml.PhotoHandler;
+import net.sf.f8api.xml.XmlReaders;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Uploads a batch of photos into one album, several at a time:
+ * 
+ * <pre><code>
+ * PhotoImporter importer = new PhotoImporter(client, session, albumId);
+ * importer.setJournal(new File(&quot;album-import.journal&quot;));
+ * importer.setListener(listener);
+ * List&lt;PhotoImporter.Result&gt; results = importer.importPhotos(items);
+ * </code></pre>
+ * 
+ * Items are pulled from the iterator only when an upload slot is free, so a
+ * large or lazily produced batch isn't held in memory. Besides the number
+ * of parallel uploads, the bytes being sent at once are capped.
+ * 
+ * With a journal, every uploaded item is recorded with its photo id. Running
+ * the same batch again after a crash skips those items, so a resumed import
+ * doesn't upload anything twice. Failed items aren't recorded and are tried
+ * again. If the journal can't be written after an upload, the item is
+ * reported uploaded with the journal's error, no further uploads are
+ * started, and the import ends with an IOException once those running are
+ * done.
+ */
+public class PhotoImporter {
+	protected static final Log log = LogFactory.getLog(PhotoImporter.class);
+
+	public static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 4;
+
+	public static final long DEFAULT_MAX_IN_FLIGHT_BYTES = 16L * 1024 * 1024;
+
+	private static final String ENCODING = "UTF-8";
+
+	// ends each journal line, so a line cut inside its pid isn't taken whole
+	private static final String END_MARK = ";";
+
+	private final FacebookClient client;
+	private final Session session;
+	private final String albumId;
+
+	private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+	private long maxInFlightBytes = DEFAULT_MAX_IN_FLIGHT_BYTES;
+	private File journal;
+	private Listener listener;
+
+	/**
+	 * @param client
+	 *            uploads the photos
+	 * @param session
+	 *            of the user owning the album
+	 * @param albumId
+	 *            the album to fill, or null for the application's default
+	 *            album
+	 */
+	public PhotoImporter(FacebookClient client, Session session, String albumId) {
+		this.client = client;
+		this.session = session;
+		this.albumId = albumId;
+	}
+
+	/**
+	 * Upload every item. Blocks until all uploads are done; the listener hears
+	 * about each one as soon as it completes.
+	 * 
+	 * @param items
+	 *            the photos, pulled as upload slots free up
+	 * @return one result per item, in the order the items were given
+	 * @throws IOException
+	 *             if the journal can't be read or written; an import that
+	 *             couldn't record an upload stops early
+	 * @throws InterruptedException
+	 *             if interrupted while waiting for a slot or a result.
+	 *             Uploads not yet started are dropped, unreported; those
+	 *             already started are waited for and journaled.
+	 */
+	public List<Result> importPhotos(Iterator<Item> items) throws IOException,
+			InterruptedException {
+		final Map<String, Long> done = readJournal();
+		final JournalWriter writer = journal == null ? null
+				: openJournal(journal);
+
+		final Semaphore slots = new Semaphore(maxConcurrentUploads);
+		final ByteBudget bytes = new ByteBudget(maxInFlightBytes);
+		final long unknownLength = maxInFlightBytes / maxConcurrentUploads;
+		// set when the import ends early, so queued uploads don't start
+		final AtomicBoolean stopped = new AtomicBoolean();
+		final AtomicReference<Exception> journalError = new AtomicReference<Exception>();
+
+		AsyncFacebookApi async = new AsyncFacebookApi(client,
+				maxConcurrentUploads);
+		List<FacebookFuture<Result>> futures = new ArrayList<FacebookFuture<Result>>();
+		List<Result> results = new ArrayList<Result>();
+		try {
+			while (!stopped.get() && items.hasNext()) {
+				final Item item = items.next();
+
+				Long pid = done.get(item.getKey());
+				if (pid != null) {
+					Photo photo = new Photo();
+					photo.setId(pid.longValue());
+					Result skipped = new Result(item, Status.SKIPPED, photo,
+							null);
+					fire(skipped);
+					futures.add(completed(skipped));
+					continue;
+				}
+
+				long length = item.getPhoto().getLength();
+				final long weight = length < 0 ? unknownLength : length;
+				slots.acquire();
+				try {
+					bytes.acquire(weight);
+				} catch (InterruptedException ie) {
+					slots.release();
+					throw ie;
+				}
+
+				futures.add(async.submit(new Callable<Result>() {
+					public Result call() {
+						Result result;
+						try {
+							if (stopped.get()) {
+								return null;
+							}
+							result = upload(item, writer);
+							if (result.getStatus() == Status.UPLOADED
+									&& result.getError() != null) {
+								// further uploads wouldn't be recorded either
+								journalError.compareAndSet(null, result
+										.getError());
+								stopped.set(true);
+							}
+						} finally {
+							bytes.release(weight);
+							slots.release();
+						}
+						fire(result);
+						return result;
+					}
+				}));
+			}
+
+			for (FacebookFuture<Result> future : futures) {
+				try {
+					Result result = future.get();
+					if (result != null) // null if never started
+						results.add(result);
+				} catch (ExecutionException ee) {
+					// upload() catches everything it expects
+					throw new IllegalStateException(ee.getCause());
+				}
+			}
+			if (journalError.get() != null) {
+				IOException ioe = new IOException("unable to write journal "
+						+ journal + ", import stopped after "
+						+ results.size() + " items");
+				ioe.initCause(journalError.get());
+				throw ioe;
+			}
+			return results;
+		} finally {
+			// uploads still running must be journaled before it's closed, or
+			// a resumed import would upload them again
+			stopped.set(true);
+			awaitAll(futures);
+			async.shutdown();
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Wait for every upload to end, even if interrupted; the interrupt is
+	 * kept for the caller.
+	 */
+	private static void awaitAll(List<FacebookFuture<Result>> futures) {
+		boolean interrupted = false;
+		for (FacebookFuture<Result> future : futures) {
+			while (true) {
+				try {
+					future.get();
+					break;
+				} catch (InterruptedException ie) {
+					interrupted = true;
+				} catch (ExecutionException ee) {
+					break;
+				} catch (CancellationException ce) {
+					break;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * @see #importPhotos(Iterator)
+	 */
+	public List<Result> importPhotos(Iterable<Item> items) throws IOException,
+			InterruptedException {
+		return importPhotos(items.iterator());
+	}
+
+	private Result upload(Item item, JournalWriter writer) {
+		try {
+			InputStream in = client.uploadPhoto(session, albumId, item
+					.getCaption(), item.getPhoto(), null, null);
+			Photo photo;
+			try {
+				PhotoHandler handler = new PhotoHandler();
+				XmlReaders.parse(in, handler);
+				photo = handler.getPhoto();
+			} finally {
+				in.close();
+			}
+			if (photo == null) {
+				throw new IOException("no photo in upload response");
+			}
+			if (writer != null) {
+				try {
+					writer.append(item.getKey(), photo.getId());
+				} catch (IOException ioe) {
+					// uploaded all the same, but a resumed run won't know
+					log.error("unable to journal " + item.getKey() + ", pid "
+							+ photo.getId(), ioe);
+					return new Result(item, Status.UPLOADED, photo, ioe);
+				}
+			}
+			return new Result(item, Status.UPLOADED, photo, null);
+		} catch (SAXException saxe) {
+			log.warn("bad upload response for " + item.getKey(), saxe);
+			return new Result(item, Status.FAILED, null, new IOException(saxe
+					.getMessage()));
+		} catch (IOException ioe) {
+			log.warn("upload failed for " + item.getKey(), ioe);
+			return new Result(item, Status.FAILED, null, ioe);
+		} catch (FacebookException fe) {
+			log.warn("upload failed for " + item.getKey() + ": "
+					+ fe.getCode());
+			return new Result(item, Status.FAILED, null, fe);
+		} catch (RuntimeException re) {
+			log.warn("upload failed for " + item.getKey(), re);
+			return new Result(item, Status.FAILED, null, re);
+		}
+	}
+
+	private void fire(Result result) {
+		Listener l = listener;
+		if (l != null) {
+			try {
+				l.photoImported(result);
+			} catch (RuntimeException re) {
+				log.warn("listener failed", re);
+			}
+		}
+	}
+
+	private static FacebookFuture<Result> completed(final Result result) {
+		FacebookFuture<Result> future = new FacebookFuture<Result>(
+				new Callable<Result>() {
+					public Result call() {
+						return result;
+					}
+				});
+		future.run();
+		return future;
+	}
+
+	/**
+	 * @return a writer appending to the journal
+	 */
+	JournalWriter openJournal(File file) throws IOException {
+		return new JournalWriter(file);
+	}
+
+	/**
+	 * Keys and photo ids of the items a previous run uploaded. A line cut
+	 * short by a crash lacks the end mark, and is ignored.
+	 */
+	private Map<String, Long> readJournal() throws IOException {
+		if (journal == null || !journal.exists()) {
+			return Collections.emptyMap();
+		}
+		Map<String, Long> done = new HashMap<String, Long>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(journal), ENCODING));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				int tab = line.indexOf('\t');
+				if (tab <= 0 || !line.endsWith(END_MARK)) {
+					if (line.length() > 0)
+						log.warn("skipping torn journal line: " + line);
+					continue;
+				}
+				try {
+					done.put(URLDecoder.decode(line.substring(0, tab),
+							ENCODING), Long.valueOf(line.substring(tab + 1,
+							line.length() - END_MARK.length())));
+				} catch (NumberFormatException nfe) {
+					log.warn("skipping bad journal line: " + line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		if (log.isDebugEnabled())
+			log.debug("resuming, " + done.size() + " photos already uploaded");
+		return done;
+	}
+
+	public int getMaxConcurrentUploads() {
+		return maxConcurrentUploads;
+	}
+
+	public void setMaxConcurrentUploads(int maxConcurrentUploads) {
+		if (maxConcurrentUploads < 1) {
+			throw new IllegalArgumentException("maxConcurrentUploads < 1");
+		}
+		this.maxConcurrentUploads = maxConcurrentUploads;
+	}
+
+	public long getMaxInFlightBytes() {
+		return maxInFlightBytes;
+	}
+
+	/**
+	 * Cap on the bytes of all photos being uploaded at once. A single photo
+	 * larger than this is still sent, alone. Photos of unknown length count
+	 * for an equal share of the cap per upload slot.
+	 */
+	public void setMaxInFlightBytes(long maxInFlightBytes) {
+		if (maxInFlightBytes < 1) {
+			throw new IllegalArgumentException("maxInFlightBytes < 1");
+		}
+		this.maxInFlightBytes = maxInFlightBytes;
+	}
+
+	public File getJournal() {
+		return journal;
+	}
+
+	/**
+	 * @param journal
+	 *            file recording uploaded items, created if missing. Use the
+	 *            same file to resume the same batch.
+	 */
+	public void setJournal(File journal) {
+		this.journal = journal;
+	}
+
+	public Listener getListener() {
+		return listener;
+	}
+
+	public void setListener(Listener listener) {
+		this.listener = listener;
+	}
+
+	/**
+	 * One photo to import.
+	 */
+	public static class Item {
+		private final String key;
+		private final UploadSource photo;
+		private final String caption;
+
+		/**
+		 * @param key
+		 *            identifies the item in the journal, must be stable
+		 *            across runs of the same batch
+		 * @param photo
+		 *            the image
+		 * @param caption
+		 *            optional
+		 */
+		public Item(String key, UploadSource photo, String caption) {
+			if (key == null || photo == null) {
+				throw new IllegalArgumentException("key and photo are required");
+			}
+			this.key = key;
+			this.photo = photo;
+			this.caption = caption;
+		}
+
+		/**
+		 * A file, keyed by its absolute path.
+		 */
+		public Item(File photo, String caption) {
+			this(photo.getAbsolutePath(), UploadSource.forFile(photo), caption);
+		}
+
+		public String getKey() {
+			return key;
+		}
+
+		public UploadSource getPhoto() {
+			return photo;
+		}
+
+		public String getCaption() {
+			return caption;
+		}
+	}
+
+	public static enum Status {
+		/**
+		 * Uploaded by this run.
+		 */
+		UPLOADED,
+		/**
+		 * Found in the journal, uploaded by an earlier run. Only the photo id
+		 * is known.
+		 */
+		SKIPPED,
+		/**
+		 * Not uploaded, see the error.
+		 */
+		FAILED
+	}
+
+	/**
+	 * Outcome of one item.
+	 */
+	public static class Result {
+		private final Item item;
+		private final Status status;
+		private final Photo photo;
+		private final Exception error;
+
+		Result(Item item, Status status, Photo photo, Exception error) {
+			this.item = item;
+			this.status = status;
+			this.photo = photo;
+			this.error = error;
+		}
+
+		public Item getItem() {
+			return item;
+		}
+
+		public Status getStatus() {
+			return status;
+		}
+
+		/**
+		 * @return the uploaded photo, null if the upload failed
+		 */
+		public Photo getPhoto() {
+			return photo;
+		}
+
+		/**
+		 * @return an IOException, FacebookException or RuntimeException if
+		 *         the upload failed, the journal's IOException if the photo
+		 *         was uploaded but couldn't be recorded, otherwise null
+		 */
+		public Exception getError() {
+			return error;
+		}
+
+		public String toString() {
+			return item.getKey() + ": " + status
+					+ (photo != null ? " pid=" + photo.getId() : "")
+					+ (error != null ? " " + error : "");
+		}
+	}
+
+	/**
+	 * Hears about each item as it completes, on the uploading thread.
+	 */
+	public static interface Listener {
+		public void photoImported(Result result);
+	}
+
+	/**
+	 * Bytes of the photos in flight. Waits while the cap would be exceeded,
+	 * unless nothing is in flight.
+	 */
+	private static class ByteBudget {
+		private final long max;
+		private long inFlight;
+
+		ByteBudget(long max) {
+			this.max = max;
+		}
+
+		synchronized void acquire(long n) throws InterruptedException {
+			while (inFlight > 0 && inFlight + n > max) {
+				wait();
+			}
+			inFlight += n;
+		}
+
+		synchronized void release(long n) {
+			inFlight -= n;
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Appends "key TAB pid ;" lines, forced to disk one by one so a crash loses
+	 * at most the line being written; the ; marks a line written whole.
+	 */
+	static class JournalWriter {
+		private final FileOutputStream out;
+
+		JournalWriter(File file) throws IOException {
+			boolean torn = false;
+			if (file.length() > 0) {
+				RandomAccessFile raf = new RandomAccessFile(file, "r");
+				try {
+					raf.seek(raf.length() - 1);
+					torn = raf.read() != '\n';
+				} finally {
+					raf.close();
+				}
+			}
+			out = new FileOutputStream(file, true);
+			if (torn) {
+				out.write('\n'); // end the line a crash cut short
+			}
+		}
+
+		synchronized void append(String key, long pid) throws IOException {
+			out.write((encode(key) + "\t" + pid + END_MARK + "\n")
+					.getBytes(ENCODING));
+			out.getChannel().force(false);
+		}
+
+		synchronized void close() throws IOException {
+			out.close();
+		}
+
+		private static String encode(String key)
+				throws UnsupportedEncodingException {
+			return URLEncoder.encode(key, ENCODING);
+		}
+	}
+}
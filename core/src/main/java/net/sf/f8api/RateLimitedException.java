@@ -0,0 +1,37 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+/**
+ * A call refused by the {@link RateLimiter} before it was sent. The code is
+ * {@link ErrorCodes#FB_BUSY}, the same Facebook would have answered with.
+ */
+public class RateLimitedException extends FacebookException {
+	private final long retryAfter;
+
+	public RateLimitedException(long retryAfter, RateLimiter.Limit limit) {
+		super(ErrorCodes.FB_BUSY, "rate limited locally (" + limit
+				+ "), next token in " + retryAfter + "ms");
+		this.retryAfter = retryAfter;
+	}
+
+	/**
+	 * @return milliseconds until the call would have been let through
+	 */
+	public long getRetryAfter() {
+		return retryAfter;
+	}
+}
@@ -0,0 +1,384 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.InterruptedIOException;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Token buckets in front of a {@link FacebookClient}, so bursts are smoothed
+ * locally instead of being answered with {@link ErrorCodes#FB_BUSY} a round
+ * trip later:
+ * 
+ * <pre><code>
+ * RateLimiter limiter = new RateLimiter();
+ * limiter.setApplicationLimit(new RateLimiter.Limit(100, 200));
+ * limiter.setSessionLimit(new RateLimiter.Limit(5, 10));
+ * limiter.setSessionLimit(FacebookMethod.NOTIFICATIONS_SEND,
+ * 		new RateLimiter.Limit(1.0 / 60, 5));
+ * client.setRateLimiter(limiter);
+ * </code></pre>
+ * 
+ * A call takes a token from the bucket of its api key, from the bucket of
+ * its session key, and from the bucket of its session key and method if
+ * that method has a limit of its own. Buckets that aren't configured don't
+ * limit anything.
+ * 
+ * Without a free token a call waits for one, unless the wait would be
+ * longer than the maximum delay or fail fast is on; then it's refused with
+ * a {@link RateLimitedException}.
+ * 
+ * Each bucket is a single AtomicLong holding the time its next token is
+ * due (the generic cell rate algorithm), taken with one compare-and-set, so
+ * the limiter takes no locks on the call path.
+ */
+public class RateLimiter {
+	protected static final Log log = LogFactory.getLog(RateLimiter.class);
+
+	/**
+	 * Idle buckets are dropped once there are more than this many.
+	 */
+	public static final int DEFAULT_MAX_BUCKETS = 10000;
+
+	private volatile Limit applicationLimit;
+	private volatile Limit sessionLimit;
+	/**
+	 * Copied on write, so calls read it without a lock.
+	 */
+	private volatile Map<FacebookMethod, Limit> methodLimits = new EnumMap<FacebookMethod, Limit>(
+			FacebookMethod.class);
+
+	private volatile boolean failFast = false;
+	private volatile long maxDelay = 10 * 1000;
+	private volatile int maxBuckets = DEFAULT_MAX_BUCKETS;
+
+	private final ConcurrentMap<Object, Bucket> buckets = new ConcurrentHashMap<Object, Bucket>();
+	private final AtomicInteger created = new AtomicInteger();
+	private final AtomicLong refused = new AtomicLong();
+	private final AtomicLong delayed = new AtomicLong();
+
+	/**
+	 * Take a token from each bucket of the call, waiting if need be.
+	 * 
+	 * @param apiKey
+	 *            of the application
+	 * @param sessionKey
+	 *            of the user, null for calls without a session
+	 * @param method
+	 *            the method called
+	 * @throws RateLimitedException
+	 *             if there's no token and the call may not wait for one
+	 * @throws InterruptedIOException
+	 *             if interrupted while waiting
+	 */
+	public void acquire(String apiKey, String sessionKey, FacebookMethod method)
+			throws RateLimitedException, InterruptedIOException {
+		Limit appLimit = applicationLimit;
+		Limit userLimit = sessionLimit;
+		Limit methodLimit = methodLimits.get(method);
+		long maxWait = failFast ? 0 : maxDelay * 1000000L;
+		long now = System.nanoTime();
+
+		Bucket[] taken = new Bucket[3];
+		int count = 0;
+		long wait = 0;
+		try {
+			if (appLimit != null) {
+				wait = take(taken[count++] = bucket(new Key(apiKey, null),
+						appLimit, now), now, wait, maxWait);
+			}
+			String user = sessionKey == null ? apiKey : sessionKey;
+			if (userLimit != null && sessionKey != null) {
+				wait = take(taken[count++] = bucket(new Key(user, null),
+						userLimit, now), now, wait, maxWait);
+			}
+			if (methodLimit != null) {
+				wait = take(taken[count++] = bucket(new Key(user, method),
+						methodLimit, now), now, wait, maxWait);
+			}
+		} catch (RateLimitedException rle) {
+			// give back the tokens already taken for this call
+			for (int i = 0; i < count - 1; i++) {
+				taken[i].refund();
+			}
+			refused.incrementAndGet();
+			if (log.isDebugEnabled())
+				log.debug("refused " + method + ": " + rle.getMessage());
+			throw rle;
+		}
+
+		if (wait > 0) {
+			delayed.incrementAndGet();
+			try {
+				Thread.sleep(wait / 1000000L, (int) (wait % 1000000L));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException(
+						"interrupted while rate limited");
+			}
+		}
+	}
+
+	/**
+	 * @return the longest wait so far, including this bucket's
+	 */
+	private static long take(Bucket bucket, long now, long wait, long maxWait)
+			throws RateLimitedException {
+		long due = bucket.take(now, maxWait);
+		return Math.max(wait, due);
+	}
+
+	private Bucket bucket(Key key, Limit limit, long now) {
+		Bucket bucket = buckets.get(key);
+		if (bucket == null || bucket.limit != limit) {
+			Bucket fresh = new Bucket(limit, now);
+			if (bucket == null) {
+				bucket = buckets.putIfAbsent(key, fresh);
+				if (bucket == null) {
+					bucket = fresh;
+					if ((created.incrementAndGet() & 0xff) == 0
+							&& buckets.size() > maxBuckets) {
+						evictIdle();
+					}
+				}
+			} else if (buckets.replace(key, bucket, fresh)) {
+				bucket = fresh; // the limit was changed
+			} else {
+				bucket = buckets.get(key);
+			}
+		}
+		return bucket;
+	}
+
+	/**
+	 * A bucket whose next token is already due is full, dropping it loses
+	 * nothing.
+	 */
+	private void evictIdle() {
+		long now = System.nanoTime();
+		for (Iterator<Bucket> it = buckets.values().iterator(); it.hasNext();) {
+			if (it.next().isFull(now)) {
+				it.remove();
+			}
+		}
+	}
+
+	public Limit getApplicationLimit() {
+		return applicationLimit;
+	}
+
+	/**
+	 * @param limit
+	 *            for all calls of an api key, null for none
+	 */
+	public void setApplicationLimit(Limit limit) {
+		this.applicationLimit = limit;
+	}
+
+	public Limit getSessionLimit() {
+		return sessionLimit;
+	}
+
+	/**
+	 * @param limit
+	 *            for all calls of a session, null for none
+	 */
+	public void setSessionLimit(Limit limit) {
+		this.sessionLimit = limit;
+	}
+
+	public Limit getSessionLimit(FacebookMethod method) {
+		return methodLimits.get(method);
+	}
+
+	/**
+	 * @param limit
+	 *            for calls of one method in a session (or of the api key for
+	 *            methods without a session), on top of the session limit;
+	 *            null for none
+	 */
+	public synchronized void setSessionLimit(FacebookMethod method, Limit limit) {
+		Map<FacebookMethod, Limit> copy = new EnumMap<FacebookMethod, Limit>(
+				methodLimits);
+		if (limit == null) {
+			copy.remove(method);
+		} else {
+			copy.put(method, limit);
+		}
+		methodLimits = copy;
+	}
+
+	public boolean isFailFast() {
+		return failFast;
+	}
+
+	/**
+	 * @param failFast
+	 *            true to refuse calls at once when there's no token
+	 */
+	public void setFailFast(boolean failFast) {
+		this.failFast = failFast;
+	}
+
+	public long getMaxDelay() {
+		return maxDelay;
+	}
+
+	/**
+	 * @param maxDelay
+	 *            longest a call may wait for a token, in milliseconds
+	 */
+	public void setMaxDelay(long maxDelay) {
+		this.maxDelay = maxDelay;
+	}
+
+	public int getMaxBuckets() {
+		return maxBuckets;
+	}
+
+	public void setMaxBuckets(int maxBuckets) {
+		this.maxBuckets = maxBuckets;
+	}
+
+	/**
+	 * @return calls refused so far
+	 */
+	public long getRefused() {
+		return refused.get();
+	}
+
+	/**
+	 * @return calls that had to wait so far
+	 */
+	public long getDelayed() {
+		return delayed.get();
+	}
+
+	/**
+	 * A sustained rate and the burst allowed above it.
+	 */
+	public static class Limit {
+		private final double perSecond;
+		private final int burst;
+		final long interval; // nanoseconds between tokens
+		final long tolerance; // how far ahead of time the burst may run
+
+		/**
+		 * @param perSecond
+		 *            tokens added per second, may be below 1
+		 * @param burst
+		 *            tokens the bucket holds, at least 1
+		 */
+		public Limit(double perSecond, int burst) {
+			if (perSecond <= 0 || burst < 1) {
+				throw new IllegalArgumentException("perSecond <= 0 or burst < 1");
+			}
+			this.perSecond = perSecond;
+			this.burst = burst;
+			this.interval = (long) (1000000000L / perSecond);
+			this.tolerance = interval * (burst - 1);
+		}
+
+		public double getPerSecond() {
+			return perSecond;
+		}
+
+		public int getBurst() {
+			return burst;
+		}
+
+		public String toString() {
+			return perSecond + "/s, burst " + burst;
+		}
+	}
+
+	private static class Bucket {
+		final Limit limit;
+
+		/**
+		 * Theoretical arrival time: when the bucket will have been drained by
+		 * the calls let through so far, in System.nanoTime().
+		 */
+		private final AtomicLong tat;
+
+		/**
+		 * @param now
+		 *            the time of the call creating it, so that call doesn't
+		 *            find the full bucket a moment in the future
+		 */
+		Bucket(Limit limit, long now) {
+			this.limit = limit;
+			this.tat = new AtomicLong(now);
+		}
+
+		/**
+		 * @return nanoseconds to wait before the token may be used
+		 */
+		long take(long now, long maxWait) throws RateLimitedException {
+			while (true) {
+				long current = tat.get();
+				long start = current - now > 0 ? current : now;
+				long wait = start - limit.tolerance - now;
+				if (wait > maxWait) {
+					throw new RateLimitedException(wait / 1000000L + 1,
+							limit);
+				}
+				if (tat.compareAndSet(current, start + limit.interval)) {
+					return wait > 0 ? wait : 0;
+				}
+			}
+		}
+
+		void refund() {
+			tat.addAndGet(-limit.interval);
+		}
+
+		boolean isFull(long now) {
+			return tat.get() - now <= 0;
+		}
+	}
+
+	private static class Key {
+		private final String key;
+		private final FacebookMethod method;
+
+		Key(String key, FacebookMethod method) {
+			this.key = key == null ? "" : key;
+			this.method = method;
+		}
+
+		public int hashCode() {
+			return key.hashCode() * 31
+					+ (method == null ? 0 : method.hashCode());
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof Key))
+				return false;
+			Key k = (Key) o;
+			return key.equals(k.key) && method == k.method;
+		}
+	}
+}
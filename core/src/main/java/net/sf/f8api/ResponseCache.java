@@ -0,0 +1,765 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.f8api.FacebookClient.Pair;
+import net.sf.f8api.xml.UserFragmentsHandler;
+import net.sf.f8api.xml.XmlReaders;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.SAXException;
+
+/**
+ * Keeps the responses of read-only methods in memory for a time to live set
+ * per method, so repeated reads aren't sent to Facebook:
+ * 
+ * <pre><code>
+ * ResponseCache cache = new ResponseCache();
+ * cache.setTtl(FacebookMethod.USERS_GET_INFO, 10 * 60 * 1000);
+ * cache.setTtl(FacebookMethod.PROFILE_GET_FBML, 60 * 1000);
+ * client.setResponseCache(cache);
+ * </code></pre>
+ * 
+ * Responses are keyed by method, api key, session key and arguments, and
+ * the least recently used are dropped beyond the maximum number of entries.
+ * 
+ * A method may also have a stale time: for that long after a response
+ * expires it's still served, while one request refreshes it in the
+ * background, so an expiry doesn't make every request wait on Facebook. If
+ * the refresh fails the stale response is served until a later refresh
+ * succeeds or the stale time runs out.
+ * 
+ * Requests missing the same response at once share one call: the first
+ * makes it, the others wait for its response, or its failure.
+ * 
+ * With a negative time to live, errors that would be the same if the call
+ * were repeated (by default {@link ErrorCodes#FB_BAD_PARAMETER},
+ * {@link ErrorCodes#FB_UNKNOWN_METHOD} and the FQL errors) are kept too, and
+ * thrown again without asking Facebook. Other errors are never kept.
+ * 
+ * users.getInfo in XML is cached by user and field instead: a request whose
+ * users and fields are partly cached only asks Facebook for the users
+ * missing a field, and only for the fields missing, then puts the response
+ * together from the cache; requests missing the same fields of the same
+ * users at once share that call. Users Facebook didn't return are
+ * remembered as absent for the same time. Fields are cached per session, unless they're
+ * shared across sessions; only share them if every session of the
+ * application may see the same fields of the same users. Users are kept in
+ * memory, least recently used dropped beyond the maximum number of users,
+ * unless the cache is given another {@link UserStore} such as a
+ * {@link MappedUserStore}.
+ * 
+ * A cache is thread safe and may be shared between clients.
+ */
+public class ResponseCache {
+	protected static final Log log = LogFactory.getLog(ResponseCache.class);
+
+	public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+	public static final int DEFAULT_MAX_USERS = 100000;
+
+	private static final String USERS_HEAD = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\" "
+			+ "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" "
+			+ "xsi:schemaLocation=\"http://api.facebook.com/1.0/ "
+			+ "http://api.facebook.com/1.0/facebook.xsd\" list=\"true\">";
+
+	private static final String USERS_TAIL = "</users_getInfo_response>";
+
+	/**
+	 * Fetches the given fields of the given users from Facebook.
+	 */
+	static interface UsersFetcher {
+		public InputStream fetch(String[] uids, String[] fields)
+				throws IOException, FacebookException;
+	}
+
+	/**
+	 * Copied on write, so calls read it without a lock.
+	 */
+	private volatile Map<FacebookMethod, Long> ttls = new EnumMap<FacebookMethod, Long>(
+			FacebookMethod.class);
+
+	private volatile Map<FacebookMethod, Long> staleTimes = new EnumMap<FacebookMethod, Long>(
+			FacebookMethod.class);
+
+	private volatile long negativeTtl = 0;
+	private volatile Set<Integer> negativeCodes = new HashSet<Integer>(
+			Arrays.asList(new Integer[] { ErrorCodes.FB_BAD_PARAMETER,
+					ErrorCodes.FB_UNKNOWN_METHOD, ErrorCodes.FQL_PARSE_ERROR,
+					ErrorCodes.FQL_BAD_FIELD, ErrorCodes.FQL_BAD_TABLE,
+					ErrorCodes.FQL_NO_INDEX, ErrorCodes.FQL_BAD_FUNCTION,
+					ErrorCodes.FQL_WRONG_ARGUMENTS }));
+
+	private ExecutorService refresher; // created on first use
+
+	private volatile int maxEntries;
+	private volatile int maxUsers;
+	private volatile boolean usersShared = false;
+
+	private final Map<CallKey, Response> responses;
+	private final UserStore users;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong staleHits = new AtomicLong();
+
+	// calls of missing responses in flight, shared by the requests missing
+	// them meanwhile
+	private final SingleFlight loading = new SingleFlight();
+
+	public ResponseCache() {
+		this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_USERS);
+	}
+
+	/**
+	 * @param maxEntries
+	 *            most responses kept
+	 * @param maxUsers
+	 *            most users kept for users.getInfo
+	 */
+	public ResponseCache(int maxEntries, int maxUsers) {
+		this(maxEntries, maxUsers, null);
+	}
+
+	/**
+	 * @param maxEntries
+	 *            most responses kept
+	 * @param users
+	 *            where to keep users for users.getInfo
+	 */
+	public ResponseCache(int maxEntries, UserStore users) {
+		this(maxEntries, DEFAULT_MAX_USERS, users);
+	}
+
+	private ResponseCache(int maxEntries, int maxUsers, UserStore users) {
+		this.maxEntries = maxEntries;
+		this.maxUsers = maxUsers;
+		this.responses = new LinkedHashMap<CallKey, Response>(256, 0.75f,
+				true) {
+			protected boolean removeEldestEntry(
+					Map.Entry<CallKey, Response> eldest) {
+				return size() > ResponseCache.this.maxEntries;
+			}
+		};
+		this.users = users == null ? new HeapUserStore() : users;
+	}
+
+	/**
+	 * @return true if responses of the method are cached
+	 */
+	public boolean caches(FacebookMethod method) {
+		return getTtl(method) > 0;
+	}
+
+	/**
+	 * @return true if the call is cached as a whole response; users.getInfo
+	 *         in XML is cached by field instead
+	 */
+	boolean cachesResponse(FacebookMethod method,
+			Collection<Pair<String, CharSequence>> params) {
+		if (!caches(method))
+			return false;
+		if (method != FacebookMethod.USERS_GET_INFO)
+			return true;
+		for (Pair<String, CharSequence> p : params) {
+			if (p.name.equals("callback"))
+				return true;
+			if (p.name.equals("format")
+					&& FacebookApi.FORMAT_JSON.equalsIgnoreCase(String
+							.valueOf(p.value)))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Answer from the cache, or load and keep the response.
+	 * 
+	 * @param key
+	 *            identity of the call
+	 * @param load
+	 *            makes the call on a miss
+	 * @return a stream over the cached response
+	 * @throws FacebookException
+	 *             from Facebook, or kept from an earlier call
+	 */
+	InputStream get(CallKey key, Callable<InputStream> load)
+			throws IOException, FacebookException {
+		long now = System.currentTimeMillis();
+		Response cached;
+		synchronized (responses) {
+			cached = responses.get(key);
+		}
+		if (cached != null && cached.expires > now) {
+			hits.incrementAndGet();
+			return cached.replay();
+		}
+		if (cached != null && cached.staleUntil > now) {
+			staleHits.incrementAndGet();
+			if (cached.refreshing.compareAndSet(false, true)) {
+				refresh(key, load, cached);
+			}
+			return cached.replay();
+		}
+		misses.incrementAndGet();
+		return loadShared(key, load);
+	}
+
+	/**
+	 * Load the response, or wait for the load in flight of the same call. A
+	 * kept error is thrown to every waiter.
+	 */
+	private InputStream loadShared(final CallKey key,
+			final Callable<InputStream> load) throws IOException,
+			FacebookException {
+		return loading.call(key, new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return load(key, load).replay();
+			}
+		});
+	}
+
+	/**
+	 * Make the call and keep its response, or its error if it's one that
+	 * would come back.
+	 */
+	private Response load(CallKey key, Callable<InputStream> load)
+			throws IOException, FacebookException {
+		Response response;
+		try {
+			byte[] body = Streams.readFully(call(load));
+			response = new Response(body, null, System.currentTimeMillis(),
+					getTtl(key.getMethod()), getStaleTime(key.getMethod()));
+		} catch (FacebookException fe) {
+			long ttl = negativeTtl;
+			if (ttl <= 0 || !negativeCodes.contains(fe.getCode()))
+				throw fe;
+			if (log.isDebugEnabled())
+				log.debug("keeping error " + fe.getCode() + " of " + key);
+			response = new Response(null, fe, System.currentTimeMillis(),
+					ttl, 0);
+		}
+		if (response.expires > System.currentTimeMillis()) {
+			synchronized (responses) {
+				responses.put(key, response);
+			}
+		}
+		return response;
+	}
+
+	private void refresh(final CallKey key, final Callable<InputStream> load,
+			final Response stale) {
+		Runnable refresh = new Runnable() {
+			public void run() {
+				try {
+					load(key, load);
+				} catch (Exception e) {
+					// serve the stale response until it's really too old
+					log.debug("refresh of " + key + " failed", e);
+					stale.refreshing.set(false);
+				}
+			}
+		};
+		try {
+			getRefresher().execute(refresh);
+		} catch (RejectedExecutionException ree) {
+			stale.refreshing.set(false); // shut down
+		}
+	}
+
+	private synchronized ExecutorService getRefresher() {
+		if (refresher == null) {
+			refresher = Executors.newCachedThreadPool(new DaemonThreadFactory(
+					"f8api-refresh"));
+		}
+		return refresher;
+	}
+
+	/**
+	 * Stop the threads refreshing stale responses.
+	 */
+	public synchronized void shutdown() {
+		if (refresher != null)
+			refresher.shutdown();
+	}
+
+	/**
+	 * users.getInfo in XML, from cached fields where they're fresh.
+	 * 
+	 * @param session
+	 *            of the call
+	 * @param userIds
+	 * @param fields
+	 * @param fetcher
+	 *            asks Facebook for fields missing from the cache
+	 * @return the response, users in the order asked for
+	 */
+	InputStream getUsersInfo(Session session, String[] userIds,
+			String[] fields, UsersFetcher fetcher) throws IOException,
+			FacebookException {
+		String scope = session.getApiKey() + '\0'
+				+ (usersShared ? "" : session.getKey());
+		Set<Long> uids = new LinkedHashSet<Long>();
+		try {
+			for (int i = 0; i < userIds.length; i++) {
+				uids.add(Long.valueOf(userIds[i].trim()));
+			}
+		} catch (NumberFormatException nfe) {
+			return fetcher.fetch(userIds, fields); // let Facebook complain
+		}
+		Set<String> wanted = new LinkedHashSet<String>();
+		for (int i = 0; i < fields.length; i++) {
+			wanted.add(fields[i].trim());
+		}
+
+		long now = System.currentTimeMillis();
+		Map<Long, Map<String, String>> found = new HashMap<Long, Map<String, String>>();
+		Set<String> missingUids = new LinkedHashSet<String>();
+		Set<String> missingFields = new LinkedHashSet<String>();
+		synchronized (users) {
+			for (Long uid : uids) {
+				CachedUser user = users.get(scope, uid.longValue());
+				if (user != null && user.getAbsentUntil() > now)
+					continue; // not visible, nothing to return
+				Map<String, String> values = new HashMap<String, String>();
+				for (String field : wanted) {
+					String xml = user == null ? null : user.getField(field, now);
+					if (xml != null) {
+						values.put(field, xml);
+					} else {
+						missingUids.add(uid.toString());
+						missingFields.add(field);
+					}
+				}
+				found.put(uid, values);
+			}
+		}
+
+		if (missingUids.isEmpty()) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+			if (log.isDebugEnabled())
+				log.debug("users.getInfo missing " + missingFields + " of "
+						+ missingUids.size() + " of " + uids.size() + " users");
+			Map<Long, Map<String, String>> fetched = parseUsers(fetchShared(
+					session, missingUids, missingFields, fetcher));
+			store(scope, missingUids, missingFields, fetched);
+			for (String uid : missingUids) {
+				Long id = Long.valueOf(uid);
+				Map<String, String> values = fetched.get(id);
+				if (values == null) {
+					found.remove(id);
+				} else {
+					found.get(id).putAll(values);
+				}
+			}
+		}
+
+		StringBuilder xml = new StringBuilder(USERS_HEAD.length()
+				+ found.size() * 64);
+		xml.append(USERS_HEAD);
+		for (Long uid : uids) {
+			Map<String, String> values = found.get(uid);
+			if (values == null)
+				continue;
+			xml.append("<user><uid>").append(uid).append("</uid>");
+			for (String field : wanted) {
+				String value = values.get(field);
+				if (value != null)
+					xml.append(value);
+			}
+			xml.append("</user>");
+		}
+		xml.append(USERS_TAIL);
+		try {
+			return new ByteArrayInputStream(xml.toString().getBytes("UTF-8"));
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	/**
+	 * Fetch the missing fields, or wait for the fetch in flight of the same
+	 * fields of the same users.
+	 */
+	private InputStream fetchShared(Session session, Set<String> uids,
+			Set<String> fields, final UsersFetcher fetcher)
+			throws IOException, FacebookException {
+		final String[] uidArray = uids.toArray(new String[uids.size()]);
+		final String[] fieldArray = fields.toArray(new String[fields.size()]);
+		List<Pair<String, CharSequence>> params = new ArrayList<Pair<String, CharSequence>>(
+				2);
+		params.add(new Pair<String, CharSequence>("uids", join(uidArray)));
+		params.add(new Pair<String, CharSequence>("fields", join(fieldArray)));
+		CallKey key = new CallKey(FacebookMethod.USERS_GET_INFO, session
+				.getApiKey(), usersShared ? "" : session.getKey(), params);
+		return loading.call(key, new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				return fetcher.fetch(uidArray, fieldArray);
+			}
+		});
+	}
+
+	private static String join(String[] values) {
+		StringBuilder sb = new StringBuilder(values.length * 12);
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0)
+				sb.append(',');
+			sb.append(values[i]);
+		}
+		return sb.toString();
+	}
+
+	private void store(String scope, Set<String> uids, Set<String> fields,
+			Map<Long, Map<String, String>> fetched) {
+		long expires = System.currentTimeMillis()
+				+ getTtl(FacebookMethod.USERS_GET_INFO);
+		synchronized (users) {
+			for (String uid : uids) {
+				Long id = Long.valueOf(uid);
+				CachedUser user = users.get(scope, id.longValue());
+				if (user == null) {
+					user = new CachedUser();
+				}
+				Map<String, String> values = fetched.get(id);
+				if (values == null) {
+					user.setAbsentUntil(expires);
+				} else {
+					user.setAbsentUntil(0);
+					for (String field : fields) {
+						String xml = values.get(field);
+						// a field Facebook left out stays left out
+						user.setField(field, xml == null ? "" : xml, expires);
+					}
+				}
+				users.put(scope, id.longValue(), user);
+			}
+		}
+	}
+
+	private static Map<Long, Map<String, String>> parseUsers(InputStream in)
+			throws IOException, FacebookException {
+		try {
+			UserFragmentsHandler handler = new UserFragmentsHandler();
+			XmlReaders.parse(in, handler);
+			return handler.getUsers();
+		} catch (SAXException saxe) {
+			throw new IOException(saxe.getMessage());
+		} finally {
+			in.close();
+		}
+	}
+
+	private static InputStream call(Callable<InputStream> load)
+			throws IOException, FacebookException {
+		try {
+			return load.call();
+		} catch (IOException ioe) {
+			throw ioe;
+		} catch (FacebookException fe) {
+			throw fe;
+		} catch (RuntimeException re) {
+			throw re;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Forget everything cached about a user, in every session.
+	 */
+	public void invalidateUser(long uid) {
+		synchronized (users) {
+			users.remove(uid);
+		}
+	}
+
+	/**
+	 * Forget everything.
+	 */
+	public void clear() {
+		synchronized (responses) {
+			responses.clear();
+		}
+		synchronized (users) {
+			users.clear();
+		}
+	}
+
+	/**
+	 * @return milliseconds responses of the method are kept, 0 if they
+	 *         aren't cached
+	 */
+	public long getTtl(FacebookMethod method) {
+		Long ttl = ttls.get(method);
+		return ttl == null ? 0 : ttl.longValue();
+	}
+
+	/**
+	 * @param method
+	 *            a read-only method
+	 * @param ttl
+	 *            milliseconds its responses are kept, 0 to not cache them
+	 */
+	public synchronized void setTtl(FacebookMethod method, long ttl) {
+		if (!method.isReadOnly()) {
+			throw new IllegalArgumentException(method + " isn't read-only");
+		}
+		Map<FacebookMethod, Long> copy = new EnumMap<FacebookMethod, Long>(
+				ttls);
+		if (ttl <= 0) {
+			copy.remove(method);
+		} else {
+			copy.put(method, Long.valueOf(ttl));
+		}
+		ttls = copy;
+	}
+
+	/**
+	 * @return milliseconds a response of the method is still served after
+	 *         it expires, while it's refreshed
+	 */
+	public long getStaleTime(FacebookMethod method) {
+		Long stale = staleTimes.get(method);
+		return stale == null ? 0 : stale.longValue();
+	}
+
+	/**
+	 * @param method
+	 *            a cached method
+	 * @param staleTime
+	 *            milliseconds an expired response is still served while
+	 *            it's refreshed in the background, 0 to wait for a fresh one
+	 */
+	public synchronized void setStaleTime(FacebookMethod method,
+			long staleTime) {
+		Map<FacebookMethod, Long> copy = new EnumMap<FacebookMethod, Long>(
+				staleTimes);
+		if (staleTime <= 0) {
+			copy.remove(method);
+		} else {
+			copy.put(method, Long.valueOf(staleTime));
+		}
+		staleTimes = copy;
+	}
+
+	public long getNegativeTtl() {
+		return negativeTtl;
+	}
+
+	/**
+	 * @param negativeTtl
+	 *            milliseconds errors that would come back are kept, 0 (the
+	 *            default) to never keep errors
+	 */
+	public void setNegativeTtl(long negativeTtl) {
+		this.negativeTtl = negativeTtl;
+	}
+
+	public Set<Integer> getNegativeCodes() {
+		return negativeCodes;
+	}
+
+	/**
+	 * @param codes
+	 *            the error codes to keep, see {@link ErrorCodes}; only
+	 *            codes that don't depend on the server's state belong here
+	 */
+	public void setNegativeCodes(Set<Integer> codes) {
+		this.negativeCodes = new HashSet<Integer>(codes);
+	}
+
+	public int getMaxEntries() {
+		return maxEntries;
+	}
+
+	public void setMaxEntries(int maxEntries) {
+		this.maxEntries = maxEntries;
+	}
+
+	/**
+	 * @return most users kept, unless the cache was given a store
+	 */
+	public int getMaxUsers() {
+		return maxUsers;
+	}
+
+	public void setMaxUsers(int maxUsers) {
+		this.maxUsers = maxUsers;
+	}
+
+	public boolean isUsersShared() {
+		return usersShared;
+	}
+
+	/**
+	 * @param usersShared
+	 *            true to share cached user fields between the sessions of an
+	 *            application
+	 */
+	public void setUsersShared(boolean usersShared) {
+		this.usersShared = usersShared;
+	}
+
+	/**
+	 * @return requests answered from the cache alone
+	 */
+	public long getHits() {
+		return hits.get();
+	}
+
+	/**
+	 * @return requests that had to ask Facebook, for all or part of the
+	 *         response
+	 */
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return requests answered with a stale response while it's refreshed
+	 */
+	public long getStaleHits() {
+		return staleHits.get();
+	}
+
+	/**
+	 * @return misses that waited for another request's call of the same
+	 *         response rather than making their own
+	 */
+	public long getSharedMisses() {
+		return loading.getShared();
+	}
+
+	/**
+	 * @return responses and users currently kept
+	 */
+	public int size() {
+		int size;
+		synchronized (responses) {
+			size = responses.size();
+		}
+		synchronized (users) {
+			return size + users.size();
+		}
+	}
+
+	private static class Response {
+		final byte[] body;
+		final FacebookException error;
+		final long expires;
+		final long staleUntil;
+		final AtomicBoolean refreshing = new AtomicBoolean();
+
+		Response(byte[] body, FacebookException error, long now, long ttl,
+				long staleTime) {
+			this.body = body;
+			this.error = error;
+			this.expires = now + ttl;
+			this.staleUntil = expires + staleTime;
+		}
+
+		InputStream replay() throws FacebookException {
+			if (error != null)
+				throw new FacebookException(error.getErrorResponse());
+			return new ByteArrayInputStream(body);
+		}
+	}
+
+	/**
+	 * Users in memory, least recently used dropped beyond maxUsers.
+	 */
+	private class HeapUserStore implements UserStore {
+		private final Map<UserKey, CachedUser> map = new LinkedHashMap<UserKey, CachedUser>(
+				256, 0.75f, true) {
+			protected boolean removeEldestEntry(
+					Map.Entry<UserKey, CachedUser> eldest) {
+				return size() > maxUsers;
+			}
+		};
+
+		public synchronized CachedUser get(String scope, long uid) {
+			return map.get(new UserKey(scope, uid));
+		}
+
+		public synchronized void put(String scope, long uid, CachedUser user) {
+			map.put(new UserKey(scope, uid), user);
+		}
+
+		public synchronized void remove(long uid) {
+			List<UserKey> keys = new ArrayList<UserKey>();
+			for (UserKey key : map.keySet()) {
+				if (key.uid == uid)
+					keys.add(key);
+			}
+			map.keySet().removeAll(keys);
+		}
+
+		public synchronized void clear() {
+			map.clear();
+		}
+
+		public synchronized int size() {
+			return map.size();
+		}
+	}
+
+	private static class UserKey {
+		final String scope;
+		final long uid;
+
+		UserKey(String scope, long uid) {
+			this.scope = scope;
+			this.uid = uid;
+		}
+
+		public int hashCode() {
+			return scope.hashCode() * 31 + (int) (uid ^ (uid >>> 32));
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof UserKey))
+				return false;
+			UserKey k = (UserKey) o;
+			return uid == k.uid && scope.equals(k.scope);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import net.sf.f8api.xml.Cursor;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The items of a list response, parsed from the response stream as they're
+ * asked for, so a response of any length is read in constant memory:
+ * 
+ * <pre><code>
+ * ResponseIterator&lt;Long&gt; friends = client.getFriendIterator(session);
+ * try {
+ * 	while (friends.hasNext()) {
+ * 		long uid = friends.next();
+ * 		...
+ * 	}
+ * } finally {
+ * 	friends.close();
+ * }
+ * </code></pre>
+ * 
+ * The connection goes back to the pool once the last item has been read, or
+ * when the iterator is closed; closing it is needed only when leaving
+ * before the end.
+ * 
+ * The iterator is thread safe, so several threads can take items from it
+ * to work on them in parallel, one at a time or in batches with
+ * {@link #nextBatch(int)}. Batches keep the parsing, which is done by one
+ * thread at a time, from being the bottleneck.
+ * 
+ * Reading the stream may fail part way, then hasNext() and next() throw an
+ * IllegalStateException with the IOException as its cause, and the
+ * iterator is closed.
+ * 
+ * @param <T>
+ *            type of the items
+ */
+public class ResponseIterator<T> implements Iterator<T>, Closeable {
+	protected static final Log log = LogFactory.getLog(ResponseIterator.class);
+
+	private final Cursor<T> cursor;
+	private T next; // read ahead by hasNext()
+	private boolean closed;
+	private long count;
+
+	public ResponseIterator(Cursor<T> cursor) {
+		this.cursor = cursor;
+	}
+
+	public synchronized boolean hasNext() {
+		if (next == null && !closed) {
+			try {
+				next = cursor.next();
+			} catch (IOException ioe) {
+				close();
+				throw new IllegalStateException("reading the response failed",
+						ioe);
+			}
+			if (next == null) {
+				close();
+			}
+		}
+		return next != null;
+	}
+
+	public synchronized T next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+		T t = next;
+		next = null;
+		count++;
+		return t;
+	}
+
+	/**
+	 * Take up to max items at once.
+	 * 
+	 * @return the items, empty once there are no more
+	 */
+	public synchronized List<T> nextBatch(int max) {
+		List<T> batch = new ArrayList<T>(Math.min(max, 1024));
+		while (batch.size() < max && hasNext()) {
+			batch.add(next());
+		}
+		return batch;
+	}
+
+	/**
+	 * @throws UnsupportedOperationException
+	 *             always, the items are a response
+	 */
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stop reading, and give back the connection. Items not taken are lost.
+	 */
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		next = null;
+		try {
+			cursor.close();
+		} catch (IOException ioe) {
+			log.warn("closing a response failed", ioe);
+		}
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * @return items taken so far
+	 */
+	public synchronized long getCount() {
+		return count;
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.f8api.http.HttpStatusException;
+
+import org.apache.commons.httpclient.ConnectTimeoutException;
+
+/**
+ * When and how long to wait before a {@link FacebookClient} repeats a
+ * failed call. Each attempt is signed again with a fresh call_id.
+ * 
+ * Transient error codes ({@link ErrorCodes#FB_TEMP_UNAVAILABLE},
+ * {@link ErrorCodes#FB_BUSY}, {@link ErrorCodes#FB_CALL_ID_EXPIRED}) and
+ * I/O errors (other than an open {@link CircuitBreaker}) are retried, with
+ * exponential backoff and full jitter so clients that failed together don't
+ * come back together. A call refused by the {@link RateLimiter} waits at
+ * least until its next token, and isn't retried if that's past the maximum
+ * elapsed time.
+ * 
+ * Methods that aren't idempotent (see
+ * {@link FacebookMethod#isIdempotent()}) are only retried when Facebook
+ * certainly didn't act on the call: it was turned away as busy or for its
+ * call_id, or the connection was never made. A notification is never sent
+ * twice because a response got lost.
+ * 
+ * A policy is thread safe and may be shared between clients.
+ */
+public class RetryPolicy {
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+
+	private volatile int maxAttempts = DEFAULT_MAX_ATTEMPTS;
+
+	private volatile long initialBackoff = 100;
+
+	private volatile long maxBackoff = 5 * 1000;
+
+	private volatile double multiplier = 2.0;
+
+	/**
+	 * No attempt is started after this long since the first.
+	 */
+	private volatile long maxElapsed = 30 * 1000;
+
+	private final Map<FacebookMethod, Integer> methodMaxAttempts = new EnumMap<FacebookMethod, Integer>(
+			FacebookMethod.class);
+
+	private final Random random = new Random();
+
+	private final AtomicLong retries = new AtomicLong();
+
+	/**
+	 * Decide whether to make another attempt.
+	 * 
+	 * @param method
+	 *            the method called
+	 * @param failure
+	 *            the IOException or FacebookException of the last attempt
+	 * @param attempts
+	 *            attempts made so far, at least 1
+	 * @param elapsed
+	 *            milliseconds since the first attempt started
+	 * @return true to retry
+	 */
+	public boolean shouldRetry(FacebookMethod method, Exception failure,
+			int attempts, long elapsed) {
+		if (attempts >= getMaxAttempts(method) || elapsed >= maxElapsed) {
+			return false;
+		}
+		if (failure instanceof RateLimitedException) {
+			long retryAfter = ((RateLimitedException) failure).getRetryAfter();
+			if (elapsed + retryAfter >= maxElapsed)
+				return false; // no token in time
+		}
+		if (method.isIdempotent()) {
+			return isTransient(failure);
+		}
+		return isRejected(failure);
+	}
+
+	/**
+	 * @return true if the failure may go away by itself
+	 */
+	public boolean isTransient(Exception failure) {
+		if (failure instanceof FacebookException) {
+			switch (((FacebookException) failure).getCode()) {
+			case ErrorCodes.FB_TEMP_UNAVAILABLE:
+			case ErrorCodes.FB_BUSY:
+			case ErrorCodes.FB_CALL_ID_EXPIRED:
+				return true;
+			default:
+				return false;
+			}
+		}
+		if (failure instanceof HttpStatusException) {
+			// a 4xx is the request's fault, it will be refused again
+			return ((HttpStatusException) failure).isServerError();
+		}
+		if (failure instanceof InterruptedIOException) {
+			// timeouts are, being interrupted or cancelled isn't
+			return failure instanceof SocketTimeoutException
+					|| failure instanceof ConnectTimeoutException;
+		}
+		return failure instanceof IOException
+				&& !(failure instanceof CircuitOpenException);
+	}
+
+	/**
+	 * @return true if the failure means Facebook didn't act on the call
+	 */
+	public boolean isRejected(Exception failure) {
+		if (failure instanceof FacebookException) {
+			int code = ((FacebookException) failure).getCode();
+			return code == ErrorCodes.FB_BUSY
+					|| code == ErrorCodes.FB_CALL_ID_EXPIRED;
+		}
+		return failure instanceof ConnectException;
+	}
+
+	/**
+	 * Time to wait before the next attempt: a random time up to the
+	 * exponential backoff.
+	 * 
+	 * @param attempts
+	 *            attempts made so far, at least 1
+	 * @return milliseconds
+	 */
+	public long getBackoff(int attempts) {
+		double ceiling = initialBackoff * Math.pow(multiplier, attempts - 1);
+		long max = (long) Math.min(ceiling, maxBackoff);
+		return max <= 0 ? 0 : (long) (random.nextDouble() * max);
+	}
+
+	/**
+	 * Time to wait before the next attempt after the given failure: the
+	 * backoff, or longer if the failure says when to come back.
+	 * 
+	 * @param attempts
+	 *            attempts made so far, at least 1
+	 * @param failure
+	 *            the exception of the last attempt
+	 * @return milliseconds
+	 */
+	public long getBackoff(int attempts, Exception failure) {
+		long backoff = getBackoff(attempts);
+		if (failure instanceof RateLimitedException) {
+			return Math.max(backoff, ((RateLimitedException) failure)
+					.getRetryAfter());
+		}
+		return backoff;
+	}
+
+	/**
+	 * @return number of retries made under this policy
+	 */
+	public long getRetries() {
+		return retries.get();
+	}
+
+	void countRetry() {
+		retries.incrementAndGet();
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	/**
+	 * @param maxAttempts
+	 *            attempts per call including the first, 1 disables retries
+	 */
+	public void setMaxAttempts(int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts < 1");
+		}
+		this.maxAttempts = maxAttempts;
+	}
+
+	/**
+	 * @return the budget for one method, the default if it has none of its
+	 *         own
+	 */
+	public int getMaxAttempts(FacebookMethod method) {
+		synchronized (methodMaxAttempts) {
+			Integer max = methodMaxAttempts.get(method);
+			return max == null ? maxAttempts : max.intValue();
+		}
+	}
+
+	/**
+	 * Give a method its own budget of attempts.
+	 */
+	public void setMaxAttempts(FacebookMethod method, int maxAttempts) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("maxAttempts < 1");
+		}
+		synchronized (methodMaxAttempts) {
+			methodMaxAttempts.put(method, Integer.valueOf(maxAttempts));
+		}
+	}
+
+	public long getInitialBackoff() {
+		return initialBackoff;
+	}
+
+	public void setInitialBackoff(long initialBackoff) {
+		this.initialBackoff = initialBackoff;
+	}
+
+	public long getMaxBackoff() {
+		return maxBackoff;
+	}
+
+	public void setMaxBackoff(long maxBackoff) {
+		this.maxBackoff = maxBackoff;
+	}
+
+	public double getMultiplier() {
+		return multiplier;
+	}
+
+	public void setMultiplier(double multiplier) {
+		this.multiplier = multiplier;
+	}
+
+	public long getMaxElapsed() {
+		return maxElapsed;
+	}
+
+	public void setMaxElapsed(long maxElapsed) {
+		this.maxElapsed = maxElapsed;
+	}
+}
@@ -0,0 +1,250 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The current session of each user of an application, as last seen on a
+ * canvas request, so work done for a user outside a page request (a
+ * notification, a profile update) can find a session without asking
+ * Facebook for one:
+ * 
+ * <pre><code>
+ * SessionRegistry sessions = new SessionRegistry();
+ * // on each verified canvas request
+ * Session session = sessions.update(params, secret);
+ * // later, anywhere
+ * Session session = sessions.get(uid);
+ * </code></pre>
+ * 
+ * Sessions are kept by uid alone, so a registry serves one application:
+ * the api key of the first session registered, sessions of other
+ * applications are refused. Give each application its own registry.
+ * 
+ * A request carrying the session already registered gets the registered
+ * session back, so the same immutable session is shared by all the
+ * requests of a user. The registry takes no locks.
+ * 
+ * Expired sessions are dropped when they're looked up, and all at once when
+ * there are more than the maximum number of sessions; if they're all
+ * current, the new session isn't kept. That sweep runs at most once per
+ * sweep interval, so a registry full of current sessions doesn't rescan
+ * them all on every request of a new user.
+ */
+public class SessionRegistry {
+	protected static final Log log = LogFactory.getLog(SessionRegistry.class);
+
+	public static final int DEFAULT_MAX_SESSIONS = 1000000;
+
+	public static final long DEFAULT_SWEEP_INTERVAL = 60 * 1000;
+
+	private final ConcurrentMap<Long, Session> sessions = new ConcurrentHashMap<Long, Session>();
+
+	private volatile int maxSessions = DEFAULT_MAX_SESSIONS;
+	private volatile long sweepInterval = DEFAULT_SWEEP_INTERVAL;
+	private final AtomicLong lastSweep = new AtomicLong();
+	private final AtomicReference<String> apiKey = new AtomicReference<String>();
+
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong reused = new AtomicLong();
+
+	/**
+	 * @return the user's session, null if there's none or it has expired
+	 */
+	public Session get(long uid) {
+		Long key = Long.valueOf(uid);
+		Session session = sessions.get(key);
+		if (session != null && session.isExpired()) {
+			sessions.remove(key, session);
+			return null;
+		}
+		return session;
+	}
+
+	/**
+	 * The session of a canvas request.
+	 * 
+	 * @param params
+	 *            verified fb_sig parameters
+	 * @param secret
+	 *            of the application
+	 * @return the session registered for the user if it's the one in the
+	 *         parameters, else the new session, registered; null if the
+	 *         parameters carry no session
+	 * @throws IllegalArgumentException
+	 *             if the parameters are of another application
+	 * @see CanvasSession#fromParams(Map, String)
+	 */
+	public Session update(Map<String, ? extends CharSequence> params,
+			String secret) {
+		CharSequence user = params.get(FacebookParam.USER.toString());
+		CharSequence key = params.get(FacebookParam.SESSION_KEY.toString());
+		if (user == null || key == null)
+			return null;
+		CharSequence app = params.get(FacebookParam.API_KEY.toString());
+		checkApiKey(app == null ? null : app.toString());
+		try {
+			Session current = sessions.get(Long.valueOf(user.toString()));
+			if (current != null && current.getKey().contentEquals(key)
+					&& !current.isExpired()) {
+				reused.incrementAndGet();
+				return current;
+			}
+		} catch (NumberFormatException nfe) {
+			// fromParams says so
+		}
+		CanvasSession session = CanvasSession.fromParams(params, secret);
+		return session == null ? null : register(session);
+	}
+
+	/**
+	 * Make a session the user's current one, unless the user's current one
+	 * has the same key.
+	 * 
+	 * @return the session registered for the user
+	 * @throws IllegalArgumentException
+	 *             if the session is of another application than those
+	 *             already registered
+	 */
+	public Session register(Session session) {
+		checkApiKey(session.getApiKey());
+		Long uid = Long.valueOf(session.getUserId());
+		while (true) {
+			Session current = sessions.get(uid);
+			if (current == null) {
+				if (sessions.size() >= maxSessions && !makeRoom()) {
+					return session; // not kept
+				}
+				if (sessions.putIfAbsent(uid, session) == null) {
+					created.incrementAndGet();
+					return session;
+				}
+			} else if (current.getKey().equals(session.getKey())
+					&& !current.isExpired()) {
+				reused.incrementAndGet();
+				return current;
+			} else if (sessions.replace(uid, current, session)) {
+				created.incrementAndGet();
+				return session;
+			}
+		}
+	}
+
+	private void checkApiKey(String key) {
+		if (key == null)
+			return; // can't tell, take it
+		if (!apiKey.compareAndSet(null, key) && !key.equals(apiKey.get())) {
+			throw new IllegalArgumentException("session of application "
+					+ key + " in the registry of " + apiKey.get());
+		}
+	}
+
+	/**
+	 * Forget the user's session, after the user removed the application or
+	 * logged out.
+	 * 
+	 * @return the session forgotten, if any
+	 */
+	public Session remove(long uid) {
+		return sessions.remove(Long.valueOf(uid));
+	}
+
+	/**
+	 * @return true if expired sessions made room for one more; false without
+	 *         looking if they were swept less than the sweep interval ago
+	 */
+	private boolean makeRoom() {
+		long now = System.currentTimeMillis();
+		long last = lastSweep.get();
+		if (now - last < sweepInterval || !lastSweep.compareAndSet(last, now))
+			return false;
+		int removed = removeExpired();
+		if (removed > 0 && log.isDebugEnabled())
+			log.debug("dropped " + removed + " expired sessions");
+		return sessions.size() < maxSessions;
+	}
+
+	/**
+	 * Drop the expired sessions.
+	 * 
+	 * @return how many were dropped
+	 */
+	public int removeExpired() {
+		int removed = 0;
+		for (Iterator<Session> it = sessions.values().iterator(); it.hasNext();) {
+			if (it.next().isExpired()) {
+				it.remove();
+				removed++;
+			}
+		}
+		return removed;
+	}
+
+	public void clear() {
+		sessions.clear();
+	}
+
+	/**
+	 * @return sessions kept, some may have expired
+	 */
+	public int size() {
+		return sessions.size();
+	}
+
+	public int getMaxSessions() {
+		return maxSessions;
+	}
+
+	public void setMaxSessions(int maxSessions) {
+		this.maxSessions = maxSessions;
+	}
+
+	public long getSweepInterval() {
+		return sweepInterval;
+	}
+
+	/**
+	 * @param sweepInterval
+	 *            least milliseconds between two sweeps of expired sessions
+	 *            when the registry is full
+	 */
+	public void setSweepInterval(long sweepInterval) {
+		this.sweepInterval = sweepInterval;
+	}
+
+	/**
+	 * @return sessions registered, new or replacing an older one
+	 */
+	public long getCreated() {
+		return created.get();
+	}
+
+	/**
+	 * @return requests given the session already registered
+	 */
+	public long getReused() {
+		return reused.get();
+	}
+}
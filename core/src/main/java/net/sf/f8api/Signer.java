@@ -0,0 +1,281 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Computes request signatures, the MD5 of the sorted "key=value" pairs
+ * followed by the secret, in hex. Each thread has its own signer, with its
+ * own digest and buffers, so signing makes no garbage beyond the signature
+ * itself: pairs are sorted in place, encoded straight to UTF-8 and hex
+ * encoded from a table.
+ * 
+ * @see FacebookSignatureUtil
+ */
+final class Signer {
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+	private static final String SIG_PREFIX = "fb_sig_";
+
+	private static final ThreadLocal<Signer> signers = new ThreadLocal<Signer>() {
+		protected Signer initialValue() {
+			return new Signer();
+		}
+	};
+
+	/**
+	 * @return the signer of the current thread
+	 */
+	static Signer get() {
+		return signers.get();
+	}
+
+	private final MessageDigest md5;
+	private final byte[] digest = new byte[16];
+	private final char[] hex = new char[32];
+	private byte[] bytes = new byte[512];
+	private int length;
+
+	// the pairs being signed, keys without their "fb_sig_" prefix
+	private String[] keys = new String[16];
+	private int[] keyStarts = new int[16];
+	private CharSequence[] values = new CharSequence[16];
+	private int count;
+
+	private Signer() {
+		MessageDigest md = null;
+		try {
+			md = MessageDigest.getInstance("MD5");
+		} catch (NoSuchAlgorithmException ex) {
+			FacebookApi.log.debug("MD5 does not appear to be supported" + ex);
+		}
+		md5 = md;
+	}
+
+	/**
+	 * @param entries
+	 *            parameters, names may start with "fb_sig_"
+	 * @param secret
+	 * @return the signature, "" if MD5 isn't supported
+	 */
+	String sign(Iterable<Map.Entry<String, CharSequence>> entries,
+			String secret) {
+		return sign(entries, null, secret);
+	}
+
+	/**
+	 * @param entries
+	 *            parameters
+	 * @param excluded
+	 *            name of a parameter to leave out, such as the signature
+	 *            itself
+	 * @param secret
+	 * @return the signature, "" if MD5 isn't supported
+	 */
+	String signExcluding(Iterable<Map.Entry<String, CharSequence>> entries,
+			String excluded, String secret) {
+		return sign(entries, excluded, secret);
+	}
+
+	private String sign(Iterable<Map.Entry<String, CharSequence>> entries,
+			String excluded, String secret) {
+		count = 0;
+		for (Map.Entry<String, CharSequence> entry : entries) {
+			if (!entry.getKey().equals(excluded))
+				add(entry.getKey(), entry.getValue());
+		}
+		sort();
+		length = 0;
+		for (int i = 0; i < count; i++) {
+			append(keys[i], keyStarts[i]);
+			appendByte('=');
+			append(values[i], 0);
+		}
+		return finish(secret);
+	}
+
+	/**
+	 * @param params
+	 *            Strings of the form "key=value", sorted in place
+	 * @param secret
+	 * @return the signature, "" if MD5 isn't supported
+	 */
+	String sign(List<String> params, String secret) {
+		Collections.sort(params);
+		length = 0;
+		for (int i = 0, n = params.size(); i < n; i++) {
+			append(params.get(i), 0);
+		}
+		return finish(secret);
+	}
+
+	private String finish(String secret) {
+		append(secret, 0);
+		Arrays.fill(keys, 0, count, null);
+		Arrays.fill(values, 0, count, null);
+		count = 0;
+
+		if (FacebookApi.log.isDebugEnabled())
+			FacebookApi.log.debug("signing: " + utf8(bytes, length));
+		if (md5 == null)
+			return "";
+
+		md5.reset();
+		md5.update(bytes, 0, length);
+		try {
+			md5.digest(digest, 0, digest.length);
+		} catch (java.security.DigestException de) {
+			throw new IllegalStateException(de); // 16 bytes is room enough
+		}
+		for (int i = 0; i < digest.length; i++) {
+			hex[2 * i] = HEX[(digest[i] >>> 4) & 0x0f];
+			hex[2 * i + 1] = HEX[digest[i] & 0x0f];
+		}
+		String signature = new String(hex);
+
+		if (FacebookApi.log.isDebugEnabled())
+			FacebookApi.log.debug("signature: " + signature);
+		return signature;
+	}
+
+	private void add(String key, CharSequence value) {
+		if (count == keys.length) {
+			keys = Arrays.copyOf(keys, count * 2);
+			keyStarts = Arrays.copyOf(keyStarts, count * 2);
+			values = Arrays.copyOf(values, count * 2);
+		}
+		keys[count] = key;
+		keyStarts[count] = key.startsWith(SIG_PREFIX) ? SIG_PREFIX.length()
+				: 0;
+		values[count] = value;
+		count++;
+	}
+
+	/**
+	 * Insertion sort, there are rarely more than a dozen pairs.
+	 */
+	private void sort() {
+		for (int i = 1; i < count; i++) {
+			String key = keys[i];
+			int start = keyStarts[i];
+			CharSequence value = values[i];
+			int j = i - 1;
+			while (j >= 0 && compare(j, key, start, value) > 0) {
+				keys[j + 1] = keys[j];
+				keyStarts[j + 1] = keyStarts[j];
+				values[j + 1] = values[j];
+				j--;
+			}
+			keys[j + 1] = key;
+			keyStarts[j + 1] = start;
+			values[j + 1] = value;
+		}
+	}
+
+	/**
+	 * Compare pair i with another as "key=value" strings.
+	 */
+	private int compare(int i, String key, int start, CharSequence value) {
+		int c = compare(keys[i], keyStarts[i], key, start);
+		return c != 0 ? c : compare(values[i], value);
+	}
+
+	/**
+	 * Compare keys as "key=" strings, the order the "key=value" pairs sort
+	 * in.
+	 */
+	private static int compare(String a, int aStart, String b, int bStart) {
+		int aLength = a.length() - aStart;
+		int bLength = b.length() - bStart;
+		for (int i = 0;; i++) {
+			char ca = i < aLength ? a.charAt(aStart + i) : '=';
+			char cb = i < bLength ? b.charAt(bStart + i) : '=';
+			if (ca != cb)
+				return ca - cb;
+			if (i >= aLength || i >= bLength)
+				return aLength - bLength;
+		}
+	}
+
+	/**
+	 * Compare values of the same key, such as "a" and "fb_sig_a".
+	 */
+	private static int compare(CharSequence a, CharSequence b) {
+		if (a == null)
+			a = "null";
+		if (b == null)
+			b = "null";
+		for (int i = 0, n = Math.min(a.length(), b.length()); i < n; i++) {
+			char ca = a.charAt(i);
+			char cb = b.charAt(i);
+			if (ca != cb)
+				return ca - cb;
+		}
+		return a.length() - b.length();
+	}
+
+	/**
+	 * Append the UTF-8 of the characters from start.
+	 */
+	private void append(CharSequence s, int start) {
+		if (s == null)
+			s = "null"; // as string concatenation would
+		for (int i = start, n = s.length(); i < n; i++) {
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				appendByte(c);
+			} else if (c < 0x800) {
+				appendByte(0xc0 | (c >> 6));
+				appendByte(0x80 | (c & 0x3f));
+			} else if (Character.isHighSurrogate(c) && i + 1 < n
+					&& Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				appendByte(0xf0 | (cp >> 18));
+				appendByte(0x80 | ((cp >> 12) & 0x3f));
+				appendByte(0x80 | ((cp >> 6) & 0x3f));
+				appendByte(0x80 | (cp & 0x3f));
+			} else if (c >= Character.MIN_SURROGATE
+					&& c <= Character.MAX_SURROGATE) {
+				appendByte('?'); // unpaired, as String.getBytes does
+			} else {
+				appendByte(0xe0 | (c >> 12));
+				appendByte(0x80 | ((c >> 6) & 0x3f));
+				appendByte(0x80 | (c & 0x3f));
+			}
+		}
+	}
+
+	private void appendByte(int b) {
+		if (length == bytes.length) {
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+		}
+		bytes[length++] = (byte) b;
+	}
+
+	private static String utf8(byte[] bytes, int length) {
+		try {
+			return new String(bytes, 0, length, "UTF-8");
+		} catch (java.io.UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+}
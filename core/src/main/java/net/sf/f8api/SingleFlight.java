@@ -0,0 +1,145 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Lets concurrent identical reads share one call. The first thread to ask
+ * for a (method, session, arguments) makes the call; threads asking for the
+ * same while it's in flight wait for it instead of sending their own. The
+ * response is read into memory once and each thread gets its own stream
+ * over it, so every waiter can read it from the start. A failure is handed
+ * to every waiter.
+ * 
+ * <pre><code>
+ * client.setSingleFlight(new SingleFlight());
+ * </code></pre>
+ * 
+ * By default this covers profile.getFBML, groups.getMembers and
+ * events.getMembers; other read-only methods may be added. Only calls in
+ * flight are shared, nothing is kept after they complete.
+ * 
+ * A single flight is thread safe and may be shared between clients.
+ */
+public class SingleFlight {
+	protected static final Log log = LogFactory.getLog(SingleFlight.class);
+
+	private volatile Set<FacebookMethod> methods = EnumSet.of(
+			FacebookMethod.PROFILE_GET_FBML, FacebookMethod.GROUPS_GET_MEMBERS,
+			FacebookMethod.EVENTS_GET_MEMBERS);
+
+	private final ConcurrentMap<CallKey, Flight> flights = new ConcurrentHashMap<CallKey, Flight>();
+
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong shared = new AtomicLong();
+
+	/**
+	 * @return true if calls of the method are shared
+	 */
+	public boolean covers(FacebookMethod method) {
+		return methods.contains(method);
+	}
+
+	/**
+	 * Make the call, or join the identical one in flight.
+	 * 
+	 * @param key
+	 *            identity of the call
+	 * @param call
+	 *            makes the call if there's none in flight
+	 * @return a stream over the buffered response
+	 */
+	InputStream call(CallKey key, final Callable<InputStream> call)
+			throws IOException, FacebookException {
+		Flight flight = flights.get(key);
+		if (flight == null) {
+			Flight mine = new Flight(call);
+			flight = flights.putIfAbsent(key, mine);
+			if (flight == null) {
+				calls.incrementAndGet();
+				try {
+					mine.run();
+				} finally {
+					flights.remove(key, mine);
+				}
+				return new ByteArrayInputStream(mine.join());
+			}
+		}
+		shared.incrementAndGet();
+		if (log.isDebugEnabled())
+			log.debug("joining call in flight: " + key.getMethod());
+		return new ByteArrayInputStream(flight.join());
+	}
+
+	/**
+	 * @return the methods whose calls are shared
+	 */
+	public Set<FacebookMethod> getMethods() {
+		return methods;
+	}
+
+	/**
+	 * @param methods
+	 *            read-only methods whose calls are shared
+	 */
+	public void setMethods(Set<FacebookMethod> methods) {
+		for (FacebookMethod method : methods) {
+			if (!method.isReadOnly()) {
+				throw new IllegalArgumentException(method + " isn't read-only");
+			}
+		}
+		this.methods = EnumSet.copyOf(methods);
+	}
+
+	/**
+	 * @return calls made so far
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	/**
+	 * @return requests that joined a call in flight instead of making one
+	 */
+	public long getShared() {
+		return shared.get();
+	}
+
+	/**
+	 * One call in flight, its response read to the end.
+	 */
+	private static class Flight extends FacebookFuture<byte[]> {
+		Flight(final Callable<InputStream> call) {
+			super(new Callable<byte[]>() {
+				public byte[] call() throws Exception {
+					return Streams.readFully(call.call());
+				}
+			});
+		}
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Buffers responses that are kept or shared in memory.
+ */
+final class Streams {
+	private Streams() {
+	}
+
+	/**
+	 * Read a response to the end and close it.
+	 * 
+	 * @param in
+	 *            the response, null for an empty one
+	 * @return its bytes
+	 */
+	static byte[] readFully(InputStream in) throws IOException {
+		if (in == null)
+			return new byte[0];
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+			byte[] buf = new byte[4096];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -0,0 +1,123 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import net.sf.f8api.http.FormEncoded;
+
+/**
+ * Uids as the comma separated list a request parameter takes, written
+ * digit by digit from a long[] into one char array, with no string per
+ * uid:
+ * 
+ * <pre><code>
+ * params.add(new Pair&lt;String, CharSequence&gt;(&quot;uids&quot;, new UidList(uids)));
+ * </code></pre>
+ * 
+ * A list is immutable.
+ */
+public final class UidList implements FormEncoded {
+	private static final char[] COMMA = { '%', '2', 'C' };
+
+	private final char[] chars;
+	private final int count;
+
+	public UidList(long[] uids) {
+		this(uids, 0, uids.length);
+	}
+
+	/**
+	 * @param from
+	 *            index of the first uid
+	 * @param to
+	 *            index after the last uid
+	 */
+	public UidList(long[] uids, int from, int to) {
+		int length = Math.max(to - from - 1, 0); // commas
+		for (int i = from; i < to; i++) {
+			length += digits(uids[i]);
+		}
+		chars = new char[length];
+		int end = 0;
+		for (int i = from; i < to; i++) {
+			if (i > from)
+				chars[end++] = ',';
+			end += digits(uids[i]);
+			write(uids[i], chars, end);
+		}
+		count = to - from;
+	}
+
+	/**
+	 * @return how many uids there are
+	 */
+	public int size() {
+		return count;
+	}
+
+	public int length() {
+		return chars.length;
+	}
+
+	public char charAt(int index) {
+		return chars[index];
+	}
+
+	public CharSequence subSequence(int start, int end) {
+		return new String(chars, start, end - start);
+	}
+
+	public void appendFormEncoded(StringBuffer form) {
+		int start = 0;
+		for (int i = 0; i < chars.length; i++) {
+			if (chars[i] == ',') {
+				form.append(chars, start, i - start).append(COMMA);
+				start = i + 1;
+			}
+		}
+		form.append(chars, start, chars.length - start);
+	}
+
+	public String toString() {
+		return new String(chars);
+	}
+
+	private static int digits(long uid) {
+		if (uid < 0)
+			return Long.toString(uid).length();
+		int n = 1;
+		for (long v = uid; v >= 10; v /= 10) {
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Write the digits of a uid right to left, ending before end.
+	 */
+	private static void write(long uid, char[] chars, int end) {
+		if (uid < 0) { // not a uid, but written as given
+			String s = Long.toString(uid);
+			s.getChars(0, s.length(), chars, end - s.length());
+			return;
+		}
+		int i = end;
+		long v = uid;
+		do {
+			chars[--i] = (char) ('0' + (int) (v % 10));
+			v /= 10;
+		} while (v != 0);
+	}
+}
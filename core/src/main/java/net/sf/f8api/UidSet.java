@@ -0,0 +1,150 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.Arrays;
+
+/**
+ * A set of uids kept in one long[] by open addressing, with no object per
+ * uid, for membership tests against lists of millions of friends:
+ * 
+ * <pre><code>
+ * UidSet friends = new UidSet(client.getFriendUids(session));
+ * if (friends.contains(uid)) ...
+ * </code></pre>
+ * 
+ * A set is not thread safe; once filled it can be read by any number of
+ * threads.
+ */
+public class UidSet {
+	private static final long EMPTY = 0; // uid 0 is kept aside
+
+	private long[] slots;
+	private int size;
+	private boolean hasZero;
+
+	public UidSet() {
+		this(16);
+	}
+
+	/**
+	 * @param expected
+	 *            uids the set will hold without growing
+	 */
+	public UidSet(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2 && capacity < (1 << 30)) {
+			capacity <<= 1;
+		}
+		slots = new long[capacity];
+	}
+
+	public UidSet(long[] uids) {
+		this(uids.length);
+		for (long uid : uids) {
+			add(uid);
+		}
+	}
+
+	/**
+	 * @return true if the uid wasn't in the set
+	 */
+	public boolean add(long uid) {
+		if (uid == EMPTY) {
+			if (hasZero)
+				return false;
+			hasZero = true;
+			size++;
+			return true;
+		}
+		int mask = slots.length - 1;
+		for (int i = index(uid, mask);; i = (i + 1) & mask) {
+			if (slots[i] == uid)
+				return false;
+			if (slots[i] == EMPTY) {
+				slots[i] = uid;
+				if (++size * 4 > slots.length * 3)
+					grow();
+				return true;
+			}
+		}
+	}
+
+	public boolean contains(long uid) {
+		if (uid == EMPTY)
+			return hasZero;
+		int mask = slots.length - 1;
+		for (int i = index(uid, mask);; i = (i + 1) & mask) {
+			if (slots[i] == uid)
+				return true;
+			if (slots[i] == EMPTY)
+				return false;
+		}
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public void clear() {
+		Arrays.fill(slots, EMPTY);
+		size = 0;
+		hasZero = false;
+	}
+
+	/**
+	 * @return the uids, in no particular order
+	 */
+	public long[] toArray() {
+		long[] uids = new long[size];
+		int n = 0;
+		if (hasZero)
+			uids[n++] = 0;
+		for (long slot : slots) {
+			if (slot != EMPTY)
+				uids[n++] = slot;
+		}
+		return uids;
+	}
+
+	private void grow() {
+		long[] old = slots;
+		slots = new long[old.length * 2];
+		int mask = slots.length - 1;
+		for (long uid : old) {
+			if (uid == EMPTY)
+				continue;
+			int i = index(uid, mask);
+			while (slots[i] != EMPTY) {
+				i = (i + 1) & mask;
+			}
+			slots[i] = uid;
+		}
+	}
+
+	/**
+	 * Spread the bits of a uid, Fibonacci hashing, so sequential uids don't
+	 * cluster.
+	 */
+	private static int index(long uid, int mask) {
+		long h = uid * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+}
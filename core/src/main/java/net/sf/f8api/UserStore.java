@@ -0,0 +1,49 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+/**
+ * Where a {@link ResponseCache} keeps the users of users.getInfo. Users are
+ * keyed by uid within a scope: the api key, and the session key unless
+ * fields are shared between sessions.
+ * 
+ * The cache holds the store's lock while it reads a user, changes it and
+ * puts it back, so implementations should synchronize on themselves.
+ * 
+ * @see MappedUserStore
+ */
+public interface UserStore {
+
+	/**
+	 * @return the user, null if it isn't kept; changes to it are only kept
+	 *         once it's put back
+	 */
+	public CachedUser get(String scope, long uid);
+
+	public void put(String scope, long uid, CachedUser user);
+
+	/**
+	 * Forget the user in every scope.
+	 */
+	public void remove(long uid);
+
+	public void clear();
+
+	/**
+	 * @return users kept
+	 */
+	public int size();
+}
@@ -0,0 +1,407 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import net.sf.f8api.model.User;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Merges the users.getInfo requests of concurrent threads into fewer calls.
+ * Requests of the same session for the same fields that arrive within a
+ * short window are sent as one call for the union of their uids, and each
+ * request gets back the users it asked for:
+ * 
+ * <pre><code>
+ * UsersInfoBatcher batcher = new UsersInfoBatcher(client);
+ * List&lt;User&gt; users = batcher.getUsersInfo(session, uids, new String[] {
+ * 		&quot;name&quot;, &quot;pic_square&quot; });
+ * </code></pre>
+ * 
+ * A batch is sent when its window ends or when it holds the maximum number
+ * of uids, whichever comes first; a request for more uids than that is
+ * spread over several batches. Users Facebook doesn't return (not visible
+ * to the session) are left out of the result, as with a direct call. If a
+ * call fails, every request waiting on it fails the same way.
+ * 
+ * A batcher is thread safe.
+ */
+public class UsersInfoBatcher {
+	protected static final Log log = LogFactory.getLog(UsersInfoBatcher.class);
+
+	public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+	public static final int DEFAULT_MAX_CONCURRENT_CALLS = 4;
+
+	private final FacebookClient client;
+	private final ScheduledExecutorService executor;
+	private final boolean ownsExecutor;
+
+	/**
+	 * Batches still taking requests, guarded by this.
+	 */
+	private final Map<BatchKey, Batch> open = new HashMap<BatchKey, Batch>();
+
+	private volatile long window = 10;
+	private volatile int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong calls = new AtomicLong();
+
+	/**
+	 * Send batches on a pool of daemon threads, at most 4 at once.
+	 * 
+	 * @param client
+	 *            performs the calls
+	 */
+	public UsersInfoBatcher(FacebookClient client) {
+		this(client, new ScheduledThreadPoolExecutor(
+				DEFAULT_MAX_CONCURRENT_CALLS, new DaemonThreadFactory(
+						"f8api-batch")), true);
+	}
+
+	/**
+	 * Send batches on the caller's executor, which is not shut down by
+	 * {@link #shutdown()}.
+	 * 
+	 * @param client
+	 *            performs the calls
+	 * @param executor
+	 */
+	public UsersInfoBatcher(FacebookClient client,
+			ScheduledExecutorService executor) {
+		this(client, executor, false);
+	}
+
+	private UsersInfoBatcher(FacebookClient client,
+			ScheduledExecutorService executor, boolean ownsExecutor) {
+		if (client == null || executor == null) {
+			throw new IllegalArgumentException("client and executor are "
+					+ "required");
+		}
+		this.client = client;
+		this.executor = executor;
+		this.ownsExecutor = ownsExecutor;
+	}
+
+	/**
+	 * Wait for the users, as {@link FacebookClient#getUsersInfo} would.
+	 * 
+	 * @param session
+	 * @param userIds
+	 * @param fields
+	 * @return the users visible to the session, in the order asked for
+	 * @throws IOException
+	 * @throws FacebookException
+	 */
+	public List<User> getUsersInfo(Session session, String[] userIds,
+			String[] fields) throws IOException, FacebookException {
+		return submit(session, userIds, fields).join();
+	}
+
+	/**
+	 * Add a request to the open batch of its session and fields.
+	 * 
+	 * @param session
+	 * @param userIds
+	 * @param fields
+	 * @return the users visible to the session, in the order asked for,
+	 *         once the batches holding them have been answered
+	 */
+	public FacebookFuture<List<User>> submit(Session session,
+			String[] userIds, String[] fields) {
+		requests.incrementAndGet();
+		Set<String> uids = new LinkedHashSet<String>();
+		if (userIds != null) {
+			for (int i = 0; i < userIds.length; i++) {
+				if (userIds[i] != null && userIds[i].trim().length() > 0)
+					uids.add(userIds[i].trim());
+			}
+		}
+		Set<String> sortedFields = new TreeSet<String>();
+		if (fields != null) {
+			sortedFields.addAll(Arrays.asList(fields));
+		}
+		Waiter waiter = new Waiter(uids);
+		if (uids.isEmpty() || sortedFields.isEmpty()) {
+			waiter.fail(new FacebookException(ErrorCodes.FB_BAD_PARAMETER,
+					"missing arguments"));
+			return waiter;
+		}
+
+		BatchKey key = new BatchKey(session, sortedFields);
+		List<Batch> full = new ArrayList<Batch>();
+		synchronized (this) {
+			for (String uid : uids) {
+				Batch batch = open.get(key);
+				if (batch == null) {
+					batch = new Batch(key, session);
+					try {
+						executor.schedule(batch, window,
+								TimeUnit.MILLISECONDS);
+					} catch (RejectedExecutionException ree) {
+						// batches it already joined still run
+						waiter.fail(ree);
+						break;
+					}
+					open.put(key, batch);
+				}
+				batch.add(uid, waiter);
+				if (batch.uids.size() >= maxBatchSize) {
+					open.remove(key);
+					full.add(batch);
+				}
+			}
+		}
+		for (Batch batch : full) {
+			try {
+				executor.execute(batch); // the timer then finds it started
+			} catch (RejectedExecutionException ree) {
+				batch.reject(ree);
+			}
+		}
+		return waiter;
+	}
+
+	/**
+	 * Stop the executor if the batcher created it. Open batches are still
+	 * sent, later requests fail with a RejectedExecutionException.
+	 */
+	public void shutdown() {
+		if (ownsExecutor)
+			executor.shutdown();
+	}
+
+	public long getWindow() {
+		return window;
+	}
+
+	/**
+	 * @param window
+	 *            milliseconds a batch waits for more requests after its
+	 *            first
+	 */
+	public void setWindow(long window) {
+		this.window = window;
+	}
+
+	public int getMaxBatchSize() {
+		return maxBatchSize;
+	}
+
+	/**
+	 * @param maxBatchSize
+	 *            most uids sent in one call
+	 */
+	public void setMaxBatchSize(int maxBatchSize) {
+		if (maxBatchSize < 1) {
+			throw new IllegalArgumentException("maxBatchSize < 1");
+		}
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/**
+	 * @return requests submitted so far
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return users.getInfo calls made for them
+	 */
+	public long getCalls() {
+		return calls.get();
+	}
+
+	private List<User> call(Session session, String[] uids, String[] fields)
+			throws IOException, FacebookException {
+		calls.incrementAndGet();
+		return client.getUsersInfoList(session, uids, fields);
+	}
+
+	/**
+	 * Uids and waiters of one call.
+	 */
+	private class Batch implements Runnable {
+		private final BatchKey key;
+		private final Session session;
+		private final Set<String> uids = new LinkedHashSet<String>();
+		private final List<Waiter> waiters = new ArrayList<Waiter>();
+		private boolean started;
+
+		Batch(BatchKey key, Session session) {
+			this.key = key;
+			this.session = session;
+		}
+
+		/**
+		 * Called with the batcher locked.
+		 */
+		void add(String uid, Waiter waiter) {
+			uids.add(uid);
+			// a request's uids are added one after the other
+			if (waiters.isEmpty() || waiters.get(waiters.size() - 1) != waiter) {
+				waiters.add(waiter);
+				waiter.parts++;
+			}
+		}
+
+		public void run() {
+			if (!start())
+				return;
+			if (log.isDebugEnabled())
+				log.debug("users.getInfo for " + uids.size() + " uids of "
+						+ waiters.size() + " requests");
+			try {
+				List<User> users = call(session, uids.toArray(new String[uids
+						.size()]), key.fields);
+				Map<String, User> byUid = new HashMap<String, User>(
+						users.size() * 2);
+				for (User user : users) {
+					byUid.put(Long.toString(user.getUid()), user);
+				}
+				for (Waiter waiter : waiters) {
+					waiter.complete(byUid);
+				}
+			} catch (Exception e) {
+				for (Waiter waiter : waiters) {
+					waiter.fail(e);
+				}
+			}
+		}
+
+		/**
+		 * Fail the waiters of a batch the executor wouldn't take, unless
+		 * its timer got it started.
+		 */
+		void reject(RejectedExecutionException ree) {
+			if (!start())
+				return;
+			for (Waiter waiter : waiters) {
+				waiter.fail(ree);
+			}
+		}
+
+		/**
+		 * @return true if the batch wasn't started before, and is now closed
+		 *         to requests
+		 */
+		private boolean start() {
+			synchronized (UsersInfoBatcher.this) {
+				if (started)
+					return false;
+				started = true;
+				if (open.get(key) == this)
+					open.remove(key);
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * The future of one request, done when all batches holding its uids are.
+	 */
+	private static class Waiter extends FacebookFuture<List<User>> {
+		private static final Callable<List<User>> NOT_RUN = new Callable<List<User>>() {
+			public List<User> call() {
+				throw new IllegalStateException("completed by its batches");
+			}
+		};
+
+		private final Set<String> uids;
+		private final Map<String, User> found = new HashMap<String, User>();
+		int parts; // batches still to answer, guarded by the batcher
+
+		Waiter(Set<String> uids) {
+			super(NOT_RUN);
+			this.uids = uids;
+		}
+
+		synchronized void complete(Map<String, User> byUid) {
+			for (String uid : uids) {
+				User user = byUid.get(uid);
+				if (user != null)
+					found.put(uid, user);
+			}
+			if (--parts == 0) {
+				List<User> users = new ArrayList<User>(found.size());
+				for (String uid : uids) {
+					User user = found.get(uid);
+					if (user != null)
+						users.add(user);
+				}
+				set(users);
+			}
+		}
+
+		void fail(Throwable t) {
+			setException(t);
+		}
+	}
+
+	/**
+	 * Requests may share a call if they have the same session and fields.
+	 */
+	private static class BatchKey {
+		private final String apiKey;
+		private final String sessionKey;
+		private final String[] fields;
+		private final int hash;
+
+		BatchKey(Session session, Set<String> sortedFields) {
+			this.apiKey = session.getApiKey();
+			this.sessionKey = session.getKey();
+			this.fields = sortedFields.toArray(new String[sortedFields.size()]);
+			this.hash = (String.valueOf(apiKey).hashCode() * 31 + String
+					.valueOf(sessionKey).hashCode())
+					* 31 + Arrays.hashCode(fields);
+		}
+
+		public int hashCode() {
+			return hash;
+		}
+
+		public boolean equals(Object o) {
+			if (!(o instanceof BatchKey))
+				return false;
+			BatchKey k = (BatchKey) o;
+			return eq(apiKey, k.apiKey) && eq(sessionKey, k.sessionKey)
+					&& Arrays.equals(fields, k.fields);
+		}
+
+		private static boolean eq(String a, String b) {
+			return a == null ? b == null : a.equals(b);
+		}
+	}
+}
@@ -0,0 +1,295 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.util.Map;
+
+import net.sf.f8api.ConnectionSettings;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.HttpClient;
+import org.apache.commons.httpclient.HttpMethod;
+import org.apache.commons.httpclient.HttpStatus;
+import org.apache.commons.httpclient.MultiThreadedHttpConnectionManager;
+import org.apache.commons.httpclient.methods.PostMethod;
+import org.apache.commons.httpclient.methods.multipart.FilePart;
+import org.apache.commons.httpclient.methods.multipart.MultipartRequestEntity;
+import org.apache.commons.httpclient.methods.multipart.Part;
+import org.apache.commons.httpclient.methods.multipart.PartSource;
+import org.apache.commons.httpclient.methods.multipart.StringPart;
+import org.apache.commons.httpclient.params.HttpConnectionManagerParams;
+import org.apache.commons.httpclient.params.HttpMethodParams;
+import org.apache.commons.httpclient.util.IdleConnectionTimeoutThread;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * The default transport, on Apache HttpClient with its own pool of
+ * connections. Unless disabled in the {@link ConnectionSettings} it asks for
+ * compressed responses and inflates them as they are read.
+ * 
+ * @see <a href="http://commons.apache.org/httpclient/threading.html">Apache
+ *      HttpClient Threading</a>
+ */
+public class CommonsHttpTransport implements Transport {
+	protected static final Log log = LogFactory
+			.getLog(CommonsHttpTransport.class);
+	protected static final String ENCODING = "UTF-8";
+
+	protected static final int BUFF_SIZE = 1024 * 8; // for network I/O
+
+	private final HttpClient httpClient;
+	private final MultiThreadedHttpConnectionManager connectionManager;
+	private IdleConnectionTimeoutThread idleConnectionTimeoutThread;
+	private final boolean compressionEnabled;
+	private final TransferStats transferStats = new TransferStats();
+
+	public CommonsHttpTransport() {
+		this(new ConnectionSettings());
+	}
+
+	/**
+	 * @param settings
+	 *            pool size, timeouts, socket options and compression
+	 */
+	public CommonsHttpTransport(ConnectionSettings settings) {
+		compressionEnabled = settings.isCompressionEnabled();
+		connectionManager = new MultiThreadedHttpConnectionManager();
+		HttpConnectionManagerParams params = connectionManager.getParams();
+		params.setDefaultMaxConnectionsPerHost(settings
+				.getMaxConnectionsPerHost());
+		params.setMaxTotalConnections(settings.getMaxTotalConnections());
+		params.setConnectionTimeout(settings.getConnectTimeout());
+		params.setSoTimeout(settings.getReadTimeout());
+		params.setTcpNoDelay(settings.isTcpNoDelay());
+		params.setStaleCheckingEnabled(settings.isStaleCheckingEnabled());
+		if (settings.getSendBufferSize() > 0)
+			params.setSendBufferSize(settings.getSendBufferSize());
+		if (settings.getReceiveBufferSize() > 0)
+			params.setReceiveBufferSize(settings.getReceiveBufferSize());
+
+		httpClient = new HttpClient(connectionManager);
+		httpClient.getParams().setConnectionManagerTimeout(
+				settings.getPoolTimeout());
+
+		// close connections the pool hasn't handed out in a while
+		if (settings.getIdleTimeout() > 0) {
+			idleConnectionTimeoutThread = new IdleConnectionTimeoutThread();
+			idleConnectionTimeoutThread.setName("f8api-idle-connections");
+			idleConnectionTimeoutThread.setConnectionTimeout(settings
+					.getIdleTimeout());
+			idleConnectionTimeoutThread.setTimeoutInterval(settings
+					.getIdleCheckInterval());
+			idleConnectionTimeoutThread.addConnectionManager(connectionManager);
+			idleConnectionTimeoutThread.start();
+		}
+	}
+
+	public InputStream postFile(String url, Map<String, CharSequence> params,
+			UploadSource upload) throws IOException {
+		PostMethod multipartPost = new PostMethod(url);
+		multipartPost.getParams().setBooleanParameter(
+				HttpMethodParams.USE_EXPECT_CONTINUE, true);
+		if (compressionEnabled)
+			multipartPost.setRequestHeader("Accept-Encoding",
+					ContentDecoder.ACCEPT_ENCODING);
+
+		Part[] parts = new Part[params.size() + 1];
+		parts[0] = new UploadPart(upload);
+
+		int partNo = 1;
+		for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
+			parts[partNo] = new StringPart(entry.getKey(), entry.getValue()
+					.toString(), ENCODING);
+			partNo++;
+		}
+		multipartPost.setRequestEntity(new MultipartRequestEntity(parts,
+				multipartPost.getParams()));
+
+		if (log.isDebugEnabled())
+			log.debug("POST: " + url + " with " + upload);
+
+		int iGetResultCode;
+		try {
+			iGetResultCode = httpClient.executeMethod(multipartPost);
+		} catch (IOException ioe) {
+			multipartPost.releaseConnection();
+			throw ioe;
+		}
+
+		if (iGetResultCode >= HttpStatus.SC_BAD_REQUEST) {
+			multipartPost.releaseConnection();
+			throw new HttpStatusException(iGetResultCode, multipartPost
+					.getStatusText());
+		}
+
+		return getResponseBody(multipartPost);
+	}
+
+	public InputStream post(String url, Map<String, CharSequence> params)
+			throws IOException {
+
+		PostMethod post = null;
+		try {
+			post = new PostMethod(url);
+			if (compressionEnabled)
+				post.setRequestHeader("Accept-Encoding",
+						ContentDecoder.ACCEPT_ENCODING);
+
+			for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
+				// NOTE: the value will be URLEncoded by PostMethod for us!
+				post.setParameter(entry.getKey(), entry.getValue().toString());
+			}
+
+			// debug the request as a GET (it's really a POST)
+			if (log.isDebugEnabled()) {
+				StringBuffer msg = new StringBuffer();
+				msg.append("POST: ");
+				msg.append(post.getURI());
+				msg.append("?");
+				if (post.getQueryString() != null) {
+					msg.append(post.getQueryString());
+					msg.append("&");
+				}
+				ByteArrayOutputStream reqBody = new ByteArrayOutputStream(
+						(int) post.getRequestEntity().getContentLength());
+				post.getRequestEntity().writeRequest(reqBody);
+				msg.append(reqBody.toString(ENCODING));
+				log.debug(msg);
+			}
+
+			// check response code
+			int iGetResultCode = httpClient.executeMethod(post);
+
+			if (iGetResultCode >= HttpStatus.SC_BAD_REQUEST) {
+				post.releaseConnection();
+				throw new HttpStatusException(iGetResultCode, post
+						.getStatusText());
+			}
+
+			// read the XML
+			return getResponseBody(post);
+		} catch (MalformedURLException murle) {
+			throw new IOException(murle.getMessage());
+		}
+	}
+
+	/**
+	 * @return byte counts of the responses received so far
+	 */
+	public TransferStats getTransferStats() {
+		return transferStats;
+	}
+
+	public void shutdown() {
+		if (idleConnectionTimeoutThread != null) {
+			idleConnectionTimeoutThread.shutdown();
+		}
+		connectionManager.shutdown(); // close all connections
+	}
+
+	/**
+	 * Decode the body as it's read, the connection is released when the
+	 * returned stream is closed.
+	 */
+	private InputStream getResponseBody(HttpMethod method) throws IOException {
+		Header encoding = method.getResponseHeader("Content-Encoding");
+		try {
+			return new HttpClientInputStream(ContentDecoder.decode(method
+					.getResponseBodyAsStream(), encoding == null ? null
+					: encoding.getValue(), transferStats), method);
+		} catch (IOException ioe) {
+			method.releaseConnection();
+			throw ioe;
+		}
+	}
+
+	/**
+	 * A file part written from an {@link UploadSource} instead of a
+	 * PartSource's input stream. A length of -1 makes the whole request
+	 * chunked.
+	 */
+	private static class UploadPart extends FilePart {
+		private final UploadSource upload;
+
+		UploadPart(UploadSource upload) {
+			super(upload.getName(), new UploadPartSource(upload), upload
+					.getContentType(), null);
+			this.upload = upload;
+		}
+
+		public boolean isRepeatable() {
+			return upload.isRepeatable();
+		}
+
+		protected long lengthOfData() {
+			return upload.getLength();
+		}
+
+		protected void sendData(OutputStream out) throws IOException {
+			upload.writeTo(out);
+		}
+	}
+
+	/**
+	 * An {@link UploadSource} as a PartSource. UploadPart sends the content
+	 * with {@link UploadSource#writeTo(OutputStream)}, so the stream is only
+	 * opened by code reading the part some other way.
+	 */
+	private static class UploadPartSource implements PartSource {
+		private final UploadSource upload;
+
+		UploadPartSource(UploadSource upload) {
+			this.upload = upload;
+		}
+
+		public long getLength() {
+			return upload.getLength();
+		}
+
+		public String getFileName() {
+			return upload.getName();
+		}
+
+		public InputStream createInputStream() throws IOException {
+			return upload.openStream();
+		}
+	}
+
+	/**
+	 * Manage connection releases without memory leaks. This will release the
+	 * connection immediately after the InputStream is closed.
+	 */
+	private static class HttpClientInputStream extends BufferedInputStream {
+		private HttpMethod httpMethod;
+
+		public HttpClientInputStream(InputStream in, HttpMethod httpMethod) {
+			super(in, BUFF_SIZE);
+			this.httpMethod = httpMethod;
+		}
+
+		public void close() throws IOException {
+			super.close();
+			httpMethod.releaseConnection(); // clean up
+		}
+	}
+}
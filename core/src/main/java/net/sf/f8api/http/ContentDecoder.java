@@ -0,0 +1,174 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Streaming decompression of gzip and deflate response bodies, shared by the
+ * transports. Nothing is buffered beyond the decoder's own window, the body
+ * is inflated as the parser reads it.
+ */
+final class ContentDecoder {
+	/**
+	 * Value of the Accept-Encoding request header.
+	 */
+	static final String ACCEPT_ENCODING = "gzip, deflate";
+
+	private static final int BUFF_SIZE = 1024 * 8; // per read
+
+	private ContentDecoder() {
+	}
+
+	/**
+	 * Wrap a raw response body according to its Content-Encoding. Closing the
+	 * returned stream closes the raw one.
+	 * 
+	 * @param raw
+	 *            the body as it comes off the connection, may be null
+	 * @param contentEncoding
+	 *            the Content-Encoding header, may be null
+	 * @param stats
+	 *            counters to update as the body is read
+	 * @return the decoded body, or null if raw was null
+	 * @throws IOException
+	 *             if the gzip header can't be read
+	 */
+	static InputStream decode(InputStream raw, String contentEncoding,
+			TransferStats stats) throws IOException {
+		if (raw == null) {
+			return null;
+		}
+		String encoding = contentEncoding == null ? "" : contentEncoding
+				.trim().toLowerCase();
+		boolean gzip = "gzip".equals(encoding) || "x-gzip".equals(encoding);
+		if (!gzip && !"deflate".equals(encoding)) {
+			stats.addResponse(false);
+			return new CountingInputStream(raw, stats);
+		}
+		stats.addResponse(true);
+		PushbackInputStream wire = new PushbackInputStream(
+				new CountingInputStream(raw, stats, true), 2);
+		int first = wire.read();
+		if (first == -1) {
+			// an empty body (a 204, say) has no gzip header to read
+			return wire;
+		}
+		wire.unread(first);
+		InputStream decoded = gzip ? new GZIPInputStream(wire, BUFF_SIZE)
+				: inflate(wire);
+		return new CountingInputStream(decoded, stats, false);
+	}
+
+	/**
+	 * "deflate" is meant to be zlib wrapped, but some servers send a bare
+	 * deflate stream; look at the first two bytes to tell them apart.
+	 */
+	private static InputStream inflate(PushbackInputStream pin)
+			throws IOException {
+		int b0 = pin.read();
+		int b1 = b0 == -1 ? -1 : pin.read();
+		if (b1 != -1)
+			pin.unread(b1);
+		if (b0 != -1)
+			pin.unread(b0);
+		boolean zlib = b1 != -1 && (b0 & 0x0f) == 8
+				&& ((b0 << 8) | b1) % 31 == 0;
+		return new EndingInflaterInputStream(pin, new Inflater(!zlib));
+	}
+
+	/**
+	 * Frees the native inflater on close, InflaterInputStream only does that
+	 * for inflaters it created itself.
+	 */
+	private static class EndingInflaterInputStream extends InflaterInputStream {
+		EndingInflaterInputStream(InputStream in, Inflater inflater) {
+			super(in, inflater, BUFF_SIZE);
+		}
+
+		public void close() throws IOException {
+			try {
+				super.close();
+			} finally {
+				inf.end();
+			}
+		}
+	}
+
+	/**
+	 * Adds the bytes read to the wire count, the decoded count, or both.
+	 */
+	private static class CountingInputStream extends FilterInputStream {
+		private final TransferStats stats;
+		private final boolean wire;
+		private final boolean decoded;
+
+		/**
+		 * Counts an unencoded body, as both wire and decoded bytes.
+		 */
+		CountingInputStream(InputStream in, TransferStats stats) {
+			super(in);
+			this.stats = stats;
+			this.wire = true;
+			this.decoded = true;
+		}
+
+		CountingInputStream(InputStream in, TransferStats stats, boolean wire) {
+			super(in);
+			this.stats = stats;
+			this.wire = wire;
+			this.decoded = !wire;
+		}
+
+		public int read() throws IOException {
+			int b = super.read();
+			if (b != -1)
+				count(1);
+			return b;
+		}
+
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count(n);
+			return n;
+		}
+
+		public long skip(long n) throws IOException {
+			long skipped = super.skip(n);
+			if (skipped > 0)
+				count(skipped);
+			return skipped;
+		}
+
+		public boolean markSupported() {
+			return false; // a reset would count bytes twice
+		}
+
+		private void count(long n) {
+			if (wire)
+				stats.addWireBytes(n);
+			if (decoded)
+				stats.addDecodedBytes(n);
+		}
+	}
+}
@@ -0,0 +1,29 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+/**
+ * A parameter value that writes its own form encoding, for values that can
+ * do it cheaper than <code>URLEncoder</code>. Transports building a form
+ * body themselves use it instead of encoding the value's string.
+ */
+public interface FormEncoded extends CharSequence {
+	/**
+	 * Append the value to a form encoded body, exactly as
+	 * <code>URLEncoder.encode(toString(), "UTF-8")</code> would have.
+	 */
+	public void appendFormEncoded(StringBuffer form);
+}
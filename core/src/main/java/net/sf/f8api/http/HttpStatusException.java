@@ -0,0 +1,42 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.IOException;
+
+/**
+ * The REST server answered with an HTTP error status.
+ */
+public class HttpStatusException extends IOException {
+	private final int status;
+
+	public HttpStatusException(int status, String reason) {
+		super("HTTP " + status + " " + reason);
+		this.status = status;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	/**
+	 * @return true for 5xx statuses, the server's fault rather than the
+	 *         request's
+	 */
+	public boolean isServerError() {
+		return status >= 500;
+	}
+}
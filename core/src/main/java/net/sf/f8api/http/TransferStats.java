@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Running totals of response bodies received by a transport. Wire bytes are
+ * counted as they arrive, before decompression; decoded bytes are what the
+ * parsers got to read. Only bytes actually read are counted, so a response
+ * closed early counts for what was consumed.
+ * 
+ * Thread safe, the counters may be read while calls are in progress.
+ */
+public class TransferStats {
+	private final AtomicLong responses = new AtomicLong();
+	private final AtomicLong compressedResponses = new AtomicLong();
+	private final AtomicLong wireBytes = new AtomicLong();
+	private final AtomicLong decodedBytes = new AtomicLong();
+
+	/**
+	 * @return number of response bodies opened
+	 */
+	public long getResponses() {
+		return responses.get();
+	}
+
+	/**
+	 * @return number of response bodies sent gzip or deflate encoded
+	 */
+	public long getCompressedResponses() {
+		return compressedResponses.get();
+	}
+
+	/**
+	 * @return body bytes read from the network, still encoded
+	 */
+	public long getWireBytes() {
+		return wireBytes.get();
+	}
+
+	/**
+	 * @return body bytes after decompression
+	 */
+	public long getDecodedBytes() {
+		return decodedBytes.get();
+	}
+
+	/**
+	 * @return decoded bytes per wire byte, 1.0 when nothing was compressed
+	 */
+	public double getCompressionRatio() {
+		long wire = wireBytes.get();
+		return wire == 0 ? 1.0 : (double) decodedBytes.get() / wire;
+	}
+
+	public void reset() {
+		responses.set(0);
+		compressedResponses.set(0);
+		wireBytes.set(0);
+		decodedBytes.set(0);
+	}
+
+	void addResponse(boolean compressed) {
+		responses.incrementAndGet();
+		if (compressed)
+			compressedResponses.incrementAndGet();
+	}
+
+	void addWireBytes(long n) {
+		wireBytes.addAndGet(n);
+	}
+
+	void addDecodedBytes(long n) {
+		decodedBytes.addAndGet(n);
+	}
+
+	public String toString() {
+		return "responses=" + getResponses() + ", compressed="
+				+ getCompressedResponses() + ", wireBytes=" + getWireBytes()
+				+ ", decodedBytes=" + getDecodedBytes();
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+
+/**
+ * Moves signed requests to the REST server and hands back the response body.
+ * The request parameters are already complete, including the signature.
+ * 
+ * Implementations must be thread safe. The returned stream holds on to its
+ * connection until it is closed, so callers must always close it.
+ * 
+ * @see CommonsHttpTransport
+ * @see UrlConnectionTransport
+ */
+public interface Transport {
+
+	/**
+	 * POST the parameters as an url-encoded form.
+	 * 
+	 * @param url
+	 *            the REST server address
+	 * @param params
+	 *            form fields, values are not yet encoded
+	 * @return the response body
+	 * @throws IOException
+	 *             on communication errors, or a {@link HttpStatusException}
+	 *             for HTTP error statuses
+	 */
+	public InputStream post(String url, Map<String, CharSequence> params)
+			throws IOException;
+
+	/**
+	 * POST the parameters and a file as a multipart form. The file is
+	 * streamed from its source while the request is sent.
+	 * 
+	 * @param url
+	 *            the REST server address
+	 * @param params
+	 *            form fields
+	 * @param upload
+	 *            the file to upload
+	 * @return the response body
+	 * @throws IOException
+	 *             on communication errors, or a {@link HttpStatusException}
+	 *             for HTTP error statuses
+	 */
+	public InputStream postFile(String url, Map<String, CharSequence> params,
+			UploadSource upload) throws IOException;
+
+	/**
+	 * Close all connections. The transport must not be used afterwards.
+	 */
+	public void shutdown();
+}
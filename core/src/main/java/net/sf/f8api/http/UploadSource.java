@@ -0,0 +1,319 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * The body of an uploaded file, streamed into the request as it is sent
+ * rather than staged in memory or on disk first: files and streams go
+ * through small buffers, and heap buffers are written from their array.
+ * The request body is only reachable as an OutputStream, so bytes of a
+ * file or a direct buffer are still copied through the heap on their way,
+ * a buffer at a time.
+ * 
+ * Sources of a known length let the request be sent with a Content-Length
+ * instead of chunked.
+ */
+public abstract class UploadSource {
+	protected static final int BUFF_SIZE = 1024 * 8; // for network I/O
+
+	private final String name;
+
+	private final String contentType;
+
+	protected UploadSource(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("name is required");
+		}
+		this.name = name;
+		this.contentType = guessContentType(name);
+	}
+
+	/**
+	 * Upload a file, sent from its channel with transferTo. Its length is
+	 * taken once, when first asked for, and exactly that many bytes are
+	 * sent.
+	 */
+	public static UploadSource forFile(File file) {
+		return new FileSource(file);
+	}
+
+	/**
+	 * Upload the rest of a stream. The stream is read once and closed, so the
+	 * request can't be replayed.
+	 * 
+	 * @param name
+	 *            file name sent to Facebook, the extension sets the type
+	 * @param in
+	 *            the content
+	 * @param length
+	 *            number of bytes in the stream, or -1 if unknown
+	 */
+	public static UploadSource forStream(String name, InputStream in,
+			long length) {
+		return new StreamSource(name, in, length);
+	}
+
+	/**
+	 * Upload the remaining bytes of a buffer, heap or direct. The buffer's
+	 * position isn't changed, so the request can be replayed.
+	 * 
+	 * @param name
+	 *            file name sent to Facebook, the extension sets the type
+	 * @param buffer
+	 *            the content, between position and limit
+	 */
+	public static UploadSource forBuffer(String name, ByteBuffer buffer) {
+		return new BufferSource(name, buffer);
+	}
+
+	/**
+	 * @return the file name sent in the multipart form
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return MIME type, from the name's extension
+	 */
+	public String getContentType() {
+		return contentType;
+	}
+
+	/**
+	 * @return number of bytes writeTo will write, or -1 if not known in
+	 *         advance
+	 */
+	public abstract long getLength();
+
+	/**
+	 * @return true if writeTo may be called more than once
+	 */
+	public abstract boolean isRepeatable();
+
+	/**
+	 * Write the content to the request body.
+	 * 
+	 * @param out
+	 *            the request body
+	 * @throws IOException
+	 *             if the content can't be read or sent
+	 */
+	public abstract void writeTo(OutputStream out) throws IOException;
+
+	/**
+	 * The content as a stream, for code that reads it rather than having it
+	 * written. The sources given by the factory methods stream it; this
+	 * default collects what writeTo writes in memory.
+	 * 
+	 * @return the content, to be closed by the caller
+	 * @throws IOException
+	 *             if the content can't be read
+	 */
+	public InputStream openStream() throws IOException {
+		long length = getLength();
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length > 0
+				&& length < Integer.MAX_VALUE ? (int) length : BUFF_SIZE);
+		writeTo(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	public String toString() {
+		return name + " (" + contentType + ", " + getLength() + " bytes)";
+	}
+
+	private static String guessContentType(String name) {
+		String lower = name.toLowerCase();
+		if (lower.endsWith(".jpg") || lower.endsWith(".jpeg"))
+			return "image/jpeg";
+		if (lower.endsWith(".gif"))
+			return "image/gif";
+		if (lower.endsWith(".png"))
+			return "image/png";
+		if (lower.endsWith(".bmp"))
+			return "image/bmp";
+		if (lower.endsWith(".tif") || lower.endsWith(".tiff"))
+			return "image/tiff";
+		return "application/octet-stream";
+	}
+
+	private static class FileSource extends UploadSource {
+		private final File file;
+		private long length = -1; // taken on first use, then declared
+
+		FileSource(File file) {
+			super(file.getName());
+			this.file = file;
+		}
+
+		/**
+		 * @return the size of the file's channel, as writeTo sends it
+		 */
+		public synchronized long getLength() {
+			if (length < 0) {
+				try {
+					FileInputStream in = new FileInputStream(file);
+					try {
+						length = in.getChannel().size();
+					} finally {
+						in.close();
+					}
+				} catch (IOException ioe) {
+					return -1; // writeTo will say why
+				}
+			}
+			return length;
+		}
+
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		public InputStream openStream() throws IOException {
+			return new FileInputStream(file);
+		}
+
+		/**
+		 * transferTo into a stream's channel copies through a buffer; the
+		 * socket itself is only reachable through a stream here.
+		 */
+		public void writeTo(OutputStream out) throws IOException {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				FileChannel channel = in.getChannel();
+				WritableByteChannel target = Channels.newChannel(out);
+				long size = getLength();
+				if (size < 0 || channel.size() < size) {
+					throw new EOFException(getName() + " is shorter than the "
+							+ size + " bytes declared");
+				}
+				long position = 0;
+				while (position < size) {
+					long sent = channel.transferTo(position, size - position,
+							target);
+					if (sent == 0 && position >= channel.size()) {
+						// truncated since, transferTo would return 0 for ever
+						throw new EOFException(getName() + " ended after "
+								+ position + " of " + size + " bytes");
+					}
+					position += sent;
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static class StreamSource extends UploadSource {
+		private final InputStream in;
+		private final long length;
+
+		StreamSource(String name, InputStream in, long length) {
+			super(name);
+			if (in == null) {
+				throw new IllegalArgumentException("stream is required");
+			}
+			this.in = in;
+			this.length = length;
+		}
+
+		public long getLength() {
+			return length;
+		}
+
+		public boolean isRepeatable() {
+			return false;
+		}
+
+		public InputStream openStream() {
+			return in;
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			try {
+				byte[] buff = new byte[BUFF_SIZE];
+				long total = 0;
+				int len;
+				while ((length < 0 || total < length)
+						&& (len = in.read(buff, 0, length < 0 ? buff.length
+								: (int) Math.min(buff.length, length - total))) != -1) {
+					out.write(buff, 0, len);
+					total += len;
+				}
+				if (length >= 0 && total < length) {
+					throw new EOFException(getName() + " ended after " + total
+							+ " of " + length + " bytes");
+				}
+			} finally {
+				in.close();
+			}
+		}
+	}
+
+	private static class BufferSource extends UploadSource {
+		private final ByteBuffer buffer;
+
+		BufferSource(String name, ByteBuffer buffer) {
+			super(name);
+			if (buffer == null) {
+				throw new IllegalArgumentException("buffer is required");
+			}
+			this.buffer = buffer;
+		}
+
+		public long getLength() {
+			return buffer.remaining();
+		}
+
+		public boolean isRepeatable() {
+			return true;
+		}
+
+		public InputStream openStream() throws IOException {
+			if (!buffer.hasArray())
+				return super.openStream(); // a copy of the direct buffer
+			int offset = buffer.arrayOffset() + buffer.position();
+			return new ByteArrayInputStream(buffer.array(), offset, buffer
+					.remaining());
+		}
+
+		public void writeTo(OutputStream out) throws IOException {
+			ByteBuffer content = buffer.duplicate();
+			if (content.hasArray()) {
+				out.write(content.array(), content.arrayOffset()
+						+ content.position(), content.remaining());
+			} else {
+				WritableByteChannel target = Channels.newChannel(out);
+				while (content.hasRemaining()) {
+					target.write(content);
+				}
+			}
+		}
+	}
+}
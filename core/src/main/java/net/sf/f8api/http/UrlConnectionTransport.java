@@ -0,0 +1,226 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.util.Map;
+
+import net.sf.f8api.ConnectionSettings;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Transport on the JDK's own <code>HttpURLConnection</code>, with no
+ * dependency beyond the JRE. Connections are kept alive and reused by the
+ * JDK; the size of that cache is the <code>http.maxConnections</code> system
+ * property (5 per host by default), so only the timeouts and the compression
+ * flag of the {@link ConnectionSettings} apply here.
+ * 
+ * Request bodies are streamed rather than buffered by the JDK, with a fixed
+ * length unless an upload's length isn't known.
+ */
+public class UrlConnectionTransport implements Transport {
+	protected static final Log log = LogFactory
+			.getLog(UrlConnectionTransport.class);
+	protected static final String ENCODING = "UTF-8";
+
+	protected static final int BUFF_SIZE = 1024 * 8; // for network I/O
+
+	private static final String CRLF = "\r\n";
+
+	private final int connectTimeout;
+	private final int readTimeout;
+	private final boolean compressionEnabled;
+	private final TransferStats transferStats = new TransferStats();
+
+	public UrlConnectionTransport() {
+		this(new ConnectionSettings());
+	}
+
+	/**
+	 * @param settings
+	 *            only the timeouts and compression are used
+	 */
+	public UrlConnectionTransport(ConnectionSettings settings) {
+		this.connectTimeout = settings.getConnectTimeout();
+		this.readTimeout = settings.getReadTimeout();
+		this.compressionEnabled = settings.isCompressionEnabled();
+	}
+
+	public InputStream post(String url, Map<String, CharSequence> params)
+			throws IOException {
+		StringBuffer form = new StringBuffer(params.size() * 32);
+		for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
+			if (form.length() > 0) {
+				form.append('&');
+			}
+			form.append(URLEncoder.encode(entry.getKey(), ENCODING));
+			form.append('=');
+			if (entry.getValue() instanceof FormEncoded) {
+				((FormEncoded) entry.getValue()).appendFormEncoded(form);
+			} else {
+				form.append(URLEncoder.encode(entry.getValue().toString(),
+						ENCODING));
+			}
+		}
+		if (log.isDebugEnabled())
+			log.debug("POST: " + url + "?" + form);
+		byte[] body = form.toString().getBytes(ENCODING);
+
+		HttpURLConnection conn = open(url);
+		conn.setRequestProperty("Content-Type",
+				"application/x-www-form-urlencoded; charset=" + ENCODING);
+		conn.setFixedLengthStreamingMode(body.length);
+
+		try {
+			OutputStream out = conn.getOutputStream();
+			try {
+				out.write(body);
+			} finally {
+				out.close();
+			}
+		} catch (IOException ioe) {
+			conn.disconnect(); // half a request, don't keep the connection
+			throw ioe;
+		}
+		return getResponse(conn);
+	}
+
+	public InputStream postFile(String url, Map<String, CharSequence> params,
+			UploadSource upload) throws IOException {
+		String boundary = "----------f8api" + Long.toHexString(System.nanoTime());
+
+		// everything but the file, so the length is known up front
+		ByteArrayOutputStream head = new ByteArrayOutputStream(
+				params.size() * 128);
+		for (Map.Entry<String, CharSequence> entry : params.entrySet()) {
+			writeAscii(head, "--" + boundary + CRLF);
+			writeAscii(head, "Content-Disposition: form-data; name=\""
+					+ entry.getKey() + "\"" + CRLF);
+			writeAscii(head, "Content-Type: text/plain; charset=" + ENCODING
+					+ CRLF + CRLF);
+			head.write(entry.getValue().toString().getBytes(ENCODING));
+			writeAscii(head, CRLF);
+		}
+		writeAscii(head, "--" + boundary + CRLF);
+		writeAscii(head, "Content-Disposition: form-data; name=\""
+				+ upload.getName() + "\"; filename=\"" + upload.getName()
+				+ "\"" + CRLF);
+		writeAscii(head, "Content-Type: " + upload.getContentType() + CRLF
+				+ CRLF);
+		byte[] tail = (CRLF + "--" + boundary + "--" + CRLF)
+				.getBytes("US-ASCII");
+
+		if (log.isDebugEnabled())
+			log.debug("POST: " + url + " with " + upload);
+
+		HttpURLConnection conn = open(url);
+		conn.setRequestProperty("Content-Type",
+				"multipart/form-data; boundary=" + boundary);
+		long length = upload.getLength() < 0 ? -1 : head.size()
+				+ upload.getLength() + tail.length;
+		if (length >= 0 && length <= Integer.MAX_VALUE) {
+			conn.setFixedLengthStreamingMode((int) length);
+		} else {
+			conn.setChunkedStreamingMode(BUFF_SIZE);
+		}
+
+		try {
+			OutputStream out = conn.getOutputStream();
+			try {
+				head.writeTo(out);
+				upload.writeTo(out);
+				out.write(tail);
+			} finally {
+				out.close();
+			}
+		} catch (IOException ioe) {
+			conn.disconnect();
+			throw ioe;
+		}
+		return getResponse(conn);
+	}
+
+	/**
+	 * @return byte counts of the responses received so far
+	 */
+	public TransferStats getTransferStats() {
+		return transferStats;
+	}
+
+	/**
+	 * Nothing to do, kept-alive connections belong to the JDK.
+	 */
+	public void shutdown() {
+	}
+
+	private HttpURLConnection open(String url) throws IOException {
+		HttpURLConnection conn = (HttpURLConnection) new URL(url)
+				.openConnection();
+		conn.setRequestMethod("POST");
+		conn.setDoOutput(true);
+		conn.setUseCaches(false);
+		conn.setConnectTimeout(connectTimeout);
+		conn.setReadTimeout(readTimeout);
+		if (compressionEnabled)
+			conn.setRequestProperty("Accept-Encoding",
+					ContentDecoder.ACCEPT_ENCODING);
+		return conn;
+	}
+
+	/**
+	 * Check the status and wrap the body. Reading error bodies to the end lets
+	 * the JDK keep the connection alive.
+	 */
+	private InputStream getResponse(HttpURLConnection conn) throws IOException {
+		int status = conn.getResponseCode();
+		if (status >= HttpURLConnection.HTTP_BAD_REQUEST) {
+			InputStream err = conn.getErrorStream();
+			if (err != null) {
+				try {
+					byte[] buff = new byte[BUFF_SIZE];
+					while (err.read(buff) != -1) {
+						// drain
+					}
+				} finally {
+					err.close();
+				}
+			}
+			throw new HttpStatusException(status, conn.getResponseMessage());
+		}
+		try {
+			return new BufferedInputStream(ContentDecoder.decode(conn
+					.getInputStream(), conn.getContentEncoding(),
+					transferStats), BUFF_SIZE);
+		} catch (IOException ioe) {
+			conn.disconnect();
+			throw ioe;
+		}
+	}
+
+	private static void writeAscii(OutputStream out, String s)
+			throws IOException {
+		out.write(s.getBytes("US-ASCII"));
+	}
+}
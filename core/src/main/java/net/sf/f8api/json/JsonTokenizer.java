@@ -0,0 +1,346 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.json;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Reads a JSON document from a UTF-8 stream one token at a time, keeping
+ * only the text of the current token, in a char buffer that is reused:
+ * 
+ * <pre><code>
+ * JsonTokenizer json = new JsonTokenizer(in);
+ * for (int token = json.next(); token != JsonTokenizer.END; token = json.next()) {
+ * 	if (token == JsonTokenizer.NAME &amp;&amp; json.textEquals(&quot;uid&quot;)) {
+ * 		json.next();
+ * 		long uid = json.getLong();
+ * 		...
+ * </code></pre>
+ * 
+ * Commas and colons aren't tokens. Names are told from string values by
+ * where they are. Text is only made a String when asked for.
+ * 
+ * The tokenizer is lenient where that costs nothing: it doesn't check that
+ * commas and colons are where they should be.
+ */
+public final class JsonTokenizer {
+	public static final int END = 0;
+	public static final int START_OBJECT = 1;
+	public static final int END_OBJECT = 2;
+	public static final int START_ARRAY = 3;
+	public static final int END_ARRAY = 4;
+	public static final int NAME = 5;
+	public static final int STRING = 6;
+	public static final int NUMBER = 7;
+	public static final int TRUE = 8;
+	public static final int FALSE = 9;
+	public static final int NULL = 10;
+
+	private final InputStream in;
+	private final byte[] bytes = new byte[8192];
+	private int pos;
+	private int limit;
+
+	private char[] text = new char[64];
+	private int length;
+
+	// open containers, true for an object
+	private boolean[] objects = new boolean[16];
+	private int depth;
+	private boolean nameNext; // in an object, where a name goes
+
+	private int token = -1;
+
+	public JsonTokenizer(InputStream in) {
+		this.in = in;
+	}
+
+	/**
+	 * @return the next token, END at the end of the stream
+	 * @throws IOException
+	 *             if the stream fails or isn't JSON
+	 */
+	public int next() throws IOException {
+		int b = skipSpace();
+		switch (b) {
+		case -1:
+			if (depth > 0)
+				throw new IOException("JSON ends inside a value");
+			return token = END;
+		case '{':
+			push(true);
+			return token = START_OBJECT;
+		case '[':
+			push(false);
+			return token = START_ARRAY;
+		case '}':
+		case ']':
+			if (depth == 0 || objects[depth - 1] != (b == '}'))
+				throw new IOException("unbalanced '" + (char) b + "'");
+			depth--;
+			valueDone();
+			return token = b == '}' ? END_OBJECT : END_ARRAY;
+		case '"':
+			readString();
+			if (nameNext) {
+				nameNext = false;
+				return token = NAME;
+			}
+			valueDone();
+			return token = STRING;
+		default:
+			readWord(b);
+			valueDone();
+			if (Character.isDigit(b) || b == '-')
+				return token = NUMBER;
+			if (textEquals("true"))
+				return token = TRUE;
+			if (textEquals("false"))
+				return token = FALSE;
+			if (textEquals("null"))
+				return token = NULL;
+			throw new IOException("bad JSON: " + getText());
+		}
+	}
+
+	/**
+	 * @return the current token, the one next() returned last
+	 */
+	public int getToken() {
+		return token;
+	}
+
+	/**
+	 * @return containers open, 0 outside the document
+	 */
+	public int getDepth() {
+		return depth;
+	}
+
+	/**
+	 * Skip the value the current token starts, or that follows the current
+	 * name.
+	 */
+	public void skipValue() throws IOException {
+		if (token == NAME)
+			next();
+		if (token == START_OBJECT || token == START_ARRAY) {
+			int end = depth - 1;
+			while (depth > end) {
+				if (next() == END)
+					return;
+			}
+		}
+	}
+
+	/**
+	 * @return the text of a name, string, number or literal
+	 */
+	public String getText() {
+		return new String(text, 0, length);
+	}
+
+	/**
+	 * @return the buffer holding the text, valid until the next token
+	 */
+	public char[] getTextCharacters() {
+		return text;
+	}
+
+	public int getTextLength() {
+		return length;
+	}
+
+	public boolean textEquals(String s) {
+		if (s.length() != length)
+			return false;
+		for (int i = 0; i < length; i++) {
+			if (text[i] != s.charAt(i))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the text as a number, quoted or not, as Facebook gives ids
+	 *         either way
+	 * @throws IOException
+	 *             if the text isn't a whole number
+	 */
+	public long getLong() throws IOException {
+		int i = 0;
+		boolean negative = length > 0 && text[0] == '-';
+		if (negative)
+			i++;
+		if (i == length)
+			throw new IOException("not a number: " + getText());
+		// summed below zero, as Long.MIN_VALUE has no positive
+		long limit = negative ? Long.MIN_VALUE : -Long.MAX_VALUE;
+		long value = 0;
+		for (; i < length; i++) {
+			int d = text[i] - '0';
+			if (d < 0 || d > 9 || value < (limit + d) / 10)
+				throw new IOException("not a number: " + getText());
+			value = value * 10 - d;
+		}
+		return negative ? value : -value;
+	}
+
+	public void close() throws IOException {
+		in.close();
+	}
+
+	private void push(boolean object) {
+		if (depth == objects.length) {
+			boolean[] grown = new boolean[depth * 2];
+			System.arraycopy(objects, 0, grown, 0, depth);
+			objects = grown;
+		}
+		objects[depth++] = object;
+		nameNext = object;
+	}
+
+	private void valueDone() {
+		nameNext = depth > 0 && objects[depth - 1];
+	}
+
+	private int read() throws IOException {
+		if (pos == limit) {
+			limit = in.read(bytes, 0, bytes.length);
+			pos = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return bytes[pos++] & 0xff;
+	}
+
+	private int skipSpace() throws IOException {
+		while (true) {
+			int b = read();
+			if (b == -1 || (b > ' ' && b != ',' && b != ':'))
+				return b;
+		}
+	}
+
+	/**
+	 * Read a number or literal, up to the byte that ends it.
+	 */
+	private void readWord(int b) throws IOException {
+		length = 0;
+		while (true) {
+			append((char) b);
+			if (pos == limit && peek() == -1)
+				return;
+			b = bytes[pos] & 0xff;
+			if (b <= ' ' || b == ',' || b == ':' || b == '}' || b == ']')
+				return;
+			pos++;
+		}
+	}
+
+	private int peek() throws IOException {
+		if (pos == limit) {
+			limit = in.read(bytes, 0, bytes.length);
+			pos = 0;
+			if (limit <= 0) {
+				limit = 0;
+				return -1;
+			}
+		}
+		return bytes[pos] & 0xff;
+	}
+
+	/**
+	 * Read a string, after its opening quote, decoding UTF-8 and escapes.
+	 */
+	private void readString() throws IOException {
+		length = 0;
+		while (true) {
+			int b = read();
+			if (b == '"')
+				return;
+			if (b == -1)
+				throw new IOException("JSON ends inside a string");
+			if (b == '\\') {
+				append(escape());
+			} else if (b < 0x80) {
+				append((char) b);
+			} else if (b < 0xc0) {
+				throw new IOException("bad UTF-8 in JSON"); // a stray continuation
+			} else if (b < 0xe0) {
+				append((char) ((b & 0x1f) << 6 | continuation()));
+			} else if (b < 0xf0) {
+				append((char) ((b & 0x0f) << 12 | continuation() << 6 | continuation()));
+			} else {
+				int cp = (b & 0x07) << 18 | continuation() << 12
+						| continuation() << 6 | continuation();
+				if (b > 0xf4 || cp < 0x10000 || cp > 0x10ffff)
+					throw new IOException("bad UTF-8 in JSON");
+				// the surrogate pair, by hand for Java 6
+				append((char) (((cp - 0x10000) >>> 10) + 0xd800));
+				append((char) (((cp - 0x10000) & 0x3ff) + 0xdc00));
+			}
+		}
+	}
+
+	private int continuation() throws IOException {
+		int b = read();
+		if ((b & 0xc0) != 0x80)
+			throw new IOException("bad UTF-8 in JSON");
+		return b & 0x3f;
+	}
+
+	private char escape() throws IOException {
+		int b = read();
+		switch (b) {
+		case 'b':
+			return '\b';
+		case 'f':
+			return '\f';
+		case 'n':
+			return '\n';
+		case 'r':
+			return '\r';
+		case 't':
+			return '\t';
+		case 'u':
+			int c = 0;
+			for (int i = 0; i < 4; i++) {
+				int h = Character.digit(read(), 16);
+				if (h < 0)
+					throw new IOException("bad \\u escape in JSON");
+				c = c << 4 | h;
+			}
+			return (char) c;
+		case -1:
+			throw new IOException("JSON ends inside a string");
+		default:
+			return (char) b; // \" \\ \/
+		}
+	}
+
+	private void append(char c) {
+		if (length == text.length) {
+			char[] grown = new char[length * 2];
+			System.arraycopy(text, 0, grown, 0, length);
+			text = grown;
+		}
+		text[length++] = c;
+	}
+}
@@ -34,7 +34,168 @@ public class Event {
 	long creatorId;
 	Date updateTime;
 	String location;
+	String venueStreet;
 	String venueCity;
-	String venuState;
-	String venuCountry;
+	String venueState;
+	String venueCountry;
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public String getTagline() {
+		return tagline;
+	}
+
+	public void setTagline(String tagline) {
+		this.tagline = tagline;
+	}
+
+	public long getNId() {
+		return nId;
+	}
+
+	public void setNId(long nId) {
+		this.nId = nId;
+	}
+
+	public String getPic() {
+		return pic;
+	}
+
+	public void setPic(String pic) {
+		this.pic = pic;
+	}
+
+	public String getPicBig() {
+		return picBig;
+	}
+
+	public void setPicBig(String picBig) {
+		this.picBig = picBig;
+	}
+
+	public String getPicSmall() {
+		return picSmall;
+	}
+
+	public void setPicSmall(String picSmall) {
+		this.picSmall = picSmall;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public void setHost(String host) {
+		this.host = host;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getSubType() {
+		return subType;
+	}
+
+	public void setSubType(String subType) {
+		this.subType = subType;
+	}
+
+	public Date getStartTime() {
+		return startTime;
+	}
+
+	public void setStartTime(Date startTime) {
+		this.startTime = startTime;
+	}
+
+	public Date getEndTime() {
+		return endTime;
+	}
+
+	public void setEndTime(Date endTime) {
+		this.endTime = endTime;
+	}
+
+	public long getCreatorId() {
+		return creatorId;
+	}
+
+	public void setCreatorId(long creatorId) {
+		this.creatorId = creatorId;
+	}
+
+	public Date getUpdateTime() {
+		return updateTime;
+	}
+
+	public void setUpdateTime(Date updateTime) {
+		this.updateTime = updateTime;
+	}
+
+	public String getLocation() {
+		return location;
+	}
+
+	public void setLocation(String location) {
+		this.location = location;
+	}
+
+	public String getVenueStreet() {
+		return venueStreet;
+	}
+
+	public void setVenueStreet(String venueStreet) {
+		this.venueStreet = venueStreet;
+	}
+
+	public String getVenueCity() {
+		return venueCity;
+	}
+
+	public void setVenueCity(String venueCity) {
+		this.venueCity = venueCity;
+	}
+
+	public String getVenueState() {
+		return venueState;
+	}
+
+	public void setVenueState(String venueState) {
+		this.venueState = venueState;
+	}
+
+	public String getVenueCountry() {
+		return venueCountry;
+	}
+
+	public void setVenueCountry(String venueCountry) {
+		this.venueCountry = venueCountry;
+	}
 }
@@ -0,0 +1,186 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.model;
+
+import java.util.Date;
+
+/**
+ * A group, as returned by groups.get.
+ */
+public class Group {
+	long id;
+	String name;
+	long nId;
+	String description;
+	String type;
+	String subType;
+	String recentNews;
+	String pic;
+	String picBig;
+	String picSmall;
+	long creatorId;
+	Date updateTime;
+	String office;
+	String website;
+	String venueStreet;
+	String venueCity;
+	String venueState;
+	String venueCountry;
+
+	public long getId() {
+		return id;
+	}
+
+	public void setId(long id) {
+		this.id = id;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public void setName(String name) {
+		this.name = name;
+	}
+
+	public long getNId() {
+		return nId;
+	}
+
+	public void setNId(long nId) {
+		this.nId = nId;
+	}
+
+	public String getDescription() {
+		return description;
+	}
+
+	public void setDescription(String description) {
+		this.description = description;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getSubType() {
+		return subType;
+	}
+
+	public void setSubType(String subType) {
+		this.subType = subType;
+	}
+
+	public String getRecentNews() {
+		return recentNews;
+	}
+
+	public void setRecentNews(String recentNews) {
+		this.recentNews = recentNews;
+	}
+
+	public String getPic() {
+		return pic;
+	}
+
+	public void setPic(String pic) {
+		this.pic = pic;
+	}
+
+	public String getPicBig() {
+		return picBig;
+	}
+
+	public void setPicBig(String picBig) {
+		this.picBig = picBig;
+	}
+
+	public String getPicSmall() {
+		return picSmall;
+	}
+
+	public void setPicSmall(String picSmall) {
+		this.picSmall = picSmall;
+	}
+
+	public long getCreatorId() {
+		return creatorId;
+	}
+
+	public void setCreatorId(long creatorId) {
+		this.creatorId = creatorId;
+	}
+
+	public Date getUpdateTime() {
+		return updateTime;
+	}
+
+	public void setUpdateTime(Date updateTime) {
+		this.updateTime = updateTime;
+	}
+
+	public String getOffice() {
+		return office;
+	}
+
+	public void setOffice(String office) {
+		this.office = office;
+	}
+
+	public String getWebsite() {
+		return website;
+	}
+
+	public void setWebsite(String website) {
+		this.website = website;
+	}
+
+	public String getVenueStreet() {
+		return venueStreet;
+	}
+
+	public void setVenueStreet(String venueStreet) {
+		this.venueStreet = venueStreet;
+	}
+
+	public String getVenueCity() {
+		return venueCity;
+	}
+
+	public void setVenueCity(String venueCity) {
+		this.venueCity = venueCity;
+	}
+
+	public String getVenueState() {
+		return venueState;
+	}
+
+	public void setVenueState(String venueState) {
+		this.venueState = venueState;
+	}
+
+	public String getVenueCountry() {
+		return venueCountry;
+	}
+
+	public void setVenueCountry(String venueCountry) {
+		this.venueCountry = venueCountry;
+	}
+}
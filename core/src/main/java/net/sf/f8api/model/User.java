@@ -0,0 +1,68 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.model;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A user of users.getInfo, with the fields that were asked for.
+ * 
+ * Simple fields are kept under their name. Fields with structure are kept
+ * leaf by leaf under a dotted path, list items by their index:
+ * "hometown_location.city", "affiliations.0.name".
+ */
+public class User {
+	long uid;
+	Map<String, String> fields = new LinkedHashMap<String, String>();
+
+	public long getUid() {
+		return uid;
+	}
+
+	public void setUid(long uid) {
+		this.uid = uid;
+	}
+
+	/**
+	 * @param name
+	 *            field name or dotted path
+	 * @return the value, null if it wasn't in the response
+	 */
+	public String getField(String name) {
+		return fields.get(name);
+	}
+
+	public void setField(String name, String value) {
+		fields.put(name, value);
+	}
+
+	/**
+	 * @return all fields in document order
+	 */
+	public Map<String, String> getFields() {
+		return Collections.unmodifiableMap(fields);
+	}
+
+	public String getName() {
+		return fields.get("name");
+	}
+
+	public String toString() {
+		return "User[" + uid + ", " + fields + "]";
+	}
+}
@@ -0,0 +1,126 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.servlet;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.ServletInputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+
+/**
+ * A form post whose body was read by a filter: the body is given again to
+ * whoever reads it, and the parameters are decoded from it, as the
+ * container would have.
+ */
+class BufferedRequest extends HttpServletRequestWrapper {
+	private final byte[] body;
+	private Map<String, String[]> parameters; // decoded on first use
+	private String encoding; // containers ignore it once the body is read
+
+	BufferedRequest(HttpServletRequest request, byte[] body) {
+		super(request);
+		this.body = body;
+	}
+
+	public ServletInputStream getInputStream() throws IOException {
+		final ByteArrayInputStream in = new ByteArrayInputStream(body);
+		return new ServletInputStream() {
+			public int read() {
+				return in.read();
+			}
+
+			public int read(byte[] b, int off, int len) {
+				return in.read(b, off, len);
+			}
+		};
+	}
+
+	public BufferedReader getReader() throws IOException {
+		return new BufferedReader(new InputStreamReader(
+				new ByteArrayInputStream(body), encoding()));
+	}
+
+	public String getCharacterEncoding() {
+		return encoding != null ? encoding : super.getCharacterEncoding();
+	}
+
+	public synchronized void setCharacterEncoding(String encoding)
+			throws UnsupportedEncodingException {
+		if (parameters != null)
+			return; // too late, as for a real request
+		"".getBytes(encoding); // throws if unsupported
+		this.encoding = encoding;
+	}
+
+	public String getParameter(String name) {
+		String[] values = parameters().get(name);
+		return values == null ? null : values[0];
+	}
+
+	public String[] getParameterValues(String name) {
+		String[] values = parameters().get(name);
+		return values == null ? null : values.clone();
+	}
+
+	public Enumeration<String> getParameterNames() {
+		return Collections.enumeration(parameters().keySet());
+	}
+
+	public Map<String, String[]> getParameterMap() {
+		return parameters();
+	}
+
+	/**
+	 * Query string first, then the body, as containers do.
+	 */
+	private synchronized Map<String, String[]> parameters() {
+		if (parameters == null) {
+			Map<String, List<String>> decoded = new LinkedHashMap<String, List<String>>();
+			try {
+				String query = getQueryString();
+				if (query != null) {
+					byte[] bytes = query.getBytes("ISO-8859-1");
+					Forms.decode(bytes, 0, bytes.length, encoding(), decoded);
+				}
+				Forms.decode(body, 0, body.length, encoding(), decoded);
+			} catch (UnsupportedEncodingException uee) {
+				throw new IllegalStateException(uee);
+			}
+			Map<String, String[]> map = new LinkedHashMap<String, String[]>();
+			for (Map.Entry<String, List<String>> e : decoded.entrySet()) {
+				map.put(e.getKey(), e.getValue().toArray(
+						new String[e.getValue().size()]));
+			}
+			parameters = Collections.unmodifiableMap(map);
+		}
+		return parameters;
+	}
+
+	private String encoding() {
+		String encoding = getCharacterEncoding();
+		return encoding == null ? "ISO-8859-1" : encoding;
+	}
+}
@@ -0,0 +1,468 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.servlet;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.f8api.FacebookParam;
+import net.sf.f8api.FacebookSignatureUtil;
+import net.sf.f8api.Session;
+import net.sf.f8api.SessionRegistry;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Verifies the fb_sig parameters Facebook adds to canvas page requests
+ * before the application sees them:
+ * 
+ * <pre><code>
+ * &lt;filter&gt;
+ *   &lt;filter-name&gt;canvas&lt;/filter-name&gt;
+ *   &lt;filter-class&gt;net.sf.f8api.servlet.CanvasVerificationFilter&lt;/filter-class&gt;
+ *   &lt;init-param&gt;
+ *     &lt;param-name&gt;secret&lt;/param-name&gt;
+ *     &lt;param-value&gt;...&lt;/param-value&gt;
+ *   &lt;/init-param&gt;
+ * &lt;/filter&gt;
+ * </code></pre>
+ * 
+ * Init parameters are secret (required), apiKey, reject,
+ * requireSignature, cacheSize and maxBodyBytes, each like the setter of
+ * the same name.
+ * 
+ * The fb_sig parameters are decoded straight from the query string and the
+ * bytes of a form post; other parameters aren't decoded at all. The body
+ * is read once and given again to the application, whose parameters are
+ * then decoded from it as the container would. A verified request carries
+ * {@link #VERIFIED} and its fb_sig parameters under {@link #PARAMS}, and
+ * the user's session, if the user is logged in, under {@link #SESSION}; a
+ * request signed wrongly is refused with 403 Forbidden. Sessions come from
+ * the filter's {@link SessionRegistry}, which can be shared with the rest
+ * of the application.
+ * 
+ * Signatures are compared in constant time. Recently verified signatures
+ * are remembered with the parameters they signed, so a request seen again,
+ * such as a reload, is verified by comparing bytes instead of hashing.
+ */
+public class CanvasVerificationFilter implements Filter {
+	protected static final Log log = LogFactory
+			.getLog(CanvasVerificationFilter.class);
+
+	/**
+	 * Request attribute, Boolean.TRUE if the request had a valid signature.
+	 */
+	public static final String VERIFIED = CanvasVerificationFilter.class
+			.getName()
+			+ ".verified";
+
+	/**
+	 * Request attribute, the unmodifiable Map&lt;String, String&gt; of the
+	 * verified fb_sig_* parameters, by their full names.
+	 */
+	public static final String PARAMS = CanvasVerificationFilter.class
+			.getName()
+			+ ".params";
+
+	/**
+	 * Request attribute, the {@link Session} of a verified request, if the
+	 * user is logged in to the application.
+	 */
+	public static final String SESSION = CanvasVerificationFilter.class
+			.getName()
+			+ ".session";
+
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+
+	public static final int DEFAULT_MAX_BODY_BYTES = 1024 * 1024;
+
+	private static final byte[] FB_SIG = bytes(FacebookParam.SIGNATURE
+			.toString());
+
+	private volatile String secret;
+	private volatile String apiKey;
+	private volatile boolean reject = true;
+	private volatile boolean requireSignature = false;
+	private volatile int cacheSize = DEFAULT_CACHE_SIZE;
+	private volatile int maxBodyBytes = DEFAULT_MAX_BODY_BYTES;
+	private volatile SessionRegistry sessionRegistry = new SessionRegistry();
+
+	/**
+	 * Signature to the fb_sig pairs it signed, as they came.
+	 */
+	private final Map<String, String> verified = new LinkedHashMap<String, String>(
+			256, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+			return size() > cacheSize;
+		}
+	};
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong rejected = new AtomicLong();
+
+	public CanvasVerificationFilter() {
+	}
+
+	/**
+	 * @param secret
+	 *            of the application
+	 */
+	public CanvasVerificationFilter(String secret) {
+		this.secret = secret;
+	}
+
+	public void init(FilterConfig config) throws ServletException {
+		String value = config.getInitParameter("secret");
+		if (value != null)
+			setSecret(value);
+		if (secret == null)
+			throw new ServletException("the secret init-param is required");
+		value = config.getInitParameter("apiKey");
+		if (value != null)
+			setApiKey(value);
+		value = config.getInitParameter("reject");
+		if (value != null)
+			setReject(Boolean.valueOf(value).booleanValue());
+		value = config.getInitParameter("requireSignature");
+		if (value != null)
+			setRequireSignature(Boolean.valueOf(value).booleanValue());
+		value = config.getInitParameter("cacheSize");
+		if (value != null)
+			setCacheSize(Integer.parseInt(value));
+		value = config.getInitParameter("maxBodyBytes");
+		if (value != null)
+			setMaxBodyBytes(Integer.parseInt(value));
+	}
+
+	public void doFilter(ServletRequest req, ServletResponse res,
+			FilterChain chain) throws IOException, ServletException {
+		if (!(req instanceof HttpServletRequest)
+				|| !(res instanceof HttpServletResponse)) {
+			chain.doFilter(req, res);
+			return;
+		}
+		HttpServletRequest request = (HttpServletRequest) req;
+		HttpServletResponse response = (HttpServletResponse) res;
+		requests.incrementAndGet();
+
+		Canvas canvas = new Canvas();
+		String query = request.getQueryString();
+		if (query != null) {
+			byte[] bytes = query.getBytes("ISO-8859-1");
+			canvas.collect(bytes, 0, bytes.length);
+		}
+		if (isFormPost(request)) {
+			int length = request.getContentLength();
+			if (length < 0 || length > maxBodyBytes) {
+				// too big to keep, or chunked and of any size: let the
+				// container decode it
+				canvas.collect(request);
+			} else {
+				byte[] body = read(request.getInputStream(), length);
+				request = new BufferedRequest(request, body);
+				canvas.collect(body, 0, body.length);
+			}
+		}
+
+		boolean valid = verify(canvas);
+		request.setAttribute(VERIFIED, Boolean.valueOf(valid));
+		if (valid) {
+			request.setAttribute(PARAMS, Collections
+					.unmodifiableMap(canvas.params));
+			Session session = sessionRegistry.update(canvas.params, secret);
+			if (session != null)
+				request.setAttribute(SESSION, session);
+		} else if (reject && (canvas.signature != null || requireSignature)) {
+			rejected.incrementAndGet();
+			if (log.isDebugEnabled())
+				log.debug("bad signature on " + request.getRequestURI());
+			response.sendError(HttpServletResponse.SC_FORBIDDEN,
+					"bad signature");
+			return;
+		}
+		chain.doFilter(request, response);
+	}
+
+	public void destroy() {
+		clear();
+	}
+
+	/**
+	 * @return true if the fb_sig parameters are signed with the secret
+	 */
+	private boolean verify(Canvas canvas) {
+		if (canvas.signature == null || canvas.params.isEmpty())
+			return false;
+		String key = apiKey;
+		if (key != null
+				&& !key.equals(canvas.params.get(FacebookParam.API_KEY
+						.toString())))
+			return false;
+
+		String signed;
+		synchronized (verified) {
+			signed = verified.get(canvas.signature);
+		}
+		String pairs = canvas.pairs.toString();
+		if (signed != null && FacebookSignatureUtil.signatureEquals(signed, pairs)) {
+			cacheHits.incrementAndGet();
+			return true;
+		}
+		Map<String, CharSequence> params = new HashMap<String, CharSequence>(
+				canvas.params);
+		if (!FacebookSignatureUtil.isValidSignature(params, secret,
+				canvas.signature))
+			return false;
+		synchronized (verified) {
+			verified.put(canvas.signature, pairs);
+		}
+		return true;
+	}
+
+	private static boolean isFormPost(HttpServletRequest request) {
+		String type = request.getContentType();
+		return "POST".equals(request.getMethod()) && type != null
+				&& type.startsWith("application/x-www-form-urlencoded");
+	}
+
+	/**
+	 * Read the body, no more than its declared length.
+	 */
+	private static byte[] read(InputStream in, int length) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+		byte[] buf = new byte[4096];
+		int n;
+		for (int left = length; left > 0; left -= n) {
+			n = in.read(buf, 0, Math.min(left, buf.length));
+			if (n == -1)
+				break;
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static byte[] bytes(String s) {
+		try {
+			return s.getBytes("ISO-8859-1");
+		} catch (UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+
+	/**
+	 * Forget the signatures verified.
+	 */
+	public void clear() {
+		synchronized (verified) {
+			verified.clear();
+		}
+	}
+
+	public String getSecret() {
+		return secret;
+	}
+
+	/**
+	 * @param secret
+	 *            of the application
+	 */
+	public void setSecret(String secret) {
+		this.secret = secret;
+		clear();
+	}
+
+	public String getApiKey() {
+		return apiKey;
+	}
+
+	/**
+	 * @param apiKey
+	 *            if set, fb_sig_api_key must be this too
+	 */
+	public void setApiKey(String apiKey) {
+		this.apiKey = apiKey;
+	}
+
+	public boolean isReject() {
+		return reject;
+	}
+
+	/**
+	 * @param reject
+	 *            true (the default) to answer 403 to a bad signature, false
+	 *            to pass the request on with {@link #VERIFIED} false
+	 */
+	public void setReject(boolean reject) {
+		this.reject = reject;
+	}
+
+	public boolean isRequireSignature() {
+		return requireSignature;
+	}
+
+	/**
+	 * @param requireSignature
+	 *            true to treat a request without fb_sig as badly signed;
+	 *            by default it's passed on unverified
+	 */
+	public void setRequireSignature(boolean requireSignature) {
+		this.requireSignature = requireSignature;
+	}
+
+	public int getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @param cacheSize
+	 *            most verified signatures remembered, 0 to verify every
+	 *            request
+	 */
+	public void setCacheSize(int cacheSize) {
+		this.cacheSize = cacheSize;
+	}
+
+	public int getMaxBodyBytes() {
+		return maxBodyBytes;
+	}
+
+	/**
+	 * @param maxBodyBytes
+	 *            largest form post read by the filter; the parameters of a
+	 *            bigger one, or of one of unknown length (chunked), are
+	 *            decoded by the container
+	 */
+	public void setMaxBodyBytes(int maxBodyBytes) {
+		this.maxBodyBytes = maxBodyBytes;
+	}
+
+	public SessionRegistry getSessionRegistry() {
+		return sessionRegistry;
+	}
+
+	/**
+	 * @param sessionRegistry
+	 *            where the sessions of verified requests are kept
+	 */
+	public void setSessionRegistry(SessionRegistry sessionRegistry) {
+		this.sessionRegistry = sessionRegistry;
+	}
+
+	/**
+	 * @return requests filtered
+	 */
+	public long getRequests() {
+		return requests.get();
+	}
+
+	/**
+	 * @return requests verified from a remembered signature
+	 */
+	public long getCacheHits() {
+		return cacheHits.get();
+	}
+
+	/**
+	 * @return requests refused
+	 */
+	public long getRejected() {
+		return rejected.get();
+	}
+
+	/**
+	 * The fb_sig parameters of a request.
+	 */
+	private static class Canvas {
+		final Map<String, String> params = new HashMap<String, String>();
+		String signature;
+		/**
+		 * The pairs as they came, "name=value&amp;" each, the key of a
+		 * remembered signature.
+		 */
+		final StringBuilder pairs = new StringBuilder();
+
+		void collect(byte[] bytes, int from, int to)
+				throws UnsupportedEncodingException {
+			for (int start = from; start < to;) {
+				int end = Forms.indexOf(bytes, (byte) '&', start, to);
+				if (Forms.startsWith(bytes, start, end, FB_SIG)) {
+					int eq = Forms.indexOf(bytes, (byte) '=', start, end);
+					// Facebook signs UTF-8
+					String name = Forms.decode(bytes, start, eq, "UTF-8");
+					String value = eq < end ? Forms.decode(bytes, eq + 1, end,
+							"UTF-8") : "";
+					if (add(name, value)) {
+						for (int i = start; i < end; i++) {
+							pairs.append((char) (bytes[i] & 0xff));
+						}
+						pairs.append('&');
+					}
+				}
+				start = end + 1;
+			}
+		}
+
+		void collect(HttpServletRequest request) {
+			for (Object o : request.getParameterMap().keySet()) {
+				String name = (String) o;
+				if (FacebookParam.isInNamespace(name)) {
+					String value = request.getParameter(name);
+					if (add(name, value))
+						pairs.append(name).append('=').append(value)
+								.append('&');
+				}
+			}
+		}
+
+		/**
+		 * @return true if added, false if the name was seen already
+		 */
+		private boolean add(String name, String value) {
+			if (!FacebookParam.isInNamespace(name))
+				return false;
+			if (FacebookParam.isSignature(name)) {
+				if (signature != null)
+					return false;
+				signature = value;
+			} else {
+				if (params.containsKey(name))
+					return false;
+				params.put(name, value);
+			}
+			return true;
+		}
+	}
+}
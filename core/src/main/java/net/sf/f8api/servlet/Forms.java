@@ -0,0 +1,115 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.servlet;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decoding of application/x-www-form-urlencoded bytes, as found in query
+ * strings and form posts.
+ */
+final class Forms {
+	private Forms() {
+	}
+
+	/**
+	 * Add the name=value pairs of bytes[from, to) to a map, values of a name
+	 * in order.
+	 */
+	static void decode(byte[] bytes, int from, int to, String encoding,
+			Map<String, List<String>> into) throws UnsupportedEncodingException {
+		for (int start = from; start < to;) {
+			int end = indexOf(bytes, (byte) '&', start, to);
+			if (end > start) {
+				int eq = indexOf(bytes, (byte) '=', start, end);
+				String name = decode(bytes, start, eq, encoding);
+				String value = eq < end ? decode(bytes, eq + 1, end, encoding)
+						: "";
+				List<String> values = into.get(name);
+				if (values == null) {
+					values = new ArrayList<String>(1);
+					into.put(name, values);
+				}
+				values.add(value);
+			}
+			start = end + 1;
+		}
+	}
+
+	/**
+	 * @return the bytes[from, to) with "+" and "%xx" decoded, as a string in
+	 *         the encoding
+	 */
+	static String decode(byte[] bytes, int from, int to, String encoding)
+			throws UnsupportedEncodingException {
+		boolean plain = true;
+		for (int i = from; i < to && plain; i++) {
+			plain = bytes[i] != '%' && bytes[i] != '+';
+		}
+		if (plain)
+			return new String(bytes, from, to - from, encoding);
+
+		byte[] decoded = new byte[to - from];
+		int n = 0;
+		for (int i = from; i < to; i++) {
+			byte b = bytes[i];
+			if (b == '+') {
+				decoded[n++] = ' ';
+			} else if (b == '%' && i + 2 < to && hex(bytes[i + 1]) >= 0
+					&& hex(bytes[i + 2]) >= 0) {
+				decoded[n++] = (byte) (hex(bytes[i + 1]) << 4 | hex(bytes[i + 2]));
+				i += 2;
+			} else {
+				decoded[n++] = b; // a stray '%' is kept
+			}
+		}
+		return new String(decoded, 0, n, encoding);
+	}
+
+	static boolean startsWith(byte[] bytes, int from, int to, byte[] prefix) {
+		if (to - from < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (bytes[from + i] != prefix[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return the index of b in bytes[from, to), to if it isn't there
+	 */
+	static int indexOf(byte[] bytes, byte b, int from, int to) {
+		for (int i = from; i < to; i++) {
+			if (bytes[i] == b)
+				return i;
+		}
+		return to;
+	}
+
+	private static int hex(byte b) {
+		if (b >= '0' && b <= '9')
+			return b - '0';
+		if (b >= 'a' && b <= 'f')
+			return b - 'a' + 10;
+		if (b >= 'A' && b <= 'F')
+			return b - 'A' + 10;
+		return -1;
+	}
+}
@@ -40,7 +40,7 @@ public class AuthCreateTokenHandler extends DefaultHandler {
 	protected static Log log = LogFactory.getLog(AuthCreateTokenHandler.class);
 	public static final String auth_createToken_response = "auth_createToken_response";
 
-	private StringBuffer charContent = null; // text content of an element
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
 
 	private String authToken; // the current carrier ID
 
@@ -50,6 +50,22 @@ public class AuthCreateTokenHandler extends DefaultHandler {
 		super();
 	}
 
+	/**
+	 * Start each document afresh, so one handler can parse several.
+	 */
+	public void startDocument() {
+		reset();
+	}
+
+	/**
+	 * Forget the last document. A token already returned is left alone.
+	 */
+	public void reset() {
+		charContent.setLength(0);
+		authToken = null;
+		errorHandler = null;
+	}
+
 	public void startElement(String uri, String name, String qName,
 			Attributes atts) {
 
@@ -63,7 +79,7 @@ public class AuthCreateTokenHandler extends DefaultHandler {
 		}
 
 		if (qName.equals(auth_createToken_response)) {
-			charContent = new StringBuffer();
+			charContent.setLength(0);
 		}
 	}
 
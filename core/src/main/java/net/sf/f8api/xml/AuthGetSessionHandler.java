@@ -55,7 +55,7 @@ public class AuthGetSessionHandler extends DefaultHandler {
 	private final String apiKey;
 	private final String apiSecret;
 
-	private StringBuffer charContent = null; // text content of an element
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
 
 	private SessionImpl session;
 
@@ -67,6 +67,22 @@ public class AuthGetSessionHandler extends DefaultHandler {
 		this.apiSecret = apiSecret;
 	}
 
+	/**
+	 * Start each document afresh, so one handler can parse several.
+	 */
+	public void startDocument() {
+		reset();
+	}
+
+	/**
+	 * Forget the last document. A session already returned is left alone.
+	 */
+	public void reset() {
+		charContent.setLength(0);
+		session = null;
+		errorHandler = null;
+	}
+
 	public void startElement(String uri, String name, String qName,
 			Attributes atts) {
 
@@ -85,7 +101,7 @@ public class AuthGetSessionHandler extends DefaultHandler {
 			session.setDesktop(false); // web application assumed
 			session.setSecret(apiSecret); // web application assumed
 		}
-		charContent = new StringBuffer();
+		charContent.setLength(0);
 	}
 
 	public void endElement(String uri, String name, String qName) {
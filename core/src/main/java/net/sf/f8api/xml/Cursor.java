@@ -0,0 +1,38 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.IOException;
+
+/**
+ * The items of one response, read from its stream as they're asked for.
+ * The stream stays open until the last item has been read and the cursor
+ * is closed.
+ * 
+ * @param <T>
+ *            type of the items
+ */
+public interface Cursor<T> {
+	/**
+	 * @return the next item, null once there are no more
+	 */
+	T next() throws IOException;
+
+	/**
+	 * Stop reading, and close the stream.
+	 */
+	void close() throws IOException;
+}
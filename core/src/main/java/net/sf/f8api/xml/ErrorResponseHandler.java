@@ -67,7 +67,7 @@ public class ErrorResponseHandler extends DefaultHandler {
 	public static final String key = "key";
 	public static final String value = "value";
 
-	private StringBuffer charContent = null; // text content of an element
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
 
 	private ErrorResponse errorResponse;
 	private String keyS;
@@ -77,11 +77,28 @@ public class ErrorResponseHandler extends DefaultHandler {
 		super();
 	}
 
+	/**
+	 * Start each document afresh, so one handler can parse several.
+	 */
+	public void startDocument() {
+		reset();
+	}
+
+	/**
+	 * Forget the last document. An error already returned is left alone.
+	 */
+	public void reset() {
+		charContent.setLength(0);
+		errorResponse = null;
+		keyS = null;
+		valueS = null;
+	}
+
 	public void startElement(String uri, String name, String qName,
 			Attributes atts) {
 		if (qName.equals(error_response)) {
 			errorResponse = new ErrorResponse();
-			charContent = new StringBuffer();
+			charContent.setLength(0);
 		}
 	}
 
@@ -97,7 +114,7 @@ public class ErrorResponseHandler extends DefaultHandler {
 		} else if (qName.equals(arg)) {
 			errorResponse.addParam(keyS, valueS);
 		}
-		charContent = new StringBuffer();
+		charContent.setLength(0);
 	}
 
 	public void characters(char ch[], int start, int length) {
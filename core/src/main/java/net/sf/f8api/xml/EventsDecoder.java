@@ -0,0 +1,75 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import net.sf.f8api.model.Event;
+
+/**
+ * Reads the events of an events.get response.
+ */
+public class EventsDecoder extends StreamDecoder<Event> {
+	public EventsDecoder() {
+		super("event");
+	}
+
+	protected Event newItem() {
+		return new Event();
+	}
+
+	protected void set(Event item, String path, String text) {
+		if (path.equals("eid")) {
+			item.setId(toLong(text));
+		} else if (path.equals("name")) {
+			item.setName(text);
+		} else if (path.equals("tagline")) {
+			item.setTagline(text);
+		} else if (path.equals("nid")) {
+			item.setNId(toLong(text));
+		} else if (path.equals("pic")) {
+			item.setPic(text);
+		} else if (path.equals("pic_big")) {
+			item.setPicBig(text);
+		} else if (path.equals("pic_small")) {
+			item.setPicSmall(text);
+		} else if (path.equals("host")) {
+			item.setHost(text);
+		} else if (path.equals("description")) {
+			item.setDescription(text);
+		} else if (path.equals("event_type")) {
+			item.setType(text);
+		} else if (path.equals("event_subtype")) {
+			item.setSubType(text);
+		} else if (path.equals("start_time")) {
+			item.setStartTime(toDate(text));
+		} else if (path.equals("end_time")) {
+			item.setEndTime(toDate(text));
+		} else if (path.equals("creator")) {
+			item.setCreatorId(toLong(text));
+		} else if (path.equals("update_time")) {
+			item.setUpdateTime(toDate(text));
+		} else if (path.equals("location")) {
+			item.setLocation(text);
+		} else if (path.equals("venue.street")) {
+			item.setVenueStreet(text);
+		} else if (path.equals("venue.city")) {
+			item.setVenueCity(text);
+		} else if (path.equals("venue.state")) {
+			item.setVenueState(text);
+		} else if (path.equals("venue.country")) {
+			item.setVenueCountry(text);
+		}
+	}
+}
@@ -47,7 +47,7 @@ public class FacebookErrorHandler extends DefaultHandler {
 	private static final String msg = "msg";
 	private static final String your_request = "your_request";
 
-	private StringBuffer charContent = null; // text content of an element
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
 
 	private String authToken; // the current carrier ID
 
@@ -57,6 +57,8 @@ public class FacebookErrorHandler extends DefaultHandler {
 
 	public void startDocument() {
 		log.debug("Start document");
+		charContent.setLength(0);
+		authToken = null;
 	}
 
 	public void endDocument() {
@@ -67,7 +69,7 @@ public class FacebookErrorHandler extends DefaultHandler {
 			Attributes atts) {
 		log.debug("Start element: " + qName);
 		if (qName.equals(fb_error)) {
-			charContent = new StringBuffer();
+			charContent.setLength(0);
 		}
 	}
 
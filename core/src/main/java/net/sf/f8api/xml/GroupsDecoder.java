@@ -0,0 +1,71 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import net.sf.f8api.model.Group;
+
+/**
+ * Reads the groups of a groups.get response.
+ */
+public class GroupsDecoder extends StreamDecoder<Group> {
+	public GroupsDecoder() {
+		super("group");
+	}
+
+	protected Group newItem() {
+		return new Group();
+	}
+
+	protected void set(Group item, String path, String text) {
+		if (path.equals("gid")) {
+			item.setId(toLong(text));
+		} else if (path.equals("name")) {
+			item.setName(text);
+		} else if (path.equals("nid")) {
+			item.setNId(toLong(text));
+		} else if (path.equals("description")) {
+			item.setDescription(text);
+		} else if (path.equals("group_type")) {
+			item.setType(text);
+		} else if (path.equals("group_subtype")) {
+			item.setSubType(text);
+		} else if (path.equals("recent_news")) {
+			item.setRecentNews(text);
+		} else if (path.equals("pic")) {
+			item.setPic(text);
+		} else if (path.equals("pic_big")) {
+			item.setPicBig(text);
+		} else if (path.equals("pic_small")) {
+			item.setPicSmall(text);
+		} else if (path.equals("creator")) {
+			item.setCreatorId(toLong(text));
+		} else if (path.equals("update_time")) {
+			item.setUpdateTime(toDate(text));
+		} else if (path.equals("office")) {
+			item.setOffice(text);
+		} else if (path.equals("website")) {
+			item.setWebsite(text);
+		} else if (path.equals("venue.street")) {
+			item.setVenueStreet(text);
+		} else if (path.equals("venue.city")) {
+			item.setVenueCity(text);
+		} else if (path.equals("venue.state")) {
+			item.setVenueState(text);
+		} else if (path.equals("venue.country")) {
+			item.setVenueCountry(text);
+		}
+	}
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import net.sf.f8api.model.PhotoAlbum;
+
+/**
+ * Reads the albums of a photos.getAlbums response.
+ */
+public class PhotoAlbumsDecoder extends StreamDecoder<PhotoAlbum> {
+	public PhotoAlbumsDecoder() {
+		super("album");
+	}
+
+	protected PhotoAlbum newItem() {
+		return new PhotoAlbum();
+	}
+
+	protected void set(PhotoAlbum item, String path, String text) {
+		if (path.equals("aid")) {
+			item.setId(toLong(text));
+		} else if (path.equals("cover_pid")) {
+			item.setCoverPhotoId(toLong(text));
+		} else if (path.equals("owner")) {
+			item.setOwnerId(toLong(text));
+		} else if (path.equals("name")) {
+			item.setName(text);
+		} else if (path.equals("created")) {
+			item.setCreated(toDate(text));
+		} else if (path.equals("modified")) {
+			item.setModified(toDate(text));
+		} else if (path.equals("description")) {
+			item.setDescription(text);
+		} else if (path.equals("location")) {
+			item.setLocation(text);
+		} else if (path.equals("link")) {
+			item.setLink(text);
+		} else if (path.equals("size")) {
+			item.setSize((int) toLong(text));
+		}
+	}
+}
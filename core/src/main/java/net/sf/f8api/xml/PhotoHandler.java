@@ -0,0 +1,168 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.model.Photo;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Parse the photo of a photos.upload response, or each photo of a list:
+ * 
+ * <pre>
+ * <code>
+ * &lt;?xml version=&quot;1.0&quot; encoding=&quot;UTF-8&quot;?&gt;
+ * &lt;photos_upload_response xmlns=&quot;http://api.facebook.com/1.0/&quot; ...&gt;
+ *   &lt;pid&gt;940915697041656&lt;/pid&gt;
+ *   &lt;aid&gt;940915667462717&lt;/aid&gt;
+ *   &lt;owner&gt;219074&lt;/owner&gt;
+ *   &lt;src&gt;http://ip002.facebook.com/v67/161/72/219074/s219074_31637752_5455.jpg&lt;/src&gt;
+ *   &lt;src_big&gt;http://ip002.facebook.com/v67/161/72/219074/n219074_31637752_5455.jpg&lt;/src_big&gt;
+ *   &lt;src_small&gt;http://ip002.facebook.com/v67/161/72/219074/t219074_31637752_5455.jpg&lt;/src_small&gt;
+ *   &lt;link&gt;http://www.facebook.com/photo.php?pid=31637752&amp;id=219074&lt;/link&gt;
+ *   &lt;caption&gt;Testing&lt;/caption&gt;
+ *   &lt;created&gt;1132553361&lt;/created&gt;
+ * &lt;/photos_upload_response&gt;
+ * </code>
+ * </pre>
+ */
+public class PhotoHandler extends DefaultHandler {
+	protected static Log log = LogFactory.getLog(PhotoHandler.class);
+	public static final String photos_upload_response = "photos_upload_response";
+	public static final String photo = "photo";
+
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
+
+	private List<Photo> photos = new ArrayList<Photo>();
+
+	private Photo current;
+
+	private ErrorResponseHandler errorHandler = null;
+
+	public PhotoHandler() {
+		super();
+	}
+
+	/**
+	 * Start each document afresh, so one handler can parse several.
+	 */
+	public void startDocument() {
+		reset();
+	}
+
+	/**
+	 * Forget the last document. Photos already returned are left alone.
+	 */
+	public void reset() {
+		charContent.setLength(0);
+		photos = new ArrayList<Photo>();
+		current = null;
+		errorHandler = null;
+	}
+
+	public void startElement(String uri, String name, String qName,
+			Attributes atts) {
+
+		if (errorHandler != null) {
+			errorHandler.startElement(uri, name, qName, atts);
+			return;
+		} else if (qName.equals(ErrorResponseHandler.error_response)) {
+			log.warn("facebook error response");
+			errorHandler = new ErrorResponseHandler();
+			errorHandler.startElement(uri, name, qName, atts);
+			return;
+		}
+
+		if (qName.equals(photos_upload_response) || qName.equals(photo)) {
+			current = new Photo();
+		}
+		charContent.setLength(0);
+	}
+
+	public void endElement(String uri, String name, String qName) {
+		if (errorHandler != null) {
+			errorHandler.endElement(uri, name, qName);
+			return;
+		}
+		if (current == null) {
+			return;
+		}
+
+		String text = charContent.toString().trim();
+		if (qName.equals(photos_upload_response) || qName.equals(photo)) {
+			photos.add(current);
+			current = null;
+		} else if (qName.equals("pid")) {
+			current.setId(Long.parseLong(text));
+		} else if (qName.equals("aid")) {
+			current.setAlbumId(Long.parseLong(text));
+		} else if (qName.equals("owner")) {
+			current.setOwnerId(Long.parseLong(text));
+		} else if (qName.equals("src")) {
+			current.setUrl(text);
+		} else if (qName.equals("src_big")) {
+			current.setUrlBig(text);
+		} else if (qName.equals("src_small")) {
+			current.setUrlSmall(text);
+		} else if (qName.equals("link")) {
+			current.setLink(text);
+		} else if (qName.equals("caption")) {
+			current.setCaption(text);
+		} else if (qName.equals("created")) {
+			current.setCreated(new Date(Long.parseLong(text) * 1000));
+		}
+		charContent.setLength(0);
+	}
+
+	public void characters(char ch[], int start, int length) {
+		if (errorHandler != null) {
+			errorHandler.characters(ch, start, length);
+			return;
+		}
+
+		charContent.append(ch, start, length);
+	}
+
+	/**
+	 * @return the photos, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public List<Photo> getPhotos() throws FacebookException {
+		if (errorHandler != null) {
+			throw new FacebookException(errorHandler.getErrorResponse());
+		}
+		return photos;
+	}
+
+	/**
+	 * @return the first photo, or null if there was none
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public Photo getPhoto() throws FacebookException {
+		List<Photo> list = getPhotos();
+		return list.isEmpty() ? null : list.get(0);
+	}
+}
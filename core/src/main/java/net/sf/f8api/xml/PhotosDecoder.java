@@ -0,0 +1,53 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import net.sf.f8api.model.Photo;
+
+/**
+ * Reads the photos of a photos.get response.
+ */
+public class PhotosDecoder extends StreamDecoder<Photo> {
+	public PhotosDecoder() {
+		super("photo");
+	}
+
+	protected Photo newItem() {
+		return new Photo();
+	}
+
+	protected void set(Photo item, String path, String text) {
+		if (path.equals("pid")) {
+			item.setId(toLong(text));
+		} else if (path.equals("aid")) {
+			item.setAlbumId(toLong(text));
+		} else if (path.equals("owner")) {
+			item.setOwnerId(toLong(text));
+		} else if (path.equals("src")) {
+			item.setUrl(text);
+		} else if (path.equals("src_big")) {
+			item.setUrlBig(text);
+		} else if (path.equals("src_small")) {
+			item.setUrlSmall(text);
+		} else if (path.equals("link")) {
+			item.setLink(text);
+		} else if (path.equals("caption")) {
+			item.setCaption(text);
+		} else if (path.equals("created")) {
+			item.setCreated(toDate(text));
+		}
+	}
+}
@@ -0,0 +1,498 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.json.JsonTokenizer;
+import net.sf.f8api.model.ErrorResponse;
+
+/**
+ * Reads the items of a list response, the photos of photos.get say, into
+ * model objects straight from the stream, with StAX, building no tree:
+ * 
+ * <pre><code>
+ * List&lt;Photo&gt; photos = new PhotosDecoder().decode(in);
+ * </code></pre>
+ * 
+ * Each element under an item is a field, named by its path from the item:
+ * "name", "venue.city", and for elements of a list="true" element their
+ * index, "affiliations.0.name". Fields that hold other elements aren't
+ * given, only the fields under them.
+ * 
+ * The same items can be read from a JSON response, an array of objects,
+ * with {@link #decodeJson(InputStream)}; fields are given the same paths,
+ * members of objects being elements and items of arrays being the elements
+ * of a list, so the same model objects are made.
+ * 
+ * A decoder keeps no state, so one decoder can be shared by all threads;
+ * each decode has its own {@link Cursor}.
+ * 
+ * @param <T>
+ *            model of an item
+ */
+public abstract class StreamDecoder<T> {
+	private static final String XSI = "http://www.w3.org/2001/XMLSchema-instance";
+
+	private static final XMLInputFactory factory = XMLInputFactory.newInstance();
+	static {
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.SUPPORT_DTD, Boolean.FALSE);
+	}
+
+	private final String item;
+
+	/**
+	 * @param item
+	 *            name of the elements of the items, "photo" say
+	 */
+	protected StreamDecoder(String item) {
+		this.item = item;
+	}
+
+	/**
+	 * @return a new item, to be given its fields
+	 */
+	protected abstract T newItem();
+
+	/**
+	 * Give an item one of its fields.
+	 * 
+	 * @param path
+	 *            of the field
+	 * @param text
+	 *            of the field, trimmed, null if it's nil
+	 */
+	protected abstract void set(T item, String path, String text);
+
+	/**
+	 * Read all the items, and close the stream.
+	 * 
+	 * @return the items, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public List<T> decode(InputStream in) throws IOException,
+			FacebookException {
+		Cursor<T> cursor = open(in);
+		try {
+			List<T> items = new ArrayList<T>();
+			for (T t = cursor.next(); t != null; t = cursor.next()) {
+				items.add(t);
+			}
+			return items;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Start reading the items, one at a time. The cursor must be closed,
+	 * which closes the stream.
+	 * 
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then
+	 */
+	public Cursor<T> open(InputStream in) throws IOException,
+			FacebookException {
+		return new Items(openRoot(in), in);
+	}
+
+	/**
+	 * Read all the items of a JSON response, and close the stream.
+	 * 
+	 * @return the items, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public List<T> decodeJson(InputStream in) throws IOException,
+			FacebookException {
+		Cursor<T> cursor = openJson(in);
+		try {
+			List<T> items = new ArrayList<T>();
+			for (T t = cursor.next(); t != null; t = cursor.next()) {
+				items.add(t);
+			}
+			return items;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Start reading the items of a JSON response, one at a time. The cursor
+	 * must be closed, which closes the stream.
+	 * 
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then
+	 */
+	public Cursor<T> openJson(InputStream in) throws IOException,
+			FacebookException {
+		return new JsonItems(openJsonRoot(in));
+	}
+
+	/**
+	 * Read up to the root element of a response.
+	 * 
+	 * @return the reader, at the root
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then, as
+	 *             it is on any failure
+	 */
+	static XMLStreamReader openRoot(InputStream in) throws IOException,
+			FacebookException {
+		boolean opened = false;
+		try {
+			XMLStreamReader xr = factory.createXMLStreamReader(in);
+			xr.nextTag();
+			if (ErrorResponseHandler.error_response.equals(xr.getLocalName())) {
+				throw new FacebookException(readError(xr));
+			}
+			opened = true;
+			return xr;
+		} catch (XMLStreamException xse) {
+			throw new IOException(xse.getMessage());
+		} finally {
+			if (!opened) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Read up to the contents of the root of a JSON response: the first
+	 * token in an array, the first name in an object.
+	 * 
+	 * @return the tokenizer, at the root's start
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then, as
+	 *             it is on any failure
+	 */
+	static JsonTokenizer openJsonRoot(InputStream in) throws IOException,
+			FacebookException {
+		JsonTokenizer json = new JsonTokenizer(in);
+		boolean opened = false;
+		try {
+			if (json.next() == JsonTokenizer.START_OBJECT
+					&& json.next() == JsonTokenizer.NAME
+					&& json.textEquals(ErrorResponseHandler.error_code)) {
+				throw new FacebookException(readError(json));
+			}
+			opened = true;
+			return json;
+		} finally {
+			if (!opened) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Close a reader and its stream.
+	 */
+	static void close(XMLStreamReader xr, InputStream in) throws IOException {
+		try {
+			xr.close();
+		} catch (XMLStreamException xse) {
+			// closing the stream is what matters
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * The items of one response, read as they're asked for.
+	 */
+	private class Items implements Cursor<T> {
+		private final XMLStreamReader xr;
+		private final InputStream in;
+		private final StringBuilder text = new StringBuilder();
+		// the open fields of the current item
+		private final List<Field> open = new ArrayList<Field>();
+		private boolean done;
+
+		Items(XMLStreamReader xr, InputStream in) {
+			this.xr = xr;
+			this.in = in;
+		}
+
+		public T next() throws IOException {
+			if (done)
+				return null;
+			try {
+				int depth = 0; // below the root
+				T current = null;
+				while (xr.hasNext()) {
+					switch (xr.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						if (current != null) {
+							start();
+						} else if (depth == 1 && item.equals(xr.getLocalName())) {
+							current = newItem();
+							open.clear();
+						}
+						text.setLength(0);
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if (current != null && !open.isEmpty())
+							text.append(xr.getTextCharacters(), xr
+									.getTextStart(), xr.getTextLength());
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						if (current != null) {
+							if (open.isEmpty())
+								return current;
+							end(current);
+						} else if (depth < 0) { // the end of the root
+							done = true;
+							return null;
+						}
+						text.setLength(0);
+						break;
+					}
+				}
+				done = true;
+				return null;
+			} catch (XMLStreamException xse) {
+				throw new IOException(xse.getMessage());
+			}
+		}
+
+		private void start() {
+			Field parent = open.isEmpty() ? null : open.get(open.size() - 1);
+			String name = xr.getLocalName();
+			String path;
+			if (parent == null) {
+				path = name;
+			} else if (parent.list) {
+				path = parent.path + "." + parent.children;
+			} else {
+				path = parent.path + "." + name;
+			}
+			if (parent != null)
+				parent.children++;
+			open.add(new Field(path, "true".equals(xr.getAttributeValue(
+					null, "list")), "true".equals(xr.getAttributeValue(XSI,
+					"nil"))));
+		}
+
+		private void end(T current) {
+			Field field = open.remove(open.size() - 1);
+			if (field.children == 0) {
+				set(current, field.path, field.nil ? null : text.toString()
+						.trim());
+			}
+		}
+
+		public void close() throws IOException {
+			done = true;
+			StreamDecoder.close(xr, in);
+		}
+	}
+
+	/**
+	 * The items of one JSON response, read as they're asked for.
+	 */
+	private class JsonItems implements Cursor<T> {
+		private final JsonTokenizer json;
+		private boolean done;
+
+		JsonItems(JsonTokenizer json) {
+			this.json = json;
+			// anything but an array, {} say, has no items
+			done = json.getToken() != JsonTokenizer.START_ARRAY;
+		}
+
+		public T next() throws IOException {
+			if (done)
+				return null;
+			for (int token = json.next(); token != JsonTokenizer.END_ARRAY; token = json
+					.next()) {
+				if (token == JsonTokenizer.START_OBJECT) {
+					T current = newItem();
+					object(current, null);
+					return current;
+				}
+				json.skipValue();
+			}
+			done = true;
+			return null;
+		}
+
+		/**
+		 * Read the members of an object, after its start.
+		 */
+		private void object(T current, String prefix) throws IOException {
+			for (int token = json.next(); token == JsonTokenizer.NAME; token = json
+					.next()) {
+				String name = json.getText();
+				value(current, prefix == null ? name : prefix + "." + name,
+						json.next());
+			}
+		}
+
+		private void value(T current, String path, int token)
+				throws IOException {
+			switch (token) {
+			case JsonTokenizer.START_OBJECT:
+			case JsonTokenizer.START_ARRAY:
+				int children = 0;
+				if (token == JsonTokenizer.START_OBJECT) {
+					for (token = json.next(); token == JsonTokenizer.NAME; token = json
+							.next()) {
+						value(current, path + "." + json.getText(), json.next());
+						children++;
+					}
+				} else {
+					for (token = json.next(); token != JsonTokenizer.END_ARRAY; token = json
+							.next()) {
+						value(current, path + "." + children, token);
+						children++;
+					}
+				}
+				if (children == 0) // as an empty element is
+					set(current, path, "");
+				break;
+			case JsonTokenizer.NULL:
+				set(current, path, null);
+				break;
+			case JsonTokenizer.END:
+				throw new IOException("JSON ends inside an item");
+			default:
+				set(current, path, json.getText().trim());
+			}
+		}
+
+		public void close() throws IOException {
+			done = true;
+			json.close();
+		}
+	}
+
+	private static class Field {
+		final String path;
+		final boolean list;
+		final boolean nil;
+		int children;
+
+		Field(String path, boolean list, boolean nil) {
+			this.path = path;
+			this.list = list;
+			this.nil = nil;
+		}
+	}
+
+	private static ErrorResponse readError(XMLStreamReader xr)
+			throws XMLStreamException {
+		ErrorResponse error = new ErrorResponse();
+		String key = null;
+		String value = null;
+		int depth = 0;
+		while (depth >= 0 && xr.hasNext()) {
+			int event = xr.next();
+			if (event == XMLStreamConstants.START_ELEMENT) {
+				depth++;
+				String name = xr.getLocalName();
+				if (name.equals(ErrorResponseHandler.error_code)) {
+					error.setCode(Integer.parseInt(xr.getElementText().trim()));
+					depth--;
+				} else if (name.equals(ErrorResponseHandler.error_msg)) {
+					error.setMessage(xr.getElementText().trim());
+					depth--;
+				} else if (name.equals(ErrorResponseHandler.key)) {
+					key = xr.getElementText().trim();
+					depth--;
+				} else if (name.equals(ErrorResponseHandler.value)) {
+					value = xr.getElementText().trim();
+					depth--;
+				}
+			} else if (event == XMLStreamConstants.END_ELEMENT) {
+				depth--;
+				if (xr.getLocalName().equals(ErrorResponseHandler.arg)) {
+					error.addParam(key, value);
+				}
+			}
+		}
+		return error;
+	}
+
+	/**
+	 * Read a JSON error, after the error_code name.
+	 */
+	private static ErrorResponse readError(JsonTokenizer json)
+			throws IOException {
+		ErrorResponse error = new ErrorResponse();
+		for (int token = JsonTokenizer.NAME; token == JsonTokenizer.NAME; token = json
+				.next()) {
+			if (json.textEquals(ErrorResponseHandler.error_code)) {
+				json.next();
+				error.setCode((int) json.getLong());
+			} else if (json.textEquals(ErrorResponseHandler.error_msg)) {
+				json.next();
+				error.setMessage(json.getText());
+			} else if (json.textEquals(ErrorResponseHandler.request_args)
+					&& json.next() == JsonTokenizer.START_ARRAY) {
+				while (json.next() == JsonTokenizer.START_OBJECT) {
+					String key = null;
+					String value = null;
+					while (json.next() == JsonTokenizer.NAME) {
+						if (json.textEquals(ErrorResponseHandler.key)) {
+							json.next();
+							key = json.getText();
+						} else if (json.textEquals(ErrorResponseHandler.value)) {
+							json.next();
+							value = json.getText();
+						} else {
+							json.skipValue();
+						}
+					}
+					error.addParam(key, value);
+				}
+			} else {
+				json.skipValue();
+			}
+		}
+		return error;
+	}
+
+	/**
+	 * @return the number, 0 if there's none
+	 */
+	protected static long toLong(String text) {
+		return text == null || text.length() == 0 ? 0 : Long.parseLong(text);
+	}
+
+	/**
+	 * @return the time of seconds since the epoch, null if there's none
+	 */
+	protected static Date toDate(String text) {
+		return text == null || text.length() == 0 ? null : new Date(Long
+				.parseLong(text) * 1000);
+	}
+}
@@ -0,0 +1,319 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.json.JsonTokenizer;
+
+/**
+ * Reads the uids of a response listing users, with StAX, one uid at a time:
+ * those of friends.get and friends.getAppUsers, directly under the root, or
+ * one of the lists of groups.getMembers and events.getMembers:
+ * 
+ * <pre><code>
+ * &lt;events_getMembers_response&gt;
+ *   &lt;attending list=&quot;true&quot;&gt;
+ *     &lt;uid&gt;222333&lt;/uid&gt;
+ *     ...
+ * </code></pre>
+ * 
+ * The JSON of those responses, an array of uids or an object of arrays, is
+ * read by {@link #decodeUidsJson(InputStream)} and
+ * {@link #openJson(InputStream)}.
+ * 
+ * A decoder keeps no state, so one decoder can be shared by all threads.
+ */
+public class UidsDecoder {
+	public static final String uid = "uid";
+
+	private final String list;
+
+	/**
+	 * Reads the uids directly under the root.
+	 */
+	public UidsDecoder() {
+		this(null);
+	}
+
+	/**
+	 * @param list
+	 *            name of the element holding the uids, directly under the
+	 *            root, null for uids directly under the root
+	 */
+	public UidsDecoder(String list) {
+		this.list = list;
+	}
+
+	/**
+	 * Read all the uids, and close the stream.
+	 * 
+	 * @return the uids, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public List<Long> decode(InputStream in) throws IOException,
+			FacebookException {
+		Cursor<Long> cursor = open(in);
+		try {
+			List<Long> uids = new ArrayList<Long>();
+			for (Long uid = cursor.next(); uid != null; uid = cursor.next()) {
+				uids.add(uid);
+			}
+			return uids;
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Read all the uids into an array, and close the stream. No object is
+	 * made per uid.
+	 * 
+	 * @return the uids, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public long[] decodeUids(InputStream in) throws IOException,
+			FacebookException {
+		return toArray(new Uids(StreamDecoder.openRoot(in), in));
+	}
+
+	/**
+	 * Read all the uids of a JSON response into an array, and close the
+	 * stream.
+	 * 
+	 * @return the uids, in document order
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public long[] decodeUidsJson(InputStream in) throws IOException,
+			FacebookException {
+		return toArray(new JsonUids(StreamDecoder.openJsonRoot(in)));
+	}
+
+	private static long[] toArray(UidCursor cursor) throws IOException {
+		try {
+			long[] uids = new long[64];
+			int n = 0;
+			while (cursor.advance()) {
+				if (n == uids.length)
+					uids = Arrays.copyOf(uids, n * 2);
+				uids[n++] = cursor.uid;
+			}
+			return Arrays.copyOf(uids, n);
+		} finally {
+			cursor.close();
+		}
+	}
+
+	/**
+	 * Start reading the uids, one at a time. The cursor must be closed,
+	 * which closes the stream.
+	 * 
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then
+	 */
+	public Cursor<Long> open(InputStream in) throws IOException,
+			FacebookException {
+		return new Uids(StreamDecoder.openRoot(in), in);
+	}
+
+	/**
+	 * Start reading the uids of a JSON response, one at a time. The cursor
+	 * must be closed, which closes the stream.
+	 * 
+	 * @throws FacebookException
+	 *             if the response was an error, the stream is closed then
+	 */
+	public Cursor<Long> openJson(InputStream in) throws IOException,
+			FacebookException {
+		return new JsonUids(StreamDecoder.openJsonRoot(in));
+	}
+
+	private static abstract class UidCursor implements Cursor<Long> {
+		long uid; // the last one read
+
+		public Long next() throws IOException {
+			return advance() ? Long.valueOf(uid) : null;
+		}
+
+		/**
+		 * Read the next uid.
+		 * 
+		 * @return false once there are no more
+		 */
+		abstract boolean advance() throws IOException;
+	}
+
+	private class Uids extends UidCursor {
+		private final XMLStreamReader xr;
+		private final InputStream in;
+		private int depth; // below the root
+		private int listDepth = list == null ? 0 : -1; // -1 outside the list
+		private boolean done;
+
+		Uids(XMLStreamReader xr, InputStream in) {
+			this.xr = xr;
+			this.in = in;
+		}
+
+		/**
+		 * Read the next uid, its digits as they come.
+		 */
+		boolean advance() throws IOException {
+			if (done)
+				return false;
+			try {
+				boolean inUid = false;
+				int digits = 0;
+				while (xr.hasNext()) {
+					switch (xr.next()) {
+					case XMLStreamConstants.START_ELEMENT:
+						depth++;
+						if (listDepth >= 0 && depth == listDepth + 1
+								&& UidsDecoder.uid.equals(xr.getLocalName())) {
+							inUid = true;
+							uid = 0;
+							digits = 0;
+						} else if (listDepth < 0 && depth == 1
+								&& list.equals(xr.getLocalName())) {
+							listDepth = depth;
+						}
+						break;
+					case XMLStreamConstants.CHARACTERS:
+					case XMLStreamConstants.CDATA:
+						if (inUid)
+							digits += parse(xr.getTextCharacters(), xr
+									.getTextStart(), xr.getTextLength());
+						break;
+					case XMLStreamConstants.END_ELEMENT:
+						depth--;
+						if (inUid) {
+							if (digits > 0)
+								return true;
+							inUid = false; // an empty uid
+						} else if (depth < 0) { // the end of the root
+							done = true;
+							return false;
+						} else if (depth < listDepth) {
+							listDepth = -1; // past the list
+						}
+						break;
+					}
+				}
+				done = true;
+				return false;
+			} catch (XMLStreamException xse) {
+				throw new IOException(xse.getMessage());
+			}
+		}
+
+		/**
+		 * Add digits to the uid, white space around them is let be.
+		 * 
+		 * @return how many digits there were
+		 */
+		private int parse(char[] chars, int start, int length)
+				throws IOException {
+			int digits = 0;
+			for (int i = start; i < start + length; i++) {
+				char c = chars[i];
+				if (c >= '0' && c <= '9') {
+					if (uid > (Long.MAX_VALUE - (c - '0')) / 10)
+						throw new IOException("uid too large");
+					uid = uid * 10 + (c - '0');
+					digits++;
+				} else if (c > ' ') {
+					throw new IOException("bad uid: "
+							+ new String(chars, start, length));
+				}
+			}
+			return digits;
+		}
+
+		public void close() throws IOException {
+			done = true;
+			StreamDecoder.close(xr, in);
+		}
+	}
+
+	private class JsonUids extends UidCursor {
+		private final JsonTokenizer json;
+		private boolean done;
+
+		JsonUids(JsonTokenizer json) throws IOException {
+			this.json = json;
+			boolean opened = false;
+			try {
+				done = !(list == null ? json.getToken() == JsonTokenizer.START_ARRAY
+						: findList());
+				opened = true;
+			} finally {
+				if (!opened) // no cursor to close it
+					json.close();
+			}
+		}
+
+		/**
+		 * Read up to the list's array, from the first name in the root.
+		 * 
+		 * @return false if there's no list, or it's empty and not an array
+		 */
+		private boolean findList() throws IOException {
+			for (int token = json.getToken(); token == JsonTokenizer.NAME; token = json
+					.next()) {
+				if (json.textEquals(list))
+					return json.next() == JsonTokenizer.START_ARRAY;
+				json.skipValue();
+			}
+			return false;
+		}
+
+		/**
+		 * Read the next uid, a number or a string of one.
+		 */
+		boolean advance() throws IOException {
+			if (done)
+				return false;
+			for (int token = json.next(); token != JsonTokenizer.END_ARRAY; token = json
+					.next()) {
+				if ((token == JsonTokenizer.NUMBER || token == JsonTokenizer.STRING)
+						&& json.getTextLength() > 0) {
+					uid = json.getLong();
+					return true;
+				}
+				json.skipValue();
+			}
+			done = true;
+			return false;
+		}
+
+		public void close() throws IOException {
+			done = true;
+			json.close();
+		}
+	}
+}
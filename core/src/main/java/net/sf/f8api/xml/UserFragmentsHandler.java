@@ -0,0 +1,197 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.sf.f8api.FacebookException;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.xml.sax.Attributes;
+import org.xml.sax.helpers.DefaultHandler;
+
+/**
+ * Split a users.getInfo response into the XML of each field of each user,
+ * so fields can be cached one by one and put back together into a response
+ * later. A field like
+ * <code>&lt;hometown_location&gt;&lt;city&gt;Pittsburgh&lt;/city&gt;&lt;/hometown_location&gt;</code>
+ * is kept as written, children and all.
+ * 
+ * @see UsersDecoder
+ */
+public class UserFragmentsHandler extends DefaultHandler {
+	protected static Log log = LogFactory.getLog(UserFragmentsHandler.class);
+
+	/**
+	 * uid to field name to field XML, in document order.
+	 */
+	private Map<Long, Map<String, String>> users = new LinkedHashMap<Long, Map<String, String>>();
+
+	private Map<String, String> current;
+	private String uid;
+	private int depth; // inside the current user, 1 for a field
+	private String field;
+	private final StringBuffer fragment = new StringBuffer();
+	private final StringBuffer charContent = new StringBuffer(); // text content of an element
+
+	private ErrorResponseHandler errorHandler = null;
+
+	public UserFragmentsHandler() {
+		super();
+	}
+
+	/**
+	 * Start each document afresh, so one handler can parse several.
+	 */
+	public void startDocument() {
+		reset();
+	}
+
+	/**
+	 * Forget the last document. Users already returned are left alone.
+	 */
+	public void reset() {
+		charContent.setLength(0);
+		fragment.setLength(0);
+		users = new LinkedHashMap<Long, Map<String, String>>();
+		current = null;
+		uid = null;
+		depth = 0;
+		field = null;
+		errorHandler = null;
+	}
+
+	public void startElement(String uri, String name, String qName,
+			Attributes atts) {
+
+		if (errorHandler != null) {
+			errorHandler.startElement(uri, name, qName, atts);
+			return;
+		} else if (qName.equals(ErrorResponseHandler.error_response)) {
+			log.warn("facebook error response");
+			errorHandler = new ErrorResponseHandler();
+			errorHandler.startElement(uri, name, qName, atts);
+			return;
+		}
+
+		if (current == null) {
+			if (qName.equals(UsersDecoder.user)) {
+				current = new LinkedHashMap<String, String>();
+				uid = null;
+				depth = 0;
+			}
+			return;
+		}
+		if (depth == 0) {
+			field = qName;
+			fragment.setLength(0);
+		}
+		depth++;
+		flushText();
+		fragment.append('<').append(qName);
+		for (int i = 0; i < atts.getLength(); i++) {
+			if (atts.getQName(i).startsWith("xmlns"))
+				continue;
+			fragment.append(' ').append(atts.getQName(i)).append("=\"");
+			escape(atts.getValue(i), fragment, true);
+			fragment.append('"');
+		}
+		fragment.append('>');
+	}
+
+	public void endElement(String uri, String name, String qName) {
+		if (errorHandler != null) {
+			errorHandler.endElement(uri, name, qName);
+			return;
+		}
+		if (current == null) {
+			return;
+		}
+		if (depth == 0) { // end of the user
+			if (uid != null) {
+				users.put(Long.valueOf(uid), current);
+			}
+			current = null;
+			return;
+		}
+		if (depth == 1 && field.equals(UsersDecoder.uid)) {
+			uid = charContent.toString().trim();
+			charContent.setLength(0);
+			depth--;
+			return;
+		}
+		flushText();
+		fragment.append("</").append(qName).append('>');
+		if (--depth == 0) {
+			current.put(field, fragment.toString());
+		}
+	}
+
+	public void characters(char ch[], int start, int length) {
+		if (errorHandler != null) {
+			errorHandler.characters(ch, start, length);
+			return;
+		}
+		if (current != null && depth > 0) {
+			charContent.append(ch, start, length);
+		}
+	}
+
+	private void flushText() {
+		if (charContent.length() > 0) {
+			String text = charContent.toString();
+			if (text.trim().length() > 0)
+				escape(text, fragment, false);
+			charContent.setLength(0);
+		}
+	}
+
+	private static void escape(String s, StringBuffer out, boolean attribute) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			switch (c) {
+			case '&':
+				out.append("&amp;");
+				break;
+			case '<':
+				out.append("&lt;");
+				break;
+			case '>':
+				out.append("&gt;");
+				break;
+			case '"':
+				out.append(attribute ? "&quot;" : "\"");
+				break;
+			default:
+				out.append(c);
+			}
+		}
+	}
+
+	/**
+	 * @return for each user returned, by uid, the XML of each field
+	 * @throws FacebookException
+	 *             if the response was an error
+	 */
+	public Map<Long, Map<String, String>> getUsers() throws FacebookException {
+		if (errorHandler != null) {
+			throw new FacebookException(errorHandler.getErrorResponse());
+		}
+		return users;
+	}
+}
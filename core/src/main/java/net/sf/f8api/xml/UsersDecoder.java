@@ -0,0 +1,69 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import net.sf.f8api.model.User;
+
+/**
+ * Reads the users of a users.getInfo response, each field by its path:
+ * 
+ * <pre>
+ * <code>
+ * &lt;users_getInfo_response xmlns=&quot;http://api.facebook.com/1.0/&quot; ... list=&quot;true&quot;&gt;
+ *   &lt;user&gt;
+ *     &lt;uid&gt;8055&lt;/uid&gt;
+ *     &lt;name&gt;Dave Fetterman&lt;/name&gt;
+ *     &lt;hometown_location&gt;
+ *       &lt;city&gt;Pittsburgh&lt;/city&gt;
+ *     &lt;/hometown_location&gt;
+ *     &lt;affiliations list=&quot;true&quot;&gt;
+ *       &lt;affiliation&gt;
+ *         &lt;nid&gt;50431648&lt;/nid&gt;
+ *         &lt;name&gt;Facebook&lt;/name&gt;
+ *       &lt;/affiliation&gt;
+ *     &lt;/affiliations&gt;
+ *   &lt;/user&gt;
+ * &lt;/users_getInfo_response&gt;
+ * </code>
+ * </pre>
+ * 
+ * gives a user of uid 8055 with the fields "name",
+ * "hometown_location.city", "affiliations.0.nid" and
+ * "affiliations.0.name".
+ * 
+ * @see User
+ */
+public class UsersDecoder extends StreamDecoder<User> {
+	public static final String users_getInfo_response = "users_getInfo_response";
+	public static final String user = "user";
+	public static final String uid = "uid";
+
+	public UsersDecoder() {
+		super(user);
+	}
+
+	protected User newItem() {
+		return new User();
+	}
+
+	protected void set(User item, String path, String text) {
+		if (path.equals(uid)) {
+			item.setUid(toLong(text));
+		} else {
+			item.setField(path, text == null ? "" : text);
+		}
+	}
+}
@@ -0,0 +1,113 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Parses responses with a SAX parser kept by each thread, rather than asking
+ * XMLReaderFactory for a new one, which looks the parser class up and builds
+ * all its tables, every time:
+ * 
+ * <pre><code>
+ * PhotoHandler handler = new PhotoHandler();
+ * XmlReaders.parse(in, handler);
+ * Photo photo = handler.getPhoto();
+ * </code></pre>
+ * 
+ * The handlers of this package start afresh on each document, so a thread
+ * may keep one and parse with it again.
+ * 
+ * A parser that failed is dropped, in case it was left in a bad state. A
+ * handler that parses another document while it's being called gets a new
+ * parser for it.
+ */
+public final class XmlReaders {
+	private static final DefaultHandler NONE = new DefaultHandler();
+
+	private static final AtomicLong created = new AtomicLong();
+
+	private static final ThreadLocal<XmlReaders> readers = new ThreadLocal<XmlReaders>() {
+		protected XmlReaders initialValue() {
+			return new XmlReaders();
+		}
+	};
+
+	private XMLReader reader; // null until first used, or after a failure
+	private boolean busy; // parsing, the reader can't be had
+
+	private XmlReaders() {
+	}
+
+	/**
+	 * Parse a document with the current thread's parser. Closing the stream
+	 * is up to the caller.
+	 * 
+	 * @param handler
+	 *            of both content and errors
+	 */
+	public static void parse(InputStream in, DefaultHandler handler)
+			throws IOException, SAXException {
+		readers.get().parse(new InputSource(in), handler);
+	}
+
+	/**
+	 * @return parsers created, by all threads
+	 */
+	public static long getCreated() {
+		return created.get();
+	}
+
+	private void parse(InputSource source, DefaultHandler handler)
+			throws IOException, SAXException {
+		if (busy) {
+			parse(create(), source, handler);
+			return;
+		}
+		XMLReader xr = reader != null ? reader : create();
+		reader = null;
+		busy = true;
+		try {
+			parse(xr, source, handler);
+			reader = xr;
+		} finally {
+			busy = false;
+			// don't keep the handler, and what it's holding, alive
+			xr.setContentHandler(NONE);
+			xr.setErrorHandler(NONE);
+		}
+	}
+
+	private static void parse(XMLReader xr, InputSource source,
+			DefaultHandler handler) throws IOException, SAXException {
+		xr.setContentHandler(handler);
+		xr.setErrorHandler(handler);
+		xr.parse(source);
+	}
+
+	private static XMLReader create() throws SAXException {
+		created.incrementAndGet();
+		return XMLReaderFactory.createXMLReader();
+	}
+}
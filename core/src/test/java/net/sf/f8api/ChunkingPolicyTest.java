@@ -0,0 +1,171 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+import net.sf.f8api.model.User;
+
+/**
+ * Checks the splicing of chunk responses into one.
+ */
+public class ChunkingPolicyTest extends TestCase {
+	private static final String DECL = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	private static final String ROOT = "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\" "
+			+ "xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" list=\"true\"";
+	private static final String END = "</users_getInfo_response>";
+
+	public void testMergeXmlLists() throws Exception {
+		String merged = mergeXml(DECL + ROOT + ">\n  <user><uid>1</uid></user>\n"
+				+ END, DECL + "<!-- served by 10.0.0.1 -->\n" + ROOT
+				+ "><user><uid>2</uid></user><user><uid>3</uid></user>" + END
+				+ "\n", DECL + ROOT + ">\n<user><uid>4</uid></user>" + END);
+		assertEquals(DECL + ROOT + ">\n  <user><uid>1</uid></user>\n"
+				+ "<user><uid>2</uid></user><user><uid>3</uid></user>"
+				+ "\n<user><uid>4</uid></user>" + END, merged);
+	}
+
+	public void testMergeXmlListsSkipsEmptyChunks() throws Exception {
+		String empty = DECL + ROOT + "/>";
+		String merged = mergeXml(empty, DECL + ROOT + ">"
+				+ "<user><uid>1</uid></user>" + END, "", DECL + ROOT + ">"
+				+ END, empty);
+		assertEquals(DECL + ROOT + "><user><uid>1</uid></user>" + END,
+				merged);
+	}
+
+	public void testMergeXmlListsAllEmpty() throws Exception {
+		String empty = DECL + ROOT + "/>";
+		assertEquals(empty, mergeXml(empty, empty));
+	}
+
+	public void testMergeXmlListsQuotedGreaterThan() throws Exception {
+		String root = "<r a=\"x>y\" b='/'>";
+		assertEquals(root + "<i>1</i><i>2</i></r>", mergeXml(root
+				+ "<i>1</i></r>", root + "<i>2</i></r>"));
+	}
+
+	public void testMergeJsonArrays() throws Exception {
+		assertEquals("[{\"uid\":1},{\"uid\":2},{\"uid\":3}]", mergeJson(
+				"[{\"uid\":1}]", " [ {\"uid\":2},{\"uid\":3} ]\n"));
+	}
+
+	public void testMergeJsonArraysSkipsEmptyChunks() throws Exception {
+		assertEquals("[1,2]", mergeJson("[]", "[1]", " [ ] ", "", "\"\"",
+				"[2]"));
+		assertEquals("[]", mergeJson("[]", "[ ]"));
+	}
+
+	public void testFirstNotEmpty() throws Exception {
+		String empty = DECL + ROOT + "/>";
+		String blank = DECL + ROOT + ">\n " + END;
+		String full = DECL + ROOT + ">1" + END;
+		assertEquals(full, new String(ChunkingPolicy.firstNotEmpty(bytes(
+				empty, blank, full), false), "UTF-8"));
+		assertEquals(empty, new String(ChunkingPolicy.firstNotEmpty(bytes(
+				empty, blank), false), "UTF-8"));
+		assertEquals("true", new String(ChunkingPolicy.firstNotEmpty(bytes(
+				"[]", "\"\"", "true"), true), "UTF-8"));
+	}
+
+	public void testChunkedCall() throws Exception {
+		StubTransport transport = new StubTransport() {
+			protected String respond(Map<String, CharSequence> params) {
+				return users(params.get("uids").toString());
+			}
+		};
+		FacebookClient client = transport.client();
+		ChunkingPolicy chunking = new ChunkingPolicy();
+		chunking.setMinChunkSize(7);
+		chunking.setMaxChunkSize(7);
+		client.setChunkingPolicy(chunking);
+		try {
+			String[] uids = new String[30];
+			for (int i = 0; i < uids.length; i++) {
+				uids[i] = Integer.toString(1000 + i);
+			}
+			List<User> users = client.getUsersInfoList(StubTransport
+					.session("s"), uids, new String[] { "name" });
+			assertEquals(5, transport.requests.size());
+			assertEquals(uids.length, users.size());
+			for (int i = 0; i < uids.length; i++) {
+				assertEquals(1000 + i, users.get(i).getUid());
+			}
+		} finally {
+			chunking.shutdown();
+		}
+	}
+
+	public void testChunkErrorIsThrown() throws Exception {
+		StubTransport transport = new StubTransport() {
+			protected String respond(Map<String, CharSequence> params) {
+				String uids = params.get("uids").toString();
+				if (uids.startsWith("1007"))
+					return DECL + "<error_response xmlns=\"http://api.facebook.com/1.0/\">"
+							+ "<error_code>4</error_code><error_msg>Too many calls</error_msg>"
+							+ "</error_response>";
+				return users(uids);
+			}
+		};
+		FacebookClient client = transport.client();
+		ChunkingPolicy chunking = new ChunkingPolicy();
+		chunking.setMinChunkSize(7);
+		chunking.setMaxChunkSize(7);
+		client.setChunkingPolicy(chunking);
+		try {
+			String[] uids = new String[20];
+			for (int i = 0; i < uids.length; i++) {
+				uids[i] = Integer.toString(1000 + i);
+			}
+			client.getUsersInfoList(StubTransport.session("s"), uids,
+					new String[] { "name" });
+			fail("error chunk merged");
+		} catch (FacebookException expected) {
+			assertEquals(4, expected.getCode());
+		} finally {
+			chunking.shutdown();
+		}
+	}
+
+	private static String users(String uids) {
+		StringBuilder doc = new StringBuilder(DECL).append(ROOT).append('>');
+		for (String uid : uids.split(",")) {
+			doc.append("<user><uid>").append(uid).append(
+					"</uid><name>User ").append(uid).append("</name></user>");
+		}
+		return doc.append(END).toString();
+	}
+
+	private static String mergeXml(String... docs) throws IOException {
+		return new String(ChunkingPolicy.mergeXmlLists(bytes(docs)), "UTF-8");
+	}
+
+	private static String mergeJson(String... docs) throws IOException {
+		return new String(ChunkingPolicy.mergeJsonArrays(bytes(docs)),
+				"UTF-8");
+	}
+
+	private static byte[][] bytes(String... docs) throws IOException {
+		byte[][] bytes = new byte[docs.length][];
+		for (int i = 0; i < docs.length; i++) {
+			bytes[i] = docs[i].getBytes("UTF-8");
+		}
+		return bytes;
+	}
+}
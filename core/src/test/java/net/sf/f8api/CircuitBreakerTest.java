@@ -0,0 +1,180 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.TestCase;
+import net.sf.f8api.CircuitBreaker.State;
+import net.sf.f8api.http.HttpStatusException;
+
+public class CircuitBreakerTest extends TestCase {
+	private CircuitBreaker breaker;
+	private List<String> changes;
+
+	protected void setUp() {
+		breaker = new CircuitBreaker(4);
+		breaker.setMinimumCalls(4);
+		breaker.setFailureThreshold(0.5);
+		breaker.setOpenTime(50);
+		breaker.setHalfOpenProbes(2);
+		changes = new ArrayList<String>();
+		breaker.setListener(new CircuitBreaker.Listener() {
+			public void stateChanged(CircuitBreaker b, State from, State to) {
+				changes.add(from + "->" + to);
+			}
+		});
+	}
+
+	protected void tearDown() {
+		Thread.interrupted(); // don't leak a test's interrupt
+	}
+
+	private void call(Exception failure) throws CircuitOpenException {
+		breaker.record(breaker.acquire(), failure);
+	}
+
+	private void open() throws Exception {
+		call(null);
+		call(null);
+		call(new IOException("reset"));
+		call(new IOException("reset"));
+		assertEquals(State.OPEN, breaker.getState());
+	}
+
+	public void testOpensAtThresholdAfterMinimumCalls() throws Exception {
+		call(new IOException("reset"));
+		call(new IOException("reset"));
+		call(new IOException("reset"));
+		assertEquals("fewer than minimumCalls", State.CLOSED, breaker
+				.getState());
+		call(null);
+		assertEquals("success doesn't open", State.CLOSED, breaker.getState());
+		call(new IOException("reset"));
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(1, breaker.getOpened());
+	}
+
+	public void testWindowForgetsOldCalls() throws Exception {
+		call(new IOException("reset"));
+		call(new IOException("reset"));
+		call(null);
+		call(null);
+		call(null);
+		call(null);
+		call(new IOException("reset"));
+		assertEquals("1 of the last 4 failed", State.CLOSED, breaker
+				.getState());
+	}
+
+	public void testRejectsWhileOpen() throws Exception {
+		open();
+		try {
+			breaker.acquire();
+			fail("open breaker let a call through");
+		} catch (CircuitOpenException coe) {
+			assertEquals(1, breaker.getRejected());
+		}
+	}
+
+	public void testProbeSuccessesClose() throws Exception {
+		open();
+		Thread.sleep(80);
+		assertTrue(breaker.acquire());
+		assertTrue(breaker.acquire());
+		try {
+			breaker.acquire();
+			fail("more probes than halfOpenProbes");
+		} catch (CircuitOpenException coe) {
+			// all probes in flight
+		}
+		breaker.record(true, null);
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		breaker.record(true, null);
+		assertEquals(State.CLOSED, breaker.getState());
+		assertFalse(breaker.acquire());
+		assertEquals("[CLOSED->OPEN, OPEN->HALF_OPEN, HALF_OPEN->CLOSED]",
+				changes.toString());
+	}
+
+	public void testProbeFailureReopens() throws Exception {
+		open();
+		Thread.sleep(80);
+		assertTrue(breaker.acquire());
+		breaker.record(true, new HttpStatusException(503, "Unavailable"));
+		assertEquals(State.OPEN, breaker.getState());
+		assertEquals(2, breaker.getOpened());
+		try {
+			breaker.acquire();
+			fail("reopened breaker let a call through");
+		} catch (CircuitOpenException coe) {
+			// open time restarted
+		}
+	}
+
+	public void testCancelledProbeFreesItsSlot() throws Exception {
+		breaker.setHalfOpenProbes(1);
+		open();
+		Thread.sleep(80);
+		assertTrue(breaker.acquire());
+		breaker.record(true, new InterruptedIOException("cancelled"));
+		assertEquals(State.HALF_OPEN, breaker.getState());
+		assertTrue("slot released", breaker.acquire());
+		breaker.record(true, null);
+		assertEquals(State.CLOSED, breaker.getState());
+	}
+
+	public void testClassification() {
+		assertTrue(breaker.isFailure(new IOException("reset")));
+		assertTrue(breaker.isFailure(new SocketTimeoutException("read")));
+		assertTrue(breaker.isFailure(new HttpStatusException(502, "Bad")));
+		assertTrue(breaker.isFailure(new FacebookException(
+				ErrorCodes.FB_TEMP_UNAVAILABLE, "down")));
+		assertFalse(breaker.isFailure(new HttpStatusException(404, "Gone")));
+		assertFalse(breaker.isFailure(new FacebookException(100, "param")));
+		assertFalse(breaker.isFailure(new InterruptedIOException("cancel")));
+		assertFalse(breaker.isFailure(new CircuitOpenException(0)));
+
+		assertTrue(breaker.isNeutral(new InterruptedIOException("cancel")));
+		assertFalse(breaker.isNeutral(new SocketTimeoutException("read")));
+		assertFalse(breaker.isNeutral(new IOException("reset")));
+	}
+
+	public void testInterruptsAreNotCounted() throws Exception {
+		for (int i = 0; i < 4; i++) {
+			call(new InterruptedIOException("cancelled"));
+		}
+		assertEquals(State.CLOSED, breaker.getState());
+		assertEquals(0.0, breaker.getFailureRate(), 0.0);
+
+		Thread.currentThread().interrupt();
+		for (int i = 0; i < 4; i++) {
+			call(new IOException("socket closed"));
+		}
+		assertTrue(Thread.interrupted());
+		assertEquals("failures of an interrupted thread", State.CLOSED,
+				breaker.getState());
+
+		for (int i = 0; i < 4; i++) {
+			call(new SocketTimeoutException("read timed out"));
+		}
+		assertEquals("timeouts count", State.OPEN, breaker.getState());
+	}
+}
@@ -0,0 +1,258 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+
+public class HedgePolicyTest extends TestCase {
+	private static final FacebookMethod METHOD = FacebookMethod.USERS_GET_INFO;
+
+	private HedgePolicy policy;
+
+	protected void setUp() {
+		policy = new HedgePolicy();
+		policy.setMinSamples(5);
+		policy.setMinDelay(20);
+		policy.setMaxDelay(50);
+		policy.setMaxHedgeRatio(1);
+	}
+
+	protected void tearDown() {
+		policy.shutdown();
+	}
+
+	/**
+	 * A response that remembers being closed.
+	 */
+	private static class Answer extends ByteArrayInputStream {
+		final String name;
+		volatile boolean closed;
+
+		Answer(String name) {
+			super(name.getBytes());
+			this.name = name;
+		}
+
+		public void close() {
+			closed = true;
+		}
+	}
+
+	/**
+	 * Answers after the given delays, one per invocation; the last repeats.
+	 */
+	private static class Attempts implements Callable<InputStream> {
+		final AtomicInteger invocations = new AtomicInteger();
+		final AtomicInteger interrupted = new AtomicInteger();
+		private final long[] delays;
+
+		Attempts(long... delays) {
+			this.delays = delays;
+		}
+
+		public InputStream call() throws Exception {
+			int n = invocations.getAndIncrement();
+			try {
+				Thread.sleep(delays[Math.min(n, delays.length - 1)]);
+			} catch (InterruptedException ie) {
+				interrupted.incrementAndGet();
+				throw ie;
+			}
+			return new Answer("attempt " + n);
+		}
+	}
+
+	private void warm(HedgePolicy hedging) throws Exception {
+		for (int i = 0; i < hedging.getMinSamples(); i++) {
+			hedging.call(METHOD, new Attempts(0)).close();
+		}
+	}
+
+	private static String name(InputStream in) {
+		return ((Answer) in).name;
+	}
+
+	public void testNotHedgedWithoutSamples() throws Exception {
+		assertEquals(-1, policy.getDelay(METHOD));
+		Attempts attempts = new Attempts(100);
+		assertEquals("attempt 0", name(policy.call(METHOD, attempts)));
+		assertEquals(1, attempts.invocations.get());
+		assertEquals(0, policy.getHedged());
+	}
+
+	public void testDelayKeptWithinBounds() throws Exception {
+		warm(policy);
+		assertEquals("fast calls wait the minimum", 20, policy
+				.getDelay(METHOD));
+		assertEquals("other methods have no samples", -1, policy
+				.getDelay(FacebookMethod.FRIENDS_GET));
+	}
+
+	public void testSlowCallHedged() throws Exception {
+		warm(policy);
+		Attempts attempts = new Attempts(5000, 0);
+		long start = System.currentTimeMillis();
+		InputStream in = policy.call(METHOD, attempts);
+		assertTrue(System.currentTimeMillis() - start < 2000);
+		assertEquals("attempt 1", name(in));
+		assertEquals(1, policy.getHedged());
+		assertEquals(1, policy.getHedgeWins());
+		waitFor(attempts.interrupted, 1);
+	}
+
+	public void testLateLoserClosed() throws Exception {
+		warm(policy);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Answer late = new Answer("late");
+		InputStream in = policy.call(METHOD, new Callable<InputStream>() {
+			private final AtomicInteger invocations = new AtomicInteger();
+
+			public InputStream call() throws Exception {
+				if (invocations.getAndIncrement() > 0)
+					return new Answer("hedge");
+				// like a socket read, deaf to interrupts
+				while (true) {
+					try {
+						release.await();
+						return late;
+					} catch (InterruptedException ie) {
+						// keep reading
+					}
+				}
+			}
+		});
+		assertEquals("hedge", name(in));
+		release.countDown();
+		for (int i = 0; i < 100 && !late.closed; i++) {
+			Thread.sleep(10);
+		}
+		assertTrue("losing stream closed", late.closed);
+	}
+
+	public void testFailedAttemptWaitsForTheOther() throws Exception {
+		warm(policy);
+		InputStream in = policy.call(METHOD, new Callable<InputStream>() {
+			private final AtomicInteger invocations = new AtomicInteger();
+
+			public InputStream call() throws Exception {
+				if (invocations.getAndIncrement() == 0) {
+					Thread.sleep(60); // after the hedge was sent
+					throw new IOException("connection reset");
+				}
+				Thread.sleep(100);
+				return new Answer("hedge");
+			}
+		});
+		assertEquals("hedge", name(in));
+	}
+
+	public void testFacebookErrorIsAnAnswer() throws Exception {
+		warm(policy);
+		try {
+			policy.call(METHOD, new Callable<InputStream>() {
+				public InputStream call() throws Exception {
+					throw new FacebookException(100, "invalid parameter");
+				}
+			});
+			fail("error not passed on");
+		} catch (FacebookException fe) {
+			assertEquals(100, fe.getCode());
+		}
+		assertEquals(0, policy.getHedged());
+	}
+
+	public void testRatioLimitsHedging() throws Exception {
+		policy.setMaxHedgeRatio(0);
+		warm(policy);
+		Attempts attempts = new Attempts(100, 0);
+		assertEquals("attempt 0", name(policy.call(METHOD, attempts)));
+		assertEquals(1, attempts.invocations.get());
+		assertEquals(0, policy.getHedged());
+	}
+
+	public void testSaturatedExecutorRunsOnCaller() throws Exception {
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 60,
+				TimeUnit.SECONDS, new SynchronousQueue<Runnable>());
+		HedgePolicy bounded = new HedgePolicy(10, executor);
+		bounded.setMinSamples(1);
+		try {
+			bounded.call(METHOD, new Attempts(0)); // inline, no samples yet
+			final CountDownLatch release = new CountDownLatch(1);
+			executor.execute(new Runnable() {
+				public void run() {
+					try {
+						release.await();
+					} catch (InterruptedException ie) {
+						// shutting down
+					}
+				}
+			});
+			final Thread caller = Thread.currentThread();
+			InputStream in = bounded.call(METHOD, new Callable<InputStream>() {
+				public InputStream call() {
+					assertSame(caller, Thread.currentThread());
+					return new Answer("inline");
+				}
+			});
+			assertEquals("inline", name(in));
+			assertEquals(1, bounded.getSaturated());
+			release.countDown();
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	public void testPercentileRecomputedPeriodically() throws Exception {
+		// a window of 20 sorts again after 2 new latencies
+		ExecutorService executor = Executors.newCachedThreadPool();
+		HedgePolicy hedging = new HedgePolicy(20, executor);
+		hedging.setPercentile(1);
+		hedging.setMinSamples(10);
+		hedging.setMinDelay(0);
+		hedging.setMaxDelay(10000);
+		hedging.setMaxHedgeRatio(0);
+		for (int i = 0; i < 10; i++) {
+			hedging.call(METHOD, new Attempts(0));
+		}
+		long fast = hedging.getDelay(METHOD);
+		assertTrue(fast < 40);
+		hedging.call(METHOD, new Attempts(60));
+		assertEquals("not sorted again yet", fast, hedging.getDelay(METHOD));
+		hedging.call(METHOD, new Attempts(0));
+		assertTrue(hedging.getDelay(METHOD) >= 50);
+		executor.shutdown();
+	}
+
+	private static void waitFor(AtomicInteger counter, int value)
+			throws InterruptedException {
+		for (int i = 0; i < 100 && counter.get() < value; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(value, counter.get());
+	}
+}
@@ -0,0 +1,235 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import junit.framework.TestCase;
+
+public class MappedUserStoreTest extends TestCase {
+	private static final int MAX_USERS = 100;
+	private static final int DATA_BYTES = 64 * 1024;
+	// header, then 4 * highestOneBit(MAX_USERS) slots of 12 bytes
+	private static final int DATA_START = 32 + 256 * 12;
+
+	private final long later = System.currentTimeMillis() + 3600 * 1000L;
+	private File file;
+	private MappedUserStore store;
+
+	protected void setUp() throws Exception {
+		file = File.createTempFile("users", ".cache");
+		file.delete();
+		store = open();
+	}
+
+	protected void tearDown() {
+		store.close();
+		file.delete();
+	}
+
+	public void testPutAndGet() {
+		store.put("app", 1, user("One", later));
+		store.put("app", 2, user("Two \u00e9\ud83d\ude00", later));
+		assertEquals(2, store.size());
+		assertEquals(xml("One"), store.get("app", 1).getField("name", 0));
+		assertEquals(xml("Two \u00e9\ud83d\ude00"), store.get("app", 2)
+				.getField("name", 0));
+		assertNull(store.get("app", 3));
+	}
+
+	public void testAbsentUser() {
+		CachedUser absent = new CachedUser();
+		absent.setAbsentUntil(later);
+		store.put("app", 1, absent);
+		CachedUser kept = store.get("app", 1);
+		assertEquals(later, kept.getAbsentUntil());
+		assertTrue(kept.getFields().isEmpty());
+	}
+
+	public void testOtherScopeMisses() {
+		store.put("app", 1, user("One", later));
+		assertNull(store.get("other", 1));
+		// the miss leaves the record for its own scope
+		assertEquals(xml("One"), store.get("app", 1).getField("name", 0));
+		assertEquals(1, store.size());
+		store.put("other", 1, user("Other", later));
+		assertNull(store.get("app", 1));
+		assertEquals(1, store.size());
+	}
+
+	public void testPutAgainReplaces() {
+		store.put("app", 1, user("One", later));
+		store.put("app", 1, user("Uno", later));
+		assertEquals(1, store.size());
+		assertEquals(xml("Uno"), store.get("app", 1).getField("name", 0));
+	}
+
+	public void testRemoveLeavesOthersReachable() {
+		for (long uid = 1; uid <= 80; uid++) {
+			store.put("app", uid, user("u" + uid, later));
+		}
+		for (long uid = 2; uid <= 80; uid += 2) {
+			store.remove(uid);
+		}
+		assertEquals(40, store.size());
+		for (long uid = 1; uid <= 80; uid++) {
+			CachedUser user = store.get("app", uid);
+			if (uid % 2 == 0) {
+				assertNull(user);
+			} else {
+				assertEquals(xml("u" + uid), user.getField("name", 0));
+			}
+		}
+		// the removed slots are reused without losing a probe chain
+		for (long uid = 2; uid <= 80; uid += 2) {
+			store.put("app", uid, user("again" + uid, later));
+		}
+		assertEquals(80, store.size());
+		for (long uid = 1; uid <= 80; uid++) {
+			assertEquals(xml((uid % 2 == 0 ? "again" : "u") + uid), store
+					.get("app", uid).getField("name", 0));
+		}
+	}
+
+	public void testCompactionDropsExpiredAndReplaced() {
+		long past = System.currentTimeMillis() - 1000;
+		store.put("app", 1, user("expired", past));
+		for (int i = 0; i < 3000; i++) {
+			// rewritten over and over until the records are compacted
+			store.put("app", 2, user("latest " + i, later));
+		}
+		assertTrue(store.getDataUsed() < DATA_BYTES);
+		assertEquals(1, store.size());
+		assertNull(store.get("app", 1));
+		assertEquals(xml("latest 2999"), store.get("app", 2).getField("name",
+				0));
+	}
+
+	public void testCompactionDropsOldestUsers() {
+		for (long uid = 1; uid <= 1000; uid++) {
+			store.put("app", uid, user("u" + uid, later));
+			assertTrue(store.size() <= MAX_USERS);
+		}
+		// the newest are kept, at their new places
+		assertNotNull(store.get("app", 1000));
+		assertNull(store.get("app", 1));
+		int kept = 0;
+		long oldest = 1000;
+		for (long uid = 1; uid <= 1000; uid++) {
+			CachedUser user = store.get("app", uid);
+			if (user != null) {
+				assertEquals(xml("u" + uid), user.getField("name", 0));
+				kept++;
+				oldest = Math.min(oldest, uid);
+			}
+		}
+		assertEquals(store.size(), kept);
+		assertEquals(1000 - kept + 1, oldest); // no holes
+	}
+
+	public void testReopenAfterClose() throws Exception {
+		for (long uid = 1; uid <= 50; uid++) {
+			store.put("app", uid, user("u" + uid, later));
+		}
+		store.remove(7);
+		store.close();
+		store = open();
+		assertEquals(49, store.size());
+		assertNull(store.get("app", 7));
+		assertEquals(xml("u50"), store.get("app", 50).getField("name", 0));
+	}
+
+	public void testReopenWithOtherSizeEmpties() throws Exception {
+		store.put("app", 1, user("One", later));
+		store.close();
+		store = new MappedUserStore(file, MAX_USERS * 2, DATA_BYTES);
+		assertEquals(0, store.size());
+		assertNull(store.get("app", 1));
+	}
+
+	public void testReopenDirtyEmpties() throws Exception {
+		store.put("app", 1, user("One", later));
+		// a crash: the file is opened again without close()
+		MappedUserStore crashed = store;
+		store = open();
+		assertEquals(0, store.size());
+		assertNull(store.get("app", 1));
+		crashed.close(); // only so the test's mapping is forced
+	}
+
+	public void testCleanFileTurnsDirtyOnChange() throws Exception {
+		store.close();
+		store = open();
+		store.put("app", 1, user("One", later));
+		MappedUserStore crashed = store;
+		store = open();
+		assertEquals(0, store.size());
+		crashed.close();
+	}
+
+	public void testCorruptRecordIsDropped() throws Exception {
+		store.put("app", 1, user("One", later));
+		store.put("app", 2, user("Two", later));
+		store.close();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(DATA_START + 16); // the first record's length
+			raf.writeInt(Integer.MAX_VALUE);
+		} finally {
+			raf.close();
+		}
+		store = open();
+		assertNull(store.get("app", 1));
+		assertEquals(1, store.size());
+		// a record cut short
+		store.put("app", 3, user("Three", later));
+		store.close();
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			int record = DATA_START + recordSize("One") + recordSize("Two");
+			raf.seek(record + 20); // the scope's length
+			raf.writeShort(0xffff);
+		} finally {
+			raf.close();
+		}
+		store = open();
+		assertNull(store.get("app", 3));
+		assertEquals(xml("Two"), store.get("app", 2).getField("name", 0));
+	}
+
+	private MappedUserStore open() throws Exception {
+		return new MappedUserStore(file, MAX_USERS, DATA_BYTES);
+	}
+
+	private static CachedUser user(String name, long expires) {
+		CachedUser user = new CachedUser();
+		user.setField("name", xml(name), expires);
+		return user;
+	}
+
+	private static String xml(String name) {
+		return "<name>" + name + "</name>";
+	}
+
+	/**
+	 * @return bytes of the record of a user of scope "app" put by user()
+	 */
+	private static int recordSize(String name) throws Exception {
+		return 20 + 2 + 3 + 8 + 2 + 2 + 4 + 8 + 4
+				+ xml(name).getBytes("UTF-8").length;
+	}
+}
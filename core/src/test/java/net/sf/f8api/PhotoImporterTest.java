@@ -0,0 +1,184 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+import net.sf.f8api.PhotoImporter.Item;
+import net.sf.f8api.PhotoImporter.Result;
+import net.sf.f8api.PhotoImporter.Status;
+import net.sf.f8api.http.UploadSource;
+
+public class PhotoImporterTest extends TestCase {
+	private StubTransport transport;
+	private File journal;
+
+	protected void setUp() throws IOException {
+		final AtomicLong pids = new AtomicLong(1000);
+		transport = new StubTransport() {
+			protected String respond(Map<String, CharSequence> params) {
+				return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+						+ "<photos_upload_response xmlns=\"http://api.facebook.com/1.0/\">"
+						+ "<pid>" + pids.incrementAndGet() + "</pid>"
+						+ "<aid>77</aid><owner>500000001</owner>"
+						+ "</photos_upload_response>";
+			}
+		};
+		journal = File.createTempFile("import", ".journal");
+		journal.delete(); // created by the first run
+	}
+
+	protected void tearDown() {
+		journal.delete();
+	}
+
+	private PhotoImporter importer() {
+		PhotoImporter importer = new PhotoImporter(transport.client(),
+				StubTransport.session("s1"), "77");
+		importer.setJournal(journal);
+		importer.setMaxConcurrentUploads(2);
+		return importer;
+	}
+
+	private static List<Item> items(String... keys) {
+		List<Item> items = new ArrayList<Item>();
+		for (String key : keys) {
+			items.add(new Item(key, UploadSource.forBuffer(key + ".jpg",
+					ByteBuffer.wrap(key.getBytes())), null));
+		}
+		return items;
+	}
+
+	private List<String> journalLines() throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(journal), "UTF-8"));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+
+	private void writeJournal(String content) throws IOException {
+		OutputStream out = new FileOutputStream(journal);
+		out.write(content.getBytes("UTF-8"));
+		out.close();
+	}
+
+	public void testUploadsAndJournals() throws Exception {
+		List<Result> results = importer().importPhotos(items("a", "b c"));
+		assertEquals(2, results.size());
+		assertEquals("a", results.get(0).getItem().getKey());
+		assertEquals(Status.UPLOADED, results.get(0).getStatus());
+		assertEquals(Status.UPLOADED, results.get(1).getStatus());
+		assertEquals(2, transport.requests.size());
+		List<String> lines = journalLines();
+		assertEquals(2, lines.size());
+		for (Result result : results) {
+			String key = result.getItem().getKey().replace(' ', '+');
+			assertTrue(lines.contains(key + "\t" + result.getPhoto().getId()
+					+ ";"));
+		}
+	}
+
+	public void testResumeSkipsJournaled() throws Exception {
+		importer().importPhotos(items("a", "b"));
+		List<Result> results = importer().importPhotos(items("a", "b", "c"));
+		assertEquals(Status.SKIPPED, results.get(0).getStatus());
+		assertEquals(Status.SKIPPED, results.get(1).getStatus());
+		assertEquals(Status.UPLOADED, results.get(2).getStatus());
+		assertEquals("only c uploaded again", 3, transport.requests.size());
+		assertEquals(3, journalLines().size());
+	}
+
+	public void testSkippedCarriesJournaledPid() throws Exception {
+		writeJournal("a\t4242;\n");
+		List<Result> results = importer().importPhotos(items("a"));
+		assertEquals(Status.SKIPPED, results.get(0).getStatus());
+		assertEquals(4242, results.get(0).getPhoto().getId());
+		assertEquals(0, transport.requests.size());
+	}
+
+	public void testTornLineUploadedAgain() throws Exception {
+		// the crash cut the second line inside its pid
+		writeJournal("a\t4242;\nb\t42");
+		List<Result> results = importer().importPhotos(items("a", "b"));
+		assertEquals(Status.SKIPPED, results.get(0).getStatus());
+		assertEquals(Status.UPLOADED, results.get(1).getStatus());
+		List<String> lines = journalLines();
+		assertEquals("a\t4242;", lines.get(0));
+		assertEquals("torn line ended", "b\t42", lines.get(1));
+		assertEquals("b\t" + results.get(1).getPhoto().getId() + ";", lines
+				.get(2));
+		// and the next run reads past the torn line
+		results = importer().importPhotos(items("a", "b"));
+		assertEquals(Status.SKIPPED, results.get(1).getStatus());
+	}
+
+	public void testJournalFailureStopsImport() throws Exception {
+		final List<Result> heard = new ArrayList<Result>();
+		PhotoImporter importer = new PhotoImporter(transport.client(),
+				StubTransport.session("s1"), "77") {
+			PhotoImporter.JournalWriter openJournal(File file)
+					throws IOException {
+				return new PhotoImporter.JournalWriter(file) {
+					synchronized void append(String key, long pid)
+							throws IOException {
+						throw new IOException("disk full");
+					}
+				};
+			}
+		};
+		importer.setJournal(journal);
+		importer.setMaxConcurrentUploads(1);
+		importer.setListener(new PhotoImporter.Listener() {
+			public void photoImported(Result result) {
+				synchronized (heard) {
+					heard.add(result);
+				}
+			}
+		});
+		try {
+			importer.importPhotos(items("a", "b", "c", "d"));
+			fail("import went on without a journal");
+		} catch (IOException ioe) {
+			assertEquals("disk full", ioe.getCause().getMessage());
+		}
+		assertEquals("stopped after a", 1, transport.requests.size());
+		Result first = heard.get(0);
+		assertEquals("uploaded all the same", Status.UPLOADED, first
+				.getStatus());
+		assertNotNull(first.getPhoto());
+		assertEquals("disk full", first.getError().getMessage());
+	}
+}
@@ -0,0 +1,139 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.InterruptedIOException;
+
+import junit.framework.TestCase;
+import net.sf.f8api.RateLimiter.Limit;
+
+public class RateLimiterTest extends TestCase {
+	/**
+	 * A token a quarter of an hour, so a drained bucket stays drained for
+	 * the whole test.
+	 */
+	private static final double SLOW = 1.0 / 1000;
+
+	private RateLimiter limiter;
+
+	protected void setUp() {
+		limiter = new RateLimiter();
+		limiter.setFailFast(true);
+	}
+
+	private boolean tryAcquire(String session, FacebookMethod method)
+			throws Exception {
+		try {
+			limiter.acquire("key", session, method);
+			return true;
+		} catch (RateLimitedException rle) {
+			assertEquals(ErrorCodes.FB_BUSY, rle.getCode());
+			assertTrue(rle.getRetryAfter() > 0);
+			return false;
+		}
+	}
+
+	public void testBurst() throws Exception {
+		limiter.setApplicationLimit(new Limit(SLOW, 3));
+		assertTrue(tryAcquire(null, FacebookMethod.FRIENDS_GET));
+		assertTrue(tryAcquire(null, FacebookMethod.FRIENDS_GET));
+		assertTrue(tryAcquire("s1", FacebookMethod.FRIENDS_GET));
+		assertFalse(tryAcquire("s2", FacebookMethod.FRIENDS_GET));
+		assertEquals(1, limiter.getRefused());
+		assertEquals(0, limiter.getDelayed());
+	}
+
+	public void testRefusedCallRefundsEarlierBuckets() throws Exception {
+		limiter.setApplicationLimit(new Limit(SLOW, 2));
+		limiter.setSessionLimit(new Limit(SLOW, 1));
+		assertTrue(tryAcquire("s1", FacebookMethod.FRIENDS_GET));
+		// refused by the session bucket, gives back its application token
+		assertFalse(tryAcquire("s1", FacebookMethod.FRIENDS_GET));
+		assertTrue(tryAcquire("s2", FacebookMethod.FRIENDS_GET));
+		// now the application bucket is empty
+		assertFalse(tryAcquire("s3", FacebookMethod.FRIENDS_GET));
+		assertEquals(2, limiter.getRefused());
+	}
+
+	public void testMethodLimitOnTopOfSession() throws Exception {
+		limiter.setSessionLimit(new Limit(SLOW, 3));
+		limiter.setSessionLimit(FacebookMethod.NOTIFICATIONS_SEND, new Limit(
+				SLOW, 1));
+		assertTrue(tryAcquire("s1", FacebookMethod.NOTIFICATIONS_SEND));
+		assertFalse(tryAcquire("s1", FacebookMethod.NOTIFICATIONS_SEND));
+		assertTrue("other methods keep the session's tokens", tryAcquire(
+				"s1", FacebookMethod.FRIENDS_GET));
+		assertTrue(tryAcquire("s1", FacebookMethod.FRIENDS_GET));
+		assertFalse("session drained", tryAcquire("s1",
+				FacebookMethod.FRIENDS_GET));
+		assertTrue("other sessions unaffected", tryAcquire("s2",
+				FacebookMethod.NOTIFICATIONS_SEND));
+	}
+
+	public void testSessionLimitIgnoredWithoutSession() throws Exception {
+		limiter.setSessionLimit(new Limit(SLOW, 1));
+		for (int i = 0; i < 5; i++) {
+			assertTrue(tryAcquire(null, FacebookMethod.FRIENDS_GET));
+		}
+	}
+
+	public void testChangedLimitTakesEffect() throws Exception {
+		limiter.setApplicationLimit(new Limit(SLOW, 1));
+		assertTrue(tryAcquire(null, FacebookMethod.FRIENDS_GET));
+		assertFalse(tryAcquire(null, FacebookMethod.FRIENDS_GET));
+		limiter.setApplicationLimit(new Limit(SLOW, 1));
+		assertTrue("fresh bucket", tryAcquire(null, FacebookMethod.FRIENDS_GET));
+	}
+
+	public void testWaitsForToken() throws Exception {
+		limiter.setFailFast(false);
+		limiter.setApplicationLimit(new Limit(20, 1));
+		limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+		long start = System.nanoTime();
+		limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+		long waited = (System.nanoTime() - start) / 1000000L;
+		assertTrue("waited " + waited + "ms", waited >= 40);
+		assertEquals(1, limiter.getDelayed());
+		assertEquals(0, limiter.getRefused());
+	}
+
+	public void testRefusesWaitOverMaxDelay() throws Exception {
+		limiter.setFailFast(false);
+		limiter.setMaxDelay(100);
+		limiter.setApplicationLimit(new Limit(1, 1));
+		limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+		try {
+			limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+			fail("waited a second with a 100ms maximum delay");
+		} catch (RateLimitedException rle) {
+			assertTrue(rle.getRetryAfter() > 100);
+			assertTrue(rle.getRetryAfter() <= 1001);
+		}
+	}
+
+	public void testInterruptedWait() throws Exception {
+		limiter.setFailFast(false);
+		limiter.setApplicationLimit(new Limit(1, 1));
+		limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+		Thread.currentThread().interrupt();
+		try {
+			limiter.acquire("key", null, FacebookMethod.FRIENDS_GET);
+			fail("interrupted wait returned");
+		} catch (InterruptedIOException iioe) {
+			assertTrue("interrupt kept", Thread.interrupted());
+		}
+	}
+}
@@ -0,0 +1,369 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.TestCase;
+import net.sf.f8api.FacebookClient.Pair;
+
+public class ResponseCacheTest extends TestCase {
+	private static final FacebookMethod METHOD = FacebookMethod.FRIENDS_GET;
+
+	private ResponseCache cache;
+	private CallKey key;
+
+	protected void setUp() {
+		cache = new ResponseCache();
+		cache.setTtl(METHOD, 60 * 1000);
+		List<Pair<String, CharSequence>> params = new ArrayList<Pair<String, CharSequence>>();
+		params.add(new Pair<String, CharSequence>("uid", "1"));
+		key = new CallKey(METHOD, "api", "session", params);
+	}
+
+	protected void tearDown() {
+		cache.shutdown();
+	}
+
+	/**
+	 * Answers with the given bodies in turn, or throws them if they're
+	 * exceptions; the last repeats.
+	 */
+	private static class Loader implements Callable<InputStream> {
+		final AtomicInteger calls = new AtomicInteger();
+		private final Object[] answers;
+
+		Loader(Object... answers) {
+			this.answers = answers;
+		}
+
+		public InputStream call() throws Exception {
+			int n = calls.getAndIncrement();
+			Object answer = answers[Math.min(n, answers.length - 1)];
+			if (answer instanceof Exception)
+				throw (Exception) answer;
+			return new ByteArrayInputStream(((String) answer).getBytes());
+		}
+	}
+
+	private String get(Callable<InputStream> load) throws Exception {
+		return new String(Streams.readFully(cache.get(key, load)));
+	}
+
+	private static void await(AtomicInteger counter, int value)
+			throws InterruptedException {
+		for (int i = 0; i < 200 && counter.get() < value; i++) {
+			Thread.sleep(5);
+		}
+		assertEquals(value, counter.get());
+	}
+
+	public void testHitWithinTtl() throws Exception {
+		Loader loader = new Loader("v1", "v2");
+		assertEquals("v1", get(loader));
+		assertEquals("v1", get(loader));
+		assertEquals(1, loader.calls.get());
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	public void testExpiredResponseLoadedAgain() throws Exception {
+		cache.setTtl(METHOD, 20);
+		Loader loader = new Loader("v1", "v2");
+		assertEquals("v1", get(loader));
+		Thread.sleep(40);
+		assertEquals("v2", get(loader));
+		assertEquals(0, cache.getStaleHits());
+	}
+
+	public void testStaleServedWhileRefreshing() throws Exception {
+		cache.setTtl(METHOD, 20);
+		cache.setStaleTime(METHOD, 60 * 1000);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		Callable<InputStream> loader = new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				if (calls.getAndIncrement() == 0)
+					return new ByteArrayInputStream("v1".getBytes());
+				release.await(5, TimeUnit.SECONDS);
+				return new ByteArrayInputStream("v2".getBytes());
+			}
+		};
+		assertEquals("v1", get(loader));
+		Thread.sleep(40);
+		assertEquals("stale, without waiting", "v1", get(loader));
+		assertEquals("v1", get(loader));
+		await(calls, 2);
+		assertEquals(2, cache.getStaleHits());
+		release.countDown();
+		for (int i = 0; i < 200 && !"v2".equals(get(loader)); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals("v2", get(loader));
+		assertEquals("one refresh", 2, calls.get());
+	}
+
+	public void testFailedRefreshKeepsStale() throws Exception {
+		cache.setTtl(METHOD, 20);
+		cache.setStaleTime(METHOD, 60 * 1000);
+		Loader loader = new Loader("v1", new IOException("reset"), "v3");
+		assertEquals("v1", get(loader));
+		Thread.sleep(40);
+		assertEquals("v1", get(loader));
+		await(loader.calls, 2);
+		Thread.sleep(20); // refreshing flag cleared after the failure
+		assertEquals("v1", get(loader));
+		await(loader.calls, 3);
+		for (int i = 0; i < 200 && !"v3".equals(get(loader)); i++) {
+			Thread.sleep(5);
+		}
+		assertEquals("v3", get(loader));
+	}
+
+	public void testStaleTimeRunsOut() throws Exception {
+		cache.setTtl(METHOD, 20);
+		cache.setStaleTime(METHOD, 20);
+		Loader loader = new Loader("v1", "v2");
+		assertEquals("v1", get(loader));
+		Thread.sleep(60);
+		assertEquals("waited for a fresh one", "v2", get(loader));
+		assertEquals(0, cache.getStaleHits());
+	}
+
+	public void testErrorsNotKeptByDefault() throws Exception {
+		Loader loader = new Loader(new FacebookException(
+				ErrorCodes.FB_BAD_PARAMETER, "bad uid"));
+		for (int i = 0; i < 2; i++) {
+			try {
+				get(loader);
+				fail("error swallowed");
+			} catch (FacebookException fe) {
+				assertEquals(ErrorCodes.FB_BAD_PARAMETER, fe.getCode());
+			}
+		}
+		assertEquals(2, loader.calls.get());
+	}
+
+	public void testNegativeCaching() throws Exception {
+		cache.setNegativeTtl(60 * 1000);
+		Loader loader = new Loader(new FacebookException(
+				ErrorCodes.FB_BAD_PARAMETER, "bad uid"), "v2");
+		for (int i = 0; i < 3; i++) {
+			try {
+				get(loader);
+				fail("kept error not thrown");
+			} catch (FacebookException fe) {
+				assertEquals(ErrorCodes.FB_BAD_PARAMETER, fe.getCode());
+				assertEquals("bad uid", fe.getMessage());
+			}
+		}
+		assertEquals("asked once", 1, loader.calls.get());
+	}
+
+	public void testNegativeCachingExpires() throws Exception {
+		cache.setNegativeTtl(20);
+		Loader loader = new Loader(new FacebookException(
+				ErrorCodes.FB_BAD_PARAMETER, "bad uid"), "v2");
+		try {
+			get(loader);
+			fail("error swallowed");
+		} catch (FacebookException fe) {
+			// kept for 20ms
+		}
+		Thread.sleep(40);
+		assertEquals("v2", get(loader));
+	}
+
+	public void testTransientErrorsNeverKept() throws Exception {
+		cache.setNegativeTtl(60 * 1000);
+		Loader loader = new Loader(new FacebookException(
+				ErrorCodes.FB_TEMP_UNAVAILABLE, "try later"), "v2");
+		try {
+			get(loader);
+			fail("error swallowed");
+		} catch (FacebookException fe) {
+			assertEquals(ErrorCodes.FB_TEMP_UNAVAILABLE, fe.getCode());
+		}
+		assertEquals("v2", get(loader));
+	}
+
+	public void testConcurrentMissesShareOneCall() throws Exception {
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger calls = new AtomicInteger();
+		final Callable<InputStream> loader = new Callable<InputStream>() {
+			public InputStream call() throws Exception {
+				calls.incrementAndGet();
+				release.await(5, TimeUnit.SECONDS);
+				return new ByteArrayInputStream("v1".getBytes());
+			}
+		};
+		final List<String> answers = Collections
+				.synchronizedList(new ArrayList<String>());
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						answers.add(get(loader));
+					} catch (Exception e) {
+						answers.add(e.toString());
+					}
+				}
+			};
+			threads[i].start();
+			if (i == 0)
+				await(calls, 1);
+		}
+		for (int i = 0; i < 200 && cache.getSharedMisses() < 1; i++) {
+			Thread.sleep(5);
+		}
+		release.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join(5000);
+		}
+		assertEquals(Arrays.asList(new String[] { "v1", "v1" }), answers);
+		assertEquals(1, calls.get());
+		assertEquals(1, cache.getSharedMisses());
+	}
+
+	/**
+	 * users.getInfo answering the fields asked for, "&lt;field&gt; of
+	 * &lt;uid&gt;", for every uid but 404.
+	 */
+	private static class Users implements ResponseCache.UsersFetcher {
+		final List<String> fetches = Collections
+				.synchronizedList(new ArrayList<String>());
+		volatile CountDownLatch release;
+
+		public InputStream fetch(String[] uids, String[] fields)
+				throws IOException {
+			fetches.add(Arrays.asList(uids) + " " + Arrays.asList(fields));
+			if (release != null) {
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException ie) {
+					throw new IOException("interrupted");
+				}
+			}
+			StringBuilder xml = new StringBuilder(
+					"<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+							+ "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">");
+			for (String uid : uids) {
+				if (uid.equals("404"))
+					continue;
+				xml.append("<user><uid>").append(uid).append("</uid>");
+				for (String field : fields) {
+					xml.append('<').append(field).append('>').append(field)
+							.append(" of ").append(uid).append("</").append(
+									field).append('>');
+				}
+				xml.append("</user>");
+			}
+			xml.append("</users_getInfo_response>");
+			return new ByteArrayInputStream(xml.toString().getBytes("UTF-8"));
+		}
+	}
+
+	private String usersInfo(Session session, Users fetcher, String uids,
+			String fields) throws Exception {
+		return new String(Streams.readFully(cache.getUsersInfo(session, uids
+				.split(","), fields.split(","), fetcher)), "UTF-8");
+	}
+
+	public void testUsersInfoAsksOnlyForMissingFields() throws Exception {
+		cache.setTtl(FacebookMethod.USERS_GET_INFO, 60 * 1000);
+		Session session = StubTransport.session("s1");
+		Users fetcher = new Users();
+		usersInfo(session, fetcher, "1,2", "name");
+		String xml = usersInfo(session, fetcher, "2,1,3", "name,pic");
+		assertEquals("[1, 2] [name]", fetcher.fetches.get(0));
+		// users missing a field, and only the fields missing
+		assertEquals("[2, 1, 3] [pic, name]", fetcher.fetches.get(1));
+		assertTrue(xml.indexOf("<user><uid>2</uid><name>name of 2</name>"
+				+ "<pic>pic of 2</pic></user><user><uid>1</uid>") > 0);
+		usersInfo(session, fetcher, "1,2,3", "pic,name");
+		assertEquals("all cached", 2, fetcher.fetches.size());
+	}
+
+	public void testUsersInfoRemembersAbsentUsers() throws Exception {
+		cache.setTtl(FacebookMethod.USERS_GET_INFO, 60 * 1000);
+		Session session = StubTransport.session("s1");
+		Users fetcher = new Users();
+		String xml = usersInfo(session, fetcher, "1,404", "name");
+		assertEquals(-1, xml.indexOf("404"));
+		xml = usersInfo(session, fetcher, "404,1", "name");
+		assertEquals(-1, xml.indexOf("404"));
+		assertEquals(1, fetcher.fetches.size());
+	}
+
+	public void testInvalidateUser() throws Exception {
+		cache.setTtl(FacebookMethod.USERS_GET_INFO, 60 * 1000);
+		Session session = StubTransport.session("s1");
+		Users fetcher = new Users();
+		usersInfo(session, fetcher, "1,2", "name");
+		cache.invalidateUser(2);
+		usersInfo(session, fetcher, "1,2", "name");
+		assertEquals("[2] [name]", fetcher.fetches.get(1));
+	}
+
+	public void testUsersInfoConcurrentMissesShareOneFetch() throws Exception {
+		cache.setTtl(FacebookMethod.USERS_GET_INFO, 60 * 1000);
+		final Session session = StubTransport.session("s1");
+		final Users fetcher = new Users();
+		fetcher.release = new CountDownLatch(1);
+		final List<String> answers = Collections
+				.synchronizedList(new ArrayList<String>());
+		Thread[] threads = new Thread[2];
+		for (int i = 0; i < threads.length; i++) {
+			threads[i] = new Thread() {
+				public void run() {
+					try {
+						answers.add(usersInfo(session, fetcher, "1,2", "name"));
+					} catch (Exception e) {
+						answers.add(e.toString());
+					}
+				}
+			};
+			threads[i].start();
+			if (i == 0) {
+				for (int j = 0; j < 200 && fetcher.fetches.isEmpty(); j++) {
+					Thread.sleep(5);
+				}
+			}
+		}
+		for (int i = 0; i < 200 && cache.getSharedMisses() < 1; i++) {
+			Thread.sleep(5);
+		}
+		fetcher.release.countDown();
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].join(5000);
+		}
+		assertEquals(1, fetcher.fetches.size());
+		assertEquals(2, answers.size());
+		assertEquals(answers.get(0), answers.get(1));
+		assertTrue(answers.get(0).indexOf("<name>name of 2</name>") > 0);
+	}
+}
@@ -0,0 +1,96 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+
+import junit.framework.TestCase;
+import net.sf.f8api.http.HttpStatusException;
+
+public class RetryPolicyTest extends TestCase {
+	private static final RateLimiter.Limit LIMIT = new RateLimiter.Limit(1, 1);
+
+	private RetryPolicy policy;
+
+	protected void setUp() {
+		policy = new RetryPolicy();
+		policy.setInitialBackoff(100);
+		policy.setMaxBackoff(1000);
+	}
+
+	public void testBackoffWithinExponentialCeiling() {
+		for (int i = 0; i < 100; i++) {
+			assertTrue(policy.getBackoff(1) < 100);
+			assertTrue(policy.getBackoff(3) < 400);
+			assertTrue(policy.getBackoff(20) < 1000);
+		}
+	}
+
+	public void testRateLimitedWaitsForItsToken() {
+		RateLimitedException rle = new RateLimitedException(700, LIMIT);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(700, policy.getBackoff(1, rle));
+		}
+		assertTrue(policy.getBackoff(1, new IOException("reset")) < 100);
+		RateLimitedException soon = new RateLimitedException(1, LIMIT);
+		assertTrue(policy.getBackoff(1, soon) < 100);
+	}
+
+	public void testRateLimitedPastMaxElapsedNotRetried() {
+		policy.setMaxElapsed(1000);
+		FacebookMethod method = FacebookMethod.FRIENDS_GET;
+		assertTrue(policy.shouldRetry(method, new RateLimitedException(500,
+				LIMIT), 1, 100));
+		assertFalse(policy.shouldRetry(method, new RateLimitedException(
+				950, LIMIT), 1, 100));
+	}
+
+	public void testTransient() {
+		assertTrue(policy.isTransient(new FacebookException(
+				ErrorCodes.FB_TEMP_UNAVAILABLE, "down")));
+		assertTrue(policy.isTransient(new IOException("reset")));
+		assertTrue(policy.isTransient(new SocketTimeoutException("read")));
+		assertTrue(policy.isTransient(new HttpStatusException(503, "busy")));
+		assertFalse(policy.isTransient(new HttpStatusException(400, "bad")));
+		assertFalse(policy.isTransient(new InterruptedIOException("cancel")));
+		assertFalse(policy.isTransient(new CircuitOpenException(0)));
+		assertFalse(policy.isTransient(new FacebookException(
+				ErrorCodes.FB_BAD_PARAMETER, "bad")));
+	}
+
+	public void testNonIdempotentOnlyRetriedWhenRejected() {
+		FacebookMethod send = FacebookMethod.NOTIFICATIONS_SEND;
+		assertFalse(send.isIdempotent());
+		assertFalse(policy.shouldRetry(send, new SocketTimeoutException(
+				"read"), 1, 0));
+		assertTrue(policy.shouldRetry(send, new ConnectException("refused"),
+				1, 0));
+		assertTrue(policy.shouldRetry(send, new RateLimitedException(10,
+				LIMIT), 1, 0));
+	}
+
+	public void testAttemptBudget() {
+		FacebookMethod method = FacebookMethod.FRIENDS_GET;
+		policy.setMaxAttempts(method, 2);
+		assertTrue(policy.shouldRetry(method, new IOException("reset"), 1, 0));
+		assertFalse(policy.shouldRetry(method, new IOException("reset"), 2, 0));
+		assertTrue(policy.shouldRetry(FacebookMethod.USERS_GET_INFO,
+				new IOException("reset"), 2, 0));
+	}
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+public class SessionRegistryTest extends TestCase {
+	private SessionRegistry registry;
+
+	protected void setUp() {
+		registry = new SessionRegistry();
+	}
+
+	private static Map<String, String> params(String apiKey, String uid,
+			String sessionKey) {
+		Map<String, String> params = new HashMap<String, String>();
+		params.put(FacebookParam.API_KEY.toString(), apiKey);
+		params.put(FacebookParam.USER.toString(), uid);
+		params.put(FacebookParam.SESSION_KEY.toString(), sessionKey);
+		params.put(FacebookParam.EXPIRES.toString(), "0");
+		return params;
+	}
+
+	public void testUpdateReusesRegisteredSession() {
+		Session first = registry.update(params(StubTransport.API_KEY, "7",
+				"k1"), StubTransport.SECRET);
+		assertSame(first, registry.update(params(StubTransport.API_KEY, "7",
+				"k1"), StubTransport.SECRET));
+		assertSame(first, registry.get(7));
+		Session second = registry.update(params(StubTransport.API_KEY, "7",
+				"k2"), StubTransport.SECRET);
+		assertEquals("k2", second.getKey());
+		assertSame(second, registry.get(7));
+		assertEquals(2, registry.getCreated());
+		assertEquals(1, registry.getReused());
+	}
+
+	public void testExpiredSessionDropped() {
+		registry.register(new CanvasSession(StubTransport.API_KEY,
+				StubTransport.SECRET, "k1", 7, System.currentTimeMillis() - 1));
+		assertNull(registry.get(7));
+		assertEquals(0, registry.size());
+	}
+
+	public void testOtherApplicationRefused() {
+		registry.update(params(StubTransport.API_KEY, "7", "k1"),
+				StubTransport.SECRET);
+		try {
+			registry.update(params("another", "8", "k2"), "other secret");
+			fail("one registry, two applications");
+		} catch (IllegalArgumentException iae) {
+			// keyed by uid alone
+		}
+		try {
+			registry.register(new CanvasSession("another", "other secret",
+					"k2", 7, 0));
+			fail("another application's session replaced the user's");
+		} catch (IllegalArgumentException iae) {
+			assertEquals("k1", registry.get(7).getKey());
+		}
+	}
+
+	public void testSessionToStringHidesKey() {
+		Session session = StubTransport.session("secret-session-key");
+		assertEquals(-1, session.toString().indexOf("secret-session-key"));
+		assertTrue(session.toString().indexOf("500000001") > 0);
+	}
+
+	public void testSecretNotSerialized() throws Exception {
+		CanvasSession session = (CanvasSession) StubTransport.session("k1");
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(session);
+		out.close();
+		assertEquals(-1, new String(bytes.toByteArray(), "ISO-8859-1")
+				.indexOf(StubTransport.SECRET));
+
+		CanvasSession copy = (CanvasSession) new ObjectInputStream(
+				new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertNull(copy.getSecret());
+		assertEquals(session, copy);
+
+		// the client signs with its application's secret instead
+		StubTransport transport = new StubTransport();
+		transport.setResponse("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">"
+				+ "</users_getInfo_response>");
+		transport.client().getUsersInfo(copy, new String[] { "1" },
+				new String[] { "name" }, null, null).close();
+		Map<String, CharSequence> request = transport.requests.get(0);
+		assertEquals("k1", String.valueOf(request.get("session_key")));
+		assertEquals(Signer.get().signExcluding(request.entrySet(), "sig",
+				StubTransport.SECRET), String.valueOf(request.get("sig")));
+	}
+}
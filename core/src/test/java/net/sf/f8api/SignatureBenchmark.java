@@ -0,0 +1,115 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares request signing with the thread's {@link Signer} against the
+ * way it was done before, string building and a new digest per call, and
+ * checks both give the same signatures ({@link SignerTest} checks the
+ * awkward cases). Allocation is measured where the JVM can count the bytes
+ * a thread allocates.
+ * Not a unit test, run it by hand:
+ * 
+ * <pre>
+ * java net.sf.f8api.SignatureBenchmark [calls]
+ * </pre>
+ */
+public class SignatureBenchmark {
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	public static void main(String[] args) throws Exception {
+		int calls = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+		List<Map<String, CharSequence>> requests = requests(1000);
+		for (Map<String, CharSequence> params : requests) {
+			String expected = SignerTest.legacy(params, SECRET);
+			String actual = FacebookSignatureUtil.generateSignature(params
+					.entrySet(), SECRET);
+			if (!expected.equals(actual)) {
+				throw new IllegalStateException("signatures differ for "
+						+ params + ": " + expected + " " + actual);
+			}
+		}
+		System.out.println("signatures match for " + requests.size()
+				+ " requests");
+
+		for (int round = 0; round < 3; round++) {
+			run("legacy", requests, calls, true);
+			run("signer", requests, calls, false);
+		}
+	}
+
+	private static void run(String name,
+			List<Map<String, CharSequence>> requests, int calls, boolean legacy)
+			throws Exception {
+		long bytes = Benchmarks.allocated();
+		long start = System.nanoTime();
+		int n = requests.size();
+		int hash = 0;
+		for (int i = 0; i < calls; i++) {
+			Map<String, CharSequence> params = requests.get(i % n);
+			String sig = legacy ? SignerTest.legacy(params, SECRET)
+					: FacebookSignatureUtil.generateSignature(params
+							.entrySet(), SECRET);
+			hash += sig.charAt(0);
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = Benchmarks.allocated() - bytes;
+		System.out.println(name + ": " + (nanos / calls) + " ns/call"
+				+ (bytes < 0 ? "" : ", " + (bytes / calls) + " bytes/call")
+				+ " (" + hash + ")");
+	}
+
+	/**
+	 * Requests like those FacebookClient signs, some with non-ASCII values.
+	 */
+	private static List<Map<String, CharSequence>> requests(int count) {
+		Random random = new Random(42);
+		String[] methods = { "facebook.users.getInfo",
+				"facebook.friends.get", "facebook.photos.get",
+				"facebook.notifications.send", "facebook.fql.query" };
+		List<Map<String, CharSequence>> requests = new ArrayList<Map<String, CharSequence>>();
+		for (int i = 0; i < count; i++) {
+			Map<String, CharSequence> params = new HashMap<String, CharSequence>();
+			params.put("method", methods[i % methods.length]);
+			params.put("api_key", "4fb3c5fd28a2e8bbf8f9a6d7c2b1e0a3");
+			params.put("v", FacebookApi.API_VERSION);
+			params.put("call_id", Long.toString(System.currentTimeMillis()
+					+ i));
+			params.put("session_key", "a1b2c3d4e5f6a7b8c9d0e1f2-" + i);
+			StringBuilder uids = new StringBuilder();
+			for (int j = 0, n = 1 + random.nextInt(20); j < n; j++) {
+				if (j > 0)
+					uids.append(',');
+				uids.append(500000000L + random.nextInt(100000000));
+			}
+			params.put("uids", uids.toString());
+			if (i % 3 == 0)
+				params.put("fields", "name,pic,hometown_location");
+			if (i % 7 == 0)
+				params.put("notification", "H\u00e9llo, w\u00f6rld \u2603 "
+						+ i);
+			requests.add(params);
+		}
+		return requests;
+	}
+}
@@ -0,0 +1,173 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+/**
+ * Checks {@link Signer} gives the signatures the string building code it
+ * replaced did.
+ */
+public class SignerTest extends TestCase {
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	public void testAscii() throws Exception {
+		Map<String, CharSequence> params = request();
+		params.put("uids", "500000001,500000002,500000003");
+		params.put("fields", "name,pic,hometown_location");
+		assertSigned(params);
+	}
+
+	public void testEmptyAndNullValues() throws Exception {
+		Map<String, CharSequence> params = request();
+		params.put("title", "");
+		params.put("body", null);
+		assertSigned(params);
+	}
+
+	public void testNonAscii() throws Exception {
+		Map<String, CharSequence> params = request();
+		params.put("notification", "H\u00e9llo, w\u00f6rld \u2603");
+		params.put("title", "\ud83d\ude00 \u65e5\u672c\u8a9e");
+		params.put("n\u00e4me", "\u00ff\u0100\u07ff\u0800\uffff");
+		assertSigned(params);
+	}
+
+	public void testUnpairedSurrogates() throws Exception {
+		Map<String, CharSequence> params = request();
+		params.put("high", "a\ud83d");
+		params.put("low", "\ude00b");
+		params.put("swapped", "\ude00\ud83d");
+		assertSigned(params);
+	}
+
+	public void testSignaturePrefix() throws Exception {
+		Map<String, CharSequence> params = new HashMap<String, CharSequence>();
+		params.put("fb_sig_user", "500000001");
+		params.put("fb_sig_time", "1199145600.1234");
+		params.put("fb_sig_in_canvas", "1");
+		params.put("fb_sig_session_key", "a1b2c3d4e5f6a7b8c9d0e1f2-500000001");
+		params.put("fb_sig_api_key", "4fb3c5fd28a2e8bbf8f9a6d7c2b1e0a3");
+		params.put("fb_sig_", "empty name");
+		params.put("fb_sig_us", "prefix of another key");
+		params.put("fb_sig_user_x", "longer than another key");
+		params.put("tab", "not a signature parameter");
+		params.put("fb_page", "no prefix");
+		assertSigned(params);
+	}
+
+	public void testSignExcluding() throws Exception {
+		Map<String, CharSequence> params = new HashMap<String, CharSequence>();
+		params.put("fb_sig_user", "500000001");
+		params.put("fb_sig_time", "1199145600.1234");
+		params.put("fb_sig_added", "1");
+		String expected = legacy(params, SECRET);
+		params.put("fb_sig", "ignored");
+		assertEquals(expected, Signer.get().signExcluding(params.entrySet(),
+				"fb_sig", SECRET));
+	}
+
+	public void testKeyPrefixes() throws Exception {
+		// "a=" sorts after "a-b" and "a.b" but before "a_b" and "ab"
+		String[] keys = { "a", "a_b", "ab", "a-b", "a.b", "a0", "aa", "a=",
+				"fb_sig_a", "fb_sig_a_b", "fb_sig_ab", "b", "" };
+		for (int i = 0; i < keys.length; i++) {
+			for (int j = 0; j < keys.length; j++) {
+				if (i == j)
+					continue;
+				// both insertion orders, as the sort is only by key
+				Map<String, CharSequence> params = new LinkedHashMap<String, CharSequence>();
+				params.put(keys[i], "1");
+				params.put(keys[j], "2");
+				assertSigned(params);
+				params = new LinkedHashMap<String, CharSequence>();
+				params.put(keys[j], "2");
+				params.put(keys[i], "1");
+				assertSigned(params);
+			}
+		}
+	}
+
+	public void testManyLongParams() throws Exception {
+		Map<String, CharSequence> params = request();
+		for (int i = 0; i < 40; i++) {
+			StringBuilder value = new StringBuilder();
+			for (int j = 0; j < 50; j++) {
+				value.append((char) ('a' + (i + j) % 26)).append('\u00e9');
+			}
+			params.put("param" + i, value.toString());
+		}
+		assertSigned(params);
+		// the signer's grown buffers must not leak into the next call
+		assertSigned(request());
+	}
+
+	public void testList() throws Exception {
+		Map<String, CharSequence> params = request();
+		params.put("fb_sig_user", "500000001");
+		params.put("notification", "w\u00f6rld \u2603");
+		List<String> list = FacebookSignatureUtil.convert(params.entrySet());
+		Collections.reverse(list);
+		assertEquals(legacy(params, SECRET), Signer.get().sign(
+				new ArrayList<String>(list), SECRET));
+	}
+
+	private static Map<String, CharSequence> request() {
+		Map<String, CharSequence> params = new HashMap<String, CharSequence>();
+		params.put("api_key", "4fb3c5fd28a2e8bbf8f9a6d7c2b1e0a3");
+		params.put("v", FacebookApi.API_VERSION);
+		params.put("method", FacebookMethod.USERS_GET_INFO.methodName());
+		params.put("call_id", "1199145600123");
+		params.put("session_key", "a1b2c3d4e5f6a7b8c9d0e1f2-500000001");
+		return params;
+	}
+
+	private static void assertSigned(Map<String, CharSequence> params)
+			throws Exception {
+		assertEquals(params.toString(), legacy(params, SECRET), Signer.get()
+				.sign(params.entrySet(), SECRET));
+	}
+
+	/**
+	 * How signatures were made before Signer, in UTF-8 rather than the
+	 * platform charset so it compares on any platform.
+	 */
+	static String legacy(Map<String, CharSequence> params, String secret)
+			throws Exception {
+		List<String> list = FacebookSignatureUtil.convert(params.entrySet());
+		Collections.sort(list);
+		StringBuffer buffer = new StringBuffer();
+		for (String param : list) {
+			buffer.append(param);
+		}
+		buffer.append(secret);
+		MessageDigest md = MessageDigest.getInstance("MD5");
+		StringBuffer result = new StringBuffer();
+		for (byte b : md.digest(buffer.toString().getBytes("UTF-8"))) {
+			result.append(Integer.toHexString((b & 0xf0) >>> 4));
+			result.append(Integer.toHexString(b & 0x0f));
+		}
+		return result.toString();
+	}
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.f8api.http.Transport;
+import net.sf.f8api.http.UploadSource;
+
+/**
+ * A transport answering every call from {@link #respond(Map)} without a
+ * network, and keeping the requests for tests to look at.
+ */
+public class StubTransport implements Transport {
+	public static final String API_KEY = "4fb3c5fd28a2e8bbf8f9a6d7c2b1e0a3";
+	public static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	/**
+	 * Parameters of the calls made so far.
+	 */
+	public final List<Map<String, CharSequence>> requests = Collections
+			.synchronizedList(new ArrayList<Map<String, CharSequence>>());
+
+	private volatile String response = "";
+
+	/**
+	 * @return a client sending its calls to this transport
+	 */
+	public FacebookClient client() {
+		Application application = new Application();
+		application.setApiKey(API_KEY);
+		application.setApiSecret(SECRET);
+		return new FacebookClient(application, this);
+	}
+
+	/**
+	 * @return a session of the client's application
+	 */
+	public static Session session(String key) {
+		return new CanvasSession(API_KEY, SECRET, key, 500000001L, 0);
+	}
+
+	/**
+	 * @param response
+	 *            body of the answers of {@link #respond(Map)}
+	 */
+	public void setResponse(String response) {
+		this.response = response;
+	}
+
+	/**
+	 * @return the body of the answer to a call, the response set by default
+	 */
+	protected String respond(Map<String, CharSequence> params)
+			throws IOException {
+		return response;
+	}
+
+	public InputStream post(String url, Map<String, CharSequence> params)
+			throws IOException {
+		requests.add(new HashMap<String, CharSequence>(params));
+		return new ByteArrayInputStream(respond(params).getBytes("UTF-8"));
+	}
+
+	/**
+	 * Answered like {@link #post(String, Map)}, the upload isn't read.
+	 */
+	public InputStream postFile(String url, Map<String, CharSequence> params,
+			UploadSource upload) throws IOException {
+		return post(url, params);
+	}
+
+	public void shutdown() {
+	}
+}
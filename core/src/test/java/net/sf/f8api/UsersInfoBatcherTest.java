@@ -0,0 +1,90 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.TestCase;
+import net.sf.f8api.model.User;
+
+public class UsersInfoBatcherTest extends TestCase {
+	private static final String USERS = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">"
+			+ "<user><uid>1</uid><name>One</name></user>"
+			+ "<user><uid>2</uid><name>Two</name></user>"
+			+ "</users_getInfo_response>";
+
+	private StubTransport transport;
+	private UsersInfoBatcher batcher;
+
+	protected void setUp() {
+		transport = new StubTransport();
+		transport.setResponse(USERS);
+		batcher = new UsersInfoBatcher(transport.client());
+	}
+
+	protected void tearDown() {
+		batcher.shutdown();
+	}
+
+	public void testMergesRequests() throws Exception {
+		batcher.setWindow(200);
+		Session session = StubTransport.session("s");
+		String[] fields = { "name" };
+		FacebookFuture<List<User>> one = batcher.submit(session,
+				new String[] { "1" }, fields);
+		FacebookFuture<List<User>> two = batcher.submit(session,
+				new String[] { "2", "3" }, fields);
+		assertEquals(1, one.join(5, TimeUnit.SECONDS).size());
+		List<User> users = two.join(5, TimeUnit.SECONDS);
+		assertEquals(1, users.size()); // 3 isn't returned
+		assertEquals(2L, users.get(0).getUid());
+		assertEquals(1, batcher.getCalls());
+		assertEquals("1,2,3", transport.requests.get(0).get("uids")
+				.toString());
+	}
+
+	public void testFullBatchIsSentAtOnce() throws Exception {
+		batcher.setWindow(60000);
+		batcher.setMaxBatchSize(2);
+		List<User> users = batcher.submit(StubTransport.session("s"),
+				new String[] { "1", "2" }, new String[] { "name" }).join(5,
+				TimeUnit.SECONDS);
+		assertEquals(2, users.size());
+	}
+
+	public void testSubmitAfterShutdownFails() throws Exception {
+		batcher.shutdown();
+		FacebookFuture<List<User>> future = batcher.submit(StubTransport
+				.session("s"), new String[] { "1" }, new String[] { "name" });
+		try {
+			future.join(5, TimeUnit.SECONDS);
+			fail("sent after shutdown");
+		} catch (RejectedExecutionException expected) {
+		}
+		// the rejected batch doesn't stay open for the next request
+		future = batcher.submit(StubTransport.session("s"),
+				new String[] { "2" }, new String[] { "name" });
+		try {
+			future.join(5, TimeUnit.SECONDS);
+			fail("sent after shutdown");
+		} catch (RejectedExecutionException expected) {
+		}
+		assertEquals(0, batcher.getCalls());
+	}
+}
@@ -0,0 +1,119 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import junit.framework.TestCase;
+
+public class ContentDecoderTest extends TestCase {
+	private static final byte[] BODY = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<friends_get_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">"
+			+ "<uid>1</uid><uid>2</uid><uid>3</uid></friends_get_response>")
+			.getBytes();
+
+	private TransferStats stats;
+
+	protected void setUp() {
+		stats = new TransferStats();
+	}
+
+	private byte[] decode(byte[] wire, String encoding) throws IOException {
+		InputStream in = ContentDecoder.decode(new ByteArrayInputStream(wire),
+				encoding, stats);
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[16];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] gzip(byte[] body) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		GZIPOutputStream gz = new GZIPOutputStream(out);
+		gz.write(body);
+		gz.close();
+		return out.toByteArray();
+	}
+
+	private static byte[] deflate(byte[] body, boolean zlib)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DeflaterOutputStream def = new DeflaterOutputStream(out, new Deflater(
+				Deflater.DEFAULT_COMPRESSION, !zlib));
+		def.write(body);
+		def.close();
+		return out.toByteArray();
+	}
+
+	public void testIdentity() throws Exception {
+		assertTrue(Arrays.equals(BODY, decode(BODY, null)));
+		assertEquals(1, stats.getResponses());
+		assertEquals(0, stats.getCompressedResponses());
+		assertEquals(BODY.length, stats.getWireBytes());
+		assertEquals(BODY.length, stats.getDecodedBytes());
+	}
+
+	public void testGzip() throws Exception {
+		byte[] wire = gzip(BODY);
+		assertTrue(Arrays.equals(BODY, decode(wire, " GZIP ")));
+		assertEquals(1, stats.getCompressedResponses());
+		assertEquals(wire.length, stats.getWireBytes());
+		assertEquals(BODY.length, stats.getDecodedBytes());
+	}
+
+	public void testZlibAndBareDeflate() throws Exception {
+		assertTrue(Arrays.equals(BODY, decode(deflate(BODY, true), "deflate")));
+		assertTrue(Arrays.equals(BODY, decode(deflate(BODY, false),
+				"deflate")));
+		assertEquals(2, stats.getCompressedResponses());
+	}
+
+	public void testEmptyBody() throws Exception {
+		assertEquals(0, decode(new byte[0], "gzip").length);
+		assertEquals(0, decode(new byte[0], "x-gzip").length);
+		assertEquals(0, decode(new byte[0], "deflate").length);
+		assertEquals(0, decode(new byte[0], null).length);
+		assertEquals(0, stats.getWireBytes());
+	}
+
+	public void testTruncatedGzip() throws Exception {
+		byte[] wire = gzip(BODY);
+		try {
+			decode(Arrays.copyOf(wire, wire.length / 2), "gzip");
+			fail("truncated body decoded");
+		} catch (IOException expected) {
+			// EOFException from the inflater
+		}
+	}
+
+	public void testNullBody() throws Exception {
+		assertNull(ContentDecoder.decode(null, "gzip", stats));
+	}
+}
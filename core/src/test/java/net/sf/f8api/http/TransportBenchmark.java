@@ -0,0 +1,149 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import net.sf.f8api.CallbackServer;
+import net.sf.f8api.ConnectionSettings;
+
+/**
+ * Compares the transports against a local Jetty stub of the REST server. The
+ * stub gzips its response when asked to, turn compression off in the
+ * settings to compare.
+ * Not a unit test, run it by hand:
+ * 
+ * <pre>
+ * java net.sf.f8api.http.TransportBenchmark [port] [threads] [calls]
+ * </pre>
+ */
+public class TransportBenchmark {
+	private static final String RESPONSE = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<friends_get_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">\n"
+			+ "<uid>222333</uid>\n<uid>1240079</uid>\n<uid>8055</uid>\n"
+			+ "</friends_get_response>";
+
+	public static void main(String[] args) throws Exception {
+		int port = args.length > 0 ? Integer.parseInt(args[0]) : 18080;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 8;
+		int calls = args.length > 2 ? Integer.parseInt(args[2]) : 20000;
+		String url = "http://127.0.0.1:" + port + "/restserver.php";
+
+		CallbackServer server = new CallbackServer(port, new StubServlet(),
+				"/restserver.php");
+		server.start();
+		try {
+			ConnectionSettings settings = new ConnectionSettings();
+			settings.setMaxConnectionsPerHost(threads);
+			settings.setMaxTotalConnections(threads);
+
+			Transport[] transports = new Transport[] {
+					new CommonsHttpTransport(settings),
+					new UrlConnectionTransport(settings) };
+			for (Transport transport : transports) {
+				run(transport, url, threads, calls / 10); // warm up
+				long nanos = run(transport, url, threads, calls);
+				System.out.println(transport.getClass().getSimpleName()
+						+ ": " + calls + " calls on " + threads + " threads, "
+						+ (calls * 1000000000L / nanos) + " calls/s, "
+						+ (nanos * threads / calls / 1000) + " us/call");
+				System.out.println("  " + stats(transport));
+				transport.shutdown();
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static long run(final Transport transport, final String url,
+			int threads, final int calls) throws InterruptedException {
+		final Map<String, CharSequence> params = new HashMap<String, CharSequence>();
+		params.put("method", "facebook.friends.get");
+		params.put("api_key", "0123456789abcdef0123456789abcdef");
+		params.put("session_key", "5f34e11bfb97c762e439e6a5-8055");
+		params.put("call_id", "1181001440521");
+		params.put("v", "1.0");
+		params.put("sig", "b0cbb177a043dde4751d5884f403eea3");
+
+		final AtomicInteger remaining = new AtomicInteger(calls);
+		final CountDownLatch done = new CountDownLatch(threads);
+		long start = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					byte[] buff = new byte[1024];
+					try {
+						while (remaining.decrementAndGet() >= 0) {
+							InputStream in = transport.post(url, params);
+							try {
+								while (in.read(buff) != -1) {
+									// consume
+								}
+							} finally {
+								in.close();
+							}
+						}
+					} catch (IOException ioe) {
+						ioe.printStackTrace();
+					} finally {
+						done.countDown();
+					}
+				}
+			}.start();
+		}
+		done.await();
+		return System.nanoTime() - start;
+	}
+
+	private static TransferStats stats(Transport transport) {
+		return transport instanceof CommonsHttpTransport ? ((CommonsHttpTransport) transport)
+				.getTransferStats()
+				: ((UrlConnectionTransport) transport).getTransferStats();
+	}
+
+	private static class StubServlet extends HttpServlet {
+		protected void doPost(HttpServletRequest request,
+				HttpServletResponse response) throws ServletException,
+				IOException {
+			request.getParameterMap(); // parse the form like a server would
+			byte[] body = RESPONSE.getBytes("UTF-8");
+			String accept = request.getHeader("Accept-Encoding");
+			if (accept != null && accept.indexOf("gzip") != -1) {
+				ByteArrayOutputStream gz = new ByteArrayOutputStream();
+				GZIPOutputStream out = new GZIPOutputStream(gz);
+				out.write(body);
+				out.close();
+				body = gz.toByteArray();
+				response.setHeader("Content-Encoding", "gzip");
+			}
+			response.setContentType("text/xml; charset=UTF-8");
+			response.setContentLength(body.length);
+			response.getOutputStream().write(body);
+		}
+	}
+}
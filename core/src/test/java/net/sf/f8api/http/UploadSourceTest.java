@@ -0,0 +1,125 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.http;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+public class UploadSourceTest extends TestCase {
+	private static final byte[] CONTENT = "\u00ff\u00d8 not really a jpeg"
+			.getBytes();
+
+	private static byte[] read(InputStream in) throws IOException {
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buf = new byte[7];
+			int n;
+			while ((n = in.read(buf)) != -1) {
+				out.write(buf, 0, n);
+			}
+			return out.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static byte[] written(UploadSource source) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		source.writeTo(out);
+		return out.toByteArray();
+	}
+
+	public void testFile() throws Exception {
+		File file = File.createTempFile("upload", ".jpg");
+		try {
+			OutputStream out = new FileOutputStream(file);
+			out.write(CONTENT);
+			out.close();
+			UploadSource source = UploadSource.forFile(file);
+			assertEquals("image/jpeg", source.getContentType());
+			assertEquals(CONTENT.length, source.getLength());
+			assertTrue(Arrays.equals(CONTENT, read(source.openStream())));
+			assertTrue(Arrays.equals(CONTENT, written(source)));
+		} finally {
+			file.delete();
+		}
+	}
+
+	public void testHeapBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocate(CONTENT.length + 4);
+		buffer.position(2);
+		buffer.put(CONTENT);
+		buffer.position(2).limit(2 + CONTENT.length);
+		UploadSource source = UploadSource.forBuffer("a.png", buffer.slice());
+		assertTrue(Arrays.equals(CONTENT, read(source.openStream())));
+		assertTrue("repeatable", Arrays.equals(CONTENT, written(source)));
+		assertEquals(CONTENT.length, source.getLength());
+	}
+
+	public void testDirectBuffer() throws Exception {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(CONTENT.length);
+		buffer.put(CONTENT).flip();
+		UploadSource source = UploadSource.forBuffer("a.gif", buffer);
+		assertTrue(Arrays.equals(CONTENT, read(source.openStream())));
+		assertTrue(Arrays.equals(CONTENT, written(source)));
+		assertEquals("position kept", 0, buffer.position());
+	}
+
+	public void testStream() throws Exception {
+		UploadSource source = UploadSource.forStream("a.bin",
+				new ByteArrayInputStream(CONTENT), CONTENT.length);
+		assertFalse(source.isRepeatable());
+		assertEquals("application/octet-stream", source.getContentType());
+		assertTrue(Arrays.equals(CONTENT, read(source.openStream())));
+	}
+
+	public void testShortStream() throws Exception {
+		UploadSource source = UploadSource.forStream("a.bin",
+				new ByteArrayInputStream(CONTENT), CONTENT.length + 1);
+		try {
+			written(source);
+			fail("short stream sent as complete");
+		} catch (IOException ioe) {
+			assertTrue(ioe.getMessage().indexOf("ended after") > 0);
+		}
+	}
+
+	public void testSubclassStreamsWhatItWrites() throws Exception {
+		UploadSource source = new UploadSource("custom.jpg") {
+			public long getLength() {
+				return -1;
+			}
+
+			public boolean isRepeatable() {
+				return true;
+			}
+
+			public void writeTo(OutputStream out) throws IOException {
+				out.write(CONTENT);
+			}
+		};
+		assertTrue(Arrays.equals(CONTENT, read(source.openStream())));
+	}
+}
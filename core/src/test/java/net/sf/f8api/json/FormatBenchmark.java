@@ -0,0 +1,323 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.TreeMap;
+
+import net.sf.f8api.Benchmarks;
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.model.Photo;
+import net.sf.f8api.model.User;
+import net.sf.f8api.xml.PhotosDecoder;
+import net.sf.f8api.xml.UidsDecoder;
+import net.sf.f8api.xml.UsersDecoder;
+
+/**
+ * Compares reading the same responses from XML and from JSON, for
+ * users.getInfo, photos.get, friends.get and groups.getMembers, and checks
+ * both read the same objects. Time and allocation are measured per response
+ * and method, allocation where the JVM can count the bytes a thread
+ * allocates, to choose each method's format with
+ * FacebookClient.setDecodeFormat. Not a unit test, run it by hand:
+ * 
+ * <pre>
+ * java net.sf.f8api.json.FormatBenchmark [responses]
+ * </pre>
+ */
+public class FormatBenchmark {
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	private static final String NS = " xmlns=\"http://api.facebook.com/1.0/\""
+			+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+			+ " xsi:schemaLocation=\"http://api.facebook.com/1.0/"
+			+ " http://api.facebook.com/1.0/facebook.xsd\"";
+
+	private static final String[] METHODS = { "users.getInfo", "photos.get",
+			"friends.get", "groups.getMembers" };
+
+	private static final int XML = 0;
+	private static final int JSON = 1;
+
+	// responses of each method, XML then JSON
+	private static final byte[][][] RESPONSES = {
+			{ bytes(usersXml(20)), bytes(usersJson(20)) },
+			{ bytes(photosXml(50)), bytes(photosJson(50)) },
+			{ bytes(uidsXml(500)), bytes(uidsJson(500)) },
+			{ bytes(membersXml(500)), bytes(membersJson(500)) } };
+
+	private static final UsersDecoder users = new UsersDecoder();
+	private static final PhotosDecoder photos = new PhotosDecoder();
+	private static final UidsDecoder friends = new UidsDecoder();
+	private static final UidsDecoder members = new UidsDecoder("members");
+
+	public static void main(String[] args) throws Exception {
+		int responses = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+
+		check();
+		for (int round = 0; round < 3; round++) {
+			for (int method = 0; method < METHODS.length; method++) {
+				run(method, XML, responses);
+				run(method, JSON, responses);
+			}
+		}
+	}
+
+	private static void check() throws Exception {
+		for (int method = 0; method < METHODS.length; method++) {
+			String xml = read(method, XML);
+			String json = read(method, JSON);
+			if (!xml.equals(json)) {
+				throw new IllegalStateException(METHODS[method]
+						+ " JSON read\n" + json + "\nnot\n" + xml);
+			}
+			System.out.println(METHODS[method] + " reads the same: "
+					+ RESPONSES[method][XML].length + " bytes of XML, "
+					+ RESPONSES[method][JSON].length + " of JSON");
+		}
+	}
+
+	/**
+	 * @return what was read from the response
+	 */
+	private static String read(int method, int format) throws IOException,
+			FacebookException {
+		InputStream in = new ByteArrayInputStream(RESPONSES[method][format]);
+		boolean json = format == JSON;
+		switch (method) {
+		case 0: {
+			List<User> list = json ? users.decodeJson(in) : users.decode(in);
+			StringBuilder out = new StringBuilder();
+			for (User user : list) {
+				out.append(user.getUid()).append(
+						new TreeMap<String, String>(user.getFields())).append(
+						'\n');
+			}
+			return out.toString();
+		}
+		case 1: {
+			List<Photo> list = json ? photos.decodeJson(in) : photos
+					.decode(in);
+			StringBuilder out = new StringBuilder();
+			for (Photo photo : list) {
+				out.append(photo.getId()).append(' ').append(
+						photo.getAlbumId()).append(' ').append(
+						photo.getOwnerId()).append(' ').append(photo.getUrl())
+						.append(' ').append(photo.getLink()).append(' ')
+						.append(photo.getCaption()).append(' ').append(
+								photo.getCreated()).append('\n');
+			}
+			return out.toString();
+		}
+		case 2:
+			return Arrays.toString(json ? friends.decodeUidsJson(in) : friends
+					.decodeUids(in));
+		default:
+			return Arrays.toString(json ? members.decodeUidsJson(in)
+					: members.decodeUids(in));
+		}
+	}
+
+	/**
+	 * @return a number standing for what was read, so it must be read
+	 */
+	private static int decode(int method, int format) throws IOException,
+			FacebookException {
+		InputStream in = new ByteArrayInputStream(RESPONSES[method][format]);
+		boolean json = format == JSON;
+		switch (method) {
+		case 0:
+			return (json ? users.decodeJson(in) : users.decode(in)).size();
+		case 1:
+			return (json ? photos.decodeJson(in) : photos.decode(in)).size();
+		case 2:
+			return (json ? friends.decodeUidsJson(in) : friends.decodeUids(in)).length;
+		default:
+			return (json ? members.decodeUidsJson(in) : members.decodeUids(in)).length;
+		}
+	}
+
+	private static void run(int method, int format, int responses)
+			throws Exception {
+		long bytes = Benchmarks.allocated();
+		long start = System.nanoTime();
+		int read = 0;
+		for (int i = 0; i < responses; i++) {
+			read += decode(method, format);
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = Benchmarks.allocated() - bytes;
+		System.out.println(METHODS[method] + (format == JSON ? " JSON" : " XML")
+				+ ": " + (nanos / responses) + " ns/response"
+				+ (bytes < 0 ? "" : ", " + (bytes / responses)
+						+ " bytes/response") + " (" + read + ")");
+	}
+
+	private static String usersXml(int count) {
+		StringBuilder xml = new StringBuilder(HEADER);
+		xml.append("<users_getInfo_response").append(NS).append(
+				" list=\"true\">\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("  <user>\n");
+			xml.append("    <uid>").append(500000000L + i).append("</uid>\n");
+			xml.append("    <name>User N\u00famero ").append(i).append(
+					"</name>\n");
+			xml.append("    <pic>http://profile.ak.facebook.com/profile5/")
+					.append(i).append("/pic/s").append(i).append(
+							"_6060.jpg</pic>\n");
+			xml.append("    <status xsi:nil=\"true\"/>\n");
+			xml.append("    <hometown_location>\n");
+			xml.append("      <city>Palo Alto</city>\n");
+			xml.append("      <state>CA</state>\n");
+			xml.append("      <country>United States</country>\n");
+			xml.append("      <zip>94303</zip>\n");
+			xml.append("    </hometown_location>\n");
+			xml.append("    <affiliations list=\"true\">\n");
+			xml.append("      <affiliation>\n");
+			xml.append("        <nid>50431648</nid>\n");
+			xml.append("        <name>Stanford</name>\n");
+			xml.append("      </affiliation>\n");
+			xml.append("    </affiliations>\n");
+			xml.append("    <meeting_for list=\"true\"/>\n");
+			xml.append("  </user>\n");
+		}
+		xml.append("</users_getInfo_response>");
+		return xml.toString();
+	}
+
+	private static String usersJson(int count) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"uid\":").append(500000000L + i);
+			json.append(",\"name\":\"User N\\u00famero ").append(i).append('"');
+			json.append(",\"pic\":\"http:\\/\\/profile.ak.facebook.com\\/profile5\\/")
+					.append(i).append("\\/pic\\/s").append(i).append(
+							"_6060.jpg\"");
+			json.append(",\"status\":null");
+			json.append(",\"hometown_location\":{\"city\":\"Palo Alto\",")
+					.append("\"state\":\"CA\",\"country\":\"United States\",")
+					.append("\"zip\":94303}");
+			json.append(",\"affiliations\":[{\"nid\":50431648,")
+					.append("\"name\":\"Stanford\"}]");
+			json.append(",\"meeting_for\":[]}");
+		}
+		return json.append(']').toString();
+	}
+
+	private static String photosXml(int count) {
+		StringBuilder xml = new StringBuilder(HEADER);
+		xml.append("<photos_get_response").append(NS).append(
+				" list=\"true\">\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("  <photo>\n");
+			xml.append("    <pid>").append(940915697041656L + i).append(
+					"</pid>\n");
+			xml.append("    <aid>940915667462717</aid>\n");
+			xml.append("    <owner>219074</owner>\n");
+			xml.append("    <src>http://ip002.facebook.com/v67/161/72/219074/s219074_")
+					.append(i).append(".jpg</src>\n");
+			xml.append("    <link>http://www.facebook.com/photo.php?pid=")
+					.append(i).append("&amp;id=219074</link>\n");
+			xml.append("    <caption>Under the sunset &lt;").append(i)
+					.append("&gt;</caption>\n");
+			xml.append("    <created>1172813418</created>\n");
+			xml.append("  </photo>\n");
+		}
+		xml.append("</photos_get_response>");
+		return xml.toString();
+	}
+
+	private static String photosJson(int count) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append("{\"pid\":\"").append(940915697041656L + i).append(
+					"\",\"aid\":\"940915667462717\",\"owner\":219074");
+			json.append(",\"src\":\"http:\\/\\/ip002.facebook.com\\/v67\\/161\\/72\\/219074\\/s219074_")
+					.append(i).append(".jpg\"");
+			json.append(",\"link\":\"http:\\/\\/www.facebook.com\\/photo.php?pid=")
+					.append(i).append("&id=219074\"");
+			json.append(",\"caption\":\"Under the sunset <").append(i)
+					.append(">\",\"created\":1172813418}");
+		}
+		return json.append(']').toString();
+	}
+
+	private static String uidsXml(int count) {
+		StringBuilder xml = new StringBuilder(HEADER);
+		xml.append("<friends_get_response").append(NS).append(
+				" list=\"true\">\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("  <uid>").append(500000000L + i * 7).append("</uid>\n");
+		}
+		xml.append("</friends_get_response>");
+		return xml.toString();
+	}
+
+	private static String uidsJson(int count) {
+		StringBuilder json = new StringBuilder("[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append(500000000L + i * 7);
+		}
+		return json.append(']').toString();
+	}
+
+	private static String membersXml(int count) {
+		StringBuilder xml = new StringBuilder(HEADER);
+		xml.append("<groups_getMembers_response").append(NS).append(">\n");
+		xml.append("  <admins list=\"true\">\n");
+		xml.append("    <uid>222333</uid>\n");
+		xml.append("  </admins>\n");
+		xml.append("  <members list=\"true\">\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("    <uid>").append(500000000L + i * 7).append(
+					"</uid>\n");
+		}
+		xml.append("  </members>\n");
+		xml.append("  <officers list=\"true\"/>\n");
+		xml.append("  <not_replied list=\"true\"/>\n");
+		xml.append("</groups_getMembers_response>");
+		return xml.toString();
+	}
+
+	private static String membersJson(int count) {
+		StringBuilder json = new StringBuilder(
+				"{\"admins\":[\"222333\"],\"members\":[");
+		for (int i = 0; i < count; i++) {
+			if (i > 0)
+				json.append(',');
+			json.append('"').append(500000000L + i * 7).append('"');
+		}
+		return json.append("],\"officers\":[],\"not_replied\":[]}")
+				.toString();
+	}
+
+	private static byte[] bytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+}
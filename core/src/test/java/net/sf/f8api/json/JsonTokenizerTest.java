@@ -0,0 +1,189 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.json;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import junit.framework.TestCase;
+
+public class JsonTokenizerTest extends TestCase {
+	private static JsonTokenizer json(String s) throws IOException {
+		return new JsonTokenizer(new ByteArrayInputStream(s.getBytes("UTF-8")));
+	}
+
+	private static JsonTokenizer json(byte[] b) {
+		return new JsonTokenizer(new ByteArrayInputStream(b));
+	}
+
+	public void testTokens() throws Exception {
+		JsonTokenizer json = json(" {\"uid\": 8055, \"name\":\"Dave\",\n"
+				+ "\"is_app_user\":true, \"status\":null, \"locale\":false,"
+				+ " \"affiliations\":[{}, [] ]}");
+		assertEquals(JsonTokenizer.START_OBJECT, json.next());
+		assertEquals(1, json.getDepth());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals("uid", json.getText());
+		assertEquals(JsonTokenizer.NUMBER, json.next());
+		assertEquals(8055, json.getLong());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertTrue(json.textEquals("name"));
+		assertEquals(JsonTokenizer.STRING, json.next());
+		assertEquals("Dave", json.getText());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals(JsonTokenizer.TRUE, json.next());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals(JsonTokenizer.NULL, json.next());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals(JsonTokenizer.FALSE, json.next());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals(JsonTokenizer.START_ARRAY, json.next());
+		assertEquals(JsonTokenizer.START_OBJECT, json.next());
+		assertEquals(3, json.getDepth());
+		assertEquals(JsonTokenizer.END_OBJECT, json.next());
+		assertEquals(JsonTokenizer.START_ARRAY, json.next());
+		assertEquals(JsonTokenizer.END_ARRAY, json.next());
+		assertEquals(JsonTokenizer.END_ARRAY, json.next());
+		assertEquals(JsonTokenizer.END_OBJECT, json.next());
+		assertEquals(0, json.getDepth());
+		assertEquals(JsonTokenizer.END, json.next());
+		assertEquals(JsonTokenizer.END, json.getToken());
+	}
+
+	public void testEscapes() throws Exception {
+		JsonTokenizer json = json("[\"a\\\"b\\\\c\\/d\\b\\f\\n\\r\\t\","
+				+ " \"Ren\\u00E9e \\ud83d\\ude00\"]");
+		json.next();
+		assertEquals(JsonTokenizer.STRING, json.next());
+		assertEquals("a\"b\\c/d\b\f\n\r\t", json.getText());
+		assertEquals(JsonTokenizer.STRING, json.next());
+		assertEquals("Ren\u00e9e \ud83d\ude00", json.getText());
+	}
+
+	public void testUtf8() throws Exception {
+		// two, three and four byte sequences, the last a surrogate pair
+		JsonTokenizer json = json("[\"\u00e9 \u20ac \ud83d\ude00\"]");
+		json.next();
+		json.next();
+		assertEquals("\u00e9 \u20ac \ud83d\ude00", json.getText());
+		assertEquals(6, json.getTextLength());
+		assertEquals('\ud83d', json.getTextCharacters()[4]);
+		assertEquals('\ude00', json.getTextCharacters()[5]);
+	}
+
+	public void testLongText() throws Exception {
+		StringBuilder s = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			s.append("0123456789");
+		}
+		JsonTokenizer json = json("[\"" + s + "\"]");
+		json.next();
+		json.next();
+		assertEquals(s.toString(), json.getText());
+	}
+
+	public void testBadUtf8() throws Exception {
+		assertFails(new byte[] { '[', '"', (byte) 0x80, '"', ']' });
+		assertFails(new byte[] { '[', '"', (byte) 0xc3, 'a', '"', ']' });
+		assertFails(new byte[] { '[', '"', (byte) 0xf0, (byte) 0x9f, '"' });
+		// past U+10FFFF
+		assertFails(new byte[] { '[', '"', (byte) 0xf4, (byte) 0x90,
+				(byte) 0x80, (byte) 0x80, '"', ']' });
+	}
+
+	public void testBadEscape() throws Exception {
+		assertFails("[\"\\u12g4\"]");
+		assertFails("[\"\\u12");
+		assertFails("[\"abc");
+	}
+
+	public void testMalformed() throws Exception {
+		assertFails("[1, 2}");
+		assertFails("]");
+		assertFails("{\"a\": [1, 2]");
+		assertFails("[nul]");
+	}
+
+	public void testGetLong() throws Exception {
+		JsonTokenizer json = json("[\"8055\", -1, 0, 9223372036854775807,"
+				+ " -9223372036854775808]");
+		json.next();
+		json.next();
+		assertEquals(8055, json.getLong()); // quoted, as ids often are
+		json.next();
+		assertEquals(-1, json.getLong());
+		json.next();
+		assertEquals(0, json.getLong());
+		json.next();
+		assertEquals(Long.MAX_VALUE, json.getLong());
+		json.next();
+		assertEquals(Long.MIN_VALUE, json.getLong());
+	}
+
+	public void testGetLongOverflow() throws Exception {
+		assertNotALong("9223372036854775808");
+		assertNotALong("-9223372036854775809");
+		assertNotALong("92233720368547758070");
+		assertNotALong("1.5");
+		assertNotALong("1e3");
+		assertNotALong("-");
+		assertNotALong("\"\"");
+		assertNotALong("\"12a\"");
+	}
+
+	public void testSkipValue() throws Exception {
+		JsonTokenizer json = json("{\"a\": {\"b\": [1, {\"c\": []}]},"
+				+ " \"d\": 2, \"e\": [3]}");
+		json.next();
+		json.next(); // a
+		json.skipValue();
+		assertEquals(1, json.getDepth());
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals("d", json.getText());
+		json.skipValue(); // the 2 after the name
+		assertEquals(JsonTokenizer.NAME, json.next());
+		assertEquals("e", json.getText());
+		assertEquals(JsonTokenizer.START_ARRAY, json.next());
+		json.skipValue();
+		assertEquals(JsonTokenizer.END_ARRAY, json.getToken());
+		assertEquals(JsonTokenizer.END_OBJECT, json.next());
+	}
+
+	private static void assertFails(String s) throws IOException {
+		assertFails(s.getBytes("UTF-8"));
+	}
+
+	private static void assertFails(byte[] b) {
+		JsonTokenizer json = json(b);
+		try {
+			while (json.next() != JsonTokenizer.END) {
+			}
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	private static void assertNotALong(String s) throws IOException {
+		JsonTokenizer json = json("[" + s + "]");
+		json.next();
+		json.next();
+		try {
+			json.getLong();
+			fail(s);
+		} catch (IOException expected) {
+		}
+	}
+}
@@ -0,0 +1,352 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.servlet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URLEncoder;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.TestCase;
+import net.sf.f8api.FacebookSignatureUtil;
+import net.sf.f8api.Session;
+
+public class CanvasVerificationFilterTest extends TestCase {
+	private static final String SECRET = "0123456789abcdef0123456789abcdef";
+
+	private CanvasVerificationFilter filter;
+	private Chain chain;
+	private Map<String, Object> response;
+
+	protected void setUp() {
+		filter = new CanvasVerificationFilter(SECRET);
+		chain = new Chain();
+		response = new HashMap<String, Object>();
+	}
+
+	public void testValidQuery() throws Exception {
+		Map<String, String> params = canvas();
+		filter.doFilter(get(query(params, sign(params))), response(), chain);
+		assertPassed(true);
+		assertEquals("500000001", chain.params().get("fb_sig_user"));
+		Session session = (Session) chain.request
+				.getAttribute(CanvasVerificationFilter.SESSION);
+		assertEquals("sess-1", session.getKey());
+	}
+
+	public void testTamperedValue() throws Exception {
+		Map<String, String> params = canvas();
+		String signature = sign(params);
+		params.put("fb_sig_user", "500000002");
+		filter.doFilter(get(query(params, signature)), response(), chain);
+		assertRejected();
+	}
+
+	public void testAddedParam() throws Exception {
+		Map<String, String> params = canvas();
+		String signature = sign(params);
+		params.put("fb_sig_added", "1");
+		filter.doFilter(get(query(params, signature)), response(), chain);
+		assertRejected();
+	}
+
+	public void testUnsignedPassesUnverified() throws Exception {
+		filter.doFilter(get("page=2"), response(), chain);
+		assertPassed(false);
+		filter.setRequireSignature(true);
+		chain = new Chain();
+		filter.doFilter(get("page=2"), response(), chain);
+		assertRejected();
+	}
+
+	public void testNoRejectPassesUnverified() throws Exception {
+		filter.setReject(false);
+		Map<String, String> params = canvas();
+		filter.doFilter(get(query(params, "0123")), response(), chain);
+		assertPassed(false);
+		assertNull(chain.request.getAttribute(CanvasVerificationFilter.PARAMS));
+	}
+
+	public void testDuplicatedParamKeepsFirst() throws Exception {
+		Map<String, String> params = canvas();
+		String query = query(params, sign(params));
+		// a second value, as the container's getParameter wouldn't see it
+		filter.doFilter(get(query + "&fb_sig_user=666"), response(), chain);
+		assertPassed(true);
+		assertEquals("500000001", chain.params().get("fb_sig_user"));
+
+		// signed for the second value, so the first must be forged
+		Map<String, String> forged = canvas();
+		forged.put("fb_sig_user", "666");
+		chain = new Chain();
+		filter.doFilter(get("fb_sig_user=500000001&" + query(forged,
+				sign(forged))), response(), chain);
+		assertRejected();
+
+		// a second signature is ignored too
+		chain = new Chain();
+		response = new HashMap<String, Object>();
+		filter.doFilter(get(query + "&fb_sig=0123"), response(), chain);
+		assertPassed(true);
+	}
+
+	public void testBodyAndQuery() throws Exception {
+		Map<String, String> params = canvas();
+		String signature = sign(params);
+		Map<String, String> inQuery = new LinkedHashMap<String, String>();
+		inQuery.put("fb_sig_user", params.remove("fb_sig_user"));
+		inQuery.put("fb_sig_session_key", params
+				.remove("fb_sig_session_key"));
+		String body = query(params, signature)
+				+ "&comment=caf%C3%A9+%26+more";
+		filter.doFilter(post(query(inQuery, null) + "&page=2", body),
+				response(), chain);
+		assertPassed(true);
+		assertEquals("500000001", chain.params().get("fb_sig_user"));
+		assertEquals("1", chain.params().get("fb_sig_in_canvas"));
+
+		// the application still gets the body, and its parameters
+		HttpServletRequest request = (HttpServletRequest) chain.request;
+		request.setCharacterEncoding("UTF-8");
+		assertEquals("caf\u00e9 & more", request.getParameter("comment"));
+		assertEquals("2", request.getParameter("page"));
+		assertEquals(body, new String(readAll(request.getInputStream()),
+				"ISO-8859-1"));
+	}
+
+	public void testCacheHitNeedsSamePairs() throws Exception {
+		Map<String, String> params = canvas();
+		String signature = sign(params);
+		filter.doFilter(get(query(params, signature)), response(), chain);
+		assertPassed(true);
+		assertEquals(0, filter.getCacheHits());
+
+		chain = new Chain();
+		filter.doFilter(get(query(params, signature)), response(), chain);
+		assertPassed(true);
+		assertEquals(1, filter.getCacheHits());
+
+		// same signature, other pairs: hashed again, and refused
+		params.put("fb_sig_user", "500000002");
+		chain = new Chain();
+		response = new HashMap<String, Object>();
+		filter.doFilter(get(query(params, signature)), response(), chain);
+		assertRejected();
+		assertEquals(1, filter.getCacheHits());
+	}
+
+	public void testApiKeyMustMatch() throws Exception {
+		filter.setApiKey("other");
+		Map<String, String> params = canvas();
+		filter.doFilter(get(query(params, sign(params))), response(), chain);
+		assertRejected();
+	}
+
+	public void testBodyOverMaxBodyBytes() throws Exception {
+		filter.setMaxBodyBytes(16);
+		Map<String, String> params = canvas();
+		String body = query(params, sign(params));
+		HttpServletRequest request = post(null, body);
+		filter.doFilter(request, response(), chain);
+		assertPassed(true);
+		// decoded by the container, and the request is passed on as it is
+		assertSame(request, chain.request);
+		assertEquals("500000001", chain.params().get("fb_sig_user"));
+	}
+
+	public void testChunkedBodyIsLeftToTheContainer() throws Exception {
+		Map<String, String> params = canvas();
+		HttpServletRequest request = post(null, query(params, sign(params)),
+				-1);
+		filter.doFilter(request, response(), chain);
+		assertPassed(true);
+		assertSame(request, chain.request);
+	}
+
+	private void assertPassed(boolean verified) {
+		assertNotNull("not passed on", chain.request);
+		assertEquals(Boolean.valueOf(verified), chain.request
+				.getAttribute(CanvasVerificationFilter.VERIFIED));
+		assertNull(response.get("error"));
+	}
+
+	private void assertRejected() {
+		assertNull("passed on", chain.request);
+		assertEquals(Integer.valueOf(HttpServletResponse.SC_FORBIDDEN), response
+				.get("error"));
+	}
+
+	private static Map<String, String> canvas() {
+		Map<String, String> params = new LinkedHashMap<String, String>();
+		params.put("fb_sig_in_canvas", "1");
+		params.put("fb_sig_time", "1199145600.1234");
+		params.put("fb_sig_api_key", "4fb3c5fd28a2e8bbf8f9a6d7c2b1e0a3");
+		params.put("fb_sig_user", "500000001");
+		params.put("fb_sig_session_key", "sess-1");
+		params.put("fb_sig_expires", "0");
+		params.put("fb_sig_profile_update_time", "1199145600");
+		params.put("fb_sig_locale", "fr_FR");
+		return params;
+	}
+
+	private static String sign(Map<String, String> params) {
+		return FacebookSignatureUtil.generateSignature(
+				new HashMap<String, CharSequence>(params).entrySet(), SECRET);
+	}
+
+	private static String query(Map<String, String> params, String signature)
+			throws IOException {
+		StringBuilder query = new StringBuilder();
+		for (Map.Entry<String, String> e : params.entrySet()) {
+			if (query.length() > 0)
+				query.append('&');
+			query.append(e.getKey()).append('=').append(
+					URLEncoder.encode(e.getValue(), "UTF-8"));
+		}
+		if (signature != null)
+			query.append("&fb_sig=").append(signature);
+		return query.toString();
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[256];
+		int n;
+		while ((n = in.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static HttpServletRequest get(String query) {
+		return request("GET", query, null, null, 0);
+	}
+
+	private static HttpServletRequest post(String query, String body)
+			throws IOException {
+		return post(query, body, body.length());
+	}
+
+	private static HttpServletRequest post(String query, String body,
+			int length) throws IOException {
+		return request("POST", query, "application/x-www-form-urlencoded",
+				body.getBytes("ISO-8859-1"), length);
+	}
+
+	/**
+	 * A request as a container would give it, decoding its parameters from
+	 * the query and body only when asked.
+	 */
+	private static HttpServletRequest request(final String method,
+			final String query, final String contentType, final byte[] body,
+			final int length) {
+		final Map<String, Object> attributes = new HashMap<String, Object>();
+		return (HttpServletRequest) Proxy.newProxyInstance(
+				CanvasVerificationFilterTest.class.getClassLoader(),
+				new Class[] { HttpServletRequest.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args)
+							throws Throwable {
+						String name = m.getName();
+						if (name.equals("getMethod"))
+							return method;
+						if (name.equals("getQueryString"))
+							return query;
+						if (name.equals("getContentType"))
+							return contentType;
+						if (name.equals("getContentLength"))
+							return Integer.valueOf(length);
+						if (name.equals("getRequestURI"))
+							return "/canvas/";
+						if (name.equals("getCharacterEncoding"))
+							return null;
+						if (name.equals("getAttribute"))
+							return attributes.get(args[0]);
+						if (name.equals("setAttribute"))
+							return attributes.put((String) args[0], args[1]);
+						if (name.equals("getInputStream"))
+							return stream(body);
+						if (name.equals("getParameterMap"))
+							return parameters(query, body);
+						if (name.equals("getParameter")) {
+							String[] values = parameters(query, body).get(
+									args[0]);
+							return values == null ? null : values[0];
+						}
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+
+	private static Map<String, String[]> parameters(String query, byte[] body)
+			throws IOException {
+		BufferedRequest decoded = new BufferedRequest(request("POST", query,
+				null, null, 0), body == null ? new byte[0] : body);
+		decoded.setCharacterEncoding("UTF-8");
+		return decoded.getParameterMap();
+	}
+
+	private static ServletInputStream stream(byte[] body) {
+		final InputStream in = new ByteArrayInputStream(body);
+		return new ServletInputStream() {
+			public int read() throws IOException {
+				return in.read();
+			}
+		};
+	}
+
+	private HttpServletResponse response() {
+		return (HttpServletResponse) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class[] { HttpServletResponse.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method m, Object[] args) {
+						if (m.getName().equals("sendError")) {
+							response.put("error", args[0]);
+							return null;
+						}
+						throw new UnsupportedOperationException(m.getName());
+					}
+				});
+	}
+
+	private static class Chain implements FilterChain {
+		ServletRequest request;
+
+		public void doFilter(ServletRequest request, ServletResponse response) {
+			this.request = request;
+		}
+
+		@SuppressWarnings("unchecked")
+		Map<String, String> params() {
+			return (Map<String, String>) request
+					.getAttribute(CanvasVerificationFilter.PARAMS);
+		}
+	}
+}
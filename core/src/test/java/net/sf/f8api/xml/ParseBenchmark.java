@@ -0,0 +1,241 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+
+import net.sf.f8api.Benchmarks;
+import net.sf.f8api.FacebookException;
+
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+import org.xml.sax.helpers.XMLReaderFactory;
+
+/**
+ * Compares parsing recorded responses with a new parser per response, as it
+ * was done before {@link XmlReaders}, against the thread's parser, with a
+ * new handler per response and with handlers kept and reset, and checks
+ * they all read the same. Allocation is measured where the JVM can count
+ * the bytes a thread allocates.
+ * Not a unit test, run it by hand:
+ * 
+ * <pre>
+ * java net.sf.f8api.xml.ParseBenchmark [responses]
+ * </pre>
+ */
+public class ParseBenchmark {
+	private static final String HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n";
+	private static final String NS = " xmlns=\"http://api.facebook.com/1.0/\""
+			+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\""
+			+ " xsi:schemaLocation=\"http://api.facebook.com/1.0/"
+			+ " http://api.facebook.com/1.0/facebook.xsd\"";
+
+	private static final byte[] CREATE_TOKEN = bytes(HEADER
+			+ "<auth_createToken_response" + NS
+			+ ">3e4a22bb2f5ed75114b0fc9995ea85f1</auth_createToken_response>");
+
+	private static final byte[] GET_SESSION = bytes(HEADER
+			+ "<auth_getSession_response" + NS + ">\n"
+			+ "  <session_key>5f34e11bfb97c762e439e6a5-8055</session_key>\n"
+			+ "  <uid>8055</uid>\n" + "  <expires>1173309298</expires>\n"
+			+ "</auth_getSession_response>");
+
+	private static final byte[] USERS = bytes(users(20));
+
+	private static final byte[] PHOTO = bytes(HEADER
+			+ "<photos_upload_response" + NS + ">\n"
+			+ "  <pid>940915697041656</pid>\n"
+			+ "  <aid>940915667462717</aid>\n" + "  <owner>219074</owner>\n"
+			+ "  <src>http://ip002.facebook.com/v67/161/72/219074/s219074_31637752_5455.jpg</src>\n"
+			+ "  <src_big>http://ip002.facebook.com/v67/161/72/219074/n219074_31637752_5455.jpg</src_big>\n"
+			+ "  <src_small>http://ip002.facebook.com/v67/161/72/219074/t219074_31637752_5455.jpg</src_small>\n"
+			+ "  <link>http://www.facebook.com/photo.php?pid=31637752&amp;id=219074</link>\n"
+			+ "  <caption>Under the sunset</caption>\n"
+			+ "  <created>1172813418</created>\n"
+			+ "</photos_upload_response>");
+
+	private static final byte[] ERROR = bytes(HEADER + "<error_response"
+			+ NS + ">\n" + "  <error_code>5</error_code>\n"
+			+ "  <error_msg>Unauthorized source IP address (ip was: 10.1.2.3)</error_msg>\n"
+			+ "  <request_args list=\"true\">\n"
+			+ "    <arg><key>method</key><value>facebook.friends.get</value></arg>\n"
+			+ "    <arg><key>v</key><value>1.0</value></arg>\n"
+			+ "  </request_args>\n" + "</error_response>");
+
+	private static final int RESPONSES = 5;
+
+	private static final int NEW_READER = 0;
+	private static final int THREAD_READER = 1;
+	private static final int KEPT_HANDLERS = 2;
+
+	// handlers kept between responses
+	private final AuthCreateTokenHandler token = new AuthCreateTokenHandler();
+	private final AuthGetSessionHandler session = new AuthGetSessionHandler(
+			"key", "secret");
+	private final UserFragmentsHandler fragments = new UserFragmentsHandler();
+	private final PhotoHandler photo = new PhotoHandler();
+
+	public static void main(String[] args) throws Exception {
+		int responses = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+
+		ParseBenchmark benchmark = new ParseBenchmark();
+		benchmark.check();
+		for (int round = 0; round < 3; round++) {
+			benchmark.run("new reader", responses, NEW_READER);
+			benchmark.run("thread's reader", responses, THREAD_READER);
+			benchmark.run("thread's reader, kept handlers", responses,
+					KEPT_HANDLERS);
+		}
+		System.out.println("readers created: " + XmlReaders.getCreated());
+	}
+
+	private void check() throws Exception {
+		String expected = parseAll(NEW_READER);
+		for (int mode = THREAD_READER; mode <= KEPT_HANDLERS; mode++) {
+			for (int i = 0; i < 2; i++) { // again, after a reset
+				String actual = parseAll(mode);
+				if (!expected.equals(actual)) {
+					throw new IllegalStateException("mode " + mode
+							+ " read\n" + actual + "\nnot\n" + expected);
+				}
+			}
+		}
+		System.out.println("responses read the same: " + expected.length()
+				+ " chars");
+	}
+
+	/**
+	 * @return what was read from each of the recorded responses
+	 */
+	private String parseAll(int mode) throws Exception {
+		StringBuilder out = new StringBuilder();
+		for (int i = 0; i < RESPONSES; i++) {
+			out.append(parse(i, mode)).append('\n');
+		}
+		return out.toString();
+	}
+
+	private Object parse(int response, int mode) throws Exception {
+		boolean keep = mode == KEPT_HANDLERS;
+		switch (response) {
+		case 0: {
+			AuthCreateTokenHandler handler = keep ? token
+					: new AuthCreateTokenHandler();
+			parse(CREATE_TOKEN, handler, mode);
+			return handler.getAuthToken();
+		}
+		case 1: {
+			AuthGetSessionHandler handler = keep ? session
+					: new AuthGetSessionHandler("key", "secret");
+			parse(GET_SESSION, handler, mode);
+			return handler.getSessionResponse().getKey();
+		}
+		case 2: {
+			UserFragmentsHandler handler = keep ? fragments
+					: new UserFragmentsHandler();
+			parse(USERS, handler, mode);
+			return handler.getUsers().get(Long.valueOf(500000019L));
+		}
+		case 3: {
+			PhotoHandler handler = keep ? photo : new PhotoHandler();
+			parse(PHOTO, handler, mode);
+			return handler.getPhoto().getLink();
+		}
+		default: {
+			UserFragmentsHandler handler = keep ? fragments
+					: new UserFragmentsHandler();
+			parse(ERROR, handler, mode);
+			try {
+				handler.getUsers();
+				throw new IllegalStateException("no error read");
+			} catch (FacebookException fe) {
+				return fe.getCode() + " " + fe.getMessage();
+			}
+		}
+		}
+	}
+
+	private static void parse(byte[] response, DefaultHandler handler,
+			int mode) throws Exception {
+		InputStream in = new ByteArrayInputStream(response);
+		if (mode == NEW_READER) {
+			XMLReader xr = XMLReaderFactory.createXMLReader();
+			xr.setContentHandler(handler);
+			xr.setErrorHandler(handler);
+			xr.parse(new InputSource(in));
+		} else {
+			XmlReaders.parse(in, handler);
+		}
+	}
+
+	private void run(String name, int responses, int mode) throws Exception {
+		long bytes = Benchmarks.allocated();
+		long start = System.nanoTime();
+		int hash = 0;
+		for (int i = 0; i < responses; i++) {
+			hash += parse(i % RESPONSES, mode).hashCode();
+		}
+		long nanos = System.nanoTime() - start;
+		bytes = Benchmarks.allocated() - bytes;
+		System.out.println(name + ": " + (nanos / responses)
+				+ " ns/response"
+				+ (bytes < 0 ? "" : ", " + (bytes / responses)
+						+ " bytes/response") + " (" + hash + ")");
+	}
+
+	/**
+	 * A users.getInfo response for a few fields of some users.
+	 */
+	private static String users(int count) {
+		StringBuilder xml = new StringBuilder(HEADER);
+		xml.append("<users_getInfo_response").append(NS).append(
+				" list=\"true\">\n");
+		for (int i = 0; i < count; i++) {
+			xml.append("  <user>\n");
+			xml.append("    <uid>").append(500000000L + i).append("</uid>\n");
+			xml.append("    <name>User Number ").append(i).append(
+					"</name>\n");
+			xml.append("    <pic>http://profile.ak.facebook.com/profile5/")
+					.append(i).append("/pic/s").append(i).append(
+							"_6060.jpg</pic>\n");
+			xml.append("    <hometown_location>\n");
+			xml.append("      <city>Palo Alto</city>\n");
+			xml.append("      <state>CA</state>\n");
+			xml.append("      <country>United States</country>\n");
+			xml.append("      <zip>94303</zip>\n");
+			xml.append("    </hometown_location>\n");
+			xml.append("    <affiliations list=\"true\">\n");
+			xml.append("      <affiliation>\n");
+			xml.append("        <nid>50431648</nid>\n");
+			xml.append("        <name>Stanford</name>\n");
+			xml.append("      </affiliation>\n");
+			xml.append("    </affiliations>\n");
+			xml.append("  </user>\n");
+		}
+		xml.append("</users_getInfo_response>");
+		return xml.toString();
+	}
+
+	private static byte[] bytes(String s) {
+		try {
+			return s.getBytes("UTF-8");
+		} catch (java.io.UnsupportedEncodingException uee) {
+			throw new IllegalStateException(uee);
+		}
+	}
+}
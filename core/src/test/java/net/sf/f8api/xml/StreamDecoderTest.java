@@ -0,0 +1,265 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import junit.framework.AssertionFailedError;
+import junit.framework.TestCase;
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.model.ErrorResponse;
+import net.sf.f8api.model.Photo;
+import net.sf.f8api.model.User;
+
+public class StreamDecoderTest extends TestCase {
+	static final String USERS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<users_getInfo_response xmlns=\"http://api.facebook.com/1.0/\""
+			+ " xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" list=\"true\">"
+			+ "<user><uid>8055</uid><name>Dave Fetterman</name>"
+			+ "<hometown_location><city>Pittsburgh</city><zip/></hometown_location>"
+			+ "<affiliations list=\"true\">"
+			+ "<affiliation><nid>50431648</nid><name>Facebook</name></affiliation>"
+			+ "<affiliation><nid>16777217</nid><name>Caf\u00e9 \ud83d\ude00</name></affiliation>"
+			+ "</affiliations></user>"
+			+ "<user><uid>8056</uid><name> Ren&#233;e &amp; &#x1F600; </name>"
+			+ "<hometown_location xsi:nil=\"true\"/>"
+			+ "<affiliations list=\"true\"/></user>"
+			+ "</users_getInfo_response>";
+
+	static final String PHOTOS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<photos_get_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">"
+			+ "<photo><pid>34585991612804</pid><aid>34585963571485</aid>"
+			+ "<owner>1240077</owner><src>http://photos.example.com/s.jpg</src>"
+			+ "<link>http://www.facebook.com/photo.php?pid=1&amp;id=2</link>"
+			+ "<caption/><created>1132553361</created></photo>"
+			+ "</photos_get_response>";
+
+	static final String ERROR_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<error_response xmlns=\"http://api.facebook.com/1.0/\">"
+			+ "<error_code>100</error_code>"
+			+ "<error_msg>Invalid parameter</error_msg>"
+			+ "<request_args list=\"true\">"
+			+ "<arg><key>method</key><value>users.getInfo</value></arg>"
+			+ "<arg><key>uids</key><value>8055</value></arg>"
+			+ "</request_args></error_response>";
+
+	// the same responses as JSON: numbers quoted or not, null for nil
+	static final String USERS_JSON = "[{\"uid\":8055,\"name\":\"Dave Fetterman\","
+			+ "\"hometown_location\":{\"city\":\"Pittsburgh\",\"zip\":\"\"},"
+			+ "\"affiliations\":[{\"nid\":50431648,\"name\":\"Facebook\"},"
+			+ "{\"nid\":\"16777217\",\"name\":\"Caf\\u00e9 \\ud83d\\ude00\"}]},\n"
+			+ " {\"uid\":\"8056\",\"name\":\" Ren\u00e9e & \ud83d\ude00 \","
+			+ "\"hometown_location\":null,\"affiliations\":[]}]";
+
+	static final String PHOTOS_JSON = "[{\"pid\":\"34585991612804\","
+			+ "\"aid\":\"34585963571485\",\"owner\":1240077,"
+			+ "\"src\":\"http:\\/\\/photos.example.com\\/s.jpg\","
+			+ "\"link\":\"http://www.facebook.com/photo.php?pid=1&id=2\","
+			+ "\"caption\":\"\",\"created\":1132553361}]";
+
+	static final String ERROR_JSON = "{\"error_code\":100,"
+			+ "\"error_msg\":\"Invalid parameter\",\"request_args\":["
+			+ "{\"key\":\"method\",\"value\":\"users.getInfo\"},"
+			+ "{\"key\":\"uids\",\"value\":\"8055\"}]}";
+
+	static CloseCounting in(String body) throws IOException {
+		return new CloseCounting(body.getBytes("UTF-8"));
+	}
+
+	public void testUsers() throws Exception {
+		CloseCounting in = in(USERS_XML);
+		List<User> users = new UsersDecoder().decode(in);
+		assertEquals(1, in.closed);
+		assertEquals(2, users.size());
+
+		User dave = users.get(0);
+		assertEquals(8055, dave.getUid());
+		assertEquals("Dave Fetterman", dave.getName());
+		assertEquals("Pittsburgh", dave.getField("hometown_location.city"));
+		assertEquals("", dave.getField("hometown_location.zip"));
+		assertEquals("50431648", dave.getField("affiliations.0.nid"));
+		assertEquals("Facebook", dave.getField("affiliations.0.name"));
+		assertEquals("Caf\u00e9 \ud83d\ude00", dave
+				.getField("affiliations.1.name"));
+		assertNull(dave.getField("affiliations"));
+		assertNull(dave.getField("hometown_location"));
+	}
+
+	public void testNilAndEmptyList() throws Exception {
+		User renee = new UsersDecoder().decode(in(USERS_XML)).get(1);
+		assertEquals(8056, renee.getUid());
+		assertEquals("Ren\u00e9e & \ud83d\ude00", renee.getName());
+		// a nil field is there, empty, as is an empty list
+		assertEquals("", renee.getField("hometown_location"));
+		assertEquals("", renee.getField("affiliations"));
+		assertEquals(3, renee.getFields().size());
+	}
+
+	public void testPhotos() throws Exception {
+		List<Photo> photos = new PhotosDecoder().decode(in(PHOTOS_XML));
+		assertEquals(1, photos.size());
+		Photo photo = photos.get(0);
+		assertEquals(34585991612804L, photo.getId());
+		assertEquals(34585963571485L, photo.getAlbumId());
+		assertEquals(1240077, photo.getOwnerId());
+		assertEquals("http://photos.example.com/s.jpg", photo.getUrl());
+		assertEquals("http://www.facebook.com/photo.php?pid=1&id=2", photo
+				.getLink());
+		assertEquals("", photo.getCaption());
+		assertNull(photo.getUrlBig());
+		assertEquals(1132553361000L, photo.getCreated().getTime());
+	}
+
+	public void testEmptyList() throws Exception {
+		CloseCounting in = in("<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+				+ "<photos_get_response xmlns=\"http://api.facebook.com/1.0/\""
+				+ " list=\"true\"/>");
+		assertTrue(new PhotosDecoder().decode(in).isEmpty());
+		assertEquals(1, in.closed);
+	}
+
+	public void testCursor() throws Exception {
+		CloseCounting in = in(USERS_XML);
+		Cursor<User> cursor = new UsersDecoder().open(in);
+		assertEquals(8055, cursor.next().getUid());
+		cursor.close();
+		assertEquals(1, in.closed);
+		assertNull(cursor.next());
+	}
+
+	public void testErrorResponse() throws Exception {
+		CloseCounting in = in(ERROR_XML);
+		try {
+			new UsersDecoder().decode(in);
+			fail();
+		} catch (FacebookException fe) {
+			assertEquals(100, fe.getCode());
+			assertEquals("Invalid parameter", fe.getErrorResponse()
+					.getMessage());
+			assertEquals("users.getInfo", fe.getErrorResponse().getParams()
+					.get("method"));
+			assertEquals("8055", fe.getErrorResponse().getParams().get(
+					"uids"));
+		}
+		assertEquals(1, in.closed);
+	}
+
+	public void testMalformed() throws Exception {
+		CloseCounting in = in("<users_getInfo_response><user><uid>1</uid>");
+		try {
+			new UsersDecoder().decode(in);
+			fail();
+		} catch (IOException expected) {
+		}
+		// the parser may close it too, at the end it didn't expect
+		assertTrue(in.closed > 0);
+	}
+
+	public void testUsersJson() throws Exception {
+		CloseCounting in = in(USERS_JSON);
+		List<User> json = new UsersDecoder().decodeJson(in);
+		assertEquals(1, in.closed);
+		List<User> xml = new UsersDecoder().decode(in(USERS_XML));
+		assertEquals(2, json.size());
+		// the same uids and fields, in the same order
+		assertEquals(xml.toString(), json.toString());
+	}
+
+	public void testPhotosJson() throws Exception {
+		Photo xml = new PhotosDecoder().decode(in(PHOTOS_XML)).get(0);
+		Photo json = new PhotosDecoder().decodeJson(in(PHOTOS_JSON)).get(0);
+		assertEquals(xml.getId(), json.getId());
+		assertEquals(xml.getAlbumId(), json.getAlbumId());
+		assertEquals(xml.getOwnerId(), json.getOwnerId());
+		assertEquals(xml.getUrl(), json.getUrl());
+		assertEquals(xml.getUrlBig(), json.getUrlBig());
+		assertEquals(xml.getLink(), json.getLink());
+		assertEquals(xml.getCaption(), json.getCaption());
+		assertEquals(xml.getCreated(), json.getCreated());
+	}
+
+	public void testEmptyListJson() throws Exception {
+		CloseCounting in = in("[]");
+		assertTrue(new PhotosDecoder().decodeJson(in).isEmpty());
+		assertEquals(1, in.closed);
+		// an empty list can come as an empty object
+		assertTrue(new PhotosDecoder().decodeJson(in("{}")).isEmpty());
+	}
+
+	public void testCursorJson() throws Exception {
+		CloseCounting in = in(USERS_JSON);
+		Cursor<User> cursor = new UsersDecoder().openJson(in);
+		assertEquals(8055, cursor.next().getUid());
+		assertEquals(8056, cursor.next().getUid());
+		assertNull(cursor.next());
+		cursor.close();
+		assertEquals(1, in.closed);
+	}
+
+	public void testErrorResponseJson() throws Exception {
+		CloseCounting in = in(ERROR_JSON);
+		try {
+			new UsersDecoder().decodeJson(in);
+			fail();
+		} catch (FacebookException fe) {
+			// the same error as the XML's
+			ErrorResponse xml = errorOf(ERROR_XML);
+			assertEquals(xml.getCode(), fe.getCode());
+			assertEquals(xml.getMessage(), fe.getErrorResponse().getMessage());
+			assertEquals(xml.getParams(), fe.getErrorResponse().getParams());
+			assertEquals(2, xml.getParams().size());
+		}
+		assertEquals(1, in.closed);
+	}
+
+	public void testMalformedJson() throws Exception {
+		CloseCounting in = in("[{\"uid\":1,\"name\":");
+		try {
+			new UsersDecoder().decodeJson(in);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(1, in.closed);
+	}
+
+	private static ErrorResponse errorOf(String xml) throws IOException {
+		try {
+			new UsersDecoder().decode(in(xml));
+		} catch (FacebookException fe) {
+			return fe.getErrorResponse();
+		}
+		throw new AssertionFailedError("no error");
+	}
+
+	/**
+	 * Counts its closes, to see decoders close what they read.
+	 */
+	static class CloseCounting extends ByteArrayInputStream {
+		int closed;
+
+		CloseCounting(byte[] body) {
+			super(body);
+		}
+
+		public void close() throws IOException {
+			closed++;
+			super.close();
+		}
+	}
+}
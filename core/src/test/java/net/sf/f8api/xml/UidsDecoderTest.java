@@ -0,0 +1,161 @@
+/**
+ * Copyright 2007 Jason Thrasher
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *   
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package net.sf.f8api.xml;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+import net.sf.f8api.FacebookException;
+import net.sf.f8api.xml.StreamDecoderTest.CloseCounting;
+
+public class UidsDecoderTest extends TestCase {
+	static final String FRIENDS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<friends_get_response xmlns=\"http://api.facebook.com/1.0/\" list=\"true\">"
+			+ "<uid>222333</uid><uid>\n  1240077 </uid><uid/>"
+			+ "<uid>9223372036854775807</uid>"
+			+ "</friends_get_response>";
+
+	static final String MEMBERS_XML = "<?xml version=\"1.0\" encoding=\"UTF-8\"?>"
+			+ "<events_getMembers_response xmlns=\"http://api.facebook.com/1.0/\">"
+			+ "<attending list=\"true\"><uid>222333</uid><uid>222335</uid></attending>"
+			+ "<unsure list=\"true\"><uid>1240079</uid></unsure>"
+			+ "<declined list=\"true\"/>"
+			+ "<not_replied list=\"true\"><uid>1240080</uid></not_replied>"
+			+ "</events_getMembers_response>";
+
+	static final String FRIENDS_JSON = "[222333, \"1240077\", \"\","
+			+ " 9223372036854775807]";
+
+	static final String MEMBERS_JSON = "{\"attending\":[222333,222335],"
+			+ "\"unsure\":[\"1240079\"],\"declined\":{},"
+			+ "\"not_replied\":[1240080]}";
+
+	public void testFriends() throws Exception {
+		CloseCounting in = StreamDecoderTest.in(FRIENDS_XML);
+		assertEquals(Arrays.asList(new Long[] { 222333L, 1240077L,
+				Long.MAX_VALUE }), new UidsDecoder().decode(in));
+		assertEquals(1, in.closed);
+		assertTrue(Arrays.equals(new long[] { 222333L, 1240077L,
+				Long.MAX_VALUE }, new UidsDecoder()
+				.decodeUids(StreamDecoderTest.in(FRIENDS_XML))));
+	}
+
+	public void testList() throws Exception {
+		assertTrue(Arrays.equals(new long[] { 1240079L }, new UidsDecoder(
+				"unsure").decodeUids(StreamDecoderTest.in(MEMBERS_XML))));
+		assertTrue(Arrays.equals(new long[] { 222333L, 222335L },
+				new UidsDecoder("attending").decodeUids(StreamDecoderTest
+						.in(MEMBERS_XML))));
+		assertEquals(0, new UidsDecoder("declined").decodeUids(
+				StreamDecoderTest.in(MEMBERS_XML)).length);
+		assertEquals(0, new UidsDecoder("maybe").decodeUids(
+				StreamDecoderTest.in(MEMBERS_XML)).length);
+	}
+
+	public void testFriendsJson() throws Exception {
+		CloseCounting in = StreamDecoderTest.in(FRIENDS_JSON);
+		assertTrue(Arrays.equals(new UidsDecoder()
+				.decodeUids(StreamDecoderTest.in(FRIENDS_XML)),
+				new UidsDecoder().decodeUidsJson(in)));
+		assertEquals(1, in.closed);
+		Cursor<Long> cursor = new UidsDecoder().openJson(StreamDecoderTest
+				.in(FRIENDS_JSON));
+		assertEquals(Long.valueOf(222333L), cursor.next());
+		cursor.close();
+	}
+
+	public void testListJson() throws Exception {
+		String[] lists = { "attending", "unsure", "declined", "not_replied",
+				"maybe" };
+		for (int i = 0; i < lists.length; i++) {
+			UidsDecoder decoder = new UidsDecoder(lists[i]);
+			assertTrue(lists[i], Arrays.equals(decoder
+					.decodeUids(StreamDecoderTest.in(MEMBERS_XML)), decoder
+					.decodeUidsJson(StreamDecoderTest.in(MEMBERS_JSON))));
+		}
+		CloseCounting in = StreamDecoderTest.in(MEMBERS_JSON);
+		assertEquals(0, new UidsDecoder("maybe").decodeUidsJson(in).length);
+		assertEquals(1, in.closed);
+	}
+
+	public void testMany() throws Exception {
+		StringBuilder xml = new StringBuilder(
+				"<friends_get_response list=\"true\">");
+		for (int i = 1; i <= 1000; i++) {
+			xml.append("<uid>").append(i).append("</uid>");
+		}
+		long[] uids = new UidsDecoder().decodeUids(StreamDecoderTest.in(xml
+				.append("</friends_get_response>").toString()));
+		assertEquals(1000, uids.length);
+		assertEquals(1, uids[0]);
+		assertEquals(1000, uids[999]);
+	}
+
+	public void testOverflow() throws Exception {
+		CloseCounting in = StreamDecoderTest
+				.in("<friends_get_response list=\"true\">"
+						+ "<uid>9223372036854775808</uid></friends_get_response>");
+		try {
+			new UidsDecoder().decodeUids(in);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(1, in.closed);
+	}
+
+	public void testOverflowJson() throws Exception {
+		CloseCounting in = StreamDecoderTest.in("[1, 9223372036854775808]");
+		try {
+			new UidsDecoder().decodeUidsJson(in);
+			fail();
+		} catch (IOException expected) {
+		}
+		assertEquals(1, in.closed);
+	}
+
+	public void testNotANumber() throws Exception {
+		try {
+			new UidsDecoder().decode(StreamDecoderTest
+					.in("<friends_get_response list=\"true\">"
+							+ "<uid>12a</uid></friends_get_response>"));
+			fail();
+		} catch (IOException expected) {
+		}
+	}
+
+	public void testErrorResponse() throws Exception {
+		CloseCounting in = StreamDecoderTest.in(StreamDecoderTest.ERROR_XML);
+		try {
+			new UidsDecoder().decodeUids(in);
+			fail();
+		} catch (FacebookException fe) {
+			assertEquals(100, fe.getCode());
+		}
+		assertEquals(1, in.closed);
+	}
+
+	public void testErrorResponseJson() throws Exception {
+		CloseCounting in = StreamDecoderTest.in(StreamDecoderTest.ERROR_JSON);
+		try {
+			new UidsDecoder("attending").decodeUidsJson(in);
+			fail();
+		} catch (FacebookException fe) {
+			assertEquals(100, fe.getCode());
+		}
+		assertEquals(1, in.closed);
+	}
+}